@@ -0,0 +1,68 @@
+package com.mindmari.PaintApp;
+
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+//Очистка холста, как в DrawingView.clearAll, не создаёт новых Bitmap:
+//плитки уходят в историю без копирования, а вытесненные из истории возвращаются в BitmapPool
+//и достаются следующему штриху. Нужны настоящие Bitmap, поэтому тест идёт на устройстве
+@RunWith(AndroidJUnit4.class)
+public class BitmapPoolClearTest
+{
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 2340;
+    //Циклов, за которые история доходит до бюджета и запас наполняется
+    private static final int WARM_UP_CYCLES = 10;
+    private static final int CYCLES = 100;
+
+    private final Paint paint = new Paint();
+    //Штрих через несколько плиток
+    private final Rect stroke = new Rect(100, 100, 700, 600);
+    //----------------------------------------------------------------------------------------------
+    @Test
+    public void hundredClearsAllocateNoBitmaps()
+    {
+        BitmapPool pool = BitmapPool.getShared();
+        TiledCanvas canvas = new TiledCanvas(WIDTH, HEIGHT, Color.WHITE, null);
+        UndoHistory history = new UndoHistory();
+        history.setBudgetMb(2);
+        paint.setStrokeWidth(20);
+
+        for (int i = 0; i < WARM_UP_CYCLES; i++) drawAndClear(canvas, history);
+        long created = pool.getCreatedCount();
+        long reused = pool.getReusedCount();
+        for (int i = 0; i < CYCLES; i++) drawAndClear(canvas, history);
+
+        assertEquals("bitmaps created", 0, pool.getCreatedCount() - created);
+        //Каждый штрих брал плитки из запаса
+        assertTrue(pool.getReusedCount() - reused >= CYCLES);
+        canvas.release();
+        history.clear();
+    }
+    //----------------------------------------------------------------------------------------------
+    //Нарисовать штрих и очистить холст, как это делают кисть и DrawingView.clearAll
+    private void drawAndClear(TiledCanvas canvas, UndoHistory history)
+    {
+        history.begin(canvas);
+        history.touch(stroke);
+        canvas.draw(stroke, c -> c.drawLine(stroke.left, stroke.top, stroke.right, stroke.bottom, paint));
+        history.commit();
+
+        history.begin(canvas);
+        history.touchAll();
+        canvas.fill(Color.WHITE);
+        history.commit();
+        //Кадр выведен: отложенные плитки можно отдавать снова
+        BitmapPool.getShared().onFrame();
+    }
+    //----------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,123 @@
+package com.mindmari.PaintApp;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.LinearGradient;
+import android.graphics.Paint;
+import android.graphics.Shader;
+import android.net.Uri;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+//Сколько памяти на самом деле занимает загрузка фото 48 Мп через ImageImporter.decode.
+//Пока идёт декодирование, отдельный поток следит за занятой памятью: native (там пиксели Bitmap с Android 8)
+//и Java-куча (там они до Android 8). Нужен настоящий декодер JPEG, поэтому тест идёт на устройстве
+@RunWith(AndroidJUnit4.class)
+public class ImageImportMemoryTest
+{
+    private static final String TAG = "ImageImportMemoryTest";
+    private static final int PHOTO_WIDTH = 8000;
+    private static final int PHOTO_HEIGHT = 6000;
+    //Холст телефона 1080x2340
+    private static final int CANVAS_W = 1080;
+    private static final int CANVAS_H = 2340;
+
+    private Context context;
+    private File photo;
+    //Наибольшая занятая память, пока идёт декодирование
+    private volatile long peakBytes;
+    private volatile boolean sampling;
+    //----------------------------------------------------------------------------------------------
+    @Before
+    public void setUp() throws IOException
+    {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        photo = new File(context.getCacheDir(), "import_48mp.jpg");
+        //Фото собирается в RGB_565, чтобы сама подготовка заняла вдвое меньше памяти
+        Bitmap source = Bitmap.createBitmap(PHOTO_WIDTH, PHOTO_HEIGHT, Bitmap.Config.RGB_565);
+        Paint paint = new Paint();
+        paint.setShader(new LinearGradient(0, 0, PHOTO_WIDTH, PHOTO_HEIGHT, Color.BLUE, Color.YELLOW, Shader.TileMode.CLAMP));
+        new Canvas(source).drawPaint(paint);
+        try (OutputStream out = new FileOutputStream(photo))
+        {
+            assertTrue(source.compress(Bitmap.CompressFormat.JPEG, 90, out));
+        }
+        source.recycle();
+    }
+
+    @After
+    public void tearDown()
+    {
+        photo.delete();
+    }
+    //----------------------------------------------------------------------------------------------
+    @Test
+    public void importOf48MpPhotoStaysUnderHalfOfFullCopy() throws Exception
+    {
+        BitmapPool.getShared().clear();
+        Runtime.getRuntime().gc();
+        long baseline = usedBytes();
+        peakBytes = baseline;
+        sampling = true;
+        Thread sampler = new Thread(() -> {
+            while (sampling)
+            {
+                peakBytes = Math.max(peakBytes, usedBytes());
+                SystemClock.sleep(1);
+            }
+        });
+        sampler.start();
+
+        Bitmap bitmap;
+        try
+        {
+            bitmap = ImageImporter.decode(context.getContentResolver(), Uri.fromFile(photo), CANVAS_W, CANVAS_H);
+        } finally
+        {
+            sampling = false;
+            sampler.join();
+        }
+        long peak = Math.max(peakBytes, usedBytes()) - baseline;
+
+        //Фото 4:3 закрывает холст по высоте
+        assertEquals(3120, bitmap.getWidth());
+        assertEquals(CANVAS_H, bitmap.getHeight());
+        long fullBytes = (long) PHOTO_WIDTH * PHOTO_HEIGHT * 4;
+        long canvasBytes = (long) bitmap.getWidth() * bitmap.getHeight() * 4;
+        BitmapPool.getShared().release(bitmap);
+        BitmapPool.getShared().clear();
+
+        Log.i(TAG, "peak " + peak / (1024 * 1024) + " MB, result " + canvasBytes / (1024 * 1024)
+                + " MB, full photo " + fullBytes / (1024 * 1024) + " MB");
+        //Полноразмерная копия фото (192 МБ) ни в какой момент не появляется:
+        //в памяти прореженная вдвое картинка и картинка размером с холст
+        assertTrue("peak " + peak / (1024 * 1024) + " MB", peak < fullBytes / 2);
+    }
+    //----------------------------------------------------------------------------------------------
+    //Занятая память: native и Java-куча
+    private static long usedBytes()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        return Debug.getNativeHeapAllocatedSize() + runtime.totalMemory() - runtime.freeMemory();
+    }
+    //----------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,100 @@
+package com.mindmari.PaintApp;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Rect;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+//Слой с особым режимом наложения над активным: на экране он должен выглядеть так же,
+//как в сохранённой картинке. Режимы PorterDuff считает настоящий Canvas, поэтому тест идёт на устройстве
+@RunWith(AndroidJUnit4.class)
+public class LayerBlendTest
+{
+    private static final int SIZE = TiledCanvas.TILE_SIZE * 2;
+    private static final int PAINT_COLOR = 0xFFC08040;
+    private static final int GRAY = 0xFF808080;
+    //Допуск на округление при наложении
+    private static final int TOLERANCE = 2;
+
+    private LayerStack stack;
+    private Bitmap screen;
+    private final Rect visible = new Rect(0, 0, SIZE, SIZE);
+    //----------------------------------------------------------------------------------------------
+    @Before
+    public void setUp()
+    {
+        stack = new LayerStack(SIZE, SIZE, Color.WHITE, null);
+        stack.get(0).getCanvas().fill(PAINT_COLOR);
+        int top = stack.addLayer();
+        stack.get(top).getCanvas().fill(GRAY);
+        //Активным остаётся нижний слой, серый слой лежит над ним
+        stack.setActive(0);
+        screen = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+    }
+
+    @After
+    public void tearDown()
+    {
+        stack.release();
+        screen.recycle();
+    }
+    //----------------------------------------------------------------------------------------------
+    @Test
+    public void multiplyAboveActiveLayerDarkensIt()
+    {
+        setTopBlendMode(Layer.BLEND_MULTIPLY);
+        int shown = drawScreen();
+        //Умножение на серый вдвое затемняет каждый канал, а не делает слой прозрачным
+        assertEquals(0xFF, Color.alpha(shown));
+        assertEquals(Color.red(PAINT_COLOR) / 2, Color.red(shown), TOLERANCE);
+        assertEquals(Color.green(PAINT_COLOR) / 2, Color.green(shown), TOLERANCE);
+        assertEquals(Color.blue(PAINT_COLOR) / 2, Color.blue(shown), TOLERANCE);
+    }
+
+    @Test
+    public void screenMatchesExportInEveryBlendMode()
+    {
+        int[] modes = {Layer.BLEND_NORMAL, Layer.BLEND_MULTIPLY, Layer.BLEND_SCREEN, Layer.BLEND_ADD,
+                Layer.BLEND_OVERLAY, Layer.BLEND_DARKEN, Layer.BLEND_LIGHTEN};
+        for (int mode : modes)
+        {
+            setTopBlendMode(mode);
+            int shown = drawScreen();
+            Bitmap exported = stack.toBitmap();
+            int expected = exported.getPixel(SIZE / 2, SIZE / 2);
+            BitmapPool.getShared().release(exported);
+            assertColor("blend mode " + mode, expected, shown);
+        }
+    }
+    //----------------------------------------------------------------------------------------------
+    private void setTopBlendMode(int mode)
+    {
+        stack.get(1).setBlendMode(mode);
+        stack.invalidateComposites();
+    }
+    //Вывести стопку как DrawingView и вернуть цвет в середине
+    private int drawScreen()
+    {
+        screen.eraseColor(Color.TRANSPARENT);
+        stack.drawVisible(new Canvas(screen), visible, 0);
+        return screen.getPixel(SIZE / 2, SIZE / 2);
+    }
+
+    private static void assertColor(String message, int expected, int actual)
+    {
+        assertEquals(message + " alpha", Color.alpha(expected), Color.alpha(actual), TOLERANCE);
+        assertEquals(message + " red", Color.red(expected), Color.red(actual), TOLERANCE);
+        assertEquals(message + " green", Color.green(expected), Color.green(actual), TOLERANCE);
+        assertEquals(message + " blue", Color.blue(expected), Color.blue(actual), TOLERANCE);
+    }
+    //----------------------------------------------------------------------------------------------
+}
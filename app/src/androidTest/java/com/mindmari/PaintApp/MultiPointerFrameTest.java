@@ -0,0 +1,155 @@
+package com.mindmari.PaintApp;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertTrue;
+
+//Время кадра при рисовании десятью пальцами против одного пальца. Кадр - то же, что делает DrawingView:
+//точки всех пальцев, пометка областей к перерисовке, растеризация новых сегментов одной пачкой
+//(rasterizePointers) и вывод холста на экран (drawFrame). Нужны настоящие Canvas и Bitmap,
+//поэтому замер идёт на устройстве
+@RunWith(AndroidJUnit4.class)
+public class MultiPointerFrameTest
+{
+    private static final String TAG = "MultiPointerFrameTest";
+    //Экран телефона
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 2340;
+    //Сколько точек касания приходит на палец за кадр 60 Гц
+    private static final int POINTS_PER_FRAME = 4;
+    //Сколько кадров длится жест, затем пальцы поднимаются и касаются снова
+    private static final int GESTURE_FRAMES = 120;
+    private static final int WARM_UP_FRAMES = 120;
+    private static final int FRAMES = 600;
+    //Во сколько раз кадр десяти пальцев может быть дольше кадра одного пальца
+    private static final double MAX_RATIO = 1.5;
+
+    private TiledCanvas canvas;
+    private Bitmap screen;
+    private Canvas screenCanvas;
+    private final Paint paint = new Paint(Paint.DITHER_FLAG);
+    private final DirtyRegion dirtyRegion = new DirtyRegion();
+    private final Rect visible = new Rect(0, 0, WIDTH, HEIGHT);
+    private final Rect pointerRect = new Rect();
+    private PointerStroke[] pointers;
+    private PointerStroke rasterizing;
+    private final TiledCanvas.DrawOp pointerOp = c -> {
+        c.clipRect(pointerRect);
+        rasterizing.drawPending(c, paint);
+    };
+    //Номер точки в жесте и время касания
+    private int step;
+    private long time;
+    //----------------------------------------------------------------------------------------------
+    @Before
+    public void setUp()
+    {
+        canvas = new TiledCanvas(WIDTH, HEIGHT, Color.WHITE, null);
+        screen = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        screenCanvas = new Canvas(screen);
+        paint.setColor(Color.BLACK);
+        paint.setAntiAlias(true);
+        paint.setStyle(Paint.Style.STROKE);
+        paint.setStrokeJoin(Paint.Join.ROUND);
+        paint.setStrokeCap(Paint.Cap.ROUND);
+        paint.setStrokeWidth(12);
+    }
+
+    @After
+    public void tearDown()
+    {
+        canvas.release();
+        screen.recycle();
+    }
+    //----------------------------------------------------------------------------------------------
+    @Test
+    public void tenPointersStayWithinBudgetOfOnePointer()
+    {
+        long one = medianFrameNanos(1);
+        long ten = medianFrameNanos(10);
+        Log.i(TAG, "median frame: 1 pointer " + one / 1000 + " us, 10 pointers " + ten / 1000 + " us");
+        assertTrue("10 pointers " + ten / 1000 + " us vs 1 pointer " + one / 1000 + " us",
+                ten <= one * MAX_RATIO);
+    }
+    //----------------------------------------------------------------------------------------------
+    //Медиана времени кадра при count пальцах
+    private long medianFrameNanos(int count)
+    {
+        pointers = new PointerStroke[count];
+        for (int p = 0; p < count; p++) pointers[p] = new PointerStroke();
+        time = 0;
+        for (int i = 0; i < WARM_UP_FRAMES; i++) frame(i);
+        long[] times = new long[FRAMES];
+        for (int i = 0; i < FRAMES; i++)
+        {
+            long start = System.nanoTime();
+            frame(i);
+            times[i] = System.nanoTime() - start;
+        }
+        for (PointerStroke pointer : pointers) pointer.release();
+        Arrays.sort(times);
+        return times[FRAMES / 2];
+    }
+    //Один кадр: касания всех пальцев, растеризация их новых сегментов и вывод холста
+    private void frame(int index)
+    {
+        if (index % GESTURE_FRAMES == 0)
+        {
+            step = 0;
+            for (int p = 0; p < pointers.length; p++)
+            {
+                pointers[p].release();
+                pointers[p].start(p, touchX(step), touchY(p, step), time, 1, false, paint.getStrokeWidth());
+            }
+        }
+        for (int i = 0; i < POINTS_PER_FRAME; i++)
+        {
+            step++;
+            time += 4;
+            for (int p = 0; p < pointers.length; p++) pointers[p].add(touchX(step), touchY(p, step), time, 1);
+        }
+        for (PointerStroke pointer : pointers)
+        {
+            if (pointer.computePendingBounds(pointerRect)) dirtyRegion.add(pointerRect);
+        }
+
+        for (PointerStroke pointer : pointers)
+        {
+            if (!pointer.computePendingBounds(pointerRect)) continue;
+            pointer.preparePending();
+            rasterizing = pointer;
+            canvas.draw(pointerRect, pointerOp);
+            pointer.markRasterized();
+        }
+        rasterizing = null;
+        canvas.drawVisible(screenCanvas, visible);
+        dirtyRegion.onFrame(WIDTH, HEIGHT);
+        BitmapPool.getShared().onFrame();
+    }
+    //----------------------------------------------------------------------------------------------
+    //Пальцы рисуют волны в своих полосах доски, жест проходит её по ширине
+    private static float touchX(int step)
+    {
+        return 40 + step * 2;
+    }
+
+    private static float touchY(int pointer, int step)
+    {
+        return 120 + pointer * 210 + 40 * (float) Math.sin(step * 0.1);
+    }
+    //----------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,119 @@
+package com.mindmari.PaintApp;
+
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertTrue;
+
+//Сколько отпечатков в секунду кисть ставит и рисует на холсте. Кадр - то же, что делает DrawingView
+//для штриха стилуса: точки за кадр, расстановка отпечатков и их рисование по задетым плиткам.
+//Отпечатки - настоящие Bitmap, поэтому замер идёт на устройстве
+@RunWith(AndroidJUnit4.class)
+public class StampRateTest
+{
+    private static final String TAG = "StampRateTest";
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 2340;
+    private static final float BRUSH_WIDTH = 40;
+    //Сколько точек касания приходит за кадр 60 Гц
+    private static final int POINTS_PER_FRAME = 4;
+    //Штрих длится две секунды, затем стилус поднимается и касается снова
+    private static final int STROKE_FRAMES = 120;
+    private static final int WARM_UP_FRAMES = 240;
+    private static final int FRAMES = 1200;
+    //Десять быстрых пальцев ставят около 7000 отпечатков в секунду.
+    //Их рисование должно занимать не больше трети кадра
+    private static final double MIN_STAMPS_PER_SECOND = 20_000;
+
+    private TiledCanvas canvas;
+    private final Paint paint = new Paint(Paint.DITHER_FLAG);
+    private final PointerStroke pointer = new PointerStroke();
+    private final Rect pointerRect = new Rect();
+    private final TiledCanvas.DrawOp pointerOp = c -> {
+        c.clipRect(pointerRect);
+        pointer.drawPending(c, paint);
+    };
+    //Номер точки в штрихе и время касания
+    private int step;
+    private long time;
+    //----------------------------------------------------------------------------------------------
+    @Before
+    public void setUp()
+    {
+        canvas = new TiledCanvas(WIDTH, HEIGHT, Color.WHITE, null);
+        paint.setColor(Color.BLACK);
+        paint.setAntiAlias(true);
+        paint.setFilterBitmap(true);
+    }
+
+    @After
+    public void tearDown()
+    {
+        pointer.release();
+        canvas.release();
+    }
+    //----------------------------------------------------------------------------------------------
+    @Test
+    public void stampRateLeavesRoomForTenPointers()
+    {
+        for (int i = 0; i < WARM_UP_FRAMES; i++) frame(i);
+        long stamps = pointer.getStampCount();
+        long start = System.nanoTime();
+        for (int i = 0; i < FRAMES; i++) frame(i);
+        long nanos = System.nanoTime() - start;
+        stamps = pointer.getStampCount() - stamps;
+
+        double perSecond = stamps * 1e9 / nanos;
+        Log.i(TAG, stamps + " stamps in " + nanos / 1_000_000 + " ms, " + Math.round(perSecond) + " stamps/s");
+        assertTrue(Math.round(perSecond) + " stamps/s", perSecond >= MIN_STAMPS_PER_SECOND);
+    }
+    //----------------------------------------------------------------------------------------------
+    //Один кадр: точки стилуса, расстановка и рисование их отпечатков
+    private void frame(int index)
+    {
+        int stroke = index / STROKE_FRAMES;
+        if (index % STROKE_FRAMES == 0)
+        {
+            step = 0;
+            pointer.release();
+            pointer.start(0, touchX(step), touchY(stroke, step), time, pressure(step), true, BRUSH_WIDTH);
+        }
+        for (int i = 0; i < POINTS_PER_FRAME; i++)
+        {
+            step++;
+            time += 4;
+            pointer.add(touchX(step), touchY(stroke, step), time, pressure(step));
+        }
+        if (!pointer.computePendingBounds(pointerRect)) return;
+        pointer.preparePending();
+        canvas.draw(pointerRect, pointerOp);
+        pointer.markRasterized();
+        BitmapPool.getShared().onFrame();
+    }
+    //----------------------------------------------------------------------------------------------
+    //Быстрые волны поперёк экрана, каждый штрих ниже предыдущего; нажим плавно меняется
+    private static float touchX(int step)
+    {
+        return 60 + step * 2;
+    }
+
+    private static float touchY(int stroke, int step)
+    {
+        return 100 + (stroke % 10) * 220 + 60 * (float) Math.sin(step * 0.08);
+    }
+
+    private static float pressure(int step)
+    {
+        return 0.6f + 0.4f * (float) Math.sin(step * 0.02);
+    }
+    //----------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,95 @@
+package com.mindmari.PaintApp;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.Rect;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+//Форматы хранения плиток: FORMAT_AUTO не огрубляет цвета, как RGB_565, а только упаковывает
+//вытесненные штриховые плитки. Нужны настоящие Bitmap и сжатие PNG, поэтому тест идёт на устройстве
+@RunWith(AndroidJUnit4.class)
+public class TiledCanvasFormatTest
+{
+    private static final int TILE = TiledCanvas.TILE_SIZE;
+    //Расхождение канала у упакованной плитки (TiledCanvas.PACK_TOLERANCE)
+    private static final int PACK_TOLERANCE = 2;
+    //Несжатая плитка ARGB_8888
+    private static final long TILE_BYTES = (long) TILE * TILE * 4;
+
+    private TiledCanvas canvas;
+    private final Rect gradientTile = new Rect(0, 0, TILE, TILE);
+    private final Rect strokeTile = new Rect(TILE, 0, TILE * 2, TILE);
+    //----------------------------------------------------------------------------------------------
+    @Before
+    public void setUp()
+    {
+        canvas = new TiledCanvas(TILE * 2, TILE * 2, Color.WHITE, null);
+    }
+
+    @After
+    public void tearDown()
+    {
+        canvas.release();
+    }
+    //----------------------------------------------------------------------------------------------
+    @Test
+    public void onlyRgb565FormatUsesRgb565Tiles()
+    {
+        canvas.setPixelFormat(TiledCanvas.FORMAT_AUTO);
+        assertEquals(Bitmap.Config.ARGB_8888, canvas.getTileConfig());
+        canvas.setPixelFormat(TiledCanvas.FORMAT_RGB_565);
+        assertEquals(Bitmap.Config.RGB_565, canvas.getTileConfig());
+    }
+
+    @Test
+    public void autoKeepsGradientExactAndPacksStroke()
+    {
+        canvas.setPixelFormat(TiledCanvas.FORMAT_AUTO);
+        //Сглаженная чёрная линия на белом: покрытие убывает от середины линии
+        int[] stroke = new int[TILE * TILE];
+        for (int y = 0; y < TILE; y++)
+        {
+            for (int x = 0; x < TILE; x++)
+            {
+                int coverage = Math.max(0, 255 - Math.abs(x - y) * 60);
+                stroke[y * TILE + x] = 0xFF000000 | (255 - (255 * coverage + 127) / 255) * 0x010101;
+            }
+        }
+        canvas.writeRegion(stroke, strokeTile);
+        int[] gradient = new int[TILE * TILE];
+        for (int y = 0; y < TILE; y++)
+        {
+            for (int x = 0; x < TILE; x++) gradient[y * TILE + x] = 0xFF000000 | x << 16 | y << 8 | (x + y) / 2;
+        }
+        canvas.writeRegion(gradient, gradientTile);
+
+        //Бюджет одной плитки: вытесняется штриховая плитка, записанная раньше.
+        //Двухцветным плиткам достаётся четверть бюджета - как раз одна плитка ALPHA_8
+        canvas.setMemoryBudget(TILE_BYTES, TiledCanvas.DEFAULT_COMPRESSED_BYTES);
+        assertEquals(TILE * TILE, canvas.getPackedBytes());
+
+        int[] pixels = new int[TILE * TILE];
+        canvas.readRegion(pixels, strokeTile);
+        for (int i = 0; i < pixels.length; i++)
+        {
+            for (int s = 0; s <= 24; s += 8)
+            {
+                assertEquals("pixel " + i, (stroke[i] >> s) & 0xFF, (pixels[i] >> s) & 0xFF, PACK_TOLERANCE);
+            }
+        }
+        //Чтение штриховой плитки вытеснило градиент: он не двухцветный и хранится в PNG без потерь
+        canvas.readRegion(pixels, gradientTile);
+        assertArrayEquals(gradient, pixels);
+    }
+    //----------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,118 @@
+package com.mindmari.PaintApp;
+
+import android.graphics.Color;
+import android.graphics.Rect;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+//Выгрузка плиток на диск: у каждого холста своя папка, папки прошлых запусков удаляются,
+//а потерянный файл выгрузки не превращается молча в прозрачную плитку.
+//Сжатие плиток в PNG нужно настоящее, поэтому тест идёт на устройстве
+@RunWith(AndroidJUnit4.class)
+public class TiledCanvasSpillTest
+{
+    private static final int SIZE = TiledCanvas.TILE_SIZE * 2;
+
+    private File parent;
+    //----------------------------------------------------------------------------------------------
+    @Before
+    public void setUp()
+    {
+        parent = new File(InstrumentationRegistry.getInstrumentation().getTargetContext().getCacheDir(), "spill_test");
+        deleteTree(parent);
+        assertTrue(parent.mkdirs());
+    }
+
+    @After
+    public void tearDown()
+    {
+        deleteTree(parent);
+    }
+    //----------------------------------------------------------------------------------------------
+    @Test
+    public void canvasesSpillIntoOwnDirectoriesAndCleanUp() throws IOException
+    {
+        //Остатки прошлого запуска и файл прежнего вида
+        File stale = new File(parent, "canvas_1_1");
+        assertTrue(stale.mkdirs());
+        touch(new File(stale, "tile_0.png"));
+        touch(new File(parent, "tile_123_0.png"));
+
+        TiledCanvas first = spilledCanvas();
+        TiledCanvas second = spilledCanvas();
+
+        File[] dirs = parent.listFiles();
+        assertEquals(2, dirs.length);
+        assertNotEquals(dirs[0], dirs[1]);
+        //Все четыре плитки каждого холста выгружены в его папку
+        for (File dir : dirs) assertEquals(4, dir.listFiles().length);
+
+        first.release();
+        second.release();
+        assertEquals(0, parent.listFiles().length);
+    }
+
+    @Test
+    public void lostSpillFileIsReported()
+    {
+        TiledCanvas canvas = spilledCanvas();
+        for (File dir : parent.listFiles())
+        {
+            for (File file : dir.listFiles()) assertTrue(file.delete());
+        }
+        try
+        {
+            canvas.snapshot(0);
+            fail("missing spill file was read as a blank tile");
+        } catch (IllegalStateException expected)
+        {
+            //Плитка остаётся выгруженной, а не становится однотонной
+            assertFalse(canvas.isSolid(0));
+        }
+        canvas.release();
+    }
+    //----------------------------------------------------------------------------------------------
+    //Холст из четырёх разноцветных плиток, которые сразу сжимаются и выгружаются на диск
+    private TiledCanvas spilledCanvas()
+    {
+        TiledCanvas canvas = new TiledCanvas(SIZE, SIZE, Color.WHITE, parent);
+        int[] pixels = new int[SIZE * SIZE];
+        for (int i = 0; i < pixels.length; i++) pixels[i] = 0xFF000000 | i * 40503;
+        canvas.writePixels(pixels, new Rect(0, 0, SIZE, SIZE));
+        canvas.setMemoryBudget(0, 0);
+        return canvas;
+    }
+
+    private static void touch(File file) throws IOException
+    {
+        try (FileOutputStream out = new FileOutputStream(file))
+        {
+            out.write(1);
+        }
+    }
+
+    private static void deleteTree(File file)
+    {
+        File[] children = file.listFiles();
+        if (children != null) for (File child : children) deleteTree(child);
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+    //----------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,123 @@
+package com.mindmari.PaintApp;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertTrue;
+
+//Время кадра при масштабировании холста 4096x4096: жест сводит пальцы до наименьшего масштаба
+//и разводит обратно со сдвигом. Кадр выводится как в DrawingView.drawFrame - видимые плитки
+//с уровня mipmap текущего масштаба. Для сравнения тот же жест выводится без mipmap (уровень 0).
+//Нужны настоящие Canvas и Bitmap, поэтому замер идёт на устройстве
+@RunWith(AndroidJUnit4.class)
+public class ZoomFrameTest
+{
+    private static final String TAG = "ZoomFrameTest";
+    private static final int CANVAS_SIZE = 4096;
+    //Экран телефона
+    private static final int VIEW_WIDTH = 1080;
+    private static final int VIEW_HEIGHT = 2340;
+    //Кадров в половине жеста и множитель масштаба за кадр
+    private static final int HALF_GESTURE_FRAMES = 60;
+    private static final float ZOOM_STEP = 0.95f;
+    private static final int GESTURES = 5;
+    //Кадр при 60 Гц
+    private static final long FRAME_NANOS = 16_666_667L;
+
+    private TiledCanvas canvas;
+    private Bitmap screen;
+    private Canvas screenCanvas;
+    private final Viewport viewport = new Viewport();
+    private final Rect visible = new Rect();
+    //----------------------------------------------------------------------------------------------
+    @Before
+    public void setUp()
+    {
+        canvas = new TiledCanvas(CANVAS_SIZE, CANVAS_SIZE, Color.WHITE, null);
+        //Рисунок на всех плитках, чтобы ни одна не осталась однотонной
+        Paint paint = new Paint();
+        paint.setAntiAlias(true);
+        paint.setStrokeWidth(6);
+        canvas.draw(new Rect(0, 0, CANVAS_SIZE, CANVAS_SIZE), c -> {
+            for (int i = -CANVAS_SIZE; i < CANVAS_SIZE; i += 64)
+            {
+                paint.setColor(0xFF000000 | (i * 40503 & 0xFFFFFF));
+                c.drawLine(i, 0, i + CANVAS_SIZE, CANVAS_SIZE, paint);
+            }
+        });
+        screen = Bitmap.createBitmap(VIEW_WIDTH, VIEW_HEIGHT, Bitmap.Config.ARGB_8888);
+        screenCanvas = new Canvas(screen);
+        viewport.setSizes(VIEW_WIDTH, VIEW_HEIGHT, CANVAS_SIZE, CANVAS_SIZE);
+    }
+
+    @After
+    public void tearDown()
+    {
+        canvas.release();
+        screen.recycle();
+    }
+    //----------------------------------------------------------------------------------------------
+    @Test
+    public void zoomGestureHolds60Fps()
+    {
+        //Первый жест строит уровни mipmap
+        zoomGestures(true);
+        long[] mipmapped = zoomGestures(true);
+        long[] fullSize = zoomGestures(false);
+        Log.i(TAG, "frame p50/p90: mipmaps " + percentile(mipmapped, 50) / 1000 + "/" + percentile(mipmapped, 90) / 1000
+                + " us, level 0 " + percentile(fullSize, 50) / 1000 + "/" + percentile(fullSize, 90) / 1000 + " us");
+        assertTrue("p90 frame " + percentile(mipmapped, 90) / 1000 + " us", percentile(mipmapped, 90) < FRAME_NANOS);
+    }
+    //----------------------------------------------------------------------------------------------
+    //Несколько жестов масштабирования, время каждого кадра в наносекундах
+    private long[] zoomGestures(boolean useMipmaps)
+    {
+        long[] times = new long[GESTURES * HALF_GESTURE_FRAMES * 2];
+        int frame = 0;
+        for (int g = 0; g < GESTURES; g++)
+        {
+            viewport.reset();
+            for (int i = 0; i < HALF_GESTURE_FRAMES * 2; i++)
+            {
+                boolean pinchIn = i < HALF_GESTURE_FRAMES;
+                viewport.zoomBy(pinchIn ? ZOOM_STEP : 1 / ZOOM_STEP, VIEW_WIDTH / 2f, VIEW_HEIGHT / 2f);
+                viewport.panBy(pinchIn ? 4 : -4, pinchIn ? 6 : -6);
+                long start = System.nanoTime();
+                drawFrame(useMipmaps ? viewport.getMipmapLevel() : 0);
+                times[frame++] = System.nanoTime() - start;
+            }
+        }
+        return times;
+    }
+    //Кадр как в DrawingView.drawFrame
+    private void drawFrame(int level)
+    {
+        BitmapPool.getShared().onFrame();
+        screenCanvas.drawColor(Color.GRAY);
+        screenCanvas.save();
+        screenCanvas.concat(viewport.getMatrix());
+        if (screenCanvas.getClipBounds(visible)) canvas.drawVisible(screenCanvas, visible, level);
+        screenCanvas.restore();
+    }
+
+    private static long percentile(long[] times, int percent)
+    {
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        return sorted[Math.min(sorted.length - 1, sorted.length * percent / 100)];
+    }
+    //----------------------------------------------------------------------------------------------
+}
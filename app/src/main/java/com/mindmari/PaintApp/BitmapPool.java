@@ -0,0 +1,166 @@
+package com.mindmari.PaintApp;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+//Запас освободившихся Bitmap одного размера и формата для повторного использования.
+//Плитки холста, mipmap, снимки истории и временные картинки возвращаются сюда вместо сборщика мусора,
+//поэтому очистка, смена размера и пересборка холста берут готовые буферы, а не выделяют новые.
+//Запас ограничен бюджетом памяти: сверх него самые давно не востребованные Bitmap отпускаются.
+//Методы можно вызывать из любого потока
+public class BitmapPool
+{
+    //Бюджет памяти по умолчанию
+    public static final long DEFAULT_BUDGET_BYTES = 32L * 1024 * 1024;
+
+    private static final BitmapPool shared = new BitmapPool(DEFAULT_BUDGET_BYTES);
+
+    //Свободные Bitmap по ключу размера и формата, в порядке использования ключей
+    private final LinkedHashMap<Long, ArrayDeque<Bitmap>> free = new LinkedHashMap<>(16, 0.75f, true);
+    private long budgetBytes;
+    private long pooledBytes = 0;
+    //Bitmap, которые могли попасть в ещё не выведенный кадр: вернутся в запас в начале следующего кадра
+    private final ArrayDeque<Bitmap> deferred = new ArrayDeque<>();
+    private long deferredBytes = 0;
+
+    //Сколько Bitmap создано и сколько выдано из запаса
+    private long createdCount = 0;
+    private long reusedCount = 0;
+    //----------------------------------------------------------------------------------------------
+    public BitmapPool(long budgetBytes)
+    {
+        this.budgetBytes = budgetBytes;
+    }
+    //Общий запас приложения
+    public static BitmapPool getShared()
+    {
+        return shared;
+    }
+    //----------------------------------------------------------------------------------------------
+    //Установить бюджет памяти
+    public synchronized void setBudget(long bytes)
+    {
+        budgetBytes = bytes;
+        trimToBudget();
+    }
+    //Сколько байт занимают Bitmap в запасе
+    public synchronized long getPooledBytes()
+    {
+        return pooledBytes;
+    }
+    //Сколько Bitmap пришлось создать
+    public synchronized long getCreatedCount()
+    {
+        return createdCount;
+    }
+    //Сколько Bitmap выдано повторно
+    public synchronized long getReusedCount()
+    {
+        return reusedCount;
+    }
+    //----------------------------------------------------------------------------------------------
+    //Изменяемый Bitmap заданного размера и формата. Содержимое взятого из запаса Bitmap не очищается
+    public Bitmap obtain(int width, int height, Bitmap.Config config)
+    {
+        synchronized (this)
+        {
+            ArrayDeque<Bitmap> bitmaps = free.get(key(width, height, config));
+            if (bitmaps != null && !bitmaps.isEmpty())
+            {
+                Bitmap bitmap = bitmaps.pop();
+                pooledBytes -= bitmap.getAllocationByteCount();
+                reusedCount++;
+                return bitmap;
+            }
+            createdCount++;
+        }
+        Bitmap bitmap = Bitmap.createBitmap(width, height, config);
+        Metrics.onBitmapAllocated(bitmap);
+        return bitmap;
+    }
+    //Изменяемый Bitmap, залитый цветом color
+    public Bitmap obtain(int width, int height, Bitmap.Config config, int color)
+    {
+        Bitmap bitmap = obtain(width, height, config);
+        bitmap.eraseColor(color);
+        return bitmap;
+    }
+    //Вернуть Bitmap в запас. После вызова его нельзя использовать
+    public void release(Bitmap bitmap)
+    {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) return;
+        synchronized (this)
+        {
+            int bytes = bitmap.getAllocationByteCount();
+            if (bytes > budgetBytes) return;
+            long key = key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+            ArrayDeque<Bitmap> bitmaps = free.get(key);
+            if (bitmaps == null)
+            {
+                bitmaps = new ArrayDeque<>();
+                free.put(key, bitmaps);
+            }
+            bitmaps.push(bitmap);
+            pooledBytes += bytes;
+            trimToBudget();
+        }
+    }
+    //Вернуть Bitmap в запас после вывода текущего кадра.
+    //Для Bitmap, вытесненных во время рисования кадра: аппаратный Canvas только запоминает Bitmap,
+    //и переиспользовать его до конца кадра нельзя
+    public synchronized void releaseLater(Bitmap bitmap)
+    {
+        if (bitmap == null) return;
+        deferred.add(bitmap);
+        deferredBytes += bitmap.getAllocationByteCount();
+        //Если кадров долго нет, лишнее достаётся сборщику мусора
+        while (deferredBytes > budgetBytes) deferredBytes -= deferred.poll().getAllocationByteCount();
+    }
+    //Начался новый кадр: прошлый кадр выведен, отложенные Bitmap можно переиспользовать
+    public void onFrame()
+    {
+        while (true)
+        {
+            Bitmap bitmap;
+            synchronized (this)
+            {
+                bitmap = deferred.poll();
+                if (bitmap == null) return;
+                deferredBytes -= bitmap.getAllocationByteCount();
+            }
+            release(bitmap);
+        }
+    }
+    //Отпустить все Bitmap из запаса
+    public synchronized void clear()
+    {
+        free.clear();
+        deferred.clear();
+        pooledBytes = 0;
+        deferredBytes = 0;
+    }
+    //----------------------------------------------------------------------------------------------
+    private static long key(int width, int height, Bitmap.Config config)
+    {
+        return ((long) config.ordinal() << 48) | ((long) height << 24) | width;
+    }
+    //Отпускать Bitmap самых давно не востребованных размеров, пока запас не уложится в бюджет
+    private void trimToBudget()
+    {
+        Iterator<Map.Entry<Long, ArrayDeque<Bitmap>>> oldest = free.entrySet().iterator();
+        while (pooledBytes > budgetBytes && oldest.hasNext())
+        {
+            ArrayDeque<Bitmap> bitmaps = oldest.next().getValue();
+            while (pooledBytes > budgetBytes && !bitmaps.isEmpty())
+            {
+                pooledBytes -= bitmaps.pollLast().getAllocationByteCount();
+            }
+            if (bitmaps.isEmpty()) oldest.remove();
+        }
+    }
+    //----------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,98 @@
+package com.mindmari.PaintApp;
+
+import android.graphics.Rect;
+
+//Учёт изменённой области DrawingView.
+//Для предпросмотра фигур объединяет старые и новые границы, чтобы стереть прошлый кадр,
+//и считает, сколько пикселей перерисовано за кадр
+public class DirtyRegion
+{
+    //Границы предпросмотра, выведенного в прошлый раз
+    private final Rect previousPreview = new Rect();
+    //Границы нового предпросмотра
+    private final Rect currentPreview = new Rect();
+    //Область, которую нужно перерисовать (результат последнего вызова)
+    private final Rect invalidateRect = new Rect();
+    //Всё, что было помечено к перерисовке с прошлого кадра
+    private final Rect frameRect = new Rect();
+    //Перерисовать всю View в этом кадре
+    private boolean frameFull = false;
+    //Количество перерисованных пикселей в последнем кадре
+    private long lastFramePixels = 0;
+    //Сумма перерисованных пикселей и количество кадров
+    private long totalPixels = 0;
+    private long frames = 0;
+    //----------------------------------------------------------------------------------------------
+    //Новые границы предпросмотра (по двум противоположным углам) с запасом на толщину линии.
+    //Возвращает объединение старых и новых границ, которое нужно перерисовать
+    public Rect updatePreview(float x1, float y1, float x2, float y2, float strokeWidth)
+    {
+        int inset = (int) Math.ceil(strokeWidth) + 1;
+        currentPreview.set((int) Math.floor(Math.min(x1, x2)) - inset,
+                (int) Math.floor(Math.min(y1, y2)) - inset,
+                (int) Math.ceil(Math.max(x1, x2)) + inset,
+                (int) Math.ceil(Math.max(y1, y2)) + inset);
+
+        invalidateRect.set(currentPreview);
+        if (!previousPreview.isEmpty()) invalidateRect.union(previousPreview);
+        previousPreview.set(currentPreview);
+        return invalidateRect;
+    }
+    //Предпросмотр закончен
+    public void resetPreview()
+    {
+        previousPreview.setEmpty();
+    }
+    //----------------------------------------------------------------------------------------------
+    //Пометить область к перерисовке
+    public void add(Rect rect)
+    {
+        if (frameRect.isEmpty()) frameRect.set(rect);
+        else frameRect.union(rect);
+    }
+    //Пометить к перерисовке всю View
+    public void addAll()
+    {
+        frameFull = true;
+    }
+    //Кадр выведен: запомнить количество перерисованных пикселей
+    public void onFrame(int width, int height)
+    {
+        long pixels;
+        if (frameFull)
+        {
+            pixels = (long) width * height;
+        } else if (frameRect.intersect(0, 0, width, height))
+        {
+            pixels = (long) frameRect.width() * frameRect.height();
+        } else
+        {
+            pixels = 0;
+        }
+        lastFramePixels = pixels;
+        totalPixels += pixels;
+        frames++;
+
+        frameRect.setEmpty();
+        frameFull = false;
+    }
+    //----------------------------------------------------------------------------------------------
+    //Сколько пикселей перерисовано в последнем кадре
+    public long getLastFramePixels()
+    {
+        return lastFramePixels;
+    }
+    //Среднее количество перерисованных пикселей за кадр
+    public long getAverageFramePixels()
+    {
+        return frames == 0 ? 0 : totalPixels / frames;
+    }
+    //Сбросить статистику
+    public void resetStats()
+    {
+        lastFramePixels = 0;
+        totalPixels = 0;
+        frames = 0;
+    }
+    //----------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,816 @@
+package com.mindmari.PaintApp;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.PorterDuff;
+
+import java.util.ArrayList;
+
+//Векторная запись всего, что нарисовано на холсте.
+//Каждый штрих и фигура хранятся компактно в примитивных массивах, поэтому Bitmap холста -
+//лишь кэш, который можно заново нарисовать в любом размере.
+//Записи после size - отменённые операции, которые ещё можно повторить
+public class DisplayList
+{
+    //Заливка холста цветом (очистка)
+    public static final int CLEAR = 100;
+    //Загруженная картинка на весь холст
+    public static final int IMAGE = 101;
+    //Штрих кисти с нажимом, нарисованный отпечатками: точки тройками x, y, нажим
+    public static final int STAMP_STROKE = 102;
+    //Стирание штрихов и фигур: координаты - номера стёртых записей (float точно хранит номера до 2^24)
+    public static final int ERASE = 103;
+    //Перенос и растяжение выделенных пикселей: фильтр Resampler, исходный прямоугольник и новый прямоугольник
+    //(left, top, right, bottom), затем точки лассо парами (без точек выделен весь прямоугольник).
+    //Цвет записи остаётся на месте поднятых пикселей
+    public static final int TRANSFORM = 104;
+    //Сколько координат TRANSFORM идёт до точек лассо
+    public static final int TRANSFORM_HEADER = 9;
+    //Цепочка фильтров над всем слоем: координаты - стадии FilterPipeline.getParams
+    public static final int FILTER = 105;
+    //Остальные типы записей совпадают с DrawingView.BRUSH, FILL и фигурами (раскладка координат - в ShapeRenderer).
+    //FILL, TRANSFORM и FILTER зависят от пикселей под ними, поэтому render их пропускает - их выполняет DrawingView
+
+    //Слушатель изменений записи (например, журнал автосохранения)
+    public interface Listener
+    {
+        //Добавлена запись index
+        void onRecordAdded(DisplayList list, int index);
+        //Последняя запись отменена
+        void onUndo(DisplayList list);
+        //Последняя отменённая запись возвращена
+        void onRedo(DisplayList list);
+        //Все записи удалены
+        void onCleared(DisplayList list);
+        //Закрытые записи удалены, остальные перенумерованы (см. compact).
+        //Картинки removedImages списку больше не нужны: слушатель возвращает их в BitmapPool,
+        //когда сам перестанет ими пользоваться
+        void onCompacted(DisplayList list, ArrayList<Bitmap> removedImages);
+    }
+
+    private static final int INITIAL_RECORDS = 64;
+    private static final int INITIAL_COORDS = 1024;
+
+    //Тип записи
+    private int[] types = new int[INITIAL_RECORDS];
+    //Цвет записи
+    private int[] colors = new int[INITIAL_RECORDS];
+    //Толщина линии
+    private float[] widths = new float[INITIAL_RECORDS];
+    //Начало координат записи в coords (у IMAGE единственная координата - индекс картинки в images)
+    private int[] coordStarts = new int[INITIAL_RECORDS];
+    //Количество координат записи
+    private int[] coordCounts = new int[INITIAL_RECORDS];
+    //Слой записи
+    private int[] layers = new int[INITIAL_RECORDS];
+    //Координаты всех записей подряд
+    private float[] coords = new float[INITIAL_COORDS];
+    //Картинки, на которые ссылаются записи IMAGE
+    private final ArrayList<Bitmap> images = new ArrayList<>();
+    //Запись стёрта действующей записью ERASE
+    private boolean[] erased = new boolean[INITIAL_RECORDS];
+    //Границы штрихов и фигур вместе с толщиной линии для поиска по касанию и перерисовки области
+    private final SpatialIndex spatialIndex = new SpatialIndex();
+
+    //Количество действующих записей
+    private int size = 0;
+    //Количество записей вместе с отменёнными
+    private int total = 0;
+    //Количество занятых координат
+    private int coordsUsed = 0;
+    //Записи до этого номера уже проверены compact: закрытых среди них нет
+    private int compactedFloor = 0;
+
+    //Слой, на который попадают новые записи
+    private int currentLayer = 0;
+    //Слушатель изменений (null - нет)
+    private Listener listener;
+
+    //Переиспользуемые объекты для отрисовки
+    private final Path strokePath = new Path();
+    private final StampBrush stampBrush = new StampBrush();
+    private final ShapeRenderer shapeRenderer = new ShapeRenderer();
+    //Переиспользуемые границы записи и контур фигуры для поиска
+    private final float[] recordBounds = new float[4];
+    private final float[] outline = new float[8];
+    //----------------------------------------------------------------------------------------------
+    //Количество действующих записей
+    public int size()
+    {
+        return size;
+    }
+    //Количество записей вместе с отменёнными
+    public int getTotal()
+    {
+        return total;
+    }
+    //Установить слушатель изменений
+    public void setListener(Listener listener)
+    {
+        this.listener = listener;
+    }
+    //Слой записи
+    public int getLayer(int index)
+    {
+        return layers[index];
+    }
+    //Установить слой, на который попадают новые записи
+    public void setCurrentLayer(int layer)
+    {
+        currentLayer = layer;
+    }
+    //Наибольший номер слоя среди всех записей (0, если записей нет)
+    public int getMaxLayer()
+    {
+        int max = 0;
+        for (int i = 0; i < total; i++) max = Math.max(max, layers[i]);
+        return max;
+    }
+    //Индекс последней очистки или картинки слоя layer среди действующих записей (0, если их нет).
+    //Записи слоя до него закрыты и не влияют на картинку
+    public int getVisibleStart(int layer)
+    {
+        for (int i = size - 1; i >= 0; i--)
+        {
+            if (layers[i] == layer && (types[i] == CLEAR || types[i] == IMAGE)) return i;
+        }
+        return 0;
+    }
+    //Тип записи
+    public int getType(int index)
+    {
+        return types[index];
+    }
+    //Цвет записи
+    public int getColor(int index)
+    {
+        return colors[index];
+    }
+    //Толщина линии записи
+    public float getStrokeWidth(int index)
+    {
+        return widths[index];
+    }
+    //Начало координат записи в getCoords()
+    public int getCoordStart(int index)
+    {
+        return coordStarts[index];
+    }
+    //Количество координат записи
+    public int getCoordCount(int index)
+    {
+        return coordCounts[index];
+    }
+    //Координаты всех записей
+    public float[] getCoords()
+    {
+        return coords;
+    }
+    //Картинка записи IMAGE
+    public Bitmap getImage(int index)
+    {
+        return images.get((int) coords[coordStarts[index]]);
+    }
+    //Стёрта ли запись
+    public boolean isErased(int index)
+    {
+        return erased[index];
+    }
+    //Границы штриха или фигуры вместе с толщиной линии: out - left, top, right, bottom.
+    //Возвращает false у записей без своей формы (очистка, картинка, заливка, стирание)
+    public boolean getBounds(int index, float[] out)
+    {
+        if (!spatialIndex.contains(index)) return false;
+        spatialIndex.getBounds(index, out);
+        return true;
+    }
+    //Зависит ли запись от пикселей под ней (заливка, перенос выделения, фильтр)
+    public boolean isPixelRecord(int index)
+    {
+        return types[index] == DrawingView.FILL || types[index] == TRANSFORM || types[index] == FILTER;
+    }
+    //Есть ли среди видимых записей слоя заливка, перенос выделения или фильтр.
+    //Они зависят от пикселей под ними, поэтому такой слой нельзя перерисовать по частям
+    public boolean hasVisiblePixelRecords(int layer)
+    {
+        for (int i = getVisibleStart(layer); i < size; i++)
+        {
+            if (layers[i] == layer && isPixelRecord(i)) return true;
+        }
+        return false;
+    }
+    //Примерный объём памяти, который занимает запись (без картинок)
+    public long getMemoryBytes()
+    {
+        return (long) types.length * (4 + 4 + 4 + 4 + 4 + 4 + 1) + (long) coords.length * 4
+                + spatialIndex.getMemoryBytes();
+    }
+    //----------------------------------------------------------------------------------------------
+    //Записать штрих кисти
+    public void addStroke(int color, float width, float[] points, int pointCount)
+    {
+        int index = beginRecord(DrawingView.BRUSH, color, width, pointCount * 2);
+        System.arraycopy(points, 0, coords, coordStarts[index], pointCount * 2);
+        endRecord(index);
+    }
+    //Записать штрих кисти с нажимом в каждой точке
+    public void addStampStroke(int color, float width, float[] points, float[] pressures, int pointCount)
+    {
+        int index = beginRecord(STAMP_STROKE, color, width, pointCount * 3);
+        int start = coordStarts[index];
+        for (int i = 0; i < pointCount; i++)
+        {
+            coords[start + i * 3] = points[i * 2];
+            coords[start + i * 3 + 1] = points[i * 2 + 1];
+            coords[start + i * 3 + 2] = pressures[i];
+        }
+        endRecord(index);
+    }
+    //Записать фигуру любого типа из ShapeRenderer по count координатам
+    public void addShape(int type, int color, float width, float[] shapeCoords, int count)
+    {
+        int index = beginRecord(type, color, width, count);
+        System.arraycopy(shapeCoords, 0, coords, coordStarts[index], count);
+        endRecord(index);
+    }
+    //Записать заливку области вокруг точки с допуском цвета tolerance
+    public void addFill(int color, float x, float y, int tolerance)
+    {
+        int index = beginRecord(DrawingView.FILL, color, 0, 3);
+        int start = coordStarts[index];
+        coords[start] = x;
+        coords[start + 1] = y;
+        coords[start + 2] = tolerance;
+        endRecord(index);
+    }
+    //Записать перенос пикселей из прямоугольника (srcLeft, srcTop, srcRight, srcBottom) в прямоугольник
+    //(dstLeft, dstTop, dstRight, dstBottom) с фильтром Resampler. lasso - lassoCount точек выделения
+    //(0 - весь прямоугольник), holeColor остаётся на месте поднятых пикселей
+    public void addTransform(int holeColor, int filter, int srcLeft, int srcTop, int srcRight, int srcBottom,
+                             float dstLeft, float dstTop, float dstRight, float dstBottom, float[] lasso, int lassoCount)
+    {
+        int index = beginRecord(TRANSFORM, holeColor, 0, TRANSFORM_HEADER + lassoCount * 2);
+        int start = coordStarts[index];
+        coords[start] = filter;
+        coords[start + 1] = srcLeft;
+        coords[start + 2] = srcTop;
+        coords[start + 3] = srcRight;
+        coords[start + 4] = srcBottom;
+        coords[start + 5] = dstLeft;
+        coords[start + 6] = dstTop;
+        coords[start + 7] = dstRight;
+        coords[start + 8] = dstBottom;
+        if (lassoCount > 0) System.arraycopy(lasso, 0, coords, start + TRANSFORM_HEADER, lassoCount * 2);
+        endRecord(index);
+    }
+    //Записать применение цепочки фильтров к активному слою
+    public void addFilter(FilterPipeline pipeline)
+    {
+        int index = beginRecord(FILTER, 0, 0, pipeline.getParamCount());
+        pipeline.getParams(coords, coordStarts[index]);
+        endRecord(index);
+    }
+    //Записать очистку холста цветом
+    public void addClear(int color)
+    {
+        endRecord(beginRecord(CLEAR, color, 0, 0));
+    }
+    //Стереть записи с номерами из erasedIndexes: они перестают рисоваться и находиться поиском,
+    //а отмена стирания возвращает их
+    public void addErase(int[] erasedIndexes, int count)
+    {
+        int index = beginRecord(ERASE, 0, 0, count);
+        int start = coordStarts[index];
+        for (int i = 0; i < count; i++) coords[start + i] = erasedIndexes[i];
+        setErased(index, true);
+        endRecord(index);
+    }
+    //Записать загруженную картинку. Bitmap не должен меняться после вызова
+    public void addImage(Bitmap image)
+    {
+        int index = beginRecord(IMAGE, 0, 0, 1);
+        coords[coordStarts[index]] = images.size();
+        images.add(image);
+        endRecord(index);
+    }
+    //----------------------------------------------------------------------------------------------
+    //Отменить последнюю запись
+    public boolean undo()
+    {
+        if (size == 0) return false;
+        size--;
+        setErased(size, false);
+        if (listener != null) listener.onUndo(this);
+        return true;
+    }
+    //Вернуть последнюю отменённую запись
+    public boolean redo()
+    {
+        if (size == total) return false;
+        size++;
+        setErased(size - 1, true);
+        if (listener != null) listener.onRedo(this);
+        return true;
+    }
+    //Удалить все записи
+    public void clear()
+    {
+        size = 0;
+        total = 0;
+        coordsUsed = 0;
+        compactedFloor = 0;
+        images.clear();
+        spatialIndex.clear();
+        if (listener != null) listener.onCleared(this);
+    }
+    //Удалить записи, закрытые более поздней очисткой или картинкой своего слоя, если эта очистка
+    //или картинка стоит до записи floor, то есть отменить её уже нельзя. На картинку такие записи не влияют.
+    //Остальные записи перенумеровываются, картинки удалённых записей IMAGE отдаются слушателю
+    //(без слушателя - сразу в BitmapPool). Возвращает true, если что-то удалено
+    public boolean compact(int floor)
+    {
+        floor = Math.min(floor, size);
+        if (floor <= compactedFloor) return false;
+
+        //Последняя очистка или картинка каждого слоя до floor. Записи до более ранних уже удалены
+        int[] hiddenBefore = new int[getMaxLayer() + 1];
+        boolean found = false;
+        for (int i = compactedFloor; i < floor; i++)
+        {
+            if (types[i] == CLEAR || types[i] == IMAGE)
+            {
+                hiddenBefore[layers[i]] = i;
+                found = true;
+            }
+        }
+        if (!found)
+        {
+            compactedFloor = floor;
+            return false;
+        }
+
+        //Новые номера записей (-1 - запись удаляется)
+        int[] remap = new int[total];
+        int kept = 0;
+        for (int i = 0; i < total; i++) remap[i] = i < hiddenBefore[layers[i]] ? -1 : kept++;
+        if (kept == total)
+        {
+            compactedFloor = floor;
+            return false;
+        }
+
+        ArrayList<Bitmap> removedImages = new ArrayList<>();
+        ArrayList<Bitmap> keptImages = new ArrayList<>();
+        int newSize = 0;
+        int used = 0;
+        for (int i = 0; i < total; i++)
+        {
+            int start = coordStarts[i];
+            int count = coordCounts[i];
+            if (remap[i] < 0)
+            {
+                if (types[i] == IMAGE) removedImages.add(images.get((int) coords[start]));
+                continue;
+            }
+            int index = remap[i];
+            if (i < size) newSize++;
+            types[index] = types[i];
+            colors[index] = colors[i];
+            widths[index] = widths[i];
+            layers[index] = layers[i];
+            erased[index] = erased[i];
+            coordStarts[index] = used;
+            if (types[i] == IMAGE)
+            {
+                coords[used] = keptImages.size();
+                keptImages.add(images.get((int) coords[start]));
+            } else if (types[i] == ERASE)
+            {
+                //Номера стёртых записей меняются вместе с ними. Новые координаты не обгоняют старые
+                int erasedCount = 0;
+                for (int k = 0; k < count; k++)
+                {
+                    int target = remap[(int) coords[start + k]];
+                    if (target >= 0) coords[used + erasedCount++] = target;
+                }
+                count = erasedCount;
+            } else
+            {
+                System.arraycopy(coords, start, coords, used, count);
+            }
+            coordCounts[index] = count;
+            used += count;
+        }
+        //Картинка могла попасть в список дважды - отдаётся только та, на которую больше никто не ссылается
+        for (int i = removedImages.size() - 1; i >= 0; i--)
+        {
+            for (Bitmap image : keptImages)
+            {
+                if (image == removedImages.get(i))
+                {
+                    removedImages.remove(i);
+                    break;
+                }
+            }
+        }
+        images.clear();
+        images.addAll(keptImages);
+        compactedFloor = floor - (size - newSize);
+        size = newSize;
+        total = kept;
+        coordsUsed = used;
+
+        spatialIndex.clear();
+        for (int i = 0; i < total; i++)
+        {
+            if (computeBounds(i, recordBounds))
+            {
+                spatialIndex.add(i, recordBounds[0], recordBounds[1], recordBounds[2], recordBounds[3]);
+            }
+        }
+        if (listener != null)
+        {
+            listener.onCompacted(this, removedImages);
+        } else
+        {
+            for (Bitmap image : removedImages) BitmapPool.getShared().release(image);
+        }
+        return true;
+    }
+    //----------------------------------------------------------------------------------------------
+    //Нарисовать записи слоя layer с from по to (не включая).
+    //Paint меняется: цвет и толщина берутся из записей
+    public void render(Canvas canvas, Paint paint, int from, int to, int layer)
+    {
+        for (int i = from; i < to; i++)
+        {
+            if (layers[i] == layer && !erased[i]) drawRecord(canvas, paint, i);
+        }
+    }
+    //Нарисовать записи слоя layer, которые задевают область, в их порядке. Записи вне области
+    //отсекает пространственный индекс, поэтому время не зависит от размера рисунка.
+    //Заливки и переносы здесь не выполняются (см. hasVisiblePixelRecords), цвет основы слоя рисует вызывающий
+    public void renderRegion(Canvas canvas, Paint paint, int layer, float left, float top, float right, float bottom)
+    {
+        int start = getVisibleStart(layer);
+        if (start < size && layers[start] == layer && (types[start] == CLEAR || types[start] == IMAGE))
+        {
+            drawRecord(canvas, paint, start);
+        }
+        int found = spatialIndex.query(left, top, right, bottom);
+        for (int i = 0; i < found; i++)
+        {
+            int index = spatialIndex.getResult(i);
+            if (index >= start && isSelectable(index, layer)) drawRecord(canvas, paint, index);
+        }
+    }
+    //Нарисовать одну запись
+    public void drawRecord(Canvas canvas, Paint paint, int index)
+    {
+        int start = coordStarts[index];
+        int type = types[index];
+        if (type == CLEAR)
+        {
+            //Очистка заменяет пиксели, в том числе прозрачным цветом
+            canvas.drawColor(colors[index], PorterDuff.Mode.SRC);
+            return;
+        }
+        if (type == IMAGE)
+        {
+            canvas.drawBitmap(getImage(index), 0, 0, null);
+            return;
+        }
+        if (type == STAMP_STROKE)
+        {
+            paint.setColor(colors[index]);
+            stampBrush.drawStroke(canvas, paint, widths[index], coords, start, coordCounts[index]);
+            return;
+        }
+
+        paint.setColor(colors[index]);
+        paint.setStrokeWidth(widths[index]);
+        int count = coordCounts[index];
+        if (type == DrawingView.BRUSH)
+        {
+            strokePath.rewind();
+            strokePath.moveTo(coords[start], coords[start + 1]);
+            if (count == 2) strokePath.lineTo(coords[start], coords[start + 1]);
+            for (int i = 2; i < count; i += 2)
+            {
+                strokePath.lineTo(coords[start + i], coords[start + i + 1]);
+            }
+            canvas.drawPath(strokePath, paint);
+        } else if (ShapeRenderer.isShape(type))
+        {
+            shapeRenderer.draw(type, canvas, paint, coords, start, count);
+        }
+    }
+    //----------------------------------------------------------------------------------------------
+    //Верхний штрих или фигура слоя layer, линия которой проходит не дальше radius от точки (x, y).
+    //Возвращает номер записи или -1
+    public int hitTest(float x, float y, float radius, int layer)
+    {
+        int start = getVisibleStart(layer);
+        int found = spatialIndex.query(x - radius, y - radius, x + radius, y + radius);
+        for (int i = found - 1; i >= 0; i--)
+        {
+            int index = spatialIndex.getResult(i);
+            if (index >= start && isSelectable(index, layer) && isHit(index, x, y, radius)) return index;
+        }
+        return -1;
+    }
+    //Добавить в out все штрихи и фигуры слоя layer, линия которых проходит не дальше radius от точки.
+    //Возвращает true, если что-то добавлено
+    public boolean hitTestAll(float x, float y, float radius, int layer, ObjectSelection out)
+    {
+        int before = out.getCount();
+        int start = getVisibleStart(layer);
+        int found = spatialIndex.query(x - radius, y - radius, x + radius, y + radius);
+        for (int i = 0; i < found; i++)
+        {
+            int index = spatialIndex.getResult(i);
+            if (index >= start && isSelectable(index, layer) && isHit(index, x, y, radius))
+            {
+                spatialIndex.getBounds(index, recordBounds);
+                out.add(index, recordBounds);
+            }
+        }
+        return out.getCount() > before;
+    }
+    //Добавить в out штрихи и фигуры слоя layer, которые целиком лежат внутри лассо
+    //из count точек (x, y парами). Возвращает true, если что-то добавлено
+    public boolean selectInLasso(float[] lasso, int count, int layer, ObjectSelection out)
+    {
+        if (count < 3) return false;
+        float left = lasso[0], top = lasso[1], right = left, bottom = top;
+        for (int i = 1; i < count; i++)
+        {
+            left = Math.min(left, lasso[i * 2]);
+            top = Math.min(top, lasso[i * 2 + 1]);
+            right = Math.max(right, lasso[i * 2]);
+            bottom = Math.max(bottom, lasso[i * 2 + 1]);
+        }
+        int before = out.getCount();
+        int start = getVisibleStart(layer);
+        int found = spatialIndex.query(left, top, right, bottom);
+        for (int i = 0; i < found; i++)
+        {
+            int index = spatialIndex.getResult(i);
+            if (index >= start && isSelectable(index, layer) && isInside(index, lasso, count))
+            {
+                spatialIndex.getBounds(index, recordBounds);
+                out.add(index, recordBounds);
+            }
+        }
+        return out.getCount() > before;
+    }
+    //----------------------------------------------------------------------------------------------
+    //Действующая и не стёртая запись слоя layer
+    private boolean isSelectable(int index, int layer)
+    {
+        return index < size && layers[index] == layer && !erased[index];
+    }
+    //Проходит ли линия записи не дальше radius от точки (x, y) с учётом её толщины
+    private boolean isHit(int index, float x, float y, float radius)
+    {
+        int start = coordStarts[index];
+        int count = coordCounts[index];
+        float[] c = coords;
+        float distance;
+        switch (types[index])
+        {
+            case DrawingView.BRUSH:
+                distance = ShapeGeometry.polylineDistance(c, start, count / 2, 2, false, x, y);
+                break;
+            case STAMP_STROKE:
+                distance = ShapeGeometry.polylineDistance(c, start, count / 3, 3, false, x, y);
+                break;
+            case DrawingView.LINE:
+            case DrawingView.ARROW:
+                distance = ShapeGeometry.segmentDistance(x, y, c[start], c[start + 1], c[start + 2], c[start + 3]);
+                break;
+            case DrawingView.RECTANGLE:
+            case DrawingView.SQUARE:
+                rectangleOutline(start);
+                distance = ShapeGeometry.polylineDistance(outline, 0, 4, 2, true, x, y);
+                break;
+            case DrawingView.CIRCLE:
+                distance = Math.abs(ShapeGeometry.distance(x, y, c[start], c[start + 1]) - c[start + 2]);
+                break;
+            case DrawingView.ELLIPSE:
+                distance = ellipseDistance(start, x, y);
+                break;
+            case DrawingView.TRIANGLE:
+                //Треугольник рисуется двумя сторонами от вершины
+                distance = Math.min(
+                        ShapeGeometry.segmentDistance(x, y, c[start], c[start + 1], c[start + 2], c[start + 3]),
+                        ShapeGeometry.segmentDistance(x, y, c[start], c[start + 1], c[start + 4], c[start + 5]));
+                break;
+            case DrawingView.POLYGON:
+                distance = ShapeGeometry.polylineDistance(c, start, count / 2, 2, true, x, y);
+                break;
+            default:
+                return false;
+        }
+        return distance <= radius + widths[index] / 2;
+    }
+    //Лежат ли все точки записи внутри лассо
+    private boolean isInside(int index, float[] lasso, int lassoCount)
+    {
+        int start = coordStarts[index];
+        int count = coordCounts[index];
+        int stride = 2;
+        float[] points = coords;
+        switch (types[index])
+        {
+            case STAMP_STROKE:
+                stride = 3;
+                break;
+            case DrawingView.RECTANGLE:
+            case DrawingView.SQUARE:
+                rectangleOutline(start);
+                points = outline;
+                start = 0;
+                count = 8;
+                break;
+            case DrawingView.CIRCLE:
+            case DrawingView.ELLIPSE:
+                //Крайние точки слева, сверху, справа и снизу
+                ShapeRenderer.getBounds(types[index], coords, start, count, 0, recordBounds);
+                float cx = (recordBounds[0] + recordBounds[2]) / 2;
+                float cy = (recordBounds[1] + recordBounds[3]) / 2;
+                outline[0] = recordBounds[0];
+                outline[1] = cy;
+                outline[2] = cx;
+                outline[3] = recordBounds[1];
+                outline[4] = recordBounds[2];
+                outline[5] = cy;
+                outline[6] = cx;
+                outline[7] = recordBounds[3];
+                points = outline;
+                start = 0;
+                count = 8;
+                break;
+        }
+        for (int i = start; i < start + count; i += stride)
+        {
+            if (!ShapeGeometry.containsPoint(lasso, lassoCount, points[i], points[i + 1])) return false;
+        }
+        return true;
+    }
+    //Четыре угла прямоугольника записи в outline
+    private void rectangleOutline(int start)
+    {
+        float x1 = coords[start], y1 = coords[start + 1], x2 = coords[start + 2], y2 = coords[start + 3];
+        outline[0] = x1;
+        outline[1] = y1;
+        outline[2] = x2;
+        outline[3] = y1;
+        outline[4] = x2;
+        outline[5] = y2;
+        outline[6] = x1;
+        outline[7] = y2;
+    }
+    //Примерное расстояние от точки до эллипса записи: по лучу из центра
+    private float ellipseDistance(int start, float x, float y)
+    {
+        float cx = (coords[start] + coords[start + 2]) / 2;
+        float cy = (coords[start + 1] + coords[start + 3]) / 2;
+        float a = Math.abs(coords[start + 2] - coords[start]) / 2;
+        float b = Math.abs(coords[start + 3] - coords[start + 1]) / 2;
+        //Сплющенный эллипс - отрезок
+        if (a < 1 || b < 1)
+        {
+            return ShapeGeometry.segmentDistance(x, y, cx - a, cy - b, cx + a, cy + b);
+        }
+        float dx = x - cx;
+        float dy = y - cy;
+        float k = (float) Math.sqrt(dx * dx / (a * a) + dy * dy / (b * b));
+        if (k == 0) return Math.min(a, b);
+        return Math.abs(k - 1) * (float) Math.sqrt(dx * dx + dy * dy) / k;
+    }
+    //Границы записи вместе с толщиной линии. Возвращает false у записей без своей формы
+    private boolean computeBounds(int index, float[] out)
+    {
+        int type = types[index];
+        int start = coordStarts[index];
+        int count = coordCounts[index];
+        if (type == DrawingView.BRUSH || type == STAMP_STROKE)
+        {
+            int stride = type == STAMP_STROKE ? 3 : 2;
+            if (count < stride) return false;
+            out[0] = out[2] = coords[start];
+            out[1] = out[3] = coords[start + 1];
+            for (int i = start + stride; i < start + count; i += stride)
+            {
+                out[0] = Math.min(out[0], coords[i]);
+                out[1] = Math.min(out[1], coords[i + 1]);
+                out[2] = Math.max(out[2], coords[i]);
+                out[3] = Math.max(out[3], coords[i + 1]);
+            }
+        } else if (ShapeRenderer.isShape(type) && count >= 3)
+        {
+            ShapeRenderer.getBounds(type, coords, start, count, widths[index], out);
+        } else
+        {
+            return false;
+        }
+        //Отпечатки кисти с нажимом не толще самой кисти
+        float half = widths[index] / 2;
+        out[0] -= half;
+        out[1] -= half;
+        out[2] += half;
+        out[3] += half;
+        return true;
+    }
+    //Применить или отменить запись стирания index
+    private void setErased(int index, boolean isErased)
+    {
+        if (types[index] != ERASE) return;
+        int start = coordStarts[index];
+        for (int i = 0; i < coordCounts[index]; i++) erased[(int) coords[start + i]] = isErased;
+    }
+    //----------------------------------------------------------------------------------------------
+    //Добавить запись, отбросив отменённые. Возвращает индекс записи
+    private int beginRecord(int type, int color, float width, int coordCount)
+    {
+        truncateRedo();
+        if (size == types.length) growRecords();
+        if (coordsUsed + coordCount > coords.length)
+        {
+            float[] grown = new float[Math.max(coords.length * 2, coordsUsed + coordCount)];
+            System.arraycopy(coords, 0, grown, 0, coordsUsed);
+            coords = grown;
+        }
+
+        int index = size;
+        types[index] = type;
+        colors[index] = color;
+        widths[index] = width;
+        coordStarts[index] = coordsUsed;
+        coordCounts[index] = coordCount;
+        layers[index] = currentLayer;
+        erased[index] = false;
+        coordsUsed += coordCount;
+        size++;
+        total = size;
+        return index;
+    }
+    //Запись заполнена: внести её в индекс и сообщить слушателю
+    private void endRecord(int index)
+    {
+        if (computeBounds(index, recordBounds))
+        {
+            spatialIndex.add(index, recordBounds[0], recordBounds[1], recordBounds[2], recordBounds[3]);
+        }
+        if (listener != null) listener.onRecordAdded(this, index);
+    }
+    //Отбросить отменённые записи
+    private void truncateRedo()
+    {
+        if (total == size) return;
+        for (int i = size; i < total; i++)
+        {
+            if (types[i] == IMAGE)
+            {
+                //Картинки добавляются по порядку - всё начиная с первой отброшенной больше не нужно
+                int first = (int) coords[coordStarts[i]];
+                while (images.size() > first) images.remove(images.size() - 1);
+                break;
+            }
+        }
+        //Координаты идут по порядку записей
+        coordsUsed = size == 0 ? 0 : coordStarts[size - 1] + coordCounts[size - 1];
+        total = size;
+        spatialIndex.truncate(size);
+    }
+
+    private void growRecords()
+    {
+        int capacity = types.length * 2;
+        int[] newTypes = new int[capacity];
+        int[] newColors = new int[capacity];
+        float[] newWidths = new float[capacity];
+        int[] newStarts = new int[capacity];
+        int[] newCounts = new int[capacity];
+        int[] newLayers = new int[capacity];
+        boolean[] newErased = new boolean[capacity];
+        System.arraycopy(types, 0, newTypes, 0, size);
+        System.arraycopy(colors, 0, newColors, 0, size);
+        System.arraycopy(widths, 0, newWidths, 0, size);
+        System.arraycopy(coordStarts, 0, newStarts, 0, size);
+        System.arraycopy(coordCounts, 0, newCounts, 0, size);
+        System.arraycopy(layers, 0, newLayers, 0, size);
+        System.arraycopy(erased, 0, newErased, 0, size);
+        types = newTypes;
+        colors = newColors;
+        widths = newWidths;
+        coordStarts = newStarts;
+        coordCounts = newCounts;
+        layers = newLayers;
+        erased = newErased;
+    }
+    //----------------------------------------------------------------------------------------------
+}
@@ -4,36 +4,85 @@ import android.content.Context;
 import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Matrix;
 import android.graphics.Paint;
-import android.graphics.Path;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.MotionEvent;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
 import android.view.View;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
 public class DrawingView extends View
 {
+    private static final String TAG = "DrawingView";
+
     public static final int BRUSH = 1;
     public static final int LINE = 2;
     public static final int RECTANGLE = 3;
     public static final int SQUARE = 5;
     public static final int CIRCLE = 6;
     public static final int TRIANGLE = 7;
+    public static final int FILL = 8;
+    public static final int ELLIPSE = 9;
+    public static final int POLYGON = 10;
+    public static final int ARROW = 11;
+    //Ластик: стирает штрихи и фигуры целиком
+    public static final int ERASER = 12;
+    //Выделение: поднимает пиксели, чтобы перенести и растянуть их
+    public static final int SELECT = 13;
+
+    //Режимы ластика: касание и ведение пальца или обведение лассо
+    public static final int ERASER_TOUCH = 0;
+    public static final int ERASER_LASSO = 1;
+    //Формы выделения: прямоугольник или лассо
+    public static final int SELECT_RECTANGLE = 0;
+    public static final int SELECT_LASSO = 1;
 
     public static final float TOUCH_TOLERANCE = 4;
+    //Толщина линии лассо
+    private static final float LASSO_WIDTH = 2;
+    //Длинная сторона уменьшенного предпросмотра фильтра
+    private static final int FILTER_PREVIEW_SIZE = 512;
+    //Радиус, в котором касание попадает в угол выделения
+    private static final float HANDLE_RADIUS = 32;
+    //Наименьший размер растянутого выделения
+    private static final float MIN_SELECTION_SIZE = 4;
+    //Что делает палец с поднятым выделением
+    private static final int DRAG_NONE = 0;
+    private static final int DRAG_MOVE = 1;
+    private static final int DRAG_CORNER = 2;
 
     //Indicates if you are drawing
     private boolean isDrawing = false;
     //Ночная тема
     private boolean isNightTheme = false;
 
-    private float mStartX;
-    private float mStartY;
-
     private float mx;
     private float my;
+    //Инструмент текущей фигуры (null - кисть или заливка)
+    private ShapeTool shapeTool;
+    //Рисование фигур по координатам
+    private final ShapeRenderer shapeRenderer = new ShapeRenderer();
+    //Границы фигуры: left, top, right, bottom
+    private final float[] shapeBounds = new float[4];
 
     //Ширина DrawingView
     private int widthView;
@@ -45,15 +94,198 @@ public class DrawingView extends View
     private float strokeWidth = 25;
     //Текущий цвет
     private String currentColor;
+    //Допуск цвета заливки (0..255 в каждом канале)
+    private int fillTolerance = 16;
+    //Режим ластика
+    private int eraserMode = ERASER_TOUCH;
+    //Форма выделения и фильтр, которым выделение растягивается при фиксации
+    private int selectionMode = SELECT_RECTANGLE;
+    private int selectionFilter = Resampler.BICUBIC;
     //----------------------------------------------------------------------------------------------
-    //Путь для рисования
-    private Path path;
+    //Штрих кисти, который рисуется по частям
+    private IncrementalStroke stroke;
+    //Сглаживание точек кисти
+    private StrokeSmoother smoother;
+    //Стабилизация и предсказание точек касания
+    private final InputPipeline inputPipeline = new InputPipeline();
+    //Предсказанный конец штриха, который выводится до прихода настоящих точек
+    private final float[] predicted = new float[2];
+    private boolean hasPrediction = false;
+    //Начало выведенного хвоста (последняя точка штриха)
+    private float tailX;
+    private float tailY;
+    //Кисть из отпечатков с нажимом и скоростью
+    private final StampBrush stampBrush = new StampBrush();
+    //Рисовать кисть отпечатками с нажимом (false - линией постоянной толщины)
+    private boolean isStampBrush = true;
+    //Сколько пальцев могут рисовать одновременно
+    private static final int MAX_POINTERS = 10;
+    //Кисть рисует всеми пальцами сразу (масштабирование двумя пальцами выключено)
+    private boolean isMultiTouch = false;
+    //Штрихи пальцев, слоты создаются заранее
+    private final PointerStroke[] pointerStrokes = new PointerStroke[MAX_POINTERS];
+    //Сколько штрихов записано за текущий жест нескольких пальцев
+    private int multiTouchRecords = 0;
+    //Область холста, которую меняет текущий кадр
+    private final Rect dirtyRect = new Rect();
+    //Учёт перерисованной области
+    private final DirtyRegion dirtyRegion = new DirtyRegion();
+    //История отмены и повтора
+    private final UndoHistory history = new UndoHistory();
+    //Векторная запись нарисованного, плитки холста - её кэш
+    private final DisplayList displayList = new DisplayList();
+    //Видимая часть холста в текущем кадре
+    private final Rect visibleRect = new Rect();
+    //Масштаб и сдвиг холста на экране
+    private final Viewport viewport = new Viewport();
+    //Изменённая область в координатах View
+    private final Rect viewDirtyRect = new Rect();
+    //Идёт масштабирование или сдвиг двумя пальцами
+    private boolean isNavigating = false;
+    //Центр и расстояние между пальцами в прошлом событии (0 - ещё не известно)
+    private float lastFocusX;
+    private float lastFocusY;
+    private float lastSpan = 0;
+    //Поток рисования (null - рисование в onDraw на главном потоке)
+    private volatile RenderThread renderThread;
+    //Заливка области и буфер пикселей холста для неё
+    private final FloodFill floodFill = new FloodFill();
+    //Изменённая заливкой область: left, top, right, bottom
+    private final int[] fillBounds = new int[4];
+    private int[] fillPixels;
+    //Журнал автосохранения (null - автосохранение выключено)
+    private SessionJournal journal;
+    //Задержка от касания до вывода кадра
+    private final LatencyTracker latency = new LatencyTracker();
+    //Вывод кадров потоком рисования
+    private final RenderThread.Renderer frameRenderer = new RenderThread.Renderer()
+    {
+        @Override
+        public void drawFrame(Canvas canvas)
+        {
+            DrawingView.this.drawFrame(canvas);
+        }
+
+        @Override
+        public void onFramePresented()
+        {
+            latency.onPresented(SystemClock.uptimeMillis());
+        }
+    };
+    //Создание и удаление Surface для потока рисования
+    private final SurfaceHolder.Callback surfaceCallback = new SurfaceHolder.Callback()
+    {
+        @Override
+        public void surfaceCreated(@NonNull SurfaceHolder holder)
+        {
+            renderThread = new RenderThread(frameRenderer, holder.getSurface());
+            renderThread.start();
+            renderThread.post(DrawingView.this::invalidateAll);
+            //Сама View больше ничего не рисует
+            invalidate();
+        }
+
+        @Override
+        public void surfaceChanged(@NonNull SurfaceHolder holder, int format, int width, int height)
+        {
+            RenderThread thread = renderThread;
+            if (thread != null) thread.post(DrawingView.this::invalidateAll);
+        }
+
+        @Override
+        public void surfaceDestroyed(@NonNull SurfaceHolder holder)
+        {
+            stopRenderThread();
+        }
+    };
     //Paint для рисования и для холста
     private Paint paint;
-    //Холст
-    private Canvas mCanvas;
-    //Bitmap холста
-    private Bitmap canvasBitmap;
+    //Paint для перерисовки записей DisplayList
+    private Paint renderPaint;
+    //Слои рисунка
+    private LayerStack layers;
+    //Холст из плиток активного слоя - на нём рисуют все инструменты
+    private TiledCanvas store;
+    //Операция рисования новых сегментов кисти на плитке
+    private final TiledCanvas.DrawOp penOp = c -> {
+        c.clipRect(dirtyRect);
+        stroke.drawPending(c, paint);
+    };
+    //Штрих пальца, который сейчас рисуется на плитках, и его область
+    private PointerStroke rasterizingPointer;
+    private final Rect pointerRect = new Rect();
+    private final TiledCanvas.DrawOp pointerOp = c -> {
+        c.clipRect(pointerRect);
+        rasterizingPointer.drawPending(c, paint);
+    };
+    //Записи, которые стирает текущее касание ластика, и их область
+    private final ObjectSelection erasing = new ObjectSelection();
+    private final int[] eraseBounds = new int[4];
+    //Сколько записей стирания добавлено за текущий жест ластика
+    private int eraseRecords = 0;
+    //Прошлая точка ластика
+    private float lastEraseX;
+    private float lastEraseY;
+    //Точки лассо (x, y парами), их количество и границы
+    private float[] lasso = new float[256];
+    private int lassoCount = 0;
+    private float lassoLeft, lassoTop, lassoRight, lassoBottom;
+    //Paint для линии лассо
+    private Paint lassoPaint;
+    //Поднятые выделением пиксели и их копия в Bitmap для предпросмотра (null - выделения нет)
+    private final PixelSelection selection = new PixelSelection();
+    private Bitmap floatingBitmap;
+    //Откуда подняты пиксели, лассо выделения (0 точек - весь прямоугольник) и куда они перенесены сейчас
+    private final Rect selectionSource = new Rect();
+    private float[] selectionLasso = new float[0];
+    private int selectionLassoCount = 0;
+    private final RectF floatingRect = new RectF();
+    //Начало прямоугольника выделения
+    private float selectStartX;
+    private float selectStartY;
+    //Перенос или растяжение выделения пальцем: что делает палец, какой угол тянет, где был палец
+    private int selectionDrag = DRAG_NONE;
+    private int dragCorner;
+    private float lastSelectX;
+    private float lastSelectY;
+    //Предпросмотр выделения: ближайший пиксель без фильтрации, растяжение - матрицей при выводе
+    private Paint floatingPaint;
+    private final Matrix floatingMatrix = new Matrix();
+    private final RectF floatingSource = new RectF();
+    private final Rect floatingDirty = new Rect();
+    //Перенос выделения при перерисовке записей TRANSFORM
+    private final PixelSelection replaySelection = new PixelSelection();
+    private float[] replayLasso = new float[0];
+    private final int[] transformBounds = new int[4];
+    //Фильтры считаются на полном размере в фоне, по одной цепочке за раз
+    private static final ExecutorService filterExecutor = Executors.newSingleThreadExecutor();
+    //Цепочка, которая считается в фоне, её предпросмотр и повтор записей FILTER при перерисовке слоя
+    private final FilterPipeline filterPipeline = new FilterPipeline();
+    private final FilterPipeline previewPipeline = new FilterPipeline();
+    private final FilterPipeline replayPipeline = new FilterPipeline();
+    //Расчёт полного размера (null - фильтр не применяется). Он меняет пиксели слоя в fillPixels:
+    //пока идёт расчёт, операции, которым нужен этот буфер, откладываются
+    private Future<?> filterTask;
+    //Операции, вызванные во время расчёта: выполняются по порядку после записи фильтра
+    private final ArrayList<Runnable> afterFilter = new ArrayList<>();
+    //Уменьшенный предпросмотр фильтра, который выводится вместо активного слоя
+    private Bitmap filterPreview;
+    private int[] previewPixels;
+    //Операция перерисовки области dirtyRect активного слоя из оставшихся записей
+    private final TiledCanvas.DrawOp redrawOp = c -> {
+        c.clipRect(dirtyRect);
+        c.drawColor(layers.getActive().getBaseColor(), PorterDuff.Mode.SRC);
+        displayList.renderRegion(c, renderPaint, layers.getActiveIndex(),
+                dirtyRect.left, dirtyRect.top, dirtyRect.right, dirtyRect.bottom);
+    };
+    //Заданный размер холста (0 - по размеру DrawingView)
+    private int fixedCanvasWidth = 0;
+    private int fixedCanvasHeight = 0;
+    //Бюджеты памяти плиток холста
+    private long residentTileBytes = TiledCanvas.DEFAULT_RESIDENT_BYTES;
+    private long compressedTileBytes = TiledCanvas.DEFAULT_COMPRESSED_BYTES;
+    //Формат хранения плиток холста. RGB_565 огрубляет цвета, поэтому включается только явно
+    private int canvasPixelFormat = TiledCanvas.FORMAT_AUTO;
     //----------------------------------------------------------------------------------------------
     public DrawingView(Context context, @Nullable AttributeSet attrs)
     {
@@ -64,6 +296,7 @@ public class DrawingView extends View
     //Установить цвет рисования
     public void setDrawPaintColor(int paintColor, String strColor)
     {
+        if (postToRenderThread(() -> setDrawPaintColor(paintColor, strColor))) return;
         currentColor = strColor;
         paint.setColor(paintColor);
     }
@@ -75,27 +308,302 @@ public class DrawingView extends View
     //Установить форму рисования
     public void setDrawShape(int shape)
     {
+        if (postToRenderThread(() -> setDrawShape(shape))) return;
+        if (deferUntilFilter(() -> setDrawShape(shape))) return;
+        finishCurrentOperation();
         this.currentShape = shape;
+        shapeTool = ShapeTool.create(shape);
+        invalidateAll();
     }
-    //Установить картинку
+    //Установить картинку. Bitmap сохраняется в векторной записи как есть,
+    //поэтому после вызова его нельзя менять снаружи
     public void setBitmap(Bitmap bitmapPic)
     {
-        canvasBitmap = bitmapPic.copy(Bitmap.Config.ARGB_8888, true);
-        mCanvas = new Canvas(canvasBitmap);
-        invalidate();
+        if (postToRenderThread(() -> setBitmap(bitmapPic))) return;
+        if (deferUntilFilter(() -> setBitmap(bitmapPic))) return;
+        finishCurrentOperation();
+        if (store != null)
+        {
+            history.begin(store);
+            history.touchAll();
+            store.fill(layers.getActive().getBaseColor());
+            dirtyRect.set(0, 0, store.getWidth(), store.getHeight());
+            store.draw(dirtyRect, c -> c.drawBitmap(bitmapPic, 0, 0, null));
+            history.commit();
+        }
+        displayList.addImage(bitmapPic);
+        compactDisplayList();
+        invalidateAll();
     }
-    //Получить текущую картинку
+    //Получить снимок текущей картинки (новый Bitmap размером с холст)
     public Bitmap getCanvasBitmap()
     {
-        return this.canvasBitmap;
+        return callOnRenderThread(() -> layers.toBitmap());
     }
-    //Залить всё белым или серым цветом
+    //Снимок плиток всех слоёв для сохранения. Слои сводятся в Bitmap уже в потоке ImageExporter
+    public LayerStack.Snapshot getCanvasSnapshot()
+    {
+        return callOnRenderThread(() -> layers.snapshot());
+    }
+    //Очистить активный слой: нижний заливается белым или серым цветом, остальные становятся прозрачными
     public void clearAll()
     {
-        canvasBitmap = Bitmap.createBitmap(widthView, heightView, Bitmap.Config.ARGB_8888);
-        mCanvas = new Canvas(canvasBitmap);
-        mCanvas.drawColor(isNightTheme ? 0xFF414141 : 0xFFFFFFFF);
-        invalidate();
+        if (postToRenderThread(this::clearAll)) return;
+        if (deferUntilFilter(this::clearAll)) return;
+        finishCurrentOperation();
+        int color = layers != null ? layers.getActive().getBaseColor() : getBackgroundColor();
+        if (store != null)
+        {
+            //Все плитки переходят в историю без копирования, холст становится однотонным
+            history.begin(store);
+            history.touchAll();
+            store.fill(color);
+            history.commit();
+        }
+        displayList.addClear(color);
+        compactDisplayList();
+        invalidateAll();
+    }
+    //Отменить последнее действие
+    public void undo()
+    {
+        if (postToRenderThread(this::undo)) return;
+        if (deferUntilFilter(this::undo)) return;
+        finishCurrentOperation();
+        TiledCanvas target = history.undo();
+        if (target == null) return;
+        for (int i = 0; i < history.getLastRecordCount(); i++) displayList.undo();
+        layers.invalidateLayer(target);
+        invalidateAll();
+    }
+    //Повторить отменённое действие
+    public void redo()
+    {
+        if (postToRenderThread(this::redo)) return;
+        if (deferUntilFilter(this::redo)) return;
+        finishCurrentOperation();
+        TiledCanvas target = history.redo();
+        if (target == null) return;
+        for (int i = 0; i < history.getLastRecordCount(); i++) displayList.redo();
+        layers.invalidateLayer(target);
+        invalidateAll();
+    }
+    //Можно ли отменить действие
+    public boolean canUndo()
+    {
+        return history.canUndo();
+    }
+    //Можно ли повторить действие
+    public boolean canRedo()
+    {
+        return history.canRedo();
+    }
+    //Установить бюджет памяти истории в мегабайтах
+    public void setHistoryBudgetMb(int megabytes)
+    {
+        if (postToRenderThread(() -> setHistoryBudgetMb(megabytes))) return;
+        history.setBudgetMb(megabytes);
+    }
+    //Векторная запись нарисованного
+    public DisplayList getDisplayList()
+    {
+        return displayList;
+    }
+    //Нарисовать картинку заново из векторной записи в нужном размере
+    public Bitmap renderBitmap(int width, int height)
+    {
+        return callOnRenderThread(() -> renderDisplayList(width, height));
+    }
+
+    private Bitmap renderDisplayList(int width, int height)
+    {
+        float scale = 1;
+        if (widthView > 0 && heightView > 0)
+        {
+            scale = Math.min((float) width / widthView, (float) height / heightView);
+        }
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Metrics.onBitmapAllocated(bitmap);
+        Canvas canvas = new Canvas(bitmap);
+        canvas.drawColor(getBackgroundColor());
+        int count = layers != null ? layers.size() : 1;
+        for (int i = 0; i < count; i++)
+        {
+            Layer layer = layers != null ? layers.get(i) : null;
+            if (layer != null && !layer.isVisible()) continue;
+            if (i == 0)
+            {
+                renderLayer(bitmap, scale, 0, getBackgroundColor());
+                continue;
+            }
+            //Слой целиком перерисовывается в renderLayer, очищать Bitmap из запаса не нужно
+            Bitmap layerBitmap = BitmapPool.getShared().obtain(width, height, Bitmap.Config.ARGB_8888);
+            renderLayer(layerBitmap, scale, i, 0);
+            canvas.drawBitmap(layerBitmap, 0, 0, layer.getCompositePaint());
+            BitmapPool.getShared().release(layerBitmap);
+        }
+        return bitmap;
+    }
+    //Нарисовать записи слоя layer в Bitmap в масштабе scale.
+    //Заливки выполняются по пикселям того, что нарисовано до них
+    private void renderLayer(Bitmap bitmap, float scale, int layer, int baseColor)
+    {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        Canvas canvas = new Canvas(bitmap);
+        canvas.scale(scale, scale);
+        canvas.drawColor(baseColor, PorterDuff.Mode.SRC);
+        int size = displayList.size();
+        int start = displayList.getVisibleStart(layer);
+        int[] pixels = null;
+        for (int i = start; i < size; i++)
+        {
+            if (!displayList.isPixelRecord(i) || displayList.getLayer(i) != layer) continue;
+            displayList.render(canvas, renderPaint, start, i, layer);
+            start = i + 1;
+            if (pixels == null) pixels = new int[width * height];
+            bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+            int c = displayList.getCoordStart(i);
+            float[] coords = displayList.getCoords();
+            int[] bounds = fillBounds;
+            boolean changed;
+            if (displayList.getType(i) == FILL)
+            {
+                changed = floodFill.fill(pixels, width, height, (int) (coords[c] * scale), (int) (coords[c + 1] * scale),
+                        displayList.getColor(i), (int) coords[c + 2], fillBounds);
+            } else
+            {
+                changed = displayList.getType(i) == DisplayList.TRANSFORM
+                        ? replayTransform(pixels, width, height, i, scale) : replayFilter(pixels, width, height, i, scale);
+                bounds = transformBounds;
+            }
+            if (changed)
+            {
+                bitmap.setPixels(pixels, bounds[1] * width + bounds[0], width, bounds[0], bounds[1],
+                        bounds[2] - bounds[0], bounds[3] - bounds[1]);
+            }
+        }
+        displayList.render(canvas, renderPaint, start, size, layer);
+    }
+    //Задать размер холста, не зависящий от размера DrawingView (0 - по размеру DrawingView)
+    public void setCanvasSize(int width, int height)
+    {
+        if (postToRenderThread(() -> setCanvasSize(width, height))) return;
+        if (deferUntilFilter(() -> setCanvasSize(width, height))) return;
+        finishCurrentOperation();
+        fixedCanvasWidth = width;
+        fixedCanvasHeight = height;
+        if (widthView > 0 && heightView > 0) recreateStore();
+    }
+    //Ширина холста
+    public int getCanvasWidth()
+    {
+        return store != null ? store.getWidth() : widthView;
+    }
+    //Высота холста
+    public int getCanvasHeight()
+    {
+        return store != null ? store.getHeight() : heightView;
+    }
+    //Установить бюджеты памяти для несжатых и сжатых плиток холста в мегабайтах
+    public void setCanvasMemoryBudgetMb(int residentMb, int compressedMb)
+    {
+        if (postToRenderThread(() -> setCanvasMemoryBudgetMb(residentMb, compressedMb))) return;
+        residentTileBytes = residentMb * 1024L * 1024L;
+        compressedTileBytes = compressedMb * 1024L * 1024L;
+        if (layers != null) layers.setMemoryBudget(residentTileBytes, compressedTileBytes);
+    }
+    //Установить формат хранения плиток холста: TiledCanvas.FORMAT_ARGB_8888, FORMAT_RGB_565
+    //(непрозрачный нижний слой по 2 байта на пиксель) или FORMAT_AUTO (вытесненные штриховые плитки по байту)
+    public void setCanvasPixelFormat(int format)
+    {
+        if (postToRenderThread(() -> setCanvasPixelFormat(format))) return;
+        canvasPixelFormat = format;
+        if (layers != null) layers.setPixelFormat(format);
+        invalidateAll();
+    }
+    public int getCanvasPixelFormat()
+    {
+        return canvasPixelFormat;
+    }
+    //Сколько байт памяти занимают плитки всех слоёв
+    public long getCanvasMemoryBytes()
+    {
+        LayerStack stack = layers;
+        return stack != null ? stack.getMemoryBytes() : 0;
+    }
+    //Количество слоёв
+    public int getLayerCount()
+    {
+        return layers != null ? layers.size() : 1;
+    }
+    //Номер активного слоя (0 - нижний)
+    public int getActiveLayer()
+    {
+        return layers != null ? layers.getActiveIndex() : 0;
+    }
+    //Слой index (null, пока холст не создан)
+    public Layer getLayer(int index)
+    {
+        return layers != null ? layers.get(index) : null;
+    }
+    //Добавить прозрачный слой поверх всех и сделать его активным
+    public void addLayer()
+    {
+        if (postToRenderThread(this::addLayer)) return;
+        if (layers == null) return;
+        setActiveLayer(layers.addLayer());
+    }
+    //Выбрать слой, на котором рисуют инструменты
+    public void setActiveLayer(int index)
+    {
+        if (postToRenderThread(() -> setActiveLayer(index))) return;
+        if (deferUntilFilter(() -> setActiveLayer(index))) return;
+        if (layers == null || index < 0 || index >= layers.size()) return;
+        finishCurrentOperation();
+        layers.setActive(index);
+        store = layers.getActive().getCanvas();
+        displayList.setCurrentLayer(index);
+        invalidateAll();
+    }
+    //Установить прозрачность слоя (0..1)
+    public void setLayerOpacity(int index, float opacity)
+    {
+        if (postToRenderThread(() -> setLayerOpacity(index, opacity))) return;
+        if (layers == null) return;
+        layers.get(index).setOpacity(opacity);
+        layers.invalidateComposites();
+        invalidateAll();
+    }
+    //Показать или скрыть слой
+    public void setLayerVisible(int index, boolean visible)
+    {
+        if (postToRenderThread(() -> setLayerVisible(index, visible))) return;
+        if (layers == null) return;
+        layers.get(index).setVisible(visible);
+        layers.invalidateComposites();
+        invalidateAll();
+    }
+    //Установить режим наложения слоя (Layer.BLEND_NORMAL, BLEND_MULTIPLY, ...)
+    public void setLayerBlendMode(int index, int blendMode)
+    {
+        if (postToRenderThread(() -> setLayerBlendMode(index, blendMode))) return;
+        if (layers == null) return;
+        layers.get(index).setBlendMode(blendMode);
+        layers.invalidateComposites();
+        invalidateAll();
+    }
+    //Масштаб и сдвиг холста на экране
+    public Viewport getViewport()
+    {
+        return viewport;
+    }
+    //Показать холст без масштаба и сдвига
+    public void resetViewport()
+    {
+        if (postToRenderThread(this::resetViewport)) return;
+        viewport.reset();
+        invalidateAll();
     }
     //Вернуть ширину DrawingView
     public int getWidthView()
@@ -110,9 +618,181 @@ public class DrawingView extends View
     //Установить толщину рисования
     public void setStrokeWidth(float strokeWidthDialog)
     {
+        if (postToRenderThread(() -> setStrokeWidth(strokeWidthDialog))) return;
         this.strokeWidth = strokeWidthDialog;
         paint.setStrokeWidth(strokeWidth);
     }
+    //Включить кисть с нажимом и скоростью (false - линия постоянной толщины)
+    public void setStampBrush(boolean enabled)
+    {
+        if (postToRenderThread(() -> setStampBrush(enabled))) return;
+        if (deferUntilFilter(() -> setStampBrush(enabled))) return;
+        finishCurrentOperation();
+        isStampBrush = enabled;
+    }
+    //Выбрать стабилизатор касаний (InputPipeline.STABILIZER_NONE, STABILIZER_MOVING_AVERAGE, STABILIZER_ONE_EURO)
+    public void setInputStabilizer(int mode)
+    {
+        if (postToRenderThread(() -> setInputStabilizer(mode))) return;
+        inputPipeline.setStabilizer(mode);
+        for (PointerStroke pointer : pointerStrokes) pointer.setStabilizer(mode);
+    }
+    //Рисовать кистью всеми пальцами сразу, например на общей доске (false - второй палец масштабирует).
+    //У каждого пальца свой штрих, а отменяется весь жест целиком
+    public void setMultiTouchDrawing(boolean enabled)
+    {
+        if (postToRenderThread(() -> setMultiTouchDrawing(enabled))) return;
+        if (deferUntilFilter(() -> setMultiTouchDrawing(enabled))) return;
+        finishCurrentOperation();
+        isMultiTouch = enabled;
+    }
+    public boolean isMultiTouchDrawing()
+    {
+        return isMultiTouch;
+    }
+    //Предсказывать хвост штриха на horizonMs миллисекунд вперёд (0 - выключить)
+    public void setInputPrediction(float horizonMs)
+    {
+        if (postToRenderThread(() -> setInputPrediction(horizonMs))) return;
+        inputPipeline.setPrediction(horizonMs);
+    }
+    //Среднее время обработки точки касания стабилизатором и предсказателем в наносекундах
+    public long getInputPipelineNanos()
+    {
+        return inputPipeline.getAverageNanos();
+    }
+    //Сколько отпечатков кисти поставлено с запуска (для замеров скорости)
+    public long getStampCount()
+    {
+        long count = stampBrush.getStampCount();
+        for (PointerStroke pointer : pointerStrokes) count += pointer.getStampCount();
+        return count;
+    }
+    //Установить режим ластика: ERASER_TOUCH или ERASER_LASSO
+    public void setEraserMode(int mode)
+    {
+        if (postToRenderThread(() -> setEraserMode(mode))) return;
+        if (deferUntilFilter(() -> setEraserMode(mode))) return;
+        finishCurrentOperation();
+        eraserMode = mode;
+    }
+
+    public int getEraserMode()
+    {
+        return eraserMode;
+    }
+    //Установить форму выделения: SELECT_RECTANGLE или SELECT_LASSO
+    public void setSelectionMode(int mode)
+    {
+        if (postToRenderThread(() -> setSelectionMode(mode))) return;
+        if (deferUntilFilter(() -> setSelectionMode(mode))) return;
+        finishCurrentOperation();
+        selectionMode = mode;
+    }
+
+    public int getSelectionMode()
+    {
+        return selectionMode;
+    }
+    //Установить фильтр, которым выделение растягивается при фиксации: Resampler.BILINEAR или BICUBIC
+    public void setSelectionFilter(int filter)
+    {
+        if (postToRenderThread(() -> setSelectionFilter(filter))) return;
+        selectionFilter = filter;
+    }
+    //Установить допуск цвета заливки (0 - только точно такой же цвет, 255 - любой)
+    public void setFillTolerance(int tolerance)
+    {
+        if (postToRenderThread(() -> setFillTolerance(tolerance))) return;
+        fillTolerance = Math.max(0, Math.min(255, tolerance));
+    }
+    //Установить сглаживание кисти (StrokeSmoother.NONE, QUADRATIC, CATMULL_ROM)
+    public void setStrokeSmoothing(int mode)
+    {
+        if (postToRenderThread(() -> setStrokeSmoothing(mode))) return;
+        smoother.setMode(mode);
+        for (PointerStroke pointer : pointerStrokes) pointer.setSmoothing(mode);
+    }
+    //Сколько пикселей перерисовано в последнем кадре
+    public long getLastFrameInvalidatedPixels()
+    {
+        return dirtyRegion.getLastFramePixels();
+    }
+    //Среднее количество перерисованных пикселей за кадр
+    public long getAverageFrameInvalidatedPixels()
+    {
+        return dirtyRegion.getAverageFramePixels();
+    }
+    //Задержка от касания до вывода последнего кадра в миллисекундах
+    public long getLastInputLatencyMs()
+    {
+        return latency.getLastMs();
+    }
+    //Средняя задержка от касания до вывода кадра в миллисекундах
+    public long getAverageInputLatencyMs()
+    {
+        return latency.getAverageMs();
+    }
+    //Начать считать задержку заново (например, после смены способа вывода кадров)
+    public void resetInputLatency()
+    {
+        latency.reset();
+    }
+    //Включить автосохранение в папку dir: восстановить прошлый сеанс и записывать в журнал все новые операции
+    public void enableAutosave(File dir)
+    {
+        if (postToRenderThread(() -> enableAutosave(dir))) return;
+        if (deferUntilFilter(() -> enableAutosave(dir))) return;
+        finishCurrentOperation();
+        if (journal != null) journal.close();
+        displayList.setListener(null);
+        displayList.clear();
+        journal = new SessionJournal(dir);
+        journal.restore(displayList);
+        displayList.setListener(journal);
+        displayList.setCurrentLayer(layers != null ? layers.getActiveIndex() : 0);
+        //Холст ещё не создан - он будет нарисован из записи в onSizeChanged
+        if (store != null)
+        {
+            rebuildStore();
+            history.clear();
+            invalidateAll();
+        }
+    }
+    //Записать журнал автосохранения на диск (например, в onPause)
+    public void flushAutosave()
+    {
+        if (postToRenderThread(this::flushAutosave)) return;
+        if (journal != null) journal.flush();
+    }
+    //Выключить автосохранение, дописав журнал
+    public void disableAutosave()
+    {
+        if (postToRenderThread(this::disableAutosave)) return;
+        if (deferUntilFilter(this::disableAutosave)) return;
+        if (journal == null) return;
+        finishCurrentOperation();
+        displayList.setListener(null);
+        journal.close();
+        journal = null;
+    }
+    //Выводить кадры через SurfaceView из отдельного потока рисования.
+    //SurfaceView должен лежать под DrawingView: сама DrawingView в этом режиме ничего не рисует
+    public void attachSurfaceView(SurfaceView surfaceView)
+    {
+        surfaceView.getHolder().addCallback(surfaceCallback);
+    }
+    //Вернуться к рисованию в onDraw
+    public void detachSurfaceView(SurfaceView surfaceView)
+    {
+        surfaceView.getHolder().removeCallback(surfaceCallback);
+        stopRenderThread();
+    }
+    //Работает ли поток рисования
+    public boolean isRenderThreadActive()
+    {
+        return renderThread != null;
+    }
     //----------------------------------------------------------------------------------------------
     private void setUpDrawing()
     {
@@ -121,7 +801,9 @@ public class DrawingView extends View
         //Запомнить выбранную тему
         isNightTheme = isNightTheme();
 
-        path = new Path();
+        stroke = new IncrementalStroke();
+        smoother = new StrokeSmoother();
+        for (int i = 0; i < MAX_POINTERS; i++) pointerStrokes[i] = new PointerStroke();
         paint = new Paint(Paint.DITHER_FLAG);
         currentColor = isNightTheme ? "#FFFFFFFF" : "#FF000000";
         paint.setColor(isNightTheme ? 0xFFFFFFFF : 0xFF000000);
@@ -130,6 +812,15 @@ public class DrawingView extends View
         paint.setStyle(Paint.Style.STROKE);
         paint.setStrokeJoin(Paint.Join.ROUND);
         paint.setStrokeCap(Paint.Cap.ROUND);
+        //Отпечатки кисти масштабируются из заготовок ближайшего размера
+        paint.setFilterBitmap(true);
+        renderPaint = new Paint(paint);
+        lassoPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        lassoPaint.setStyle(Paint.Style.STROKE);
+        lassoPaint.setStrokeWidth(LASSO_WIDTH);
+        lassoPaint.setColor(0xFF808080);
+        floatingPaint = new Paint();
+        floatingPaint.setFilterBitmap(false);
     }
     //----------------------------------------------------------------------------------------------
     //Проверить какая тема установлена в данный момент
@@ -149,295 +840,1290 @@ public class DrawingView extends View
         //Запомнить ширину и высоту DrawingView
         widthView = w;
         heightView = h;
-        //Создать Bitmap
-        canvasBitmap = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
-        //Поместить Bitmap на холст
-        mCanvas = new Canvas(canvasBitmap);
-        //Закрасить Bitmap
-        mCanvas.drawColor(isNightTheme ? 0xFF414141 : 0xFFFFFFFF);
+        updateStore();
+    }
+    //Пересоздать холст под новый размер View
+    private void updateStore()
+    {
+        if (postToRenderThread(this::updateStore)) return;
+        if (deferUntilFilter(this::updateStore)) return;
+        //Холст заданного размера не зависит от размера View
+        if (store == null || fixedCanvasWidth <= 0 || fixedCanvasHeight <= 0) recreateStore();
+        else viewport.setSizes(widthView, heightView, store.getWidth(), store.getHeight());
+    }
+    //Создать холст из плиток и заново нарисовать на нём всё, что было нарисовано раньше
+    private void recreateStore()
+    {
+        int width = fixedCanvasWidth > 0 ? fixedCanvasWidth : widthView;
+        int height = fixedCanvasHeight > 0 ? fixedCanvasHeight : heightView;
+        //Поднятое выделение и фильтр попадают на старый холст, чтобы остаться в истории
+        if (floatingBitmap != null) commitSelection();
+        LayerStack old = layers;
+        if (old != null) old.release();
+        layers = new LayerStack(width, height, getBackgroundColor(),
+                new File(getContext().getCacheDir(), "tiles"));
+        layers.setMemoryBudget(residentTileBytes, compressedTileBytes);
+        layers.setPixelFormat(canvasPixelFormat);
+        //Те же слои с теми же свойствами, что были раньше
+        ensureLayers(old != null ? old.size() : 1);
+        if (old != null)
+        {
+            for (int i = 0; i < old.size(); i++)
+            {
+                Layer from = old.get(i);
+                Layer to = layers.get(i);
+                to.setOpacity(from.getOpacity());
+                to.setVisible(from.isVisible());
+                to.setBlendMode(from.getBlendMode());
+            }
+            layers.setActive(old.getActiveIndex());
+        }
+        store = layers.getActive().getCanvas();
+        displayList.setCurrentLayer(layers.getActiveIndex());
+        viewport.setSizes(widthView, heightView, width, height);
+        if (displayList.size() > 0) rebuildStore();
+        //Старые плитки истории относятся к прежнему холсту
+        history.clear();
+        invalidateAll();
+    }
+    //Цвет фона холста
+    private int getBackgroundColor()
+    {
+        return isNightTheme ? 0xFF414141 : 0xFFFFFFFF;
+    }
+    //Цвет области вокруг холста
+    private int getOutsideColor()
+    {
+        return isNightTheme ? 0xFF2B2B2B : 0xFFDDDDDD;
+    }
+    //Добавить слои, чтобы их было не меньше count, и все записи DisplayList попали на свой слой
+    private void ensureLayers(int count)
+    {
+        count = Math.max(count, displayList.getMaxLayer() + 1);
+        while (layers.size() < count) layers.addLayer();
+    }
+    //Нарисовать все слои заново из DisplayList
+    private void rebuildStore()
+    {
+        ensureLayers(layers.size());
+        for (int i = 0; i < layers.size(); i++) rebuildLayer(i);
+        layers.invalidateComposites();
+    }
+    //Нарисовать слой заново из DisplayList.
+    //Заливки выполняются по пикселям того, что нарисовано до них
+    private void rebuildLayer(int layer)
+    {
+        Layer target = layers.get(layer);
+        TiledCanvas canvas = target.getCanvas();
+        canvas.fill(target.getBaseColor());
+        int size = displayList.size();
+        int start = displayList.getVisibleStart(layer);
+        float[] coords = displayList.getCoords();
+        for (int i = start; i < size; i++)
+        {
+            if (!displayList.isPixelRecord(i) || displayList.getLayer(i) != layer) continue;
+            renderRange(canvas, start, i, layer);
+            start = i + 1;
+            int c = displayList.getCoordStart(i);
+            if (displayList.getType(i) == FILL)
+            {
+                applyFill(canvas, displayList.getColor(i), coords[c], coords[c + 1], (int) coords[c + 2], false);
+            } else
+            {
+                readCanvasPixels(canvas);
+                int width = canvas.getWidth();
+                int height = canvas.getHeight();
+                if (displayList.getType(i) == DisplayList.TRANSFORM
+                        ? replayTransform(fillPixels, width, height, i, 1) : replayFilter(fillPixels, width, height, i, 1))
+                {
+                    dirtyRect.set(transformBounds[0], transformBounds[1], transformBounds[2], transformBounds[3]);
+                    canvas.writePixels(fillPixels, dirtyRect);
+                }
+            }
+        }
+        renderRange(canvas, start, size, layer);
+    }
+    //Нарисовать на всех плитках записи слоя layer с from по to (не включая)
+    private void renderRange(TiledCanvas canvas, int from, int to, int layer)
+    {
+        if (from >= to) return;
+        dirtyRect.set(0, 0, canvas.getWidth(), canvas.getHeight());
+        canvas.draw(dirtyRect, c -> displayList.render(c, renderPaint, from, to, layer));
     }
     //----------------------------------------------------------------------------------------------
     //Отображения рисунка, который нарисован пользователем
     @Override
     protected void onDraw(Canvas canvas)
     {
-        canvas.drawBitmap(canvasBitmap, 0, 0, paint);
+        //Кадры выводит поток рисования
+        if (renderThread != null) return;
+        drawFrame(canvas);
+        latency.onPresented(SystemClock.uptimeMillis());
+    }
+    //Нарисовать кадр: в onDraw или в потоке рисования
+    private void drawFrame(Canvas canvas)
+    {
+        long drawStart = Metrics.start();
+        //Прошлый кадр выведен: вытесненные во время него плитки можно переиспользовать
+        BitmapPool.getShared().onFrame();
+        //Новые сегменты штриха попадают в Bitmap до того, как он будет выведен
+        if (isDrawing && currentShape == BRUSH) onDrawPen();
 
-        if (isDrawing)
-        {
-            switch (currentShape) {
-                case BRUSH:
-                    onDrawPen();
-                    break;
-                case LINE:
-                    onDrawLine(canvas);
-                    break;
-                case RECTANGLE:
-                    onDrawRectangle(canvas);
-                    break;
-                case SQUARE:
-                    onDrawSquare(canvas);
-                    break;
-                case CIRCLE:
-                    onDrawCircle(canvas);
-                    break;
-                case TRIANGLE:
-                    onDrawTriangle(canvas);
-                    break;
-            }
+        //Холст может не закрывать всю View после сдвига или уменьшения
+        if (store == null || !viewport.isIdentity()
+                || store.getWidth() < widthView || store.getHeight() < heightView)
+        {
+            canvas.drawColor(getOutsideColor());
+        }
+        canvas.save();
+        canvas.concat(viewport.getMatrix());
+        //Вывести только плитки, которые попадают в перерисовываемую область.
+        //При уменьшении берутся плитки mipmap, чтобы не читать все пиксели холста
+        if (layers != null && canvas.getClipBounds(visibleRect))
+        {
+            layers.drawVisible(canvas, visibleRect, viewport.getMipmapLevel());
         }
+
+        //Предпросмотр рисуется поверх готовых плиток и не попадает на холст до фиксации
+        if (isDrawing && currentShape == BRUSH) onDrawPrediction(canvas);
+        if (shapeTool != null && shapeTool.isPreviewing()) shapeTool.drawPreview(canvas, paint, shapeRenderer);
+        if (lassoCount > 1) shapeRenderer.drawPolyline(canvas, lassoPaint, lasso, 0, lassoCount * 2, currentShape == SELECT);
+        if (floatingBitmap != null) drawFloating(canvas);
+        canvas.restore();
+        dirtyRegion.onFrame(getWidth(), getHeight());
+        Metrics.stop(Metrics.FRAME_DRAW, drawStart);
+        if (drawStart != 0 && layers != null) Metrics.record(Metrics.CANVAS_BYTES + layers.getPixelFormat(), layers.getMemoryBytes());
     }
     //----------------------------------------------------------------------------------------------
     @Override
     public boolean onTouchEvent(MotionEvent event)
     {
-        mx = event.getX();
-        my = event.getY();
+        RenderThread thread = renderThread;
+        if (thread != null)
+        {
+            //Система переиспользует событие после возврата, поэтому в очередь идёт копия
+            MotionEvent copy = MotionEvent.obtain(event);
+            thread.post(() -> {
+                handleTouch(copy);
+                copy.recycle();
+            });
+        } else
+        {
+            handleTouch(event);
+        }
+        return true;
+    }
 
+    private void handleTouch(MotionEvent event)
+    {
+        latency.onInput(event.getEventTime());
+        //Пока фильтр считается, слой не меняется
+        if (filterTask != null && filterTask.isDone()) finishFilter();
+        if (filterTask != null) return;
+        int action = event.getActionMasked();
+        if (isMultiTouch && currentShape == BRUSH)
+        {
+            onTouchEventMultiPen(event);
+            if (action == MotionEvent.ACTION_UP) compactDisplayList();
+            return;
+        }
+        //Второй палец переключает на масштабирование и сдвиг до конца жеста
+        if (action == MotionEvent.ACTION_DOWN) isNavigating = false;
+        else if (action == MotionEvent.ACTION_POINTER_DOWN && !isNavigating) startNavigation();
+        if (isNavigating)
+        {
+            onTouchEventNavigation(event);
+            return;
+        }
+
+        //Координаты касания в координатах холста
+        mx = viewport.toCanvasX(event.getX());
+        my = viewport.toCanvasY(event.getY());
+        //Инструменты получают точки после стабилизатора
+        if (action == MotionEvent.ACTION_DOWN)
+        {
+            inputPipeline.start(mx, my, event.getEventTime());
+        } else
+        {
+            inputPipeline.beginBatch();
+            //Промежуточные точки, которые система собрала в одно событие
+            int historySize = action == MotionEvent.ACTION_MOVE ? event.getHistorySize() : 0;
+            for (int i = 0; i < historySize; i++)
+            {
+                inputPipeline.add(viewport.toCanvasX(event.getHistoricalX(i)),
+                        viewport.toCanvasY(event.getHistoricalY(i)), event.getHistoricalEventTime(i));
+            }
+            inputPipeline.add(mx, my, event.getEventTime());
+            mx = inputPipeline.getBatchX(historySize);
+            my = inputPipeline.getBatchY(historySize);
+        }
+
+        //Отпускание пальца фиксирует штрих или фигуру на холсте
+        long commitStart = action == MotionEvent.ACTION_UP ? Metrics.start() : 0;
         switch (currentShape)
         {
             case BRUSH:
                 onTouchEventPen(event);
                 break;
-            case LINE:
-                onTouchEventLine(event);
+            case FILL:
+                onTouchEventFill(event);
                 break;
-            case RECTANGLE:
-                onTouchEventRectangle(event);
+            case ERASER:
+                onTouchEventEraser(event);
                 break;
-            case SQUARE:
-                onTouchEventSquare(event);
+            case SELECT:
+                onTouchEventSelect(event);
                 break;
-            case CIRCLE:
-                onTouchEventCircle(event);
+            default:
+                if (shapeTool != null) onTouchEventShape(event);
                 break;
+        }
+        if (commitStart != 0 && commitMetric(currentShape) >= 0) Metrics.stop(commitMetric(currentShape), commitStart);
+        if (action == MotionEvent.ACTION_UP && !isDrawing) compactDisplayList();
+        if (Metrics.isEnabled())
+        {
+            Metrics.record(Metrics.TOUCH_TO_INVALIDATE, (SystemClock.uptimeMillis() - event.getEventTime()) * 1000000L);
+        }
+    }
+    //Удалить из DisplayList записи, закрытые очисткой или картинкой, которую уже нельзя отменить,
+    //и отпустить их картинки. Вызывается между жестами, пока никто не держит номера записей
+    private void compactDisplayList()
+    {
+        displayList.compact(displayList.size() - history.getUndoableRecordCount());
+    }
+    //Замер фиксации для инструмента (-1 - инструмент фиксирует не по отпусканию пальца)
+    private static int commitMetric(int shape)
+    {
+        switch (shape)
+        {
+            case BRUSH:
+                return Metrics.COMMIT_PEN;
+            case LINE:
+                return Metrics.COMMIT_LINE;
+            case CIRCLE:
+                return Metrics.COMMIT_CIRCLE;
             case TRIANGLE:
-                onTouchEventTriangle(event);
+                return Metrics.COMMIT_TRIANGLE;
+            case ELLIPSE:
+                return Metrics.COMMIT_ELLIPSE;
+            case POLYGON:
+                return Metrics.COMMIT_POLYGON;
+            case ARROW:
+                return Metrics.COMMIT_ARROW;
+            case FILL:
+                return Metrics.COMMIT_FILL;
+            case ERASER:
+                return Metrics.COMMIT_ERASE;
+            case SELECT:
+                return -1;
+            default:
+                return Metrics.COMMIT_RECTANGLE;
+        }
+    }
+    //----------------------------------------------------------------------------------------------
+    //Navigation
+    //Начать масштабирование: штрих кисти фиксируется как есть, незаконченная фигура отменяется
+    private void startNavigation()
+    {
+        if (currentShape == BRUSH || currentShape == ERASER)
+        {
+            finishCurrentOperation();
+        } else if (currentShape == SELECT)
+        {
+            //Поднятое выделение остаётся, прерывается только выделение или перенос пальцем
+            if (isDrawing && lassoCount > 0) invalidateLasso();
+            isDrawing = false;
+            lassoCount = 0;
+            selectionDrag = DRAG_NONE;
+            dirtyRegion.resetPreview();
+        } else if (shapeTool != null)
+        {
+            isDrawing = false;
+            shapeTool.cancelGesture();
+            dirtyRegion.resetPreview();
+        }
+        isNavigating = true;
+        lastSpan = 0;
+        invalidateAll();
+    }
+
+    private void onTouchEventNavigation(MotionEvent event)
+    {
+        switch (event.getActionMasked())
+        {
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                isNavigating = false;
+                break;
+            case MotionEvent.ACTION_POINTER_DOWN:
+            case MotionEvent.ACTION_POINTER_UP:
+                //Набор пальцев изменился - начать отсчёт заново
+                lastSpan = 0;
+                break;
+            case MotionEvent.ACTION_MOVE:
+                if (event.getPointerCount() < 2) break;
+                float x0 = event.getX(0);
+                float y0 = event.getY(0);
+                float x1 = event.getX(1);
+                float y1 = event.getY(1);
+                float focusX = (x0 + x1) / 2;
+                float focusY = (y0 + y1) / 2;
+                float span = (float) Math.hypot(x1 - x0, y1 - y0);
+                if (lastSpan > 0 && span > 0)
+                {
+                    viewport.panBy(focusX - lastFocusX, focusY - lastFocusY);
+                    viewport.zoomBy(span / lastSpan, focusX, focusY);
+                    invalidateAll();
+                }
+                lastFocusX = focusX;
+                lastFocusY = focusY;
+                lastSpan = span;
                 break;
         }
-        return true;
     }
     //----------------------------------------------------------------------------------------------
     //Pen
     private void onDrawPen()
     {
-        mCanvas.drawPath(path, paint);
+        if (isMultiTouch) rasterizePointers();
+        else rasterizePendingStroke();
     }
 
     private void onTouchEventPen(MotionEvent event)
     {
+        boolean hasDirty = false;
         switch (event.getAction())
         {
             case MotionEvent.ACTION_DOWN:
                 isDrawing = true;
-                path.moveTo(mx, my);
+                history.begin(store);
+                stroke.setBrush(isStampBrush ? stampBrush : null, strokeWidth);
+                smoother.start(stroke, mx, my, stampBrush.startInput(mx, my, event.getEventTime(), penPressure(event, -1)));
+                hasDirty = stroke.computePendingBounds(strokeWidth, dirtyRect);
                 break;
             case MotionEvent.ACTION_MOVE:
-                path.lineTo(mx, my);
+                //Промежуточные точки события уже прошли через стабилизатор, последняя из них - (mx, my)
+                int historySize = inputPipeline.getBatchSize() - 1;
+                for (int i = 0; i < historySize; i++)
+                {
+                    float x = inputPipeline.getBatchX(i);
+                    float y = inputPipeline.getBatchY(i);
+                    smoother.add(x, y, stampBrush.input(x, y, event.getHistoricalEventTime(i), penPressure(event, i)));
+                }
+                smoother.add(mx, my, stampBrush.input(mx, my, event.getEventTime(), penPressure(event, -1)));
+                hasDirty = stroke.computePendingBounds(strokeWidth, dirtyRect);
                 break;
             case MotionEvent.ACTION_UP:
                 isDrawing = false;
-                path.lineTo(mx, my);
-                mCanvas.drawPath(path, paint);
-                path.reset();
+                smoother.add(mx, my, stampBrush.input(mx, my, event.getEventTime(), penPressure(event, -1)));
+                smoother.finish();
+                //Дорисовать хвост штриха и зафиксировать его на холсте
+                hasDirty = rasterizePendingStroke();
+                recordStroke();
+                history.commit();
                 break;
         }
-        //Перерисовать
-        invalidate();
+        //Перерисовать только область новых сегментов
+        if (hasDirty) invalidateDirty(dirtyRect);
+        else invalidateAll();
+        updatePrediction();
     }
-    //----------------------------------------------------------------------------------------------
-    // Line
-    private void onDrawLine(Canvas canvas)
+    //Предсказать хвост штриха до следующего кадра и перерисовать его вместе со старым хвостом
+    private void updatePrediction()
+    {
+        boolean had = hasPrediction;
+        hasPrediction = isDrawing && stroke.getPointCount() > 0 && inputPipeline.predict(predicted);
+        if (hasPrediction)
+        {
+            int last = (stroke.getPointCount() - 1) * 2;
+            tailX = stroke.getPoints()[last];
+            tailY = stroke.getPoints()[last + 1];
+            invalidateDirty(dirtyRegion.updatePreview(tailX, tailY, predicted[0], predicted[1], strokeWidth));
+        } else if (had)
+        {
+            //Стереть старый хвост
+            invalidateDirty(dirtyRegion.updatePreview(tailX, tailY, tailX, tailY, strokeWidth));
+            dirtyRegion.resetPreview();
+        }
+    }
+    //Временный хвост штриха: линия от последней точки до предсказанной
+    private void onDrawPrediction(Canvas canvas)
     {
-        float dx = Math.abs(mx - mStartX);
-        float dy = Math.abs(my - mStartY);
-        if (dx >= TOUCH_TOLERANCE || dy >= TOUCH_TOLERANCE)
+        if (!hasPrediction || stroke.getPointCount() == 0) return;
+        if (stroke.isStamped())
         {
-            canvas.drawLine(mStartX, mStartY, mx, my, paint);
+            float pressure = stroke.getPressures()[stroke.getPointCount() - 1];
+            paint.setStrokeWidth(StampBrush.getWidth(pressure, strokeWidth));
         }
+        canvas.drawLine(tailX, tailY, predicted[0], predicted[1], paint);
+        paint.setStrokeWidth(strokeWidth);
     }
 
-    private void onTouchEventLine(MotionEvent event)
+    //Нажим точки касания (historyIndex -1 - текущая точка).
+    //Нажим пальца на многих устройствах не откалиброван, поэтому он учитывается только у стилуса
+    private float penPressure(MotionEvent event, int historyIndex)
     {
-        switch (event.getAction())
+        if (event.getToolType(0) != MotionEvent.TOOL_TYPE_STYLUS) return 1;
+        return historyIndex < 0 ? event.getPressure() : event.getHistoricalPressure(historyIndex);
+    }
+    //Записать законченный штрих в DisplayList и сбросить его
+    private void recordStroke()
+    {
+        if (stroke.isStamped())
+        {
+            displayList.addStampStroke(paint.getColor(), strokeWidth,
+                    stroke.getPoints(), stroke.getPressures(), stroke.getPointCount());
+        } else
+        {
+            displayList.addStroke(paint.getColor(), strokeWidth, stroke.getPoints(), stroke.getPointCount());
+        }
+        stroke.reset();
+    }
+    //Нарисовать на холсте сегменты, добавленные после прошлого кадра
+    private boolean rasterizePendingStroke()
+    {
+        if (!stroke.computePendingBounds(strokeWidth, dirtyRect)) return false;
+        history.touch(dirtyRect);
+        stroke.preparePending();
+        store.draw(dirtyRect, penOp);
+        stroke.markRasterized();
+        return true;
+    }
+    //----------------------------------------------------------------------------------------------
+    //Multi-touch pen
+    //Каждый палец рисует свой штрих в своём слоте. Точки только копятся в штрихах,
+    //а на плитки все пальцы попадают вместе один раз за кадр (onDrawPen)
+    private void onTouchEventMultiPen(MotionEvent event)
+    {
+        int action = event.getActionMasked();
+        switch (action)
         {
             case MotionEvent.ACTION_DOWN:
-                isDrawing = true;
-                mStartX = mx;
-                mStartY = my;
+            case MotionEvent.ACTION_POINTER_DOWN:
+                startPointer(event, event.getActionIndex());
                 break;
             case MotionEvent.ACTION_MOVE:
+                for (int i = 0; i < event.getPointerCount(); i++) movePointer(event, i);
+                break;
+            case MotionEvent.ACTION_POINTER_UP:
+                endPointer(event, event.getActionIndex());
                 break;
             case MotionEvent.ACTION_UP:
-                isDrawing = false;
-                mCanvas.drawLine(mStartX, mStartY, mx, my, paint);
+                endPointer(event, event.getActionIndex());
+                finishMultiTouch();
+                break;
+            case MotionEvent.ACTION_CANCEL:
+                finishMultiTouch();
                 break;
         }
-        //Перерисовать
-        invalidate();
+        //Перерисовать области новых сегментов всех пальцев
+        for (PointerStroke pointer : pointerStrokes)
+        {
+            if (pointer.computePendingBounds(pointerRect)) invalidateDirty(pointerRect);
+        }
+        if (Metrics.isEnabled())
+        {
+            Metrics.record(Metrics.TOUCH_TO_INVALIDATE, (SystemClock.uptimeMillis() - event.getEventTime()) * 1000000L);
+        }
     }
-    //----------------------------------------------------------------------------------------------
-    // Triangle
-    int countTouch = 0;
-    float basexTriangle = 0;
-    float baseyTriangle = 0;
-
-    private void onDrawTriangle(Canvas canvas)
+    //Палец с индексом index в событии коснулся экрана. Лишние пальцы сверх MAX_POINTERS не рисуют
+    private void startPointer(MotionEvent event, int index)
     {
-        if (countTouch < 3)
+        if (!isDrawing)
         {
-            canvas.drawLine(mStartX,mStartY,mx,my, paint);
-        } else if (countTouch == 3)
+            //Все штрихи одного жеста - одна операция истории
+            isDrawing = true;
+            multiTouchRecords = 0;
+            history.begin(store);
+        }
+        PointerStroke pointer = findPointer(PointerStroke.NO_POINTER);
+        if (pointer == null) return;
+        pointer.start(event.getPointerId(index), viewport.toCanvasX(event.getX(index)),
+                viewport.toCanvasY(event.getY(index)), event.getEventTime(), pointerPressure(event, index, -1),
+                isStampBrush, strokeWidth);
+    }
+    //Добавить точки пальца index, включая промежуточные
+    private void movePointer(MotionEvent event, int index)
+    {
+        PointerStroke pointer = findPointer(event.getPointerId(index));
+        if (pointer == null) return;
+        for (int i = 0; i < event.getHistorySize(); i++)
         {
-            canvas.drawLine(mx,my,mStartX,mStartY, paint);
-            canvas.drawLine(mx,my,basexTriangle,baseyTriangle, paint);
+            pointer.add(viewport.toCanvasX(event.getHistoricalX(index, i)),
+                    viewport.toCanvasY(event.getHistoricalY(index, i)), event.getHistoricalEventTime(i),
+                    pointerPressure(event, index, i));
         }
+        pointer.add(viewport.toCanvasX(event.getX(index)), viewport.toCanvasY(event.getY(index)),
+                event.getEventTime(), pointerPressure(event, index, -1));
     }
-
-    private void onTouchEventTriangle(MotionEvent event)
+    //Палец index поднят: дорисовать и записать его штрих, освободить слот
+    private void endPointer(MotionEvent event, int index)
+    {
+        PointerStroke pointer = findPointer(event.getPointerId(index));
+        if (pointer == null) return;
+        pointer.add(viewport.toCanvasX(event.getX(index)), viewport.toCanvasY(event.getY(index)),
+                event.getEventTime(), pointerPressure(event, index, -1));
+        pointer.finish();
+        long commitStart = Metrics.start();
+        rasterizePointers();
+        recordPointerStroke(pointer);
+        Metrics.stop(Metrics.COMMIT_PEN, commitStart);
+    }
+    //Закончить жест: записать штрихи всех пальцев и закрыть операцию истории
+    private void finishMultiTouch()
+    {
+        for (PointerStroke pointer : pointerStrokes)
+        {
+            if (pointer.isActive()) pointer.finish();
+        }
+        rasterizePointers();
+        for (PointerStroke pointer : pointerStrokes)
+        {
+            if (pointer.isActive()) recordPointerStroke(pointer);
+        }
+        history.setRecordCount(multiTouchRecords);
+        history.commit();
+        isDrawing = false;
+    }
+    //Слот пальца pointerId (PointerStroke.NO_POINTER - свободный слот) или null
+    private PointerStroke findPointer(int pointerId)
+    {
+        for (PointerStroke pointer : pointerStrokes)
+        {
+            if (pointer.getPointerId() == pointerId) return pointer;
+        }
+        return null;
+    }
+    //Нажим пальца index (historyIndex -1 - текущая точка), как в penPressure
+    private float pointerPressure(MotionEvent event, int index, int historyIndex)
+    {
+        if (event.getToolType(index) != MotionEvent.TOOL_TYPE_STYLUS) return 1;
+        return historyIndex < 0 ? event.getPressure(index) : event.getHistoricalPressure(index, historyIndex);
+    }
+    //Записать штрих пальца в DisplayList и освободить слот
+    private void recordPointerStroke(PointerStroke pointer)
+    {
+        IncrementalStroke pointerStroke = pointer.getStroke();
+        if (pointerStroke.getPointCount() > 0)
+        {
+            if (pointerStroke.isStamped())
+            {
+                displayList.addStampStroke(paint.getColor(), strokeWidth, pointerStroke.getPoints(),
+                        pointerStroke.getPressures(), pointerStroke.getPointCount());
+            } else
+            {
+                displayList.addStroke(paint.getColor(), strokeWidth, pointerStroke.getPoints(),
+                        pointerStroke.getPointCount());
+            }
+            multiTouchRecords++;
+        }
+        pointer.release();
+    }
+    //Нарисовать на холсте новые сегменты всех пальцев. Каждый палец задевает только свои плитки,
+    //поэтому далеко разнесённые пальцы не захватывают плитки между собой
+    private boolean rasterizePointers()
+    {
+        boolean hasDirty = false;
+        for (PointerStroke pointer : pointerStrokes)
+        {
+            if (!pointer.computePendingBounds(pointerRect)) continue;
+            history.touch(pointerRect);
+            pointer.preparePending();
+            rasterizingPointer = pointer;
+            store.draw(pointerRect, pointerOp);
+            pointer.markRasterized();
+            hasDirty = true;
+        }
+        rasterizingPointer = null;
+        return hasDirty;
+    }
+    //----------------------------------------------------------------------------------------------
+    // Shapes
+    //Все фигуры: касания меняют координаты инструмента, предпросмотр рисуется в кадре,
+    //на холст фигура попадает только при фиксации
+    private void onTouchEventShape(MotionEvent event)
     {
         switch (event.getAction())
         {
             case MotionEvent.ACTION_DOWN:
-                countTouch++;
-                if (countTouch == 1)
-                {
-                    isDrawing = true;
-                    mStartX = mx;
-                    mStartY = my;
-                } else if (countTouch == 3)
-                {
-                    isDrawing = true;
-                }
+                isDrawing = true;
+                shapeTool.down(mx, my);
                 break;
             case MotionEvent.ACTION_MOVE:
+                shapeTool.move(mx, my);
                 break;
             case MotionEvent.ACTION_UP:
-                countTouch++;
                 isDrawing = false;
-                if (countTouch < 3)
-                {
-                    basexTriangle = mx;
-                    baseyTriangle = my;
-                    mCanvas.drawLine(mStartX, mStartY, mx, my, paint);
-                } else
-                {
-                    mCanvas.drawLine(mx, my, mStartX, mStartY, paint);
-                    mCanvas.drawLine(mx, my, basexTriangle, baseyTriangle, paint);
-                    countTouch = 0;
-                }
+                //Стереть предпросмотр вместе с последним положением фигуры
+                invalidateShapePreview();
+                if (shapeTool.up(mx, my)) commitShape();
                 break;
         }
-        //Перерисовать
-        invalidate();
+        //Перерисовать старые и новые границы фигуры
+        invalidateShapePreview();
+        if (event.getAction() == MotionEvent.ACTION_UP) dirtyRegion.resetPreview();
+    }
+    //Нарисовать фигуру инструмента на холсте и записать её
+    private void commitShape()
+    {
+        int type = shapeTool.getRecordType();
+        float[] coords = shapeTool.getCoords();
+        int count = shapeTool.getCoordCount();
+        ShapeRenderer.getBounds(type, coords, 0, count, strokeWidth, shapeBounds);
+        beginCommit(shapeBounds[0], shapeBounds[1], shapeBounds[2], shapeBounds[3]);
+        store.draw(dirtyRect, c -> shapeRenderer.draw(type, c, paint, coords, 0, count));
+        displayList.addShape(type, paint.getColor(), strokeWidth, coords, count);
+        history.commit();
+        invalidateDirty(dirtyRect);
+        shapeTool.onCommitted();
+    }
+    //Перерисовать объединение прошлых и новых границ предпросмотра фигуры
+    private void invalidateShapePreview()
+    {
+        if (shapeTool.getCoordCount() == 0) return;
+        ShapeRenderer.getBounds(shapeTool.getRecordType(), shapeTool.getCoords(), 0, shapeTool.getCoordCount(),
+                strokeWidth, shapeBounds);
+        invalidateDirty(dirtyRegion.updatePreview(shapeBounds[0], shapeBounds[1], shapeBounds[2], shapeBounds[3],
+                strokeWidth));
     }
     //----------------------------------------------------------------------------------------------
-    // Circle
-    private void onDrawCircle(Canvas canvas)
+    // Fill
+    private void onTouchEventFill(MotionEvent event)
     {
-        canvas.drawCircle(mStartX, mStartY, calculateRadius(mStartX, mStartY, mx, my), paint);
+        //Заливка по отпусканию пальца, чтобы не сработать в начале масштабирования
+        if (event.getAction() != MotionEvent.ACTION_UP) return;
+        if (applyFill(store, paint.getColor(), mx, my, fillTolerance, true))
+        {
+            displayList.addFill(paint.getColor(), mx, my, fillTolerance);
+        }
     }
+    //Залить область вокруг точки. Пиксели холста читаются один раз, а в плитки
+    //записываются только задетые плитки, по одному setPixels на плитку
+    private boolean applyFill(TiledCanvas target, int color, float x, float y, int tolerance, boolean recordHistory)
+    {
+        int width = target.getWidth();
+        int height = target.getHeight();
+        readCanvasPixels(target);
+        if (!floodFill.fill(fillPixels, width, height, (int) x, (int) y, color, tolerance, fillBounds)) return false;
+        dirtyRect.set(fillBounds[0], fillBounds[1], fillBounds[2], fillBounds[3]);
 
-    private void onTouchEventCircle(MotionEvent event)
+        if (recordHistory)
+        {
+            history.begin(target);
+            history.touch(dirtyRect);
+        }
+        target.writePixels(fillPixels, dirtyRect);
+        if (recordHistory) history.commit();
+        invalidateDirty(dirtyRect);
+        return true;
+    }
+    //----------------------------------------------------------------------------------------------
+    // Eraser
+    //Ластик стирает штрихи и фигуры целиком: касание - верхнюю запись под пальцем, ведение пальца -
+    //все записи на его пути, лассо - записи, целиком обведённые пальцем. Записи находит
+    //пространственный индекс DisplayList, а холст перерисовывается только в области стёртых записей
+    private void onTouchEventEraser(MotionEvent event)
     {
+        if (eraserMode == ERASER_LASSO)
+        {
+            onTouchEventLasso(event);
+            return;
+        }
         switch (event.getAction())
         {
             case MotionEvent.ACTION_DOWN:
+                //Все стирания одного жеста - одна операция истории
                 isDrawing = true;
-                mStartX = mx;
-                mStartY = my;
+                eraseRecords = 0;
+                history.begin(store);
+                long hitStart = Metrics.start();
+                int index = displayList.hitTest(mx, my, eraserRadius(), layers.getActiveIndex());
+                Metrics.stop(Metrics.HIT_TEST, hitStart);
+                if (index >= 0 && displayList.getBounds(index, shapeBounds))
+                {
+                    erasing.add(index, shapeBounds);
+                    eraseSelection();
+                }
+                lastEraseX = mx;
+                lastEraseY = my;
                 break;
             case MotionEvent.ACTION_MOVE:
-                break;
             case MotionEvent.ACTION_UP:
-                isDrawing = false;
-                mCanvas.drawCircle(mStartX, mStartY, calculateRadius(mStartX,mStartY,mx,my), paint);
+                //Пока палец почти не сдвинулся, это касание, а не ведение
+                if (isDrawing && ShapeGeometry.distance(lastEraseX, lastEraseY, mx, my) >= TOUCH_TOLERANCE)
+                {
+                    eraseAlong(lastEraseX, lastEraseY, mx, my);
+                    lastEraseX = mx;
+                    lastEraseY = my;
+                }
+                if (event.getAction() == MotionEvent.ACTION_UP && isDrawing)
+                {
+                    isDrawing = false;
+                    history.setRecordCount(eraseRecords);
+                    history.commit();
+                }
                 break;
         }
-        //Перерисовать
-        invalidate();
     }
-
-    protected float calculateRadius(float x1, float y1, float x2, float y2)
+    //Стереть всё, что задевает ластик на пути от (x1, y1) до (x2, y2).
+    //Проверки идут с шагом в радиус ластика, чтобы между ними не оставалось щелей
+    private void eraseAlong(float x1, float y1, float x2, float y2)
     {
-        return (float) Math.sqrt(Math.pow(x1 - x2, 2) + Math.pow(y1 - y2, 2));
+        float radius = eraserRadius();
+        int layer = layers.getActiveIndex();
+        int steps = Math.max(1, (int) Math.ceil(ShapeGeometry.distance(x1, y1, x2, y2) / radius));
+        long hitStart = Metrics.start();
+        for (int i = 1; i <= steps; i++)
+        {
+            float t = (float) i / steps;
+            displayList.hitTestAll(x1 + (x2 - x1) * t, y1 + (y2 - y1) * t, radius, layer, erasing);
+        }
+        Metrics.stop(Metrics.HIT_TEST, hitStart);
+        eraseSelection();
     }
-    //----------------------------------------------------------------------------------------------
-    // Rectangle
-    private void onDrawRectangle(Canvas canvas)
+    //Радиус ластика
+    private float eraserRadius()
     {
-        drawRectangle(canvas, paint);
+        return Math.max(strokeWidth / 2, TOUCH_TOLERANCE);
     }
 
-    private void onTouchEventRectangle(MotionEvent event)
+    private void onTouchEventLasso(MotionEvent event)
     {
         switch (event.getAction())
         {
             case MotionEvent.ACTION_DOWN:
                 isDrawing = true;
-                mStartX = mx;
-                mStartY = my;
+                lassoCount = 0;
+                addLassoPoint(mx, my);
                 break;
             case MotionEvent.ACTION_MOVE:
+                addLassoPoint(mx, my);
                 break;
             case MotionEvent.ACTION_UP:
+                if (!isDrawing) return;
                 isDrawing = false;
-                drawRectangle(mCanvas, paint);
-                break;
+                addLassoPoint(mx, my);
+                long hitStart = Metrics.start();
+                displayList.selectInLasso(lasso, lassoCount, layers.getActiveIndex(), erasing);
+                Metrics.stop(Metrics.HIT_TEST, hitStart);
+                if (!erasing.isEmpty())
+                {
+                    history.begin(store);
+                    eraseSelection();
+                    history.commit();
+                }
+                //Стереть линию лассо
+                invalidateLasso();
+                lassoCount = 0;
+                dirtyRegion.resetPreview();
+                return;
         }
-        //Перерисовать
-        invalidate();
+        invalidateLasso();
     }
-
-    private void drawRectangle(Canvas canvas,Paint paint)
+    //Добавить точку лассо, если палец сдвинулся от прошлой
+    private void addLassoPoint(float x, float y)
     {
-        float right = Math.max(mStartX, mx);
-        float left = Math.min(mStartX, mx);
-        float bottom = Math.max(mStartY, my);
-        float top = Math.min(mStartY, my);
-        canvas.drawRect(left, top , right, bottom, paint);
+        if (lassoCount > 0 && ShapeGeometry.distance(lasso[lassoCount * 2 - 2], lasso[lassoCount * 2 - 1], x, y) < TOUCH_TOLERANCE)
+        {
+            return;
+        }
+        if (lassoCount * 2 + 2 > lasso.length) lasso = Arrays.copyOf(lasso, lasso.length * 2);
+        lasso[lassoCount * 2] = x;
+        lasso[lassoCount * 2 + 1] = y;
+        if (lassoCount == 0)
+        {
+            lassoLeft = lassoRight = x;
+            lassoTop = lassoBottom = y;
+        }
+        lassoLeft = Math.min(lassoLeft, x);
+        lassoTop = Math.min(lassoTop, y);
+        lassoRight = Math.max(lassoRight, x);
+        lassoBottom = Math.max(lassoBottom, y);
+        lassoCount++;
     }
-    //----------------------------------------------------------------------------------------------
-    // Square
-    private void onDrawSquare(Canvas canvas)
+    //Перерисовать объединение прошлых и новых границ лассо
+    private void invalidateLasso()
     {
-        onDrawRectangle(canvas);
+        if (lassoCount == 0) return;
+        invalidateDirty(dirtyRegion.updatePreview(lassoLeft, lassoTop, lassoRight, lassoBottom, LASSO_WIDTH));
     }
-
-    private void onTouchEventSquare(MotionEvent event)
+    //Стереть выбранные записи и нарисовать холст в их области заново из оставшихся записей
+    private void eraseSelection()
     {
-
-        switch (event.getAction()) {
+        if (erasing.isEmpty()) return;
+        int layer = layers.getActiveIndex();
+        displayList.addErase(erasing.getIndexes(), erasing.getCount());
+        eraseRecords++;
+        if (displayList.hasVisiblePixelRecords(layer))
+        {
+            //Заливки и переносы зависят от всех пикселей под ними - слой рисуется заново целиком
+            history.touchAll();
+            rebuildLayer(layer);
+            invalidateAll();
+        } else
+        {
+            erasing.getBounds(1, eraseBounds);
+            dirtyRect.set(eraseBounds[0], eraseBounds[1], eraseBounds[2], eraseBounds[3]);
+            history.touch(dirtyRect);
+            store.draw(dirtyRect, redrawOp);
+            invalidateDirty(dirtyRect);
+        }
+        erasing.clear();
+    }
+    //Прочитать все пиксели холста в fillPixels
+    private void readCanvasPixels(TiledCanvas target)
+    {
+        int length = target.getWidth() * target.getHeight();
+        if (fillPixels == null || fillPixels.length < length) fillPixels = new int[length];
+        target.readPixels(fillPixels);
+    }
+    //Прочитать пиксели области bounds холста в fillPixels: строки шириной bounds.width() подряд
+    private void readCanvasRegion(TiledCanvas target, Rect bounds)
+    {
+        int length = bounds.width() * bounds.height();
+        if (fillPixels == null || fillPixels.length < length) fillPixels = new int[length];
+        target.readRegion(fillPixels, bounds);
+    }
+    //----------------------------------------------------------------------------------------------
+    // Selection
+    //Выделение поднимает пиксели активного слоя в отдельный буфер, на холсте остаётся цвет основы слоя.
+    //Пока палец тянет выделение или его угол, оно выводится растянутым Bitmap без фильтрации (ближайший
+    //пиксель) и холст не меняется. При фиксации буфер растягивается фильтром selectionFilter полосами
+    //строк на всех ядрах и записывается на холст вместе с записью DisplayList.TRANSFORM
+    private void onTouchEventSelect(MotionEvent event)
+    {
+        switch (event.getAction())
+        {
             case MotionEvent.ACTION_DOWN:
-                isDrawing = true;
-                mStartX = mx;
-                mStartY = my;
+                if (floatingBitmap != null)
+                {
+                    dragCorner = findCorner(mx, my);
+                    if (dragCorner >= 0) selectionDrag = DRAG_CORNER;
+                    else if (floatingRect.contains(mx, my)) selectionDrag = DRAG_MOVE;
+                    //Касание мимо выделения опускает его и начинает новое
+                    else commitSelection();
+                }
+                if (floatingBitmap == null)
+                {
+                    isDrawing = true;
+                    lassoCount = 0;
+                    selectStartX = mx;
+                    selectStartY = my;
+                    addSelectionPoint(mx, my);
+                }
+                lastSelectX = mx;
+                lastSelectY = my;
                 break;
             case MotionEvent.ACTION_MOVE:
-                adjustSquare(mx, my);
+                if (selectionDrag != DRAG_NONE) dragFloating(mx, my);
+                else if (isDrawing) addSelectionPoint(mx, my);
                 break;
             case MotionEvent.ACTION_UP:
-                isDrawing = false;
-                adjustSquare(mx, my);
-                drawRectangle(mCanvas, paint);
+                if (selectionDrag != DRAG_NONE)
+                {
+                    dragFloating(mx, my);
+                    selectionDrag = DRAG_NONE;
+                } else if (isDrawing)
+                {
+                    isDrawing = false;
+                    addSelectionPoint(mx, my);
+                    invalidateLasso();
+                    liftSelection();
+                    lassoCount = 0;
+                    dirtyRegion.resetPreview();
+                    return;
+                }
                 break;
         }
-        //Перерисовать
-        invalidate();
+        if (isDrawing) invalidateLasso();
     }
-
-    private void adjustSquare(float x, float y)
+    //Добавить точку контура выделения: у прямоугольника контур - четыре угла
+    private void addSelectionPoint(float x, float y)
     {
-        float deltaX = Math.abs(mStartX - x);
-        float deltaY = Math.abs(mStartY - y);
-
-        float max = Math.max(deltaX, deltaY);
+        if (selectionMode == SELECT_LASSO)
+        {
+            addLassoPoint(x, y);
+            return;
+        }
+        lassoCount = 0;
+        addLassoPoint(selectStartX, selectStartY);
+        addLassoPoint(x, selectStartY);
+        addLassoPoint(x, y);
+        addLassoPoint(selectStartX, y);
+    }
+    //Поднять пиксели внутри контура выделения
+    private void liftSelection()
+    {
+        boolean isLasso = selectionMode == SELECT_LASSO;
+        if (lassoCount < (isLasso ? 3 : 2)) return;
+        selectionSource.set((int) Math.floor(lassoLeft), (int) Math.floor(lassoTop),
+                (int) Math.ceil(lassoRight), (int) Math.ceil(lassoBottom));
+        if (!selectionSource.intersect(0, 0, store.getWidth(), store.getHeight())) return;
+        //Читается и пишется только прямоугольник выделения, а не весь холст
+        readCanvasRegion(store, selectionSource);
+        int holeColor = layers.getActive().getBaseColor();
+        if (!selection.lift(fillPixels, selectionSource.left, selectionSource.top, selectionSource.width(),
+                selectionSource.height(), selectionSource.left, selectionSource.top, selectionSource.right,
+                selectionSource.bottom, isLasso ? lasso : null, lassoCount, holeColor))
+        {
+            return;
+        }
+        //Подъём и перенос - одна операция истории
+        history.begin(store);
+        history.touch(selectionSource);
+        store.writeRegion(fillPixels, selectionSource);
+        selectionLassoCount = isLasso ? lassoCount : 0;
+        if (selectionLasso.length < selectionLassoCount * 2) selectionLasso = new float[selectionLassoCount * 2];
+        System.arraycopy(lasso, 0, selectionLasso, 0, selectionLassoCount * 2);
 
-        mx = mStartX - x < 0 ? mStartX + max : mStartX - max;
-        my = mStartY - y < 0 ? mStartY + max : mStartY - max;
+        int width = selection.getWidth();
+        int height = selection.getHeight();
+        floatingBitmap = BitmapPool.getShared().obtain(width, height, Bitmap.Config.ARGB_8888);
+        floatingBitmap.setPixels(selection.getPixels(), 0, width, 0, 0, width, height);
+        floatingRect.set(selectionSource);
+        invalidateFloating();
+    }
+    //Перенести выделение или растянуть его за угол вслед за пальцем
+    private void dragFloating(float x, float y)
+    {
+        invalidateFloating();
+        if (selectionDrag == DRAG_MOVE)
+        {
+            floatingRect.offset(x - lastSelectX, y - lastSelectY);
+        } else
+        {
+            //Углы по часовой стрелке от левого верхнего, противоположный угол остаётся на месте
+            boolean isLeft = dragCorner == 0 || dragCorner == 3;
+            boolean isTop = dragCorner == 0 || dragCorner == 1;
+            if (isLeft) floatingRect.left = Math.min(x, floatingRect.right - MIN_SELECTION_SIZE);
+            else floatingRect.right = Math.max(x, floatingRect.left + MIN_SELECTION_SIZE);
+            if (isTop) floatingRect.top = Math.min(y, floatingRect.bottom - MIN_SELECTION_SIZE);
+            else floatingRect.bottom = Math.max(y, floatingRect.top + MIN_SELECTION_SIZE);
+        }
+        lastSelectX = x;
+        lastSelectY = y;
+        invalidateFloating();
+    }
+    //Угол выделения под точкой (0..3 по часовой стрелке от левого верхнего) или -1
+    private int findCorner(float x, float y)
+    {
+        for (int corner = 0; corner < 4; corner++)
+        {
+            float cornerX = corner == 0 || corner == 3 ? floatingRect.left : floatingRect.right;
+            float cornerY = corner == 0 || corner == 1 ? floatingRect.top : floatingRect.bottom;
+            if (ShapeGeometry.distance(x, y, cornerX, cornerY) <= HANDLE_RADIUS) return corner;
+        }
+        return -1;
+    }
+    //Вывести поднятое выделение, его рамку и углы
+    private void drawFloating(Canvas canvas)
+    {
+        floatingSource.set(0, 0, floatingBitmap.getWidth(), floatingBitmap.getHeight());
+        floatingMatrix.setRectToRect(floatingSource, floatingRect, Matrix.ScaleToFit.FILL);
+        canvas.drawBitmap(floatingBitmap, floatingMatrix, floatingPaint);
+        canvas.drawRect(floatingRect, lassoPaint);
+        for (int corner = 0; corner < 4; corner++)
+        {
+            canvas.drawCircle(corner == 0 || corner == 3 ? floatingRect.left : floatingRect.right,
+                    corner == 0 || corner == 1 ? floatingRect.top : floatingRect.bottom, HANDLE_RADIUS / 2, lassoPaint);
+        }
+    }
+    //Перерисовать выделение вместе с рамкой и углами
+    private void invalidateFloating()
+    {
+        int inset = (int) Math.ceil(HANDLE_RADIUS / 2 + LASSO_WIDTH) + 1;
+        floatingDirty.set((int) Math.floor(floatingRect.left) - inset, (int) Math.floor(floatingRect.top) - inset,
+                (int) Math.ceil(floatingRect.right) + inset, (int) Math.ceil(floatingRect.bottom) + inset);
+        invalidateDirty(floatingDirty);
+    }
+    //Опустить выделение: растянуть его в floatingRect, наложить на холст и записать перенос
+    private void commitSelection()
+    {
+        long commitStart = Metrics.start();
+        invalidateFloating();
+        //Место выделения уже залито при подъёме, поэтому читается и пишется только место, куда его опускают
+        dirtyRect.set((int) Math.floor(floatingRect.left), (int) Math.floor(floatingRect.top),
+                (int) Math.ceil(floatingRect.right), (int) Math.ceil(floatingRect.bottom));
+        if (dirtyRect.intersect(0, 0, store.getWidth(), store.getHeight()))
+        {
+            readCanvasRegion(store, dirtyRect);
+            if (selection.drop(fillPixels, dirtyRect.left, dirtyRect.top, dirtyRect.width(), dirtyRect.height(),
+                    floatingRect.left, floatingRect.top, floatingRect.right, floatingRect.bottom,
+                    selectionFilter, transformBounds))
+            {
+                history.touch(dirtyRect);
+                store.writeRegion(fillPixels, dirtyRect);
+                invalidateDirty(dirtyRect);
+            }
+        }
+        displayList.addTransform(layers.getActive().getBaseColor(), selectionFilter,
+                selectionSource.left, selectionSource.top, selectionSource.right, selectionSource.bottom,
+                floatingRect.left, floatingRect.top, floatingRect.right, floatingRect.bottom,
+                selectionLasso, selectionLassoCount);
+        history.commit();
+        BitmapPool.getShared().releaseLater(floatingBitmap);
+        floatingBitmap = null;
+        selectionDrag = DRAG_NONE;
+        Metrics.stop(Metrics.COMMIT_SELECTION, commitStart);
+    }
+    //Выполнить запись TRANSFORM над пикселями слоя размером width x height, нарисованного в масштабе scale.
+    //Изменённая область - transformBounds. Возвращает false, если пиксели не изменились
+    private boolean replayTransform(int[] pixels, int width, int height, int index, float scale)
+    {
+        float[] coords = displayList.getCoords();
+        int c = displayList.getCoordStart(index);
+        int lassoCount = (displayList.getCoordCount(index) - DisplayList.TRANSFORM_HEADER) / 2;
+        if (replayLasso.length < lassoCount * 2) replayLasso = new float[lassoCount * 2];
+        for (int i = 0; i < lassoCount * 2; i++) replayLasso[i] = coords[c + DisplayList.TRANSFORM_HEADER + i] * scale;
+        int left = (int) Math.floor(coords[c + 1] * scale);
+        int top = (int) Math.floor(coords[c + 2] * scale);
+        int right = (int) Math.ceil(coords[c + 3] * scale);
+        int bottom = (int) Math.ceil(coords[c + 4] * scale);
+        if (!replaySelection.lift(pixels, width, height, left, top, right, bottom,
+                lassoCount > 0 ? replayLasso : null, lassoCount, displayList.getColor(index)))
+        {
+            return false;
+        }
+        //Изменённая область - место, откуда подняты пиксели, и место, куда они перенесены
+        int liftLeft = Math.max(left, 0), liftTop = Math.max(top, 0);
+        int liftRight = Math.min(right, width), liftBottom = Math.min(bottom, height);
+        if (replaySelection.drop(pixels, width, height, coords[c + 5] * scale, coords[c + 6] * scale,
+                coords[c + 7] * scale, coords[c + 8] * scale, (int) coords[c], transformBounds))
+        {
+            liftLeft = Math.min(liftLeft, transformBounds[0]);
+            liftTop = Math.min(liftTop, transformBounds[1]);
+            liftRight = Math.max(liftRight, transformBounds[2]);
+            liftBottom = Math.max(liftBottom, transformBounds[3]);
+        }
+        transformBounds[0] = liftLeft;
+        transformBounds[1] = liftTop;
+        transformBounds[2] = liftRight;
+        transformBounds[3] = liftBottom;
+        return true;
     }
     //----------------------------------------------------------------------------------------------
+    // Filters
+    //Применить цепочку фильтров к активному слою. Сразу выводится предпросмотр, посчитанный на уменьшенной
+    //копии слоя, а полный размер считается в фоне и заменяет слой, когда готов. Пока он считается, касания
+    //не обрабатываются, а другие операции откладываются до записи фильтра (deferUntilFilter)
+    public void applyFilter(FilterPipeline pipeline)
+    {
+        //Цепочку можно менять сразу после вызова
+        FilterPipeline stages = new FilterPipeline();
+        stages.setStages(pipeline);
+        if (postToRenderThread(() -> startFilter(stages))) return;
+        startFilter(stages);
+    }
 
+    private void startFilter(FilterPipeline stages)
+    {
+        if (deferUntilFilter(() -> startFilter(stages))) return;
+        finishCurrentOperation();
+        if (store == null || stages.isEmpty()) return;
+        filterPipeline.setStages(stages);
+        int width = store.getWidth();
+        int height = store.getHeight();
+        readCanvasPixels(store);
+        showFilterPreview(width, height);
+        int[] pixels = fillPixels;
+        FutureTask<Void> task = new FutureTask<Void>(() -> {
+            long applyStart = Metrics.start();
+            filterPipeline.apply(pixels, width, height, 1);
+            Metrics.stop(Metrics.FILTER_APPLY, applyStart);
+        }, null)
+        {
+            //Расчёт закончен (или упал): finishFilter получит результат без ожидания
+            @Override
+            protected void done()
+            {
+                if (!postToRenderThread(DrawingView.this::finishFilter)) post(DrawingView.this::finishFilter);
+            }
+        };
+        filterTask = task;
+        filterExecutor.execute(task);
+    }
+    //Пока фильтр считается, отложить операцию action до его записи, чтобы не ждать расчёт в этом потоке.
+    //Возвращает false, если фильтр не считается и операцию можно выполнять сразу
+    private boolean deferUntilFilter(Runnable action)
+    {
+        if (filterTask == null) return false;
+        if (filterTask.isDone())
+        {
+            finishFilter();
+            //Отложенные раньше операции могли снова запустить фильтр
+            if (filterTask == null) return false;
+        }
+        afterFilter.add(action);
+        return true;
+    }
+    //Посчитать цепочку на уменьшенной копии слоя и вывести её вместо слоя
+    private void showFilterPreview(int width, int height)
+    {
+        long previewStart = Metrics.start();
+        float scale = Math.min(1, (float) FILTER_PREVIEW_SIZE / Math.max(width, height));
+        int previewWidth = Math.max(1, Math.round(width * scale));
+        int previewHeight = Math.max(1, Math.round(height * scale));
+        int length = previewWidth * previewHeight;
+        if (previewPixels == null || previewPixels.length < length) previewPixels = new int[length];
+        Arrays.fill(previewPixels, 0, length, 0);
+        Resampler.drawScaled(fillPixels, width, height, previewPixels, previewWidth, previewHeight,
+                0, 0, previewWidth, previewHeight, Resampler.BILINEAR, transformBounds);
+        previewPipeline.setStages(filterPipeline);
+        previewPipeline.apply(previewPixels, previewWidth, previewHeight, (float) previewWidth / width);
+        filterPreview = BitmapPool.getShared().obtain(previewWidth, previewHeight, Bitmap.Config.ARGB_8888);
+        filterPreview.setPixels(previewPixels, 0, previewWidth, 0, 0, previewWidth, previewHeight);
+        layers.setActivePreview(filterPreview);
+        invalidateAll();
+        Metrics.stop(Metrics.FILTER_PREVIEW, previewStart);
+    }
+    //Записать посчитанный полный размер в слой вместо предпросмотра, добавить запись FILTER
+    //и выполнить операции, отложенные до этого. Вызывается только после окончания расчёта.
+    //Если расчёт упал (например, не хватило памяти на большом слое), слой остаётся как был
+    private void finishFilter()
+    {
+        Future<?> task = filterTask;
+        //Уже записан раньше, чем дошла очередь до этого вызова
+        if (task == null || !task.isDone()) return;
+        filterTask = null;
+        boolean isApplied = false;
+        try
+        {
+            task.get();
+            isApplied = true;
+        } catch (InterruptedException | ExecutionException e)
+        {
+            Log.e(TAG, "Filter failed", e.getCause() != null ? e.getCause() : e);
+        }
+        if (isApplied)
+        {
+            history.begin(store);
+            history.touchAll();
+            dirtyRect.set(0, 0, store.getWidth(), store.getHeight());
+            store.writePixels(fillPixels, dirtyRect);
+            displayList.addFilter(filterPipeline);
+            history.commit();
+        }
+        layers.setActivePreview(null);
+        BitmapPool.getShared().releaseLater(filterPreview);
+        filterPreview = null;
+        invalidateAll();
+        //Если операция снова запустит фильтр, следующие за ней отложат себя заново
+        Runnable[] actions = afterFilter.toArray(new Runnable[0]);
+        afterFilter.clear();
+        for (Runnable action : actions) action.run();
+    }
+    //Выполнить запись FILTER над пикселями слоя размером width x height, нарисованного в масштабе scale.
+    //Изменённая область - transformBounds (весь слой)
+    private boolean replayFilter(int[] pixels, int width, int height, int index, float scale)
+    {
+        replayPipeline.setParams(displayList.getCoords(), displayList.getCoordStart(index), displayList.getCoordCount(index));
+        if (replayPipeline.isEmpty()) return false;
+        replayPipeline.apply(pixels, width, height, scale);
+        transformBounds[0] = 0;
+        transformBounds[1] = 0;
+        transformBounds[2] = width;
+        transformBounds[3] = height;
+        return true;
+    }
+    //----------------------------------------------------------------------------------------------
+    //Начать операцию истории для фигуры в этих границах
+    private void beginCommit(float x1, float y1, float x2, float y2)
+    {
+        int inset = (int) Math.ceil(strokeWidth) + 1;
+        dirtyRect.set((int) Math.floor(Math.min(x1, x2)) - inset,
+                (int) Math.floor(Math.min(y1, y2)) - inset,
+                (int) Math.ceil(Math.max(x1, x2)) + inset,
+                (int) Math.ceil(Math.max(y1, y2)) + inset);
+        history.begin(store);
+        history.touch(dirtyRect);
+    }
+    //Зафиксировать незаконченный штрих или фигуру перед отменой
+    private void finishCurrentOperation()
+    {
+        if (isDrawing && currentShape == BRUSH && isMultiTouch)
+        {
+            finishMultiTouch();
+        } else if (isDrawing && currentShape == BRUSH)
+        {
+            smoother.finish();
+            rasterizePendingStroke();
+            recordStroke();
+        } else if (isDrawing && currentShape == ERASER)
+        {
+            //Стёртое остаётся стёртым, незаконченное лассо пропадает
+            history.setRecordCount(eraseRecords);
+            if (lassoCount > 0) invalidateLasso();
+            lassoCount = 0;
+        } else if (isDrawing && currentShape == SELECT)
+        {
+            if (lassoCount > 0) invalidateLasso();
+            lassoCount = 0;
+        }
+        //Поднятое выделение опускается туда, куда его перенесли
+        if (floatingBitmap != null) commitSelection();
+        isDrawing = false;
+        hasPrediction = false;
+        history.commit();
+        //Незаконченный многоугольник фиксируется как есть
+        if (shapeTool != null && shapeTool.finish() && store != null) commitShape();
+        dirtyRegion.resetPreview();
+    }
+    //----------------------------------------------------------------------------------------------
+    //Перерисовать всю View
+    private void invalidateAll()
+    {
+        dirtyRegion.addAll();
+        RenderThread thread = renderThread;
+        if (thread != null)
+        {
+            viewDirtyRect.set(0, 0, getWidth(), getHeight());
+            thread.requestFrame(viewDirtyRect);
+        } else
+        {
+            invalidate();
+        }
+    }
+    //Перерисовать только изменённую область (в координатах холста)
+    private void invalidateDirty(Rect rect)
+    {
+        viewport.toView(rect, viewDirtyRect);
+        dirtyRegion.add(viewDirtyRect);
+        RenderThread thread = renderThread;
+        if (thread != null) thread.requestFrame(viewDirtyRect);
+        else invalidate(viewDirtyRect);
+    }
+    //----------------------------------------------------------------------------------------------
+    //Если работает поток рисования, а вызов пришёл из другого потока - выполнить action в потоке рисования.
+    //Возвращает true, если action отправлен в поток рисования
+    private boolean postToRenderThread(Runnable action)
+    {
+        RenderThread thread = renderThread;
+        if (thread == null || Thread.currentThread() == thread) return false;
+        thread.post(action);
+        return true;
+    }
+    //Выполнить call в потоке рисования и дождаться результата
+    private <T> T callOnRenderThread(Callable<T> call)
+    {
+        FutureTask<T> task = new FutureTask<>(call);
+        if (!postToRenderThread(task)) task.run();
+        try
+        {
+            return task.get();
+        } catch (InterruptedException | ExecutionException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+    //Остановить поток рисования и вернуться к рисованию в onDraw
+    private void stopRenderThread()
+    {
+        RenderThread thread = renderThread;
+        if (thread == null) return;
+        thread.quit();
+        renderThread = null;
+        invalidateAll();
+    }
     //----------------------------------------------------------------------------------------------
     private void addToLog(String msg)
     {
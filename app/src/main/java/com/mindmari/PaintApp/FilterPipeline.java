@@ -0,0 +1,603 @@
+package com.mindmari.PaintApp;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+
+//Цепочка фильтров над пикселями холста без зависимостей от Android: размытие Гаусса, нерезкая маска
+//(повышение резкости), уровни и кривая. Пиксели - ARGB без домножения на альфу, как у Bitmap.getPixels.
+//Размытие и резкость считаются по цветам, домноженным на альфу (у прозрачных краёв нет тёмной каймы),
+//уровни и кривая - по исходным цветам, перевод между ними делается только при смене вида стадии.
+//Картинка делится на плитки TILE_SIZE x TILE_SIZE, каждый проход по плиткам идёт параллельно в ForkJoinPool:
+//плитка читает один буфер и пишет только свои пиксели другого, поэтому блокировки не нужны.
+//Промежуточные буферы принадлежат цепочке и переиспользуются, стадии их не выделяют.
+//Один объект нельзя применять из нескольких потоков одновременно.
+//Используется DrawingView и модулем benchmark
+public class FilterPipeline
+{
+    //Виды стадий
+    public static final int BLUR = 0;
+    public static final int SHARPEN = 1;
+    public static final int LEVELS = 2;
+    public static final int CURVE = 3;
+    //Сторона плитки, как у TiledCanvas
+    public static final int TILE_SIZE = 256;
+
+    //Радиус, начиная с которого размытие Гаусса заменяется тремя проходами прямоугольного:
+    //ядро Гаусса стоит 2r+1 умножений на пиксель, скользящая сумма - несколько сложений при любом радиусе
+    private static final float BOX_BLUR_RADIUS = 10;
+    //Прямоугольных проходов в приближении Гаусса
+    private static final int BOX_PASSES = 3;
+    //Точность весов в фиксированной точке
+    private static final int WEIGHT_BITS = 16;
+    private static final int WEIGHT_ONE = 1 << WEIGHT_BITS;
+
+    //Проходы по плиткам
+    private static final int PASS_PREMULTIPLY = 0;
+    private static final int PASS_UNPREMULTIPLY = 1;
+    private static final int PASS_LUT = 2;
+    private static final int PASS_GAUSS_H = 3;
+    private static final int PASS_GAUSS_V = 4;
+    private static final int PASS_BOX_H = 5;
+    private static final int PASS_BOX_V = 6;
+    private static final int PASS_SHARPEN = 7;
+
+    private static final int CORES = Math.max(1, Runtime.getRuntime().availableProcessors());
+    //Пул для плиток и сколько потоков в нём (1 - всё в вызывающем потоке)
+    private static ForkJoinPool pool;
+    private static int threads = CORES;
+
+    //Стадии: вид, параметры (как их передали в add...) и таблица значений для уровней и кривой
+    private int[] types = new int[4];
+    private float[][] params = new float[4][];
+    private int[][] tables = new int[4][];
+    private int stageCount = 0;
+
+    //Промежуточные буферы размером с картинку
+    private int[] scratch = new int[0];
+    private int[] blurred = new int[0];
+    //Накопители одной плитки для вертикальных проходов (4 канала на столбец), у каждой плитки свой участок
+    private int[] accumulators = new int[0];
+    //Таблица подряд идущих стадий уровней и кривой, сведённых в одну
+    private final int[] combinedTable = new int[256];
+    //Ядро Гаусса в фиксированной точке
+    private int[] kernel = new int[1];
+
+    //Состояние текущего прохода: его читают плитки
+    private int pass;
+    private int[] source;
+    private int[] target;
+    private int width;
+    private int height;
+    private int tilesX;
+    private int radius;
+    private int boxScale;
+    private int sharpenAmount;
+    private int sharpenThreshold;
+    //----------------------------------------------------------------------------------------------
+    //Ограничить количество потоков (1 - только вызывающий поток, 0 - все ядра).
+    //Следующий проход возьмёт новый пул, а проходы, которые уже идут в старом, доработают в нём
+    public static synchronized void setThreads(int count)
+    {
+        int next = count <= 0 ? CORES : Math.min(count, CORES);
+        if (next == threads) return;
+        threads = next;
+        ForkJoinPool old = pool;
+        pool = null;
+        if (old != null) old.shutdown();
+    }
+
+    private static synchronized ForkJoinPool getPool()
+    {
+        if (threads == 1) return null;
+        if (pool == null) pool = new ForkJoinPool(threads);
+        return pool;
+    }
+    //----------------------------------------------------------------------------------------------
+    //Размытие Гаусса радиусом radius пикселей (сигма - треть радиуса)
+    public void addBlur(float radius)
+    {
+        addStage(BLUR, new float[]{radius});
+    }
+    //Нерезкая маска: к пикселю прибавляется amount его разницы с размытым радиусом radius.
+    //Разница меньше threshold (0..255) по каналу не усиливается, чтобы не проявлять шум
+    public void addSharpen(float radius, float amount, int threshold)
+    {
+        addStage(SHARPEN, new float[]{radius, amount, threshold});
+    }
+    //Уровни: black и white (0..255) становятся чёрным и белым, gamma > 1 высветляет средние тона
+    public void addLevels(int black, int white, float gamma)
+    {
+        addStage(LEVELS, new float[]{black, white, gamma});
+    }
+    //Кривая через count точек (x, y парами, 0..255, x по возрастанию, не меньше двух точек),
+    //между точками - монотонный кубический сплайн
+    public void addCurve(float[] points, int count)
+    {
+        if (count < 2) return;
+        addStage(CURVE, Arrays.copyOf(points, count * 2));
+    }
+    //Удалить все стадии (буферы остаются для следующей цепочки)
+    public void clear()
+    {
+        stageCount = 0;
+    }
+
+    public boolean isEmpty()
+    {
+        return stageCount == 0;
+    }
+    //----------------------------------------------------------------------------------------------
+    //Сколько чисел занимают стадии в getParams
+    public int getParamCount()
+    {
+        int count = 0;
+        for (int i = 0; i < stageCount; i++) count += 2 + params[i].length;
+        return count;
+    }
+    //Записать стадии в out начиная с offset: вид, количество параметров, параметры
+    public void getParams(float[] out, int offset)
+    {
+        for (int i = 0; i < stageCount; i++)
+        {
+            out[offset++] = types[i];
+            out[offset++] = params[i].length;
+            System.arraycopy(params[i], 0, out, offset, params[i].length);
+            offset += params[i].length;
+        }
+    }
+    //Заменить стадии записанными getParams в c с start, count чисел
+    public void setParams(float[] c, int start, int count)
+    {
+        clear();
+        int end = start + count;
+        while (start + 2 <= end)
+        {
+            int type = (int) c[start];
+            int length = (int) c[start + 1];
+            start += 2;
+            if (length < 0 || start + length > end) break;
+            float[] values = Arrays.copyOfRange(c, start, start + length);
+            start += length;
+            if (type == CURVE && length >= 4 && length % 2 == 0) addStage(CURVE, values);
+            else if (type == BLUR && length == 1 || type == SHARPEN && length == 3 || type == LEVELS && length == 3)
+            {
+                addStage(type, values);
+            }
+        }
+    }
+    //Скопировать стадии другой цепочки (буферы у каждой свои)
+    public void setStages(FilterPipeline other)
+    {
+        clear();
+        for (int i = 0; i < other.stageCount; i++) addStage(other.types[i], other.params[i].clone());
+    }
+    //----------------------------------------------------------------------------------------------
+    //Применить цепочку к картинке width x height на месте. scale - масштаб картинки относительно холста,
+    //на котором задавались радиусы (меньше 1 - уменьшенный предпросмотр или сохранение в меньшем размере)
+    public void apply(int[] pixels, int width, int height, float scale)
+    {
+        if (stageCount == 0 || width == 0 || height == 0) return;
+        int length = width * height;
+        if (scratch.length < length) scratch = new int[length];
+        this.width = width;
+        this.height = height;
+        tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        int tiles = tilesX * ((height + TILE_SIZE - 1) / TILE_SIZE);
+        if (accumulators.length < tiles * TILE_SIZE * 4) accumulators = new int[tiles * TILE_SIZE * 4];
+
+        boolean isPremultiplied = false;
+        for (int i = 0; i < stageCount; i++)
+        {
+            int type = types[i];
+            if (type == LEVELS || type == CURVE)
+            {
+                //Подряд идущие таблицы сводятся в одну и проходят по пикселям один раз
+                for (int v = 0; v < 256; v++) combinedTable[v] = tables[i][v];
+                while (i + 1 < stageCount && (types[i + 1] == LEVELS || types[i + 1] == CURVE))
+                {
+                    i++;
+                    for (int v = 0; v < 256; v++) combinedTable[v] = tables[i][combinedTable[v]];
+                }
+                if (isPremultiplied) runPass(PASS_UNPREMULTIPLY, pixels, pixels);
+                isPremultiplied = false;
+                runPass(PASS_LUT, pixels, pixels);
+                continue;
+            }
+            float stageRadius = params[i][0] * scale;
+            //Меньше полупикселя размытие не заметно
+            if (stageRadius < 0.5f) continue;
+            if (!isPremultiplied) runPass(PASS_PREMULTIPLY, pixels, pixels);
+            isPremultiplied = true;
+            if (type == BLUR)
+            {
+                blur(pixels, pixels, stageRadius);
+            } else
+            {
+                if (blurred.length < length) blurred = new int[length];
+                blur(pixels, blurred, stageRadius);
+                sharpenAmount = Math.round(params[i][1] * WEIGHT_ONE);
+                sharpenThreshold = (int) params[i][2];
+                runPass(PASS_SHARPEN, pixels, pixels);
+            }
+        }
+        if (isPremultiplied) runPass(PASS_UNPREMULTIPLY, pixels, pixels);
+        source = target = null;
+    }
+    //----------------------------------------------------------------------------------------------
+    private void addStage(int type, float[] values)
+    {
+        if (stageCount == types.length)
+        {
+            types = Arrays.copyOf(types, stageCount * 2);
+            params = Arrays.copyOf(params, stageCount * 2);
+            tables = Arrays.copyOf(tables, stageCount * 2);
+        }
+        types[stageCount] = type;
+        params[stageCount] = values;
+        if (type == LEVELS) tables[stageCount] = levelsTable(values[0], values[1], values[2]);
+        else if (type == CURVE) tables[stageCount] = curveTable(values, values.length / 2);
+        else tables[stageCount] = null;
+        stageCount++;
+    }
+    //Размыть src в dst (можно тот же буфер) через scratch
+    private void blur(int[] src, int[] dst, float blurRadius)
+    {
+        if (blurRadius < BOX_BLUR_RADIUS)
+        {
+            buildKernel(blurRadius);
+            runPass(PASS_GAUSS_H, src, scratch);
+            runPass(PASS_GAUSS_V, scratch, dst);
+            return;
+        }
+        //Три прямоугольных размытия подряд почти не отличаются от Гаусса с той же дисперсией
+        float sigma = blurRadius / 3;
+        int ideal = (int) Math.floor(Math.sqrt(12 * sigma * sigma / BOX_PASSES + 1));
+        int lower = ideal % 2 == 0 ? ideal - 1 : ideal;
+        int upper = lower + 2;
+        int lowerCount = Math.round((12 * sigma * sigma - BOX_PASSES * lower * lower - 4 * BOX_PASSES * lower - 3 * BOX_PASSES)
+                / (-4f * lower - 4));
+        for (int i = 0; i < BOX_PASSES; i++)
+        {
+            int size = i < lowerCount ? lower : upper;
+            radius = size / 2;
+            boxScale = WEIGHT_ONE / size;
+            runPass(PASS_BOX_H, i == 0 ? src : dst, scratch);
+            runPass(PASS_BOX_V, scratch, dst);
+        }
+    }
+    //Ядро Гаусса радиусом blurRadius, сумма весов - WEIGHT_ONE
+    private void buildKernel(float blurRadius)
+    {
+        radius = (int) Math.ceil(blurRadius);
+        float sigma = Math.max(blurRadius / 3, 0.5f);
+        if (kernel.length < radius * 2 + 1) kernel = new int[radius * 2 + 1];
+        double sum = 0;
+        for (int k = -radius; k <= radius; k++) sum += Math.exp(-k * k / (2.0 * sigma * sigma));
+        int total = 0;
+        for (int k = -radius; k <= radius; k++)
+        {
+            kernel[k + radius] = (int) Math.round(Math.exp(-k * k / (2.0 * sigma * sigma)) / sum * WEIGHT_ONE);
+            total += kernel[k + radius];
+        }
+        //Остаток округления - в центр, чтобы однотонная картинка не темнела
+        kernel[radius] += WEIGHT_ONE - total;
+    }
+    //Таблица уровней
+    private static int[] levelsTable(float black, float white, float gamma)
+    {
+        int[] table = new int[256];
+        float range = Math.max(1, white - black);
+        for (int v = 0; v < 256; v++)
+        {
+            float t = Math.max(0, Math.min(1, (v - black) / range));
+            table[v] = Math.round((float) Math.pow(t, 1 / Math.max(gamma, 0.01f)) * 255);
+        }
+        return table;
+    }
+    //Таблица кривой: монотонный кубический сплайн Фритча-Карлсона, за крайними точками - горизонтально
+    private static int[] curveTable(float[] points, int count)
+    {
+        int[] table = new int[256];
+        float[] slopes = new float[count];
+        for (int i = 0; i < count; i++)
+        {
+            float before = i > 0 ? secant(points, i - 1) : secant(points, i);
+            float after = i < count - 1 ? secant(points, i) : before;
+            float average = (before + after) / 2;
+            //На перегибе и на ровном участке касательная горизонтальна, а крутая ограничена,
+            //иначе кривая выходит за точки
+            slopes[i] = before * after <= 0 ? 0 : Math.signum(average)
+                    * Math.min(Math.abs(average), 3 * Math.min(Math.abs(before), Math.abs(after)));
+        }
+        int segment = 0;
+        for (int v = 0; v < 256; v++)
+        {
+            while (segment < count - 2 && v > points[segment * 2 + 2]) segment++;
+            float x0 = points[segment * 2], y0 = points[segment * 2 + 1];
+            float x1 = points[segment * 2 + 2], y1 = points[segment * 2 + 3];
+            float value;
+            if (v <= x0) value = y0;
+            else if (v >= x1) value = y1;
+            else
+            {
+                float h = x1 - x0;
+                float t = (v - x0) / h;
+                float t2 = t * t, t3 = t2 * t;
+                value = (2 * t3 - 3 * t2 + 1) * y0 + (t3 - 2 * t2 + t) * h * slopes[segment]
+                        + (-2 * t3 + 3 * t2) * y1 + (t3 - t2) * h * slopes[segment + 1];
+            }
+            table[v] = Math.max(0, Math.min(255, Math.round(value)));
+        }
+        return table;
+    }
+    //Наклон отрезка между точками i и i + 1
+    private static float secant(float[] points, int i)
+    {
+        float dx = points[i * 2 + 2] - points[i * 2];
+        return dx <= 0 ? 0 : (points[i * 2 + 3] - points[i * 2 + 1]) / dx;
+    }
+    //----------------------------------------------------------------------------------------------
+    //Выполнить проход по всем плиткам
+    private void runPass(int pass, int[] src, int[] dst)
+    {
+        this.pass = pass;
+        source = src;
+        target = dst;
+        int tiles = tilesX * ((height + TILE_SIZE - 1) / TILE_SIZE);
+        ForkJoinPool executor = getPool();
+        if (executor == null || tiles == 1)
+        {
+            for (int tile = 0; tile < tiles; tile++) runTile(tile);
+        } else
+        {
+            try
+            {
+                executor.invoke(new TileTask(0, tiles));
+            } catch (RejectedExecutionException e)
+            {
+                //Пул остановлен setThreads между getPool и invoke: ни одна плитка не начата
+                for (int tile = 0; tile < tiles; tile++) runTile(tile);
+            }
+        }
+    }
+    //Плитки с from по to (не включая): делятся пополам, пока не останется одна
+    private class TileTask extends RecursiveAction
+    {
+        private final int from;
+        private final int to;
+
+        TileTask(int from, int to)
+        {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from == 1)
+            {
+                runTile(from);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new TileTask(from, middle), new TileTask(middle, to));
+        }
+    }
+
+    private void runTile(int tile)
+    {
+        int left = tile % tilesX * TILE_SIZE;
+        int top = tile / tilesX * TILE_SIZE;
+        int right = Math.min(left + TILE_SIZE, width);
+        int bottom = Math.min(top + TILE_SIZE, height);
+        switch (pass)
+        {
+            case PASS_PREMULTIPLY:
+            case PASS_UNPREMULTIPLY:
+            case PASS_LUT:
+            case PASS_SHARPEN:
+                for (int y = top; y < bottom; y++) pointRow(y * width + left, y * width + right);
+                break;
+            case PASS_GAUSS_H:
+                for (int y = top; y < bottom; y++) gaussRow(y, left, right);
+                break;
+            case PASS_GAUSS_V:
+                gaussColumns(tile * TILE_SIZE * 4, left, top, right, bottom);
+                break;
+            case PASS_BOX_H:
+                for (int y = top; y < bottom; y++) boxRow(y, left, right);
+                break;
+            case PASS_BOX_V:
+                boxColumns(tile * TILE_SIZE * 4, left, top, right, bottom);
+                break;
+        }
+    }
+    //Попиксельные проходы над пикселями с from по to (не включая)
+    private void pointRow(int from, int to)
+    {
+        int[] src = source;
+        int[] dst = target;
+        for (int i = from; i < to; i++)
+        {
+            int pixel = src[i];
+            int a = pixel >>> 24;
+            int r = (pixel >> 16) & 0xFF;
+            int g = (pixel >> 8) & 0xFF;
+            int b = pixel & 0xFF;
+            switch (pass)
+            {
+                case PASS_PREMULTIPLY:
+                    //Непрозрачные пиксели не меняются
+                    if (a == 255) continue;
+                    r = (r * a + 127) / 255;
+                    g = (g * a + 127) / 255;
+                    b = (b * a + 127) / 255;
+                    break;
+                case PASS_UNPREMULTIPLY:
+                    if (a == 255) continue;
+                    if (a == 0)
+                    {
+                        r = g = b = 0;
+                        break;
+                    }
+                    r = Math.min(255, (r * 255 + a / 2) / a);
+                    g = Math.min(255, (g * 255 + a / 2) / a);
+                    b = Math.min(255, (b * 255 + a / 2) / a);
+                    break;
+                case PASS_LUT:
+                    r = combinedTable[r];
+                    g = combinedTable[g];
+                    b = combinedTable[b];
+                    break;
+                default:
+                    //Нерезкая маска по цветам, домноженным на альфу: канал не может быть больше альфы
+                    int blur = blurred[i];
+                    r = sharpen(r, (blur >> 16) & 0xFF, a);
+                    g = sharpen(g, (blur >> 8) & 0xFF, a);
+                    b = sharpen(b, blur & 0xFF, a);
+                    break;
+            }
+            dst[i] = (a << 24) | (r << 16) | (g << 8) | b;
+        }
+    }
+
+    private int sharpen(int value, int blur, int alpha)
+    {
+        int difference = value - blur;
+        if (Math.abs(difference) < sharpenThreshold) return value;
+        int result = value + ((difference * sharpenAmount + (WEIGHT_ONE >> 1)) >> WEIGHT_BITS);
+        return Math.max(0, Math.min(alpha, result));
+    }
+    //Горизонтальное ядро Гаусса для строки y с left по right
+    private void gaussRow(int y, int left, int right)
+    {
+        int[] src = source;
+        int[] dst = target;
+        int row = y * width;
+        int last = width - 1;
+        for (int x = left; x < right; x++)
+        {
+            int a = 0, r = 0, g = 0, b = 0;
+            boolean isInside = x - radius >= 0 && x + radius <= last;
+            for (int k = -radius; k <= radius; k++)
+            {
+                int pixel = src[row + (isInside ? x + k : Math.max(0, Math.min(last, x + k)))];
+                int weight = kernel[k + radius];
+                a += (pixel >>> 24) * weight;
+                r += ((pixel >> 16) & 0xFF) * weight;
+                g += ((pixel >> 8) & 0xFF) * weight;
+                b += (pixel & 0xFF) * weight;
+            }
+            dst[row + x] = pack(a, r, g, b);
+        }
+    }
+    //Вертикальное ядро Гаусса для плитки: строки ядра прибавляются к накопителям столбцов по очереди,
+    //поэтому память читается подряд, а не прыжками через строку
+    private void gaussColumns(int offset, int left, int top, int right, int bottom)
+    {
+        int[] src = source;
+        int[] dst = target;
+        int[] sums = accumulators;
+        int columns = right - left;
+        int last = height - 1;
+        for (int y = top; y < bottom; y++)
+        {
+            Arrays.fill(sums, offset, offset + columns * 4, 0);
+            for (int k = -radius; k <= radius; k++)
+            {
+                int row = Math.max(0, Math.min(last, y + k)) * width;
+                int weight = kernel[k + radius];
+                for (int x = left, s = offset; x < right; x++, s += 4)
+                {
+                    int pixel = src[row + x];
+                    sums[s] += (pixel >>> 24) * weight;
+                    sums[s + 1] += ((pixel >> 16) & 0xFF) * weight;
+                    sums[s + 2] += ((pixel >> 8) & 0xFF) * weight;
+                    sums[s + 3] += (pixel & 0xFF) * weight;
+                }
+            }
+            int row = y * width;
+            for (int x = left, s = offset; x < right; x++, s += 4)
+            {
+                dst[row + x] = pack(sums[s], sums[s + 1], sums[s + 2], sums[s + 3]);
+            }
+        }
+    }
+    //Горизонтальное прямоугольное размытие строки y: скользящая сумма 2 * radius + 1 пикселей
+    private void boxRow(int y, int left, int right)
+    {
+        int[] src = source;
+        int[] dst = target;
+        int row = y * width;
+        int last = width - 1;
+        int a = 0, r = 0, g = 0, b = 0;
+        for (int k = left - radius; k <= left + radius; k++)
+        {
+            int pixel = src[row + Math.max(0, Math.min(last, k))];
+            a += pixel >>> 24;
+            r += (pixel >> 16) & 0xFF;
+            g += (pixel >> 8) & 0xFF;
+            b += pixel & 0xFF;
+        }
+        for (int x = left; x < right; x++)
+        {
+            dst[row + x] = pack(a * boxScale, r * boxScale, g * boxScale, b * boxScale);
+            int added = src[row + Math.min(last, x + radius + 1)];
+            int removed = src[row + Math.max(0, x - radius)];
+            a += (added >>> 24) - (removed >>> 24);
+            r += ((added >> 16) & 0xFF) - ((removed >> 16) & 0xFF);
+            g += ((added >> 8) & 0xFF) - ((removed >> 8) & 0xFF);
+            b += (added & 0xFF) - (removed & 0xFF);
+        }
+    }
+    //Вертикальное прямоугольное размытие плитки: скользящие суммы всех столбцов плитки сдвигаются вниз построчно
+    private void boxColumns(int offset, int left, int top, int right, int bottom)
+    {
+        int[] src = source;
+        int[] dst = target;
+        int[] sums = accumulators;
+        int columns = right - left;
+        int last = height - 1;
+        Arrays.fill(sums, offset, offset + columns * 4, 0);
+        for (int k = top - radius; k <= top + radius; k++)
+        {
+            int row = Math.max(0, Math.min(last, k)) * width;
+            for (int x = left, s = offset; x < right; x++, s += 4) addPixel(sums, s, src[row + x], 1);
+        }
+        for (int y = top; y < bottom; y++)
+        {
+            int row = y * width;
+            int added = Math.min(last, y + radius + 1) * width;
+            int removed = Math.max(0, y - radius) * width;
+            for (int x = left, s = offset; x < right; x++, s += 4)
+            {
+                dst[row + x] = pack(sums[s] * boxScale, sums[s + 1] * boxScale, sums[s + 2] * boxScale,
+                        sums[s + 3] * boxScale);
+                addPixel(sums, s, src[added + x], 1);
+                addPixel(sums, s, src[removed + x], -1);
+            }
+        }
+    }
+
+    private static void addPixel(int[] sums, int s, int pixel, int sign)
+    {
+        sums[s] += (pixel >>> 24) * sign;
+        sums[s + 1] += ((pixel >> 16) & 0xFF) * sign;
+        sums[s + 2] += ((pixel >> 8) & 0xFF) * sign;
+        sums[s + 3] += (pixel & 0xFF) * sign;
+    }
+    //Собрать пиксель из каналов в фиксированной точке
+    private static int pack(int a, int r, int g, int b)
+    {
+        int half = WEIGHT_ONE >> 1;
+        a = Math.min(255, (a + half) >> WEIGHT_BITS);
+        r = Math.min(a, (r + half) >> WEIGHT_BITS);
+        g = Math.min(a, (g + half) >> WEIGHT_BITS);
+        b = Math.min(a, (b + half) >> WEIGHT_BITS);
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+    //----------------------------------------------------------------------------------------------
+}
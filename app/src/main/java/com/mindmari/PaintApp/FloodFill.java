@@ -0,0 +1,203 @@
+package com.mindmari.PaintApp;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+//Заливка области (ведро краски) по массиву пикселей.
+//Сравнение цветов и запись результата идут параллельно по полосам строк через fork-join,
+//сам обход области - построчный (scanline) по байтовой маске, поэтому он быстрый и без рекурсии.
+//Класс не зависит от Android и запускается модулем benchmark на обычной JVM
+public class FloodFill
+{
+    //Сколько строк обрабатывает одна задача fork-join
+    private static final int ROWS_PER_TASK = 64;
+
+    //Значения маски
+    private static final byte OTHER = 0;
+    private static final byte MATCH = 1;
+    private static final byte FILLED = 2;
+
+    //Свой пул вместо ForkJoinPool.commonPool(): общий пул есть только с API 24
+    private static ForkJoinPool pool;
+
+    //Маска и стек переиспользуются между заливками
+    private byte[] mask = new byte[0];
+    private int[] stack = new int[1024];
+    //----------------------------------------------------------------------------------------------
+    //Залить цветом color область вокруг точки (x, y), цвета которой отличаются от цвета точки
+    //не больше чем на tolerance (0..255) в каждом канале. В outBounds - изменённая область
+    //(left, top, right, bottom). Возвращает false, если ничего не изменилось
+    public boolean fill(int[] pixels, int width, int height, int x, int y, int color, int tolerance, int[] outBounds)
+    {
+        if (x < 0 || y < 0 || x >= width || y >= height) return false;
+        int target = pixels[y * width + x];
+        if (target == color) return false;
+
+        if (mask.length < width * height) mask = new byte[width * height];
+        ForkJoinPool executor = getPool();
+        executor.invoke(new MatchTask(pixels, width, 0, height, target, tolerance));
+        scanline(width, height, x, y, outBounds);
+        executor.invoke(new WriteTask(pixels, width, outBounds[1], outBounds[3],
+                outBounds[0], outBounds[2], color));
+        return true;
+    }
+    //Пул создаётся при первой заливке и живёт, пока живёт процесс
+    private static synchronized ForkJoinPool getPool()
+    {
+        if (pool == null) pool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors()));
+        return pool;
+    }
+    //----------------------------------------------------------------------------------------------
+    //Построчный обход: отметить FILLED все связанные с (x, y) пиксели MATCH
+    private void scanline(int width, int height, int x, int y, int[] bounds)
+    {
+        int left = x;
+        int right = x;
+        int top = y;
+        int bottom = y;
+        int size = 0;
+        stack[size++] = y * width + x;
+        while (size > 0)
+        {
+            int seed = stack[--size];
+            if (mask[seed] != MATCH) continue;
+            int row = seed / width * width;
+            int sy = seed / width;
+            int lx = seed - row;
+            int rx = lx;
+            while (lx > 0 && mask[row + lx - 1] == MATCH) lx--;
+            while (rx < width - 1 && mask[row + rx + 1] == MATCH) rx++;
+            for (int i = lx; i <= rx; i++) mask[row + i] = FILLED;
+
+            if (lx < left) left = lx;
+            if (rx > right) right = rx;
+            if (sy < top) top = sy;
+            if (sy > bottom) bottom = sy;
+
+            //В соседних строках запомнить начало каждого отрезка подходящих пикселей
+            for (int ny = sy - 1; ny <= sy + 1; ny += 2)
+            {
+                if (ny < 0 || ny >= height) continue;
+                int nrow = ny * width;
+                boolean inRun = false;
+                for (int i = lx; i <= rx; i++)
+                {
+                    boolean match = mask[nrow + i] == MATCH;
+                    if (match && !inRun)
+                    {
+                        if (size == stack.length)
+                        {
+                            int[] grown = new int[stack.length * 2];
+                            System.arraycopy(stack, 0, grown, 0, size);
+                            stack = grown;
+                        }
+                        stack[size++] = nrow + i;
+                    }
+                    inRun = match;
+                }
+            }
+        }
+        bounds[0] = left;
+        bounds[1] = top;
+        bounds[2] = right + 1;
+        bounds[3] = bottom + 1;
+    }
+    //----------------------------------------------------------------------------------------------
+    //Построить маску пикселей, близких к цвету target
+    private class MatchTask extends RecursiveAction
+    {
+        private final int[] pixels;
+        private final int width;
+        private final int from;
+        private final int to;
+        private final int target;
+        private final int tolerance;
+
+        MatchTask(int[] pixels, int width, int from, int to, int target, int tolerance)
+        {
+            this.pixels = pixels;
+            this.width = width;
+            this.from = from;
+            this.to = to;
+            this.target = target;
+            this.tolerance = tolerance;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from > ROWS_PER_TASK)
+            {
+                int middle = (from + to) >>> 1;
+                invokeAll(new MatchTask(pixels, width, from, middle, target, tolerance),
+                        new MatchTask(pixels, width, middle, to, target, tolerance));
+                return;
+            }
+            int ta = target >>> 24;
+            int tr = (target >> 16) & 0xFF;
+            int tg = (target >> 8) & 0xFF;
+            int tb = target & 0xFF;
+            for (int i = from * width, end = to * width; i < end; i++)
+            {
+                int p = pixels[i];
+                if (p == target)
+                {
+                    mask[i] = MATCH;
+                } else if (tolerance > 0
+                        && Math.abs((p >>> 24) - ta) <= tolerance
+                        && Math.abs(((p >> 16) & 0xFF) - tr) <= tolerance
+                        && Math.abs(((p >> 8) & 0xFF) - tg) <= tolerance
+                        && Math.abs((p & 0xFF) - tb) <= tolerance)
+                {
+                    mask[i] = MATCH;
+                } else
+                {
+                    mask[i] = OTHER;
+                }
+            }
+        }
+    }
+    //Записать цвет в отмеченные пиксели
+    private class WriteTask extends RecursiveAction
+    {
+        private final int[] pixels;
+        private final int width;
+        private final int from;
+        private final int to;
+        private final int left;
+        private final int right;
+        private final int color;
+
+        WriteTask(int[] pixels, int width, int from, int to, int left, int right, int color)
+        {
+            this.pixels = pixels;
+            this.width = width;
+            this.from = from;
+            this.to = to;
+            this.left = left;
+            this.right = right;
+            this.color = color;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from > ROWS_PER_TASK)
+            {
+                int middle = (from + to) >>> 1;
+                invokeAll(new WriteTask(pixels, width, from, middle, left, right, color),
+                        new WriteTask(pixels, width, middle, to, left, right, color));
+                return;
+            }
+            for (int y = from; y < to; y++)
+            {
+                int row = y * width;
+                for (int i = row + left; i < row + right; i++)
+                {
+                    if (mask[i] == FILLED) pixels[i] = color;
+                }
+            }
+        }
+    }
+    //----------------------------------------------------------------------------------------------
+}
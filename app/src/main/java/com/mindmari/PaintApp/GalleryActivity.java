@@ -0,0 +1,169 @@
+package com.mindmari.PaintApp;
+
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.os.Bundle;
+import android.view.ViewGroup;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.Future;
+
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.GridLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.mindmari.PaintApp.databinding.ActivityGalleryBinding;
+import com.mindmari.PaintApp.databinding.ItemThumbnailBinding;
+
+//Сохранённые картинки сеткой миниатюр. Выбранная картинка возвращается в MainActivity
+//как путь к файлу в EXTRA_PATH.
+//Привязка элемента только берёт миниатюру из памяти или ставит запрос в ThumbnailLoader,
+//а элемент, ушедший с экрана, отменяет свой запрос, поэтому прокрутка не ждёт диска и декодера
+public class GalleryActivity extends AppCompatActivity
+{
+    //Путь выбранной картинки в результате
+    public static final String EXTRA_PATH = "path";
+    //Столбцов сетки
+    private static final int COLUMNS = 3;
+    //Доля памяти приложения под миниатюры
+    private static final int MEMORY_FRACTION = 8;
+
+    ActivityGalleryBinding binding;
+    ThumbnailLoader thumbnailLoader;
+    //Сохранённые картинки, новые первыми
+    File[] files = new File[0];
+    //----------------------------------------------------------------------------------------------
+    @Override
+    protected void onCreate(Bundle savedInstanceState)
+    {
+        super.onCreate(savedInstanceState);
+        binding = ActivityGalleryBinding.inflate(getLayoutInflater());
+        setContentView(binding.getRoot());
+
+        //Миниатюра - ширина столбца
+        int size = getResources().getDisplayMetrics().widthPixels / COLUMNS;
+        int memoryBytes = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / MEMORY_FRACTION);
+        thumbnailLoader = new ThumbnailLoader(size, new File(getCacheDir(), "thumbnails"), memoryBytes);
+
+        //Имена файлов - время сохранения в мс, поэтому порядок имён совпадает с порядком сохранения
+        //и даты изменения не нужно читать для каждого файла
+        File[] saved = getExternalFilesDir("Saved").listFiles(File::isFile);
+        if (saved != null) files = saved;
+        Arrays.sort(files, Collections.reverseOrder());
+
+        GridLayoutManager layoutManager = new GridLayoutManager(this, COLUMNS);
+        binding.thumbnails.setLayoutManager(layoutManager);
+        //Размер списка не зависит от содержимого элементов
+        binding.thumbnails.setHasFixedSize(true);
+        binding.thumbnails.setAdapter(new ThumbnailAdapter(size));
+    }
+    //----------------------------------------------------------------------------------------------
+    @Override
+    public void onTrimMemory(int level)
+    {
+        super.onTrimMemory(level);
+        thumbnailLoader.trimMemory();
+    }
+    //----------------------------------------------------------------------------------------------
+    @Override
+    protected void onDestroy()
+    {
+        thumbnailLoader.shutdown();
+        super.onDestroy();
+    }
+    //----------------------------------------------------------------------------------------------
+    //Вернуть выбранную картинку
+    private void open(File file)
+    {
+        Intent result = new Intent();
+        result.putExtra(EXTRA_PATH, file.getAbsolutePath());
+        setResult(RESULT_OK, result);
+        finish();
+    }
+    //----------------------------------------------------------------------------------------------
+    //Элемент сетки: миниатюра, её файл и запрос загрузки
+    private static class ThumbnailHolder extends RecyclerView.ViewHolder
+    {
+        final ItemThumbnailBinding binding;
+        File file;
+        Future<?> request;
+
+        ThumbnailHolder(ItemThumbnailBinding binding)
+        {
+            super(binding.getRoot());
+            this.binding = binding;
+        }
+        //Отменить незаконченную загрузку
+        void cancel()
+        {
+            if (request != null) request.cancel(false);
+            request = null;
+        }
+    }
+    //----------------------------------------------------------------------------------------------
+    private class ThumbnailAdapter extends RecyclerView.Adapter<ThumbnailHolder>
+    {
+        private final int size;
+
+        ThumbnailAdapter(int size)
+        {
+            this.size = size;
+        }
+
+        @NonNull
+        @Override
+        public ThumbnailHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType)
+        {
+            ItemThumbnailBinding item = ItemThumbnailBinding.inflate(getLayoutInflater(), parent, false);
+            //Квадратная ячейка: высота известна заранее и не требует измерения картинки
+            ViewGroup.LayoutParams params = item.getRoot().getLayoutParams();
+            params.height = size;
+            item.getRoot().setLayoutParams(params);
+            ThumbnailHolder holder = new ThumbnailHolder(item);
+            item.getRoot().setOnClickListener(v -> {
+                if (holder.file != null) open(holder.file);
+            });
+            return holder;
+        }
+
+        @Override
+        public void onBindViewHolder(@NonNull ThumbnailHolder holder, int position)
+        {
+            long bindStart = Metrics.start();
+            holder.cancel();
+            File file = files[position];
+            holder.file = file;
+            Bitmap cached = thumbnailLoader.getCached(file);
+            holder.binding.thumbnail.setImageBitmap(cached);
+            if (cached == null)
+            {
+                holder.request = thumbnailLoader.load(file, (loadedFile, thumbnail) -> {
+                    //Элемент мог уже показывать другую картинку
+                    if (holder.file != loadedFile) return;
+                    holder.request = null;
+                    holder.binding.thumbnail.setImageBitmap(thumbnail);
+                });
+            }
+            Metrics.stop(Metrics.THUMBNAIL_BIND, bindStart);
+        }
+
+        @Override
+        public void onViewRecycled(@NonNull ThumbnailHolder holder)
+        {
+            //Элемент ушёл с экрана: его картинка больше не нужна
+            holder.cancel();
+            holder.file = null;
+            holder.binding.thumbnail.setImageBitmap(null);
+        }
+
+        @Override
+        public int getItemCount()
+        {
+            return files.length;
+        }
+    }
+    //----------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,92 @@
+package com.mindmari.PaintApp;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//Гистограмма неотрицательных значений без блокировок.
+//Корзины логарифмические: на каждое удвоение значения приходится 8 корзин, поэтому погрешность
+//процентилей не больше 12.5% при любом масштабе. Записывать можно из любого потока одновременно
+public class Histogram
+{
+    //Корзин на одно удвоение значения (степень двойки)
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    //----------------------------------------------------------------------------------------------
+    //Записать значение (отрицательные считаются нулём)
+    public void record(long value)
+    {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(bucketOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) current = max.get();
+    }
+    //Сбросить все значения
+    public void reset()
+    {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+    //----------------------------------------------------------------------------------------------
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    public long getSum()
+    {
+        return sum.get();
+    }
+
+    public long getMax()
+    {
+        return max.get();
+    }
+
+    public long getMean()
+    {
+        long n = count.get();
+        return n == 0 ? 0 : sum.get() / n;
+    }
+    //Значение, не больше которого доля fraction (0..1) записанных значений (верхняя граница корзины)
+    public long getPercentile(double fraction)
+    {
+        long total = count.get();
+        if (total == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(total * fraction));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            seen += counts.get(i);
+            if (seen >= target) return Math.min(upperBound(i), max.get());
+        }
+        return max.get();
+    }
+    //----------------------------------------------------------------------------------------------
+    private static int bucketOf(long value)
+    {
+        if (value < SUB_BUCKETS) return (int) value;
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (msb - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (msb - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+    //Наибольшее значение, которое попадает в корзину index
+    private static long upperBound(int index)
+    {
+        if (index < SUB_BUCKETS) return index;
+        int msb = index / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = index % SUB_BUCKETS;
+        long lower = (SUB_BUCKETS + sub) << (msb - SUB_BITS);
+        return lower + (1L << (msb - SUB_BITS)) - 1;
+    }
+    //----------------------------------------------------------------------------------------------
+}
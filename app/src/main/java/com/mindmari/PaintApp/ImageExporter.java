@@ -0,0 +1,181 @@
+package com.mindmari.PaintApp;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+//Сохранение картинки в файл в фоновом потоке.
+//На главном потоке делается только снимок плиток холста, сведение, сжатие и запись идут в фоне
+//через буферизованный FileChannel, о ходе записи сообщается слушателю на главном потоке
+public class ImageExporter
+{
+    //Размер буфера записи
+    private static final int BUFFER_SIZE = 64 * 1024;
+    //Как часто сообщать о ходе записи (в байтах)
+    private static final long PROGRESS_STEP = 256 * 1024;
+
+    //Слушатель сохранения, все методы вызываются на главном потоке
+    public interface Listener
+    {
+        //Записано bytesWritten байт
+        void onProgress(long bytesWritten);
+        //Файл сохранён
+        void onComplete(File file);
+        //Ошибка сохранения
+        void onError(Exception e);
+    }
+
+    //Что сохранять (например, LayerStack.Snapshot). Оба метода вызываются в фоновом потоке
+    public interface Source
+    {
+        //Записать картинку в out в формате format. Возвращает false, если сжать не удалось
+        boolean compress(Bitmap.CompressFormat format, int quality, OutputStream out) throws IOException;
+        //Освободить память источника, он больше не нужен
+        void release();
+    }
+
+    //Фоновый поток для сведения, сжатия и записи
+    private final ExecutorService executor;
+    //Вызов слушателя (на главном потоке)
+    private final Executor callbacks;
+    //----------------------------------------------------------------------------------------------
+    public ImageExporter()
+    {
+        this(Executors.newSingleThreadExecutor(), new Handler(Looper.getMainLooper())::post);
+    }
+    //executor - где сохранять, callbacks - где вызывать слушателя
+    ImageExporter(ExecutorService executor, Executor callbacks)
+    {
+        this.executor = executor;
+        this.callbacks = callbacks;
+    }
+    //----------------------------------------------------------------------------------------------
+    //Расширение файла для формата
+    public static String getExtension(Bitmap.CompressFormat format)
+    {
+        switch (format)
+        {
+            case PNG:
+                return ".png";
+            case JPEG:
+                return ".jpg";
+            default:
+                return ".webp";
+        }
+    }
+    //----------------------------------------------------------------------------------------------
+    //Сохранить снимок холста (например, DrawingView.getCanvasSnapshot()).
+    //Снимок переходит во владение ImageExporter и освобождается после записи
+    public void export(Source snapshot, File file, Bitmap.CompressFormat format, int quality, Listener listener)
+    {
+        executor.execute(() -> {
+            File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+            Exception failure = null;
+            try
+            {
+                try (FileOutputStream fileStream = new FileOutputStream(tempFile);
+                     ChannelOutputStream out = new ChannelOutputStream(fileStream.getChannel(), listener))
+                {
+                    if (!snapshot.compress(format, quality, out))
+                    {
+                        throw new IOException("Bitmap.compress failed");
+                    }
+                    out.flush();
+                    //Записать данные на диск до переименования
+                    fileStream.getChannel().force(false);
+                }
+                if (!tempFile.renameTo(file))
+                {
+                    throw new IOException("Cannot rename " + tempFile + " to " + file);
+                }
+            } catch (IOException | RuntimeException e)
+            {
+                //noinspection ResultOfMethodCallIgnored
+                tempFile.delete();
+                failure = e;
+            } finally
+            {
+                snapshot.release();
+            }
+            //Слушатель узнаёт о результате, когда снимок уже освобождён
+            Exception error = failure;
+            if (error == null) callbacks.execute(() -> listener.onComplete(file));
+            else callbacks.execute(() -> listener.onError(error));
+        });
+    }
+    //Остановить фоновый поток (уже начатые сохранения будут закончены)
+    public void shutdown()
+    {
+        executor.shutdown();
+    }
+    //----------------------------------------------------------------------------------------------
+    //OutputStream, который копит данные в буфере и пишет их в FileChannel большими блоками
+    private class ChannelOutputStream extends OutputStream
+    {
+        private final FileChannel channel;
+        private final Listener listener;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private long written = 0;
+        private long lastReported = 0;
+
+        ChannelOutputStream(FileChannel channel, Listener listener)
+        {
+            this.channel = channel;
+            this.listener = listener;
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            if (!buffer.hasRemaining()) flushBuffer();
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            while (len > 0)
+            {
+                if (!buffer.hasRemaining()) flushBuffer();
+                int chunk = Math.min(len, buffer.remaining());
+                buffer.put(b, off, chunk);
+                off += chunk;
+                len -= chunk;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            flushBuffer();
+        }
+
+        private void flushBuffer() throws IOException
+        {
+            buffer.flip();
+            while (buffer.hasRemaining())
+            {
+                written += channel.write(buffer);
+            }
+            buffer.clear();
+
+            if (written - lastReported >= PROGRESS_STEP)
+            {
+                lastReported = written;
+                final long bytes = written;
+                callbacks.execute(() -> listener.onProgress(bytes));
+            }
+        }
+    }
+    //----------------------------------------------------------------------------------------------
+}
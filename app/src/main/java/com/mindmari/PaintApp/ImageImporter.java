@@ -0,0 +1,143 @@
+package com.mindmari.PaintApp;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+//Загрузка картинки сразу под размер холста.
+//Сначала читаются только размеры картинки, затем она декодируется с прореживанием (inSampleSize)
+//и масштабированием в самом декодере, так что полноразмерная копия в памяти не создаётся.
+//Декодер пишет в Bitmap из BitmapPool, если там есть подходящий
+public class ImageImporter
+{
+    //Слушатель загрузки, методы вызываются на главном потоке
+    public interface Listener
+    {
+        //Картинка загружена (изменяемый ARGB_8888 Bitmap)
+        void onLoaded(Bitmap bitmap);
+        //Ошибка загрузки
+        void onError(Exception e);
+    }
+
+    //Фоновый поток для декодирования
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    //Handler главного потока для вызова слушателя
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    //----------------------------------------------------------------------------------------------
+    //Загрузить картинку в фоне так, чтобы она закрыла область targetW x targetH
+    public void load(ContentResolver resolver, Uri uri, int targetW, int targetH, Listener listener)
+    {
+        executor.execute(() -> {
+            try
+            {
+                Bitmap bitmap = decode(resolver, uri, targetW, targetH);
+                mainHandler.post(() -> listener.onLoaded(bitmap));
+            } catch (IOException | RuntimeException e)
+            {
+                mainHandler.post(() -> listener.onError(e));
+            } catch (OutOfMemoryError e)
+            {
+                //Без ответа слушатель ждал бы картинку вечно
+                IOException error = new IOException("Not enough memory to decode " + uri, e);
+                mainHandler.post(() -> listener.onError(error));
+            }
+        });
+    }
+    //Остановить фоновый поток
+    public void shutdown()
+    {
+        executor.shutdown();
+    }
+    //----------------------------------------------------------------------------------------------
+    //Декодировать картинку под размер targetW x targetH за один проход
+    public static Bitmap decode(ContentResolver resolver, Uri uri, int targetW, int targetH) throws IOException
+    {
+        //Прочитать только размеры картинки
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream in = openStream(resolver, uri))
+        {
+            BitmapFactory.decodeStream(in, null, options);
+        }
+        int srcW = options.outWidth;
+        int srcH = options.outHeight;
+        if (srcW <= 0 || srcH <= 0) throw new IOException("Cannot read image bounds: " + uri);
+
+        //Картинка масштабируется так, чтобы закрыть холст целиком
+        int[] size = new int[2];
+        ImageSizing.coverSize(srcW, srcH, targetW, targetH, size);
+        int dstW = size[0];
+        int dstH = size[1];
+
+        options = new BitmapFactory.Options();
+        options.inSampleSize = ImageSizing.calculateSampleSize(srcW, srcH, dstW, dstH);
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inMutable = true;
+        //Оставшееся масштабирование выполняет сам декодер
+        int sampledW = srcW / options.inSampleSize;
+        if (sampledW != dstW)
+        {
+            options.inScaled = true;
+            options.inDensity = sampledW;
+            options.inTargetDensity = dstW;
+        } else
+        {
+            options.inScaled = false;
+        }
+
+        //Декодировать в Bitmap из запаса (декодер сам подгоняет его размер, если памяти хватает)
+        BitmapPool pool = BitmapPool.getShared();
+        Bitmap pooled = pool.obtain(dstW, dstH, Bitmap.Config.ARGB_8888);
+        options.inBitmap = pooled;
+        Bitmap bitmap;
+        try (InputStream in = openStream(resolver, uri))
+        {
+            bitmap = BitmapFactory.decodeStream(in, null, options);
+        } catch (IllegalArgumentException e)
+        {
+            bitmap = null;
+        }
+        if (bitmap == null)
+        {
+            //Картинка не поместилась в Bitmap из запаса - декодировать в новый
+            pool.release(pooled);
+            options.inBitmap = null;
+            try (InputStream in = openStream(resolver, uri))
+            {
+                bitmap = BitmapFactory.decodeStream(in, null, options);
+            }
+            if (bitmap != null) Metrics.onBitmapAllocated(bitmap);
+        }
+        if (bitmap == null) throw new IOException("Cannot decode image: " + uri);
+
+        //Декодер может ошибиться на пиксель из-за округления - тогда один раз досчитать размер
+        if (bitmap.getWidth() != dstW || bitmap.getHeight() != dstH || !bitmap.isMutable()
+                || bitmap.getConfig() != Bitmap.Config.ARGB_8888)
+        {
+            Bitmap scaled = pool.obtain(dstW, dstH, Bitmap.Config.ARGB_8888, 0);
+            new Canvas(scaled).drawBitmap(bitmap, null, new Rect(0, 0, dstW, dstH),
+                    new Paint(Paint.FILTER_BITMAP_FLAG));
+            pool.release(bitmap);
+            bitmap = scaled;
+        }
+        return bitmap;
+    }
+    private static InputStream openStream(ContentResolver resolver, Uri uri) throws IOException
+    {
+        InputStream in = resolver.openInputStream(uri);
+        if (in == null) throw new IOException("Cannot open " + uri);
+        return in;
+    }
+    //----------------------------------------------------------------------------------------------
+}
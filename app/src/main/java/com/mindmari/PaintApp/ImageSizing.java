@@ -0,0 +1,25 @@
+package com.mindmari.PaintApp;
+
+//Расчёт размеров при загрузке картинки без зависимостей от Android
+public class ImageSizing
+{
+    //----------------------------------------------------------------------------------------------
+    //Размер картинки srcW x srcH, масштабированной так, чтобы закрыть targetW x targetH: out[0], out[1]
+    public static void coverSize(int srcW, int srcH, int targetW, int targetH, int[] out)
+    {
+        float scale = Math.max((float) targetW / srcW, (float) targetH / srcH);
+        out[0] = Math.max(1, Math.round(srcW * scale));
+        out[1] = Math.max(1, Math.round(srcH * scale));
+    }
+    //Наибольшая степень двойки, при которой картинка всё ещё не меньше нужного размера
+    public static int calculateSampleSize(int srcW, int srcH, int dstW, int dstH)
+    {
+        int sampleSize = 1;
+        while (srcW / (sampleSize * 2) >= dstW && srcH / (sampleSize * 2) >= dstH)
+        {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+    //----------------------------------------------------------------------------------------------
+}
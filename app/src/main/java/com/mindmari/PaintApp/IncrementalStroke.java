@@ -0,0 +1,187 @@
+package com.mindmari.PaintApp;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+
+//Штрих кисти, который растеризуется по частям.
+//За один кадр на холст попадают только сегменты, добавленные после прошлого кадра,
+//поэтому стоимость кадра не зависит от длины штриха.
+//Штрих рисуется линией через Path или отпечатками StampBrush с нажимом в каждой точке
+public class IncrementalStroke implements StrokeSmoother.Target
+{
+    //Начальная ёмкость буфера точек (x, y парами)
+    private static final int INITIAL_CAPACITY = 256;
+
+    //Координаты точек штриха: x0, y0, x1, y1, ...
+    private float[] points = new float[INITIAL_CAPACITY];
+    //Нажим в каждой точке (0..1)
+    private float[] pressures = new float[INITIAL_CAPACITY / 2];
+    //Количество точек в штрихе
+    private int count = 0;
+    //Индекс последней уже нарисованной точки (-1 - ничего не нарисовано)
+    private int rasterized = -1;
+    //Сколько сегментов подготовлено за последний вызов preparePending
+    private int lastRasterizedSegments = 0;
+    //Переиспользуемый путь для новых сегментов
+    private final Path segmentPath = new Path();
+    //Границы новых сегментов: left, top, right, bottom
+    private final int[] bounds = new int[4];
+    //Кисть из отпечатков (null - штрих рисуется линией)
+    private StampBrush brush;
+    //Толщина штриха для отпечатков
+    private float brushWidth;
+    //----------------------------------------------------------------------------------------------
+    //Рисовать штрих отпечатками brush толщиной до width (null - линией)
+    public void setBrush(StampBrush brush, float width)
+    {
+        this.brush = brush;
+        this.brushWidth = width;
+        if (brush != null) brush.prepare(width);
+    }
+    //Начать новый штрих
+    public void start(float x, float y)
+    {
+        start(x, y, 1);
+    }
+
+    @Override
+    public void start(float x, float y, float pressure)
+    {
+        reset();
+        add(x, y, pressure);
+    }
+    //Добавить точку в штрих
+    public void add(float x, float y)
+    {
+        add(x, y, 1);
+    }
+
+    @Override
+    public void add(float x, float y, float pressure)
+    {
+        if (count * 2 + 2 > points.length)
+        {
+            float[] grown = new float[points.length * 2];
+            System.arraycopy(points, 0, grown, 0, count * 2);
+            points = grown;
+            float[] grownPressures = new float[pressures.length * 2];
+            System.arraycopy(pressures, 0, grownPressures, 0, count);
+            pressures = grownPressures;
+        }
+        points[count * 2] = x;
+        points[count * 2 + 1] = y;
+        pressures[count] = pressure;
+        count++;
+    }
+    //Сбросить штрих
+    public void reset()
+    {
+        count = 0;
+        rasterized = -1;
+        lastRasterizedSegments = 0;
+        if (brush != null) brush.reset();
+    }
+    //----------------------------------------------------------------------------------------------
+    //Есть ли точки, которые ещё не нарисованы
+    public boolean hasPending()
+    {
+        return count > 0 && rasterized < count - 1;
+    }
+    //Количество точек в штрихе
+    public int getPointCount()
+    {
+        return count;
+    }
+    //Координаты точек штриха (массив может быть длиннее, чем getPointCount() * 2)
+    public float[] getPoints()
+    {
+        return points;
+    }
+    //Нажим в точках штриха (массив может быть длиннее, чем getPointCount())
+    public float[] getPressures()
+    {
+        return pressures;
+    }
+    //Рисуется ли штрих отпечатками
+    public boolean isStamped()
+    {
+        return brush != null;
+    }
+    //Сколько сегментов нарисовано за последний кадр
+    public int getLastRasterizedSegments()
+    {
+        return lastRasterizedSegments;
+    }
+    //----------------------------------------------------------------------------------------------
+    //Посчитать область, которую заденут ещё не нарисованные сегменты
+    public boolean computePendingBounds(float strokeWidth, Rect outDirty)
+    {
+        if (!computePendingBounds(strokeWidth, bounds)) return false;
+        outDirty.set(bounds[0], bounds[1], bounds[2], bounds[3]);
+        return true;
+    }
+    //То же в массив: left, top, right, bottom
+    public boolean computePendingBounds(float strokeWidth, int[] outBounds)
+    {
+        if (!hasPending()) return false;
+
+        //Запас на толщину линии и сглаживание
+        int inset = (int) Math.ceil(strokeWidth / 2) + (brush != null ? 2 : 1);
+        ShapeGeometry.bounds(points, Math.max(rasterized, 0), count, inset, outBounds);
+        return true;
+    }
+    //----------------------------------------------------------------------------------------------
+    //Подготовить путь из новых сегментов штриха. Возвращает false, если рисовать нечего
+    public boolean preparePending()
+    {
+        lastRasterizedSegments = 0;
+        if (!hasPending()) return false;
+
+        int from = Math.max(rasterized, 0);
+        if (brush != null)
+        {
+            prepareStamps(from);
+            return true;
+        }
+        segmentPath.rewind();
+        segmentPath.moveTo(points[from * 2], points[from * 2 + 1]);
+        if (count == 1)
+        {
+            //Одиночное касание - точка с круглым концом
+            segmentPath.lineTo(points[0], points[1]);
+        }
+        for (int i = from + 1; i < count; i++)
+        {
+            segmentPath.lineTo(points[i * 2], points[i * 2 + 1]);
+            lastRasterizedSegments++;
+        }
+        return true;
+    }
+    //Нарисовать подготовленные сегменты. Может вызываться несколько раз - по разу на каждую плитку
+    public void drawPending(Canvas canvas, Paint paint)
+    {
+        if (brush != null) brush.drawPending(canvas, paint);
+        else canvas.drawPath(segmentPath, paint);
+    }
+    //Отметить подготовленные сегменты как нарисованные
+    public void markRasterized()
+    {
+        rasterized = count - 1;
+    }
+    //----------------------------------------------------------------------------------------------
+    //Расставить отпечатки на новых сегментах начиная с точки from
+    private void prepareStamps(int from)
+    {
+        brush.clearPending();
+        if (rasterized < 0) brush.stampPoint(points[0], points[1], pressures[0], brushWidth);
+        for (int i = from + 1; i < count; i++)
+        {
+            brush.stampSegment(points[i * 2 - 2], points[i * 2 - 1], pressures[i - 1],
+                    points[i * 2], points[i * 2 + 1], pressures[i], brushWidth);
+            lastRasterizedSegments++;
+        }
+    }
+    //----------------------------------------------------------------------------------------------
+}
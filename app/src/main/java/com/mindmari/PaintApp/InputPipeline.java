@@ -0,0 +1,334 @@
+package com.mindmari.PaintApp;
+
+//Обработка точек касания до того, как они попадут в инструменты.
+//Точки проходят по очереди через ступени (стабилизатор и любые другие Stage),
+//затем предсказатель по последним точкам достраивает временный хвост штриха на время до кадра.
+//Все ступени работают на кольцевых буферах, выделенных заранее
+public class InputPipeline
+{
+    //Стабилизатор выключен
+    public static final int STABILIZER_NONE = 0;
+    //Скользящее среднее последних точек
+    public static final int STABILIZER_MOVING_AVERAGE = 1;
+    //Фильтр "one euro": сильно сглаживает медленное движение и почти не задерживает быстрое
+    public static final int STABILIZER_ONE_EURO = 2;
+
+    //Ступень обработки точек
+    public interface Stage
+    {
+        //Начать новый жест с точки (x, y); time - время в миллисекундах
+        void start(float x, float y, long time);
+        //Обработать точку, результат записать в out[0], out[1]
+        void process(float x, float y, long time, float[] out);
+    }
+
+    private static final int MAX_STAGES = 4;
+    //Начальная ёмкость пакета точек одного события
+    private static final int INITIAL_BATCH = 32;
+
+    private final Stage[] stages = new Stage[MAX_STAGES];
+    private int stageCount = 0;
+    //Стабилизатор, выбранный через setStabilizer (null - нет)
+    private Stage stabilizer;
+    private int stabilizerMode = STABILIZER_NONE;
+    private final MovingAverage movingAverage = new MovingAverage(6);
+    private final OneEuro oneEuro = new OneEuro(1.0f, 0.02f, 1.0f);
+    //Предсказатель хвоста
+    private final Predictor predictor = new Predictor(4);
+    private boolean isPredicting = true;
+    //На сколько миллисекунд вперёд предсказывать
+    private float predictionMs = 16;
+
+    //Обработанные точки последнего события: x0, y0, x1, y1, ...
+    private float[] batch = new float[INITIAL_BATCH * 2];
+    private int batchSize = 0;
+    private final float[] point = new float[2];
+
+    //Время обработки точек
+    private long lastNanos = 0;
+    private long totalNanos = 0;
+    private long samples = 0;
+    //----------------------------------------------------------------------------------------------
+    //Выбрать стабилизатор (STABILIZER_NONE, STABILIZER_MOVING_AVERAGE, STABILIZER_ONE_EURO)
+    public void setStabilizer(int mode)
+    {
+        Stage stage = mode == STABILIZER_MOVING_AVERAGE ? movingAverage
+                : mode == STABILIZER_ONE_EURO ? oneEuro : null;
+        if (stabilizer != null) removeStage(stabilizer);
+        stabilizer = stage;
+        stabilizerMode = stage != null ? mode : STABILIZER_NONE;
+        //Стабилизатор всегда идёт первым, до остальных ступеней
+        if (stage != null)
+        {
+            if (stageCount == MAX_STAGES) throw new IllegalStateException("Too many input stages");
+            System.arraycopy(stages, 0, stages, 1, stageCount);
+            stages[0] = stage;
+            stageCount++;
+        }
+    }
+
+    public int getStabilizer()
+    {
+        return stabilizerMode;
+    }
+    //Включить предсказание хвоста на horizonMs миллисекунд вперёд (0 - выключить)
+    public void setPrediction(float horizonMs)
+    {
+        isPredicting = horizonMs > 0;
+        predictionMs = horizonMs;
+    }
+    //Добавить свою ступень после уже добавленных
+    public void addStage(Stage stage)
+    {
+        if (stageCount == MAX_STAGES) throw new IllegalStateException("Too many input stages");
+        stages[stageCount++] = stage;
+    }
+
+    public void removeStage(Stage stage)
+    {
+        for (int i = 0; i < stageCount; i++)
+        {
+            if (stages[i] != stage) continue;
+            System.arraycopy(stages, i + 1, stages, i, stageCount - i - 1);
+            stages[--stageCount] = null;
+            return;
+        }
+    }
+    //----------------------------------------------------------------------------------------------
+    //Начать жест. Первая точка проходит без изменений
+    public void start(float x, float y, long time)
+    {
+        for (int i = 0; i < stageCount; i++) stages[i].start(x, y, time);
+        predictor.start(x, y, time);
+        batchSize = 0;
+        putBatch(x, y);
+    }
+    //Начать пакет точек нового события
+    public void beginBatch()
+    {
+        batchSize = 0;
+    }
+    //Обработать точку касания и добавить её в пакет
+    public void add(float x, float y, long time)
+    {
+        long begin = System.nanoTime();
+        point[0] = x;
+        point[1] = y;
+        for (int i = 0; i < stageCount; i++) stages[i].process(point[0], point[1], time, point);
+        predictor.add(point[0], point[1], time);
+        putBatch(point[0], point[1]);
+        lastNanos = System.nanoTime() - begin;
+        totalNanos += lastNanos;
+        samples++;
+    }
+    //Количество точек в пакете
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+    public float getBatchX(int index)
+    {
+        return batch[index * 2];
+    }
+    public float getBatchY(int index)
+    {
+        return batch[index * 2 + 1];
+    }
+    //Предсказать, где будет палец к следующему кадру. Возвращает false, если предсказания нет
+    public boolean predict(float[] out)
+    {
+        return isPredicting && predictor.predict(predictionMs, out);
+    }
+    //----------------------------------------------------------------------------------------------
+    //Время обработки последней точки в наносекундах
+    public long getLastNanos()
+    {
+        return lastNanos;
+    }
+    //Среднее время обработки одной точки в наносекундах
+    public long getAverageNanos()
+    {
+        return samples == 0 ? 0 : totalNanos / samples;
+    }
+    //----------------------------------------------------------------------------------------------
+    private void putBatch(float x, float y)
+    {
+        if (batchSize * 2 + 2 > batch.length)
+        {
+            float[] grown = new float[batch.length * 2];
+            System.arraycopy(batch, 0, grown, 0, batchSize * 2);
+            batch = grown;
+        }
+        batch[batchSize * 2] = x;
+        batch[batchSize * 2 + 1] = y;
+        batchSize++;
+    }
+    //----------------------------------------------------------------------------------------------
+    //Скользящее среднее последних size точек
+    public static class MovingAverage implements Stage
+    {
+        private final float[] xs;
+        private final float[] ys;
+        private int head = 0;
+        private int count = 0;
+        private float sumX;
+        private float sumY;
+
+        public MovingAverage(int size)
+        {
+            xs = new float[size];
+            ys = new float[size];
+        }
+
+        @Override
+        public void start(float x, float y, long time)
+        {
+            head = 0;
+            count = 0;
+            sumX = 0;
+            sumY = 0;
+            push(x, y);
+        }
+
+        @Override
+        public void process(float x, float y, long time, float[] out)
+        {
+            push(x, y);
+            out[0] = sumX / count;
+            out[1] = sumY / count;
+        }
+
+        private void push(float x, float y)
+        {
+            if (count == xs.length)
+            {
+                sumX -= xs[head];
+                sumY -= ys[head];
+            } else
+            {
+                count++;
+            }
+            xs[head] = x;
+            ys[head] = y;
+            sumX += x;
+            sumY += y;
+            head = (head + 1) % xs.length;
+        }
+    }
+    //----------------------------------------------------------------------------------------------
+    //Фильтр "one euro": частота среза растёт со скоростью движения.
+    //minCutoff - частота среза в покое (Гц), beta - насколько скорость её поднимает
+    public static class OneEuro implements Stage
+    {
+        private final float minCutoff;
+        private final float beta;
+        private final float derivativeCutoff;
+        private float x;
+        private float y;
+        private float dx;
+        private float dy;
+        private long lastTime;
+
+        public OneEuro(float minCutoff, float beta, float derivativeCutoff)
+        {
+            this.minCutoff = minCutoff;
+            this.beta = beta;
+            this.derivativeCutoff = derivativeCutoff;
+        }
+
+        @Override
+        public void start(float x, float y, long time)
+        {
+            this.x = x;
+            this.y = y;
+            dx = 0;
+            dy = 0;
+            lastTime = time;
+        }
+
+        @Override
+        public void process(float newX, float newY, long time, float[] out)
+        {
+            //Точки одного времени (бывает у пакетных событий) считаются через 1 мс
+            float dt = Math.max(1, time - lastTime) / 1000f;
+            lastTime = time;
+
+            float derivativeAlpha = alpha(derivativeCutoff, dt);
+            dx += ((newX - x) / dt - dx) * derivativeAlpha;
+            dy += ((newY - y) / dt - dy) * derivativeAlpha;
+            float speed = (float) Math.hypot(dx, dy);
+
+            float a = alpha(minCutoff + beta * speed, dt);
+            x += (newX - x) * a;
+            y += (newY - y) * a;
+            out[0] = x;
+            out[1] = y;
+        }
+
+        private static float alpha(float cutoff, float dt)
+        {
+            float tau = 1 / (2 * (float) Math.PI * cutoff);
+            return 1 / (1 + tau / dt);
+        }
+    }
+    //----------------------------------------------------------------------------------------------
+    //Линейное предсказание по средней скорости последних size точек
+    private static class Predictor
+    {
+        //Не предсказывать дальше, чем на столько пикселей
+        private static final float MAX_DISTANCE = 64;
+
+        private final float[] xs;
+        private final float[] ys;
+        private final long[] times;
+        private int head = 0;
+        private int count = 0;
+
+        Predictor(int size)
+        {
+            xs = new float[size];
+            ys = new float[size];
+            times = new long[size];
+        }
+
+        void start(float x, float y, long time)
+        {
+            head = 0;
+            count = 0;
+            add(x, y, time);
+        }
+
+        void add(float x, float y, long time)
+        {
+            xs[head] = x;
+            ys[head] = y;
+            times[head] = time;
+            head = (head + 1) % xs.length;
+            if (count < xs.length) count++;
+        }
+
+        boolean predict(float horizonMs, float[] out)
+        {
+            if (count < 2) return false;
+            int newest = (head - 1 + xs.length) % xs.length;
+            int oldest = (head - count + xs.length) % xs.length;
+            long dt = times[newest] - times[oldest];
+            if (dt <= 0) return false;
+            float vx = (xs[newest] - xs[oldest]) / dt;
+            float vy = (ys[newest] - ys[oldest]) / dt;
+            float px = vx * horizonMs;
+            float py = vy * horizonMs;
+            float distance = (float) Math.hypot(px, py);
+            if (distance < 1) return false;
+            if (distance > MAX_DISTANCE)
+            {
+                px *= MAX_DISTANCE / distance;
+                py *= MAX_DISTANCE / distance;
+            }
+            out[0] = xs[newest] + px;
+            out[1] = ys[newest] + py;
+            return true;
+        }
+    }
+    //----------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,48 @@
+package com.mindmari.PaintApp;
+
+//Задержка от касания до вывода кадра.
+//Для каждого кадра считается время от самого раннего касания, которое в него попало.
+//onInput и onPresented вызываются из потока рисования, значения можно читать из любого потока
+public class LatencyTracker
+{
+    //Время самого раннего касания, которое ещё не выведено (0 - таких нет)
+    private long pendingSince = 0;
+    private volatile long lastMs = 0;
+    private volatile long totalMs = 0;
+    private volatile long frames = 0;
+    //----------------------------------------------------------------------------------------------
+    //Пришло касание со временем eventTimeMs (SystemClock.uptimeMillis)
+    public void onInput(long eventTimeMs)
+    {
+        if (pendingSince == 0) pendingSince = eventTimeMs;
+    }
+    //Кадр выведен в момент nowMs (SystemClock.uptimeMillis)
+    public void onPresented(long nowMs)
+    {
+        if (pendingSince == 0) return;
+        lastMs = nowMs - pendingSince;
+        totalMs += lastMs;
+        frames++;
+        pendingSince = 0;
+    }
+    //----------------------------------------------------------------------------------------------
+    //Задержка последнего кадра в миллисекундах
+    public long getLastMs()
+    {
+        return lastMs;
+    }
+    //Средняя задержка в миллисекундах
+    public long getAverageMs()
+    {
+        return frames > 0 ? totalMs / frames : 0;
+    }
+    //Сбросить статистику. Вызывается, когда поток рисования не работает
+    public void reset()
+    {
+        pendingSince = 0;
+        lastMs = 0;
+        totalMs = 0;
+        frames = 0;
+    }
+    //----------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,96 @@
+package com.mindmari.PaintApp;
+
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+
+//Слой рисунка: холст из плиток, прозрачность, видимость и режим наложения
+public class Layer
+{
+    //Режимы наложения
+    public static final int BLEND_NORMAL = 0;
+    public static final int BLEND_MULTIPLY = 1;
+    public static final int BLEND_SCREEN = 2;
+    public static final int BLEND_ADD = 3;
+    public static final int BLEND_OVERLAY = 4;
+    public static final int BLEND_DARKEN = 5;
+    public static final int BLEND_LIGHTEN = 6;
+
+    //Плитки слоя
+    private final TiledCanvas canvas;
+    //Цвет пустого слоя (фон у нижнего слоя, прозрачный у остальных)
+    private final int baseColor;
+    private float opacity = 1f;
+    private boolean visible = true;
+    private int blendMode = BLEND_NORMAL;
+    //Paint для наложения слоя
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    //----------------------------------------------------------------------------------------------
+    public Layer(TiledCanvas canvas, int baseColor)
+    {
+        this.canvas = canvas;
+        this.baseColor = baseColor;
+    }
+    //----------------------------------------------------------------------------------------------
+    public TiledCanvas getCanvas()
+    {
+        return canvas;
+    }
+    public int getBaseColor()
+    {
+        return baseColor;
+    }
+    public float getOpacity()
+    {
+        return opacity;
+    }
+    public void setOpacity(float opacity)
+    {
+        this.opacity = Math.max(0f, Math.min(1f, opacity));
+        paint.setAlpha(Math.round(this.opacity * 255));
+    }
+    public boolean isVisible()
+    {
+        return visible;
+    }
+    public void setVisible(boolean visible)
+    {
+        this.visible = visible;
+    }
+    public int getBlendMode()
+    {
+        return blendMode;
+    }
+    public void setBlendMode(int blendMode)
+    {
+        this.blendMode = blendMode;
+        paint.setXfermode(blendMode == BLEND_NORMAL ? null : new PorterDuffXfermode(toPorterDuff(blendMode)));
+    }
+    //Paint для наложения слоя (null - обычное наложение без прозрачности)
+    public Paint getCompositePaint()
+    {
+        return opacity >= 1f && blendMode == BLEND_NORMAL ? null : paint;
+    }
+    //----------------------------------------------------------------------------------------------
+    private static PorterDuff.Mode toPorterDuff(int blendMode)
+    {
+        switch (blendMode)
+        {
+            case BLEND_MULTIPLY:
+                return PorterDuff.Mode.MULTIPLY;
+            case BLEND_SCREEN:
+                return PorterDuff.Mode.SCREEN;
+            case BLEND_ADD:
+                return PorterDuff.Mode.ADD;
+            case BLEND_OVERLAY:
+                return PorterDuff.Mode.OVERLAY;
+            case BLEND_DARKEN:
+                return PorterDuff.Mode.DARKEN;
+            case BLEND_LIGHTEN:
+                return PorterDuff.Mode.LIGHTEN;
+            default:
+                return PorterDuff.Mode.SRC_OVER;
+        }
+    }
+    //----------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,367 @@
+package com.mindmari.PaintApp;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.util.ArrayList;
+
+//Стопка слоёв с кэшем наложения.
+//Слои под активным и слои над ним заранее сведены в два холста из плиток,
+//поэтому кадр накладывает только три поверхности, сколько бы слоёв ни было.
+//Если над активным есть слой с особым режимом наложения, слои над активным выводятся по одному.
+//Кэш пересобирается, только когда меняется активный слой или свойства и содержимое других слоёв
+public class LayerStack
+{
+    //Наименьший бюджет несжатых плиток на один холст
+    private static final long MIN_RESIDENT_BYTES = 16L * 1024 * 1024;
+
+    private final int width;
+    private final int height;
+    private final int backgroundColor;
+    private final File spillDir;
+    private final ArrayList<Layer> layers = new ArrayList<>();
+    private int active = 0;
+
+    //Сведённые слои под активным и над ним
+    private final TiledCanvas below;
+    private final TiledCanvas above;
+    private boolean belowDirty = false;
+    private boolean aboveDirty = false;
+
+    private long residentBytes = TiledCanvas.DEFAULT_RESIDENT_BYTES;
+    private long compressedBytes = TiledCanvas.DEFAULT_COMPRESSED_BYTES;
+    //Формат хранения плиток всех холстов
+    private int pixelFormat = TiledCanvas.FORMAT_ARGB_8888;
+
+    //Переиспользуемые объекты для сведения
+    private final Rect tileRect = new Rect();
+    private final Paint paperPaint = new Paint();
+    //Картинка, которая выводится вместо активного слоя (null - нет)
+    private Bitmap activePreview;
+    private final Paint previewPaint = new Paint();
+    private final Rect previewRect = new Rect();
+    private int composeFrom;
+    private int composeTo;
+    private final TiledCanvas.DrawOp composeOp = c -> {
+        for (int i = composeFrom; i < composeTo; i++)
+        {
+            Layer layer = layers.get(i);
+            if (layer.isVisible()) layer.getCanvas().drawVisible(c, tileRect, 0, layer.getCompositePaint());
+        }
+    };
+    //----------------------------------------------------------------------------------------------
+    public LayerStack(int width, int height, int backgroundColor, File spillDir)
+    {
+        this.width = width;
+        this.height = height;
+        this.backgroundColor = backgroundColor;
+        this.spillDir = spillDir;
+        this.below = new TiledCanvas(width, height, 0, spillDir);
+        this.above = new TiledCanvas(width, height, 0, spillDir);
+        layers.add(new Layer(new TiledCanvas(width, height, backgroundColor, spillDir), backgroundColor));
+        paperPaint.setColor(backgroundColor);
+        updateBudgets();
+    }
+    //----------------------------------------------------------------------------------------------
+    public int size()
+    {
+        return layers.size();
+    }
+    public Layer get(int index)
+    {
+        return layers.get(index);
+    }
+    public int getActiveIndex()
+    {
+        return active;
+    }
+    public Layer getActive()
+    {
+        return layers.get(active);
+    }
+    public int getWidth()
+    {
+        return width;
+    }
+    public int getHeight()
+    {
+        return height;
+    }
+    //Добавить пустой прозрачный слой поверх всех. Возвращает его индекс
+    public int addLayer()
+    {
+        TiledCanvas canvas = new TiledCanvas(width, height, 0, spillDir);
+        canvas.setPixelFormat(pixelFormat);
+        layers.add(new Layer(canvas, 0));
+        updateBudgets();
+        aboveDirty = true;
+        return layers.size() - 1;
+    }
+    //Сделать слой активным
+    public void setActive(int index)
+    {
+        if (index == active) return;
+        active = index;
+        invalidateComposites();
+    }
+    //Сбросить кэш наложения (изменились свойства или содержимое неактивного слоя)
+    public void invalidateComposites()
+    {
+        belowDirty = true;
+        aboveDirty = true;
+    }
+    //Изменился слой layer: сбросить кэш, в который он входит
+    public void invalidateLayer(TiledCanvas layer)
+    {
+        for (int i = 0; i < layers.size(); i++)
+        {
+            if (layers.get(i).getCanvas() != layer) continue;
+            if (i < active) belowDirty = true;
+            if (i > active) aboveDirty = true;
+        }
+    }
+    //Установить бюджеты памяти на всю стопку; они делятся между слоями и кэшем
+    public void setMemoryBudget(long residentBytes, long compressedBytes)
+    {
+        this.residentBytes = residentBytes;
+        this.compressedBytes = compressedBytes;
+        updateBudgets();
+    }
+    //Установить формат хранения плиток (TiledCanvas.FORMAT_*) для слоёв и кэша наложения
+    public void setPixelFormat(int format)
+    {
+        pixelFormat = format;
+        for (Layer layer : layers) layer.getCanvas().setPixelFormat(format);
+        below.setPixelFormat(format);
+        above.setPixelFormat(format);
+        invalidateComposites();
+    }
+    public int getPixelFormat()
+    {
+        return pixelFormat;
+    }
+    //Сколько байт занимают плитки всех слоёв и кэша наложения
+    public long getMemoryBytes()
+    {
+        long bytes = below.getMemoryBytes() + above.getMemoryBytes();
+        for (Layer layer : layers) bytes += layer.getCanvas().getMemoryBytes();
+        return bytes;
+    }
+    //----------------------------------------------------------------------------------------------
+    //Вывести видимую область: слои под активным, активный слой, слои над ним
+    public void drawVisible(Canvas canvas, Rect visible, int level)
+    {
+        if (belowDirty)
+        {
+            compose(below, 0, active);
+            belowDirty = false;
+        }
+        //Кэш над активным слоем сводится на прозрачном холсте, а умножение, экран и другие режимы
+        //должны накладываться на то, что под ними. Такие слои рисуются по одному прямо поверх
+        boolean cacheAbove = isNormalBlend(active + 1, layers.size());
+        if (aboveDirty && cacheAbove)
+        {
+            compose(above, active + 1, layers.size());
+            aboveDirty = false;
+        } else if (!aboveDirty && !cacheAbove)
+        {
+            //Кэш не нужен, пока выше есть слой с особым наложением - отдать его плитки
+            above.fill(0);
+            aboveDirty = true;
+        }
+
+        //Если нижний слой скрыт, под рисунком виден чистый лист
+        if (!layers.get(0).isVisible()) canvas.drawRect(visible, paperPaint);
+        if (active > 0) below.drawVisible(canvas, visible, level);
+        Layer layer = layers.get(active);
+        if (layer.isVisible() && activePreview != null)
+        {
+            previewPaint.set(layer.getCompositePaint());
+            previewPaint.setFilterBitmap(true);
+            previewRect.set(0, 0, width, height);
+            canvas.drawBitmap(activePreview, null, previewRect, previewPaint);
+        } else if (layer.isVisible())
+        {
+            layer.getCanvas().drawVisible(canvas, visible, level, layer.getCompositePaint());
+        }
+        if (!cacheAbove)
+        {
+            for (int i = active + 1; i < layers.size(); i++)
+            {
+                Layer upper = layers.get(i);
+                if (upper.isVisible()) upper.getCanvas().drawVisible(canvas, visible, level, upper.getCompositePaint());
+            }
+        } else if (active < layers.size() - 1)
+        {
+            above.drawVisible(canvas, visible, level);
+        }
+    }
+    //Выводить вместо плиток активного слоя картинку, растянутую на весь холст (null - снова плитки).
+    //Так показывается предпросмотр фильтра, пока слой ещё не изменён
+    public void setActivePreview(Bitmap preview)
+    {
+        activePreview = preview;
+    }
+    //Снимок видимых слоёв. Здесь только копируются плитки, сводятся они в Snapshot.toBitmap в любом потоке
+    public Snapshot snapshot()
+    {
+        Snapshot snapshot = new Snapshot(width, height, layers.get(0).isVisible() ? 0 : backgroundColor);
+        for (Layer layer : layers)
+        {
+            if (!layer.isVisible()) continue;
+            Paint paint = layer.getCompositePaint();
+            snapshot.add(layer.getCanvas().snapshotAll(), paint != null ? new Paint(paint) : null);
+        }
+        return snapshot;
+    }
+    //Свести все видимые слои в один Bitmap (взятый из BitmapPool, его можно туда вернуть)
+    public Bitmap toBitmap()
+    {
+        Bitmap bitmap = BitmapPool.getShared().obtain(width, height, Bitmap.Config.ARGB_8888, 0);
+        Canvas canvas = new Canvas(bitmap);
+        Rect all = new Rect(0, 0, width, height);
+        if (!layers.get(0).isVisible()) canvas.drawColor(backgroundColor);
+        for (Layer layer : layers)
+        {
+            if (layer.isVisible()) layer.getCanvas().drawVisible(canvas, all, 0, layer.getCompositePaint());
+        }
+        return bitmap;
+    }
+    //Освободить все плитки
+    public void release()
+    {
+        for (Layer layer : layers) layer.getCanvas().release();
+        below.release();
+        above.release();
+    }
+    //----------------------------------------------------------------------------------------------
+    //Копии плиток видимых слоёв с их наложением. Не зависит от стопки, поэтому сводится в фоновом потоке
+    public static final class Snapshot implements ImageExporter.Source
+    {
+        private final int width;
+        private final int height;
+        //Цвет листа под рисунком (0 - нижний слой виден и закрывает лист)
+        private final int paperColor;
+        private final ArrayList<TiledCanvas.TileState[]> states = new ArrayList<>();
+        private final ArrayList<Paint> paints = new ArrayList<>();
+
+        Snapshot(int width, int height, int paperColor)
+        {
+            this.width = width;
+            this.height = height;
+            this.paperColor = paperColor;
+        }
+
+        void add(TiledCanvas.TileState[] layerStates, Paint paint)
+        {
+            states.add(layerStates);
+            paints.add(paint);
+        }
+        //Свести слои в Bitmap из BitmapPool
+        public Bitmap toBitmap()
+        {
+            Bitmap bitmap = BitmapPool.getShared().obtain(width, height, Bitmap.Config.ARGB_8888, paperColor);
+            Canvas canvas = new Canvas(bitmap);
+            for (int i = 0; i < states.size(); i++)
+            {
+                Paint paint = paints.get(i);
+                if (paint != null) canvas.saveLayer(0, 0, width, height, paint);
+                TiledCanvas.drawSnapshot(canvas, states.get(i), width);
+                if (paint != null) canvas.restore();
+            }
+            return bitmap;
+        }
+
+        @Override
+        public boolean compress(Bitmap.CompressFormat format, int quality, OutputStream out)
+        {
+            Bitmap bitmap = toBitmap();
+            try
+            {
+                return bitmap.compress(format, quality, out);
+            } finally
+            {
+                BitmapPool.getShared().release(bitmap);
+            }
+        }
+
+        @Override
+        public void release()
+        {
+            for (TiledCanvas.TileState[] layerStates : states) TiledCanvas.releaseSnapshot(layerStates);
+            states.clear();
+        }
+    }
+    //----------------------------------------------------------------------------------------------
+    //Свести слои с from по to (не включая) в target.
+    //Плитки, которые во всех слоях однотонные и непрозрачные, остаются однотонными и не занимают память
+    private void compose(TiledCanvas target, int from, int to)
+    {
+        target.fill(0);
+        if (from >= to) return;
+        long start = Metrics.start();
+        composeFrom = from;
+        composeTo = to;
+        int columns = target.getColumns();
+        int count = columns * target.getRows();
+        for (int index = 0; index < count; index++)
+        {
+            int solid = composeSolid(index, from, to);
+            if (solid != 0)
+            {
+                if (solid != 1) target.fillTile(index, solid);
+                continue;
+            }
+            int x = (index % columns) * TiledCanvas.TILE_SIZE;
+            int y = (index / columns) * TiledCanvas.TILE_SIZE;
+            tileRect.set(x, y, x + TiledCanvas.TILE_SIZE, y + TiledCanvas.TILE_SIZE);
+            target.draw(index, composeOp);
+        }
+        Metrics.stop(Metrics.LAYER_COMPOSE + pixelFormat, start);
+    }
+    //Цвет плитки после сведения, если его можно посчитать без рисования:
+    //1 - плитка прозрачная, 0 - плитку нужно рисовать, иначе - цвет однотонной плитки
+    private int composeSolid(int index, int from, int to)
+    {
+        int color = 1;
+        for (int i = from; i < to; i++)
+        {
+            Layer layer = layers.get(i);
+            if (!layer.isVisible()) continue;
+            TiledCanvas canvas = layer.getCanvas();
+            if (!canvas.isSolid(index)) return 0;
+            int tileColor = canvas.getSolidColor(index);
+            if (tileColor == 0) continue;
+            //Непрозрачный слой с обычным наложением закрывает всё под ним
+            if (tileColor >>> 24 != 0xFF || layer.getCompositePaint() != null) return 0;
+            color = tileColor;
+        }
+        return color;
+    }
+
+    //Все видимые слои с from по to (не включая) накладываются обычным образом
+    private boolean isNormalBlend(int from, int to)
+    {
+        for (int i = from; i < to; i++)
+        {
+            Layer layer = layers.get(i);
+            if (layer.isVisible() && layer.getBlendMode() != Layer.BLEND_NORMAL) return false;
+        }
+        return true;
+    }
+
+    private void updateBudgets()
+    {
+        int canvases = layers.size() + 2;
+        long resident = Math.max(MIN_RESIDENT_BYTES, residentBytes / canvases);
+        long compressed = compressedBytes / canvases;
+        for (Layer layer : layers) layer.getCanvas().setMemoryBudget(resident, compressed);
+        below.setMemoryBudget(resident, compressed);
+        above.setMemoryBudget(resident, compressed);
+    }
+    //----------------------------------------------------------------------------------------------
+}
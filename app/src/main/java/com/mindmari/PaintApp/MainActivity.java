@@ -8,7 +8,6 @@ import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Bundle;
-import android.provider.MediaStore;
 import android.util.Log;
 import android.view.View;
 
@@ -20,8 +19,6 @@ import com.google.android.material.snackbar.Snackbar;
 import com.theartofdev.edmodo.cropper.CropImage;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -33,11 +30,28 @@ public class MainActivity extends AppCompatActivity
 {
     private static final int PERMISSION_CODE = 1000;
     private static final int GALLERY_REQUEST = 1002;
+    private static final int SAVED_REQUEST = 1003;
+    //Настройка: рисовать в отдельном потоке через SurfaceView
+    private static final String PREF_RENDER_THREAD = "render_thread";
     ActivityMainBinding binding;
     //Диалог выбора толщины кисти
     AlertDialog brushSizeDialog;
     //Диалог выбора формы
     AlertDialog shapeDialog;
+    //Диалог выбора фильтра и цепочка, которую он собирает
+    AlertDialog filterDialog;
+    final FilterPipeline filterPipeline = new FilterPipeline();
+    //Сохранение картинки в фоне
+    ImageExporter imageExporter;
+    //Загрузка картинки в фоне
+    ImageImporter imageImporter;
+    //Формат и качество сохранения
+    Bitmap.CompressFormat exportFormat = Bitmap.CompressFormat.JPEG;
+    int exportQuality = 100;
+    //Рисовать в отдельном потоке через SurfaceView (false - в onDraw на главном потоке)
+    boolean useRenderThread;
+    //Средняя задержка от касания до кадра в каждом режиме: [0] - onDraw, [1] - поток рисования
+    final long[] inputLatencyMs = new long[2];
     //----------------------------------------------------------------------------------------------
     @Override
     protected void onCreate(Bundle savedInstanceState)
@@ -46,9 +60,34 @@ public class MainActivity extends AppCompatActivity
         binding = ActivityMainBinding.inflate(getLayoutInflater());
         setContentView(binding.getRoot());
         setUpListeners();
+        //Выбрать способ вывода кадров
+        if (getPreferences(MODE_PRIVATE).getBoolean(PREF_RENDER_THREAD, false)) setRenderThread(true);
 
         //Настроить диалоги
         setUpDialogs();
+
+        imageExporter = new ImageExporter();
+        imageImporter = new ImageImporter();
+
+        //Восстановить рисунок прошлого сеанса и сохранять каждую операцию
+        binding.drawingView.enableAutosave(new File(getFilesDir(), "session"));
+    }
+    //----------------------------------------------------------------------------------------------
+    @Override
+    protected void onPause()
+    {
+        binding.drawingView.flushAutosave();
+        super.onPause();
+    }
+    //----------------------------------------------------------------------------------------------
+    @Override
+    protected void onDestroy()
+    {
+        //Начатые сохранения будут дописаны до конца
+        imageExporter.shutdown();
+        imageImporter.shutdown();
+        binding.drawingView.disableAutosave();
+        super.onDestroy();
     }
     //----------------------------------------------------------------------------------------------
     //Настроить диалог выбора толщины кисти
@@ -69,7 +108,7 @@ public class MainActivity extends AppCompatActivity
         //Инициализация диалога выбрра формы
         shapeDialog = new AlertDialog.Builder(this)
                 .setTitle("Выберите форму")
-                .setSingleChoiceItems(getResources().getStringArray(R.array.shapes), 5, new DialogInterface.OnClickListener()
+                .setSingleChoiceItems(getResources().getStringArray(R.array.shapes), -1, new DialogInterface.OnClickListener()
                 {
                     @Override
                     public void onClick(DialogInterface dialog, int which)
@@ -91,10 +130,99 @@ public class MainActivity extends AppCompatActivity
                             case 4:
                                 binding.drawingView.setDrawShape(DrawingView.RECTANGLE);
                                 break;
+                            case 5:
+                                binding.drawingView.setDrawShape(DrawingView.FILL);
+                                break;
+                            case 6:
+                                binding.drawingView.setDrawShape(DrawingView.ELLIPSE);
+                                break;
+                            case 7:
+                                binding.drawingView.setDrawShape(DrawingView.POLYGON);
+                                break;
+                            case 8:
+                                binding.drawingView.setDrawShape(DrawingView.ARROW);
+                                break;
+                            case 9:
+                                binding.drawingView.setEraserMode(DrawingView.ERASER_TOUCH);
+                                binding.drawingView.setDrawShape(DrawingView.ERASER);
+                                break;
+                            case 10:
+                                binding.drawingView.setEraserMode(DrawingView.ERASER_LASSO);
+                                binding.drawingView.setDrawShape(DrawingView.ERASER);
+                                break;
+                            case 11:
+                                binding.drawingView.setSelectionMode(DrawingView.SELECT_RECTANGLE);
+                                binding.drawingView.setDrawShape(DrawingView.SELECT);
+                                break;
+                            case 12:
+                                binding.drawingView.setSelectionMode(DrawingView.SELECT_LASSO);
+                                binding.drawingView.setDrawShape(DrawingView.SELECT);
+                                break;
                         }
                         dialog.dismiss();
                     }
                 }).create();
+
+        //Инициализация диалога выбора фильтра
+        filterDialog = new AlertDialog.Builder(this)
+                .setTitle("Выберите фильтр")
+                .setItems(getResources().getStringArray(R.array.filters), (dialog, which) -> applyFilter(which))
+                .create();
+    }
+    //----------------------------------------------------------------------------------------------
+    //Применить к активному слою фильтр из диалога
+    private void applyFilter(int which)
+    {
+        filterPipeline.clear();
+        switch (which)
+        {
+            case 0:
+                filterPipeline.addBlur(6);
+                break;
+            case 1:
+                filterPipeline.addBlur(40);
+                break;
+            case 2:
+                filterPipeline.addSharpen(3, 0.8f, 4);
+                break;
+            case 3:
+                //S-кривая: тени темнее, света светлее
+                filterPipeline.addCurve(new float[]{0, 0, 64, 48, 192, 208, 255, 255}, 4);
+                break;
+            case 4:
+                filterPipeline.addLevels(0, 255, 1.4f);
+                break;
+        }
+        binding.drawingView.applyFilter(filterPipeline);
+    }
+    //----------------------------------------------------------------------------------------------
+    //Рисовать в потоке рисования через SurfaceView или в onDraw
+    private void setRenderThread(boolean enabled)
+    {
+        if (enabled)
+        {
+            binding.drawingView.attachSurfaceView(binding.renderSurface);
+            binding.renderSurface.setVisibility(View.VISIBLE);
+        } else
+        {
+            binding.drawingView.detachSurfaceView(binding.renderSurface);
+            binding.renderSurface.setVisibility(View.GONE);
+        }
+        useRenderThread = enabled;
+    }
+    //Переключить способ вывода кадров и показать среднюю задержку касания в обоих режимах
+    private void toggleRenderThread()
+    {
+        //Задержка режима, из которого уходим; в новом режиме она считается заново
+        inputLatencyMs[useRenderThread ? 1 : 0] = binding.drawingView.getAverageInputLatencyMs();
+        setRenderThread(!useRenderThread);
+        binding.drawingView.resetInputLatency();
+        getPreferences(MODE_PRIVATE).edit().putBoolean(PREF_RENDER_THREAD, useRenderThread).apply();
+
+        String report = "Задержка касания: onDraw " + inputLatencyMs[0] + " мс, поток рисования " + inputLatencyMs[1] + " мс";
+        addToLog(report);
+        Snackbar.make(binding.getRoot(), (useRenderThread ? "Поток рисования. " : "Рисование в onDraw. ") + report,
+                BaseTransientBottomBar.LENGTH_LONG).show();
     }
     //----------------------------------------------------------------------------------------------
     private void setUpListeners()
@@ -105,6 +233,16 @@ public class MainActivity extends AppCompatActivity
         binding.save.setOnClickListener(v -> saveImage());
         //загрузить из галереи
         binding.upload.setOnClickListener(v -> uploadFromGallery());
+        //Открыть сохранённый рисунок
+        binding.gallery.setOnClickListener(v -> startActivityForResult(new Intent(this, GalleryActivity.class), SAVED_REQUEST));
+        //Фильтры активного слоя
+        binding.filter.setOnClickListener(v -> filterDialog.show());
+        //Рисовать в отдельном потоке или в onDraw
+        binding.render.setOnClickListener(v -> toggleRenderThread());
+        //Отменить действие
+        binding.undo.setOnClickListener(v -> binding.drawingView.undo());
+        //Повторить действие
+        binding.redo.setOnClickListener(v -> binding.drawingView.redo());
         //Рисовать кистью
         binding.brush.setOnClickListener(v -> binding.drawingView.setDrawShape(DrawingView.BRUSH));
         //Выбор формы рисования
@@ -128,23 +266,43 @@ public class MainActivity extends AppCompatActivity
     private void saveImage()
     {
         //Имя файла - текущее время в мс
-        String fileName = System.currentTimeMillis() + ".jpg";
+        String fileName = System.currentTimeMillis() + ImageExporter.getExtension(exportFormat);
         //Путь по которму будет файл
         String savePath = getExternalFilesDir("Saved").getAbsolutePath();
         //Неполный путь сохранённого файла для отображения пользователям
         String pathToShow = "/Android/data/by.gregorovich.mpaint/files/Saved";
         File file = new File(savePath, fileName);
-        try(FileOutputStream outputStream = new FileOutputStream(file))
-        {
-            Bitmap bitmap = binding.drawingView.getCanvasBitmap();
-            bitmap.compress(Bitmap.CompressFormat.JPEG, 100, outputStream);
-            Snackbar.make(binding.getRoot(), "Saved to \"" + pathToShow + "\"", BaseTransientBottomBar.LENGTH_SHORT)
-                    .show();
-        } catch (IOException e)
-        {
-            addToLog("Exception: " + e.getLocalizedMessage());
-            e.printStackTrace();
-        }
+        //Сообщение о ходе сохранения
+        Snackbar progressBar = Snackbar.make(binding.getRoot(), "Сохранение...", BaseTransientBottomBar.LENGTH_INDEFINITE);
+        progressBar.show();
+        //Сведение слоёв, сжатие и запись идут в фоне, здесь только копируются плитки
+        imageExporter.export(binding.drawingView.getCanvasSnapshot(), file, exportFormat, exportQuality,
+                new ImageExporter.Listener()
+                {
+                    @Override
+                    public void onProgress(long bytesWritten)
+                    {
+                        progressBar.setText("Сохранение... " + bytesWritten / 1024 + " КБ");
+                    }
+
+                    @Override
+                    public void onComplete(File file)
+                    {
+                        progressBar.dismiss();
+                        Snackbar.make(binding.getRoot(), "Saved to \"" + pathToShow + "\"", BaseTransientBottomBar.LENGTH_SHORT)
+                                .show();
+                    }
+
+                    @Override
+                    public void onError(Exception e)
+                    {
+                        progressBar.dismiss();
+                        addToLog("Exception: " + e.getLocalizedMessage());
+                        e.printStackTrace();
+                        Snackbar.make(binding.getRoot(), "Ошибка сохранения", BaseTransientBottomBar.LENGTH_SHORT)
+                                .show();
+                    }
+                });
     }
     //----------------------------------------------------------------------------------------------
     //Загрузить из галереи
@@ -211,7 +369,7 @@ public class MainActivity extends AppCompatActivity
                     Uri selectedImage = data.getData();
                     //Вызвать окно редактирования картинки
                     CropImage.activity(selectedImage)
-                            .setAspectRatio(binding.drawingView.getWidthView(), binding.drawingView.getHeightView())
+                            .setAspectRatio(binding.drawingView.getCanvasWidth(), binding.drawingView.getCanvasHeight())
                             .setFixAspectRatio(true)
                             .start(this);
                 } else
@@ -222,99 +380,47 @@ public class MainActivity extends AppCompatActivity
             }
             if (requestCode == CropImage.CROP_IMAGE_ACTIVITY_REQUEST_CODE)
             {
-                try
+                CropImage.ActivityResult result = CropImage.getActivityResult(data);
+                loadImage(result.getUri());
+            }
+            if (requestCode == SAVED_REQUEST)
+            {
+                String path = data != null ? data.getStringExtra(GalleryActivity.EXTRA_PATH) : null;
+                if (path != null)
                 {
-                    CropImage.ActivityResult result = CropImage.getActivityResult(data);
-                    Uri resultUri = result.getUri();
-                    Bitmap bitmap = MediaStore.Images.Media.getBitmap(getContentResolver(), resultUri);
-                    binding.drawingView.setBitmap(scaleBitmap(bitmap));
-                } catch (IOException e)
+                    //Сохранённый рисунок уже в размере холста, кадрировать его не нужно
+                    loadImage(Uri.fromFile(new File(path)));
+                } else
                 {
-                    e.printStackTrace();
+                    //Показать сообщение об ошибке
+                    Snackbar.make(binding.getRoot(), "Ошибка загрузки", BaseTransientBottomBar.LENGTH_SHORT).show();
                 }
             }
         }
     }
     //----------------------------------------------------------------------------------------------
-    //Изменить размер картинки
-    private Bitmap scaleBitmap(Bitmap bitmap)
+    //Загрузить картинку на холст
+    private void loadImage(Uri uri)
     {
-        int srcW = bitmap.getWidth();
-        int srcH = bitmap.getHeight();
-        int viewH = binding.drawingView.getHeightView();
-        int viewW = binding.drawingView.getWidthView();
-        int dstW = srcW;
-        int dstH = srcH;
-        addToLog("old W - " + srcW + "| H - " + srcH + "|");
-
-        //Пока ширина или высота картинки больше чем DrawingView
-        if (dstW > viewW || dstH > viewH)
-        {
-            if (srcH == srcW) //Квадратная картинка
-            {
-                addToLog("Квадратная картинка");
-                dstW = (srcH*viewH)/srcH;
-                dstH = dstW;
-                addToLog("new W - " + dstW + "| H - " + dstW + "|");
-                bitmap = Bitmap.createScaledBitmap(bitmap, dstW, dstW, true);
-
-            } else //Вертикальная или горизонтальная картинка
-            {
-                addToLog("Вертикальная картинка");
-
-                //Исправить высоту
-                if (dstH > viewH)
+        //Декодировать картинку сразу под размер холста
+        imageImporter.load(getContentResolver(), uri,
+                binding.drawingView.getCanvasWidth(), binding.drawingView.getCanvasHeight(),
+                new ImageImporter.Listener()
                 {
-                    dstH = viewH;
-                    dstW = (srcW*dstH)/srcH;
-                    addToLog("Высоту W - " + dstW + "| H - " + dstH + "|");
-                    bitmap = Bitmap.createScaledBitmap(bitmap, dstW, dstH, true);
-                }
-                //Исправить ширину
-                if (dstW > viewW)
-                {
-                    dstW = viewW;
-                    dstH = (dstW*srcH)/srcW;
-                    addToLog("Ширину W - " + dstW + "| H - " + dstH + "|");
-                    bitmap = Bitmap.createScaledBitmap(bitmap, dstW, dstH, true);
-                }
-            }
-        }
-
-        //Если ширина или высота картинки меньше чем DrawingView
-        if (dstW < viewW || dstH < viewH)
-        {
-            if (srcH == srcW) //Квадратная картинка
-            {
-                addToLog("Квадратная картинка");
-                dstW = (srcH*viewH)/srcH;
-                addToLog("new W - " + dstW + "| H - " + dstW + "|");
-                bitmap = Bitmap.createScaledBitmap(bitmap, dstW, dstW, true);
-
-            } else //Вертикальная или горизонтальная картинка
-            {
-                addToLog("Вертикальная картинка");
-
-                //Исправить высоту
-                if (dstH < viewH)
-                {
-                    dstH = viewH;
-                    dstW = (srcW*dstH)/srcH;
-                    addToLog("Высоту W - " + dstW + "| H - " + dstH + "|");
-                    bitmap = Bitmap.createScaledBitmap(bitmap, dstW, dstH, true);
-                }
-                //Исправить ширину
-                if (dstW < viewW)
-                {
-                    dstW = viewW;
-                    dstH = (dstW*srcH)/srcW;
-                    addToLog("Ширину W - " + dstW + "| H - " + dstH + "|");
-                    bitmap = Bitmap.createScaledBitmap(bitmap, dstW, dstH, true);
-                }
-            }
-        }
+                    @Override
+                    public void onLoaded(Bitmap bitmap)
+                    {
+                        binding.drawingView.setBitmap(bitmap);
+                    }
 
-        return bitmap;
+                    @Override
+                    public void onError(Exception e)
+                    {
+                        addToLog("Exception: " + e.getLocalizedMessage());
+                        e.printStackTrace();
+                        Snackbar.make(binding.getRoot(), "Ошибка загрузки", BaseTransientBottomBar.LENGTH_SHORT).show();
+                    }
+                });
     }
     //----------------------------------------------------------------------------------------------
     private void addToLog(String msg)
@@ -0,0 +1,145 @@
+package com.mindmari.PaintApp;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+//Замеры скорости рисования: время кадра, задержка касания, стоимость фиксации фигур, выделение Bitmap.
+//По умолчанию выключены: каждая точка замера - одна проверка флага, без вызова nanoTime и записи.
+//Значения пишутся в гистограммы без блокировок и читаются из любого потока
+public class Metrics
+{
+    private static final String TAG = "Metrics";
+
+    //Время рисования кадра (onDraw или кадр потока рисования), нс
+    public static final int FRAME_DRAW = 0;
+    //Время от касания до запроса перерисовки, нс
+    public static final int TOUCH_TO_INVALIDATE = 1;
+    //Время фиксации штриха или фигуры на холсте при отпускании пальца, нс
+    public static final int COMMIT_PEN = 2;
+    public static final int COMMIT_LINE = 3;
+    public static final int COMMIT_RECTANGLE = 4;
+    public static final int COMMIT_CIRCLE = 5;
+    public static final int COMMIT_TRIANGLE = 6;
+    public static final int COMMIT_FILL = 7;
+    //Размер выделенных Bitmap, байт (количество значений - количество выделений)
+    public static final int BITMAP_BYTES = 8;
+    //Время фиксации эллипса, многоугольника и стрелки, нс
+    public static final int COMMIT_ELLIPSE = 9;
+    public static final int COMMIT_POLYGON = 10;
+    public static final int COMMIT_ARROW = 11;
+    //Время сведения слоёв в кэш наложения, нс, и память плиток всех слоёв на кадр, байт.
+    //Оба зависят от формата хранения холста и пишутся отдельно для каждого: LAYER_COMPOSE + TiledCanvas.FORMAT_*
+    public static final int LAYER_COMPOSE = 12;
+    public static final int CANVAS_BYTES = 15;
+    //Время поиска штрихов и фигур под ластиком или внутри лассо, нс
+    public static final int HIT_TEST = 18;
+    //Время стирания при отпускании пальца, нс
+    public static final int COMMIT_ERASE = 19;
+    //Время растяжения и наложения выделения на холст, нс
+    public static final int COMMIT_SELECTION = 20;
+    //Время уменьшенного предпросмотра фильтра и полного размера в фоне, нс
+    public static final int FILTER_PREVIEW = 21;
+    public static final int FILTER_APPLY = 22;
+    //Время привязки элемента галереи на главном потоке и загрузки миниатюры в фоне, нс
+    public static final int THUMBNAIL_BIND = 23;
+    public static final int THUMBNAIL_LOAD = 24;
+
+    private static final String[] NAMES = {
+            "frame_draw_ns", "touch_to_invalidate_ns",
+            "commit_pen_ns", "commit_line_ns", "commit_rectangle_ns", "commit_circle_ns",
+            "commit_triangle_ns", "commit_fill_ns", "bitmap_bytes",
+            "commit_ellipse_ns", "commit_polygon_ns", "commit_arrow_ns",
+            "layer_compose_ns_argb8888", "layer_compose_ns_rgb565", "layer_compose_ns_auto",
+            "canvas_bytes_argb8888", "canvas_bytes_rgb565", "canvas_bytes_auto",
+            "hit_test_ns", "commit_erase_ns",
+            "commit_selection_ns", "filter_preview_ns", "filter_apply_ns",
+            "thumbnail_bind_ns", "thumbnail_load_ns"
+    };
+
+    private static final Histogram[] histograms = new Histogram[NAMES.length];
+    static
+    {
+        for (int i = 0; i < histograms.length; i++) histograms[i] = new Histogram();
+    }
+
+    private static volatile boolean enabled = false;
+    //----------------------------------------------------------------------------------------------
+    //Включить или выключить замеры
+    public static void setEnabled(boolean isEnabled)
+    {
+        enabled = isEnabled;
+    }
+
+    public static boolean isEnabled()
+    {
+        return enabled;
+    }
+    //----------------------------------------------------------------------------------------------
+    //Начать замер времени. Возвращает 0, если замеры выключены
+    public static long start()
+    {
+        return enabled ? System.nanoTime() : 0;
+    }
+    //Закончить замер, начатый start()
+    public static void stop(int metric, long startNanos)
+    {
+        if (startNanos != 0) histograms[metric].record(System.nanoTime() - startNanos);
+    }
+    //Записать значение
+    public static void record(int metric, long value)
+    {
+        if (enabled) histograms[metric].record(value);
+    }
+    //Выделен Bitmap
+    public static void onBitmapAllocated(Bitmap bitmap)
+    {
+        if (enabled) histograms[BITMAP_BYTES].record(bitmap.getByteCount());
+    }
+    //----------------------------------------------------------------------------------------------
+    //Гистограмма замера
+    public static Histogram get(int metric)
+    {
+        return histograms[metric];
+    }
+    //Название замера
+    public static String getName(int metric)
+    {
+        return NAMES[metric];
+    }
+    //Количество замеров
+    public static int getCount()
+    {
+        return NAMES.length;
+    }
+    //Сбросить все замеры
+    public static void reset()
+    {
+        for (Histogram histogram : histograms) histogram.reset();
+    }
+    //Записать все замеры в текстовый файл: по строке на замер
+    public static boolean dump(File file)
+    {
+        try (Writer writer = new FileWriter(file))
+        {
+            writer.write("name count mean p50 p90 p99 max\n");
+            for (int i = 0; i < NAMES.length; i++)
+            {
+                Histogram h = histograms[i];
+                writer.write(String.format(Locale.US, "%s %d %d %d %d %d %d\n", NAMES[i], h.getCount(),
+                        h.getMean(), h.getPercentile(0.5), h.getPercentile(0.9), h.getPercentile(0.99), h.getMax()));
+            }
+            return true;
+        } catch (IOException e)
+        {
+            Log.w(TAG, "Cannot dump metrics: " + e.getLocalizedMessage());
+            return false;
+        }
+    }
+    //----------------------------------------------------------------------------------------------
+}
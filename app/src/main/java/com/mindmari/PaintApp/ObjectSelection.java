@@ -0,0 +1,74 @@
+package com.mindmari.PaintApp;
+
+import java.util.Arrays;
+
+//Выбранные записи DisplayList (штрихи и фигуры) и общие границы их вместе с толщиной линии.
+//Заполняется поиском DisplayList по касанию или по лассо, список переиспользуется между жестами
+public class ObjectSelection
+{
+    //Номера записей в порядке выбора
+    private int[] indexes = new int[16];
+    private int count = 0;
+    //Общие границы: left, top, right, bottom
+    private float left, top, right, bottom;
+    //----------------------------------------------------------------------------------------------
+    //Добавить запись с границами recordBounds, если её ещё нет
+    public void add(int index, float[] recordBounds)
+    {
+        if (contains(index)) return;
+        if (count == indexes.length) indexes = Arrays.copyOf(indexes, count * 2);
+        indexes[count] = index;
+        if (count == 0)
+        {
+            left = recordBounds[0];
+            top = recordBounds[1];
+            right = recordBounds[2];
+            bottom = recordBounds[3];
+        } else
+        {
+            left = Math.min(left, recordBounds[0]);
+            top = Math.min(top, recordBounds[1]);
+            right = Math.max(right, recordBounds[2]);
+            bottom = Math.max(bottom, recordBounds[3]);
+        }
+        count++;
+    }
+
+    public boolean contains(int index)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            if (indexes[i] == index) return true;
+        }
+        return false;
+    }
+
+    public void clear()
+    {
+        count = 0;
+    }
+    //----------------------------------------------------------------------------------------------
+    public int getCount()
+    {
+        return count;
+    }
+
+    public boolean isEmpty()
+    {
+        return count == 0;
+    }
+    //Номера записей (действительны первые getCount())
+    public int[] getIndexes()
+    {
+        return indexes;
+    }
+    //Общие целые границы с запасом inset: out - left, top, right, bottom
+    public void getBounds(int inset, int[] out)
+    {
+        out[0] = (int) Math.floor(left) - inset;
+        out[1] = (int) Math.floor(top) - inset;
+        out[2] = (int) Math.ceil(right) + inset;
+        out[3] = (int) Math.ceil(bottom) + inset;
+    }
+    //----------------------------------------------------------------------------------------------
+}
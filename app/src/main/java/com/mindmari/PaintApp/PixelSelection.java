@@ -0,0 +1,125 @@
+package com.mindmari.PaintApp;
+
+import java.util.Arrays;
+
+//Пиксели, поднятые с холста выделением, без зависимостей от Android.
+//Выделение - прямоугольник или лассо внутри него. Поднятые пиксели копируются в свой буфер,
+//а на холсте на их месте остаётся цвет основы слоя. При фиксации буфер растягивается
+//в новый прямоугольник и накладывается на холст (Resampler). Буфер переиспользуется между выделениями.
+//Используется DrawingView и модулем benchmark
+public class PixelSelection
+{
+    //Поднятые пиксели (ARGB без домножения на альфу), снаружи лассо - прозрачные
+    private int[] pixels = new int[0];
+    private int width = 0;
+    private int height = 0;
+    //Точки пересечения строки с лассо
+    private float[] crossings = new float[16];
+    //----------------------------------------------------------------------------------------------
+    //Поднять пиксели прямоугольника (left, top, right, bottom) с холста canvas размером canvasWidth x canvasHeight.
+    //lasso - многоугольник из lassoCount точек (x, y парами), null - весь прямоугольник.
+    //Поднятые пиксели на холсте заменяются цветом holeColor. Возвращает false, если прямоугольник вне холста
+    public boolean lift(int[] canvas, int canvasWidth, int canvasHeight, int left, int top, int right, int bottom,
+                        float[] lasso, int lassoCount, int holeColor)
+    {
+        return lift(canvas, 0, 0, canvasWidth, canvasHeight, left, top, right, bottom, lasso, lassoCount, holeColor);
+    }
+    //То же, но canvas - только часть холста: область canvasWidth x canvasHeight с левым верхним углом
+    //(canvasX, canvasY). Прямоугольник и лассо - в координатах холста
+    public boolean lift(int[] canvas, int canvasX, int canvasY, int canvasWidth, int canvasHeight,
+                        int left, int top, int right, int bottom, float[] lasso, int lassoCount, int holeColor)
+    {
+        left = Math.max(left, canvasX);
+        top = Math.max(top, canvasY);
+        right = Math.min(right, canvasX + canvasWidth);
+        bottom = Math.min(bottom, canvasY + canvasHeight);
+        if (left >= right || top >= bottom)
+        {
+            width = height = 0;
+            return false;
+        }
+        width = right - left;
+        height = bottom - top;
+        if (pixels.length < width * height) pixels = new int[width * height];
+
+        for (int y = 0; y < height; y++)
+        {
+            int from = (top + y - canvasY) * canvasWidth + left - canvasX;
+            if (lasso == null)
+            {
+                System.arraycopy(canvas, from, pixels, y * width, width);
+                Arrays.fill(canvas, from, from + width, holeColor);
+                continue;
+            }
+            Arrays.fill(pixels, y * width, (y + 1) * width, 0);
+            //Участки строки внутри лассо по правилу чёт-нечет: между 1-м и 2-м пересечением, 3-м и 4-м...
+            int count = findCrossings(lasso, lassoCount, top + y + 0.5f);
+            for (int i = 0; i + 1 < count; i += 2)
+            {
+                int x1 = Math.max(left, (int) Math.ceil(crossings[i] - 0.5f));
+                int x2 = Math.min(right, (int) Math.ceil(crossings[i + 1] - 0.5f));
+                if (x1 >= x2) continue;
+                System.arraycopy(canvas, from + x1 - left, pixels, y * width + x1 - left, x2 - x1);
+                Arrays.fill(canvas, from + x1 - left, from + x2 - left, holeColor);
+            }
+        }
+        return true;
+    }
+    //Растянуть поднятые пиксели в прямоугольник (dstLeft, dstTop, dstRight, dstBottom) и наложить поверх холста.
+    //out - изменённая область холста: left, top, right, bottom. Возвращает false, если холст не изменился
+    public boolean drop(int[] canvas, int canvasWidth, int canvasHeight,
+                        float dstLeft, float dstTop, float dstRight, float dstBottom, int filter, int[] out)
+    {
+        return drop(canvas, 0, 0, canvasWidth, canvasHeight, dstLeft, dstTop, dstRight, dstBottom, filter, out);
+    }
+    //То же для части холста с левым верхним углом (canvasX, canvasY)
+    public boolean drop(int[] canvas, int canvasX, int canvasY, int canvasWidth, int canvasHeight,
+                        float dstLeft, float dstTop, float dstRight, float dstBottom, int filter, int[] out)
+    {
+        if (width == 0 || height == 0) return false;
+        return Resampler.drawScaled(pixels, width, height, canvas, canvasX, canvasY, canvasWidth, canvasHeight,
+                dstLeft, dstTop, dstRight, dstBottom, filter, out);
+    }
+    //----------------------------------------------------------------------------------------------
+    //Поднятые пиксели: строки шириной getWidth() подряд
+    public int[] getPixels()
+    {
+        return pixels;
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+    //----------------------------------------------------------------------------------------------
+    //Пересечения горизонтали y со сторонами лассо по возрастанию x. Возвращает их количество
+    private int findCrossings(float[] lasso, int count, float y)
+    {
+        if (crossings.length < count) crossings = new float[count];
+        int found = 0;
+        for (int i = 0, j = count - 1; i < count; j = i++)
+        {
+            float xi = lasso[i * 2];
+            float yi = lasso[i * 2 + 1];
+            float xj = lasso[j * 2];
+            float yj = lasso[j * 2 + 1];
+            if ((yi > y) == (yj > y)) continue;
+            float x = xi + (y - yi) * (xj - xi) / (yj - yi);
+            //Вставка по порядку: пересечений немного
+            int k = found++;
+            while (k > 0 && crossings[k - 1] > x)
+            {
+                crossings[k] = crossings[k - 1];
+                k--;
+            }
+            crossings[k] = x;
+        }
+        return found;
+    }
+    //----------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,105 @@
+package com.mindmari.PaintApp;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+//Штрих одного пальца, когда рисуют несколько пальцев сразу.
+//У каждого пальца свои стабилизатор, сглаживание, нажим и точки штриха. Слоты создаются заранее
+//и переиспользуются, поэтому касание нового пальца не выделяет память
+public class PointerStroke
+{
+    //Палец не касается экрана
+    public static final int NO_POINTER = -1;
+
+    private final IncrementalStroke stroke = new IncrementalStroke();
+    private final StrokeSmoother smoother = new StrokeSmoother();
+    private final StampBrush brush = new StampBrush();
+    private final InputPipeline pipeline = new InputPipeline();
+    //Идентификатор пальца в MotionEvent (NO_POINTER - слот свободен)
+    private int pointerId = NO_POINTER;
+    //Толщина штриха
+    private float width;
+    //----------------------------------------------------------------------------------------------
+    //Настройки, общие для всех пальцев
+    public void setStabilizer(int mode)
+    {
+        pipeline.setStabilizer(mode);
+    }
+
+    public void setSmoothing(int mode)
+    {
+        smoother.setMode(mode);
+    }
+    //----------------------------------------------------------------------------------------------
+    //Палец pointerId коснулся экрана в (x, y). isStamped - рисовать отпечатками с нажимом
+    public void start(int pointerId, float x, float y, long time, float pressure, boolean isStamped, float width)
+    {
+        this.pointerId = pointerId;
+        this.width = width;
+        stroke.setBrush(isStamped ? brush : null, width);
+        pipeline.start(x, y, time);
+        smoother.start(stroke, x, y, brush.startInput(x, y, time, pressure));
+    }
+    //Новая точка пальца
+    public void add(float x, float y, long time, float pressure)
+    {
+        pipeline.beginBatch();
+        pipeline.add(x, y, time);
+        float px = pipeline.getBatchX(0);
+        float py = pipeline.getBatchY(0);
+        smoother.add(px, py, brush.input(px, py, time, pressure));
+    }
+    //Палец поднят: дорисовать хвост сглаживания
+    public void finish()
+    {
+        smoother.finish();
+    }
+    //Освободить слот после записи штриха
+    public void release()
+    {
+        pointerId = NO_POINTER;
+        stroke.reset();
+    }
+    //----------------------------------------------------------------------------------------------
+    public int getPointerId()
+    {
+        return pointerId;
+    }
+
+    public boolean isActive()
+    {
+        return pointerId != NO_POINTER;
+    }
+
+    public IncrementalStroke getStroke()
+    {
+        return stroke;
+    }
+    //Сколько отпечатков поставила кисть этого пальца
+    public long getStampCount()
+    {
+        return brush.getStampCount();
+    }
+    //Границы ещё не нарисованных сегментов. Возвращает false, если их нет
+    public boolean computePendingBounds(Rect out)
+    {
+        return isActive() && stroke.computePendingBounds(width, out);
+    }
+    //Подготовить новые сегменты к рисованию
+    public void preparePending()
+    {
+        if (isActive() && stroke.hasPending()) stroke.preparePending();
+    }
+    //Нарисовать новые сегменты
+    public void drawPending(Canvas canvas, Paint paint)
+    {
+        if (isActive() && stroke.hasPending()) stroke.drawPending(canvas, paint);
+    }
+    //Новые сегменты нарисованы на холсте
+    public void markRasterized()
+    {
+        if (isActive()) stroke.markRasterized();
+    }
+    //----------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,114 @@
+package com.mindmari.PaintApp;
+
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.util.Log;
+import android.view.Surface;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+//Поток рисования для DrawingView.
+//Касания и команды из главного потока попадают в неблокирующую очередь,
+//поток выполняет их по порядку, рисует на плитках холста и выводит кадр в Surface
+public class RenderThread extends Thread
+{
+    private static final String TAG = "RenderThread";
+
+    //Что рисовать в кадре
+    public interface Renderer
+    {
+        //Нарисовать кадр. Canvas уже обрезан по изменённой области
+        void drawFrame(Canvas canvas);
+        //Кадр выведен на экран
+        void onFramePresented();
+    }
+
+    private final Renderer renderer;
+    private final Surface surface;
+    //Задачи из других потоков, выполняются по порядку
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    //Область, которую нужно вывести в следующем кадре (в координатах View)
+    private final Rect frameDirty = new Rect();
+    //Область, переданная в lockCanvas
+    private final Rect lockRect = new Rect();
+    private volatile boolean running = true;
+    //----------------------------------------------------------------------------------------------
+    public RenderThread(Renderer renderer, Surface surface)
+    {
+        super(TAG);
+        this.renderer = renderer;
+        this.surface = surface;
+    }
+    //----------------------------------------------------------------------------------------------
+    //Выполнить задачу в потоке рисования (можно вызывать из любого потока)
+    public void post(Runnable task)
+    {
+        tasks.offer(task);
+        LockSupport.unpark(this);
+    }
+    //Вывести область в следующем кадре. Вызывается только из потока рисования
+    public void requestFrame(Rect dirty)
+    {
+        frameDirty.union(dirty);
+    }
+    //Остановить поток: выполнить оставшиеся задачи и дождаться завершения
+    public void quit()
+    {
+        running = false;
+        LockSupport.unpark(this);
+        boolean interrupted = false;
+        while (isAlive())
+        {
+            try
+            {
+                join();
+            } catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+    //----------------------------------------------------------------------------------------------
+    @Override
+    public void run()
+    {
+        while (true)
+        {
+            //Все касания, пришедшие с прошлого кадра, рисуются одним пакетом
+            Runnable task;
+            while ((task = tasks.poll()) != null) task.run();
+            if (!running) break;
+
+            if (!frameDirty.isEmpty()) present();
+            if (tasks.isEmpty() && running) LockSupport.park(this);
+        }
+    }
+
+    private void present()
+    {
+        lockRect.set(frameDirty);
+        frameDirty.setEmpty();
+        Canvas canvas;
+        try
+        {
+            //lockCanvas может расширить область до той, что не сохранилась в буфере
+            canvas = surface.lockCanvas(lockRect);
+        } catch (IllegalArgumentException | Surface.OutOfResourcesException e)
+        {
+            Log.w(TAG, "Cannot lock surface: " + e.getLocalizedMessage());
+            return;
+        }
+        if (canvas == null) return;
+        try
+        {
+            renderer.drawFrame(canvas);
+        } finally
+        {
+            surface.unlockCanvasAndPost(canvas);
+        }
+        renderer.onFramePresented();
+    }
+    //----------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,244 @@
+package com.mindmari.PaintApp;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+//Растяжение картинки в прямоугольник с наложением поверх холста, без зависимостей от Android.
+//Пиксели - ARGB без домножения на альфу, как у Bitmap.getPixels. Интерполяция идёт по цветам,
+//домноженным на альфу, поэтому у прозрачных краёв не появляется тёмная кайма.
+//Строки результата делятся на полосы, которые считаются параллельно на всех ядрах:
+//каждая полоса пишет только свои строки, поэтому блокировки не нужны
+public class Resampler
+{
+    //Ближайший пиксель (предпросмотр)
+    public static final int NEAREST = 0;
+    //Билинейная интерполяция по 4 пикселям
+    public static final int BILINEAR = 1;
+    //Бикубическая интерполяция Катмулла-Рома по 16 пикселям
+    public static final int BICUBIC = 2;
+
+    //Полосы меньше этого количества строк не выделяются: накладные расходы больше выигрыша
+    private static final int MIN_BAND_ROWS = 16;
+    private static final int CORES = Math.max(1, Runtime.getRuntime().availableProcessors());
+    //Потоки для полос. Первую полосу считает вызывающий поток, поэтому потоков на один меньше ядер
+    private static final ExecutorService executor = CORES > 1 ? Executors.newFixedThreadPool(CORES - 1, r -> {
+        Thread thread = new Thread(r, "Resampler");
+        thread.setDaemon(true);
+        return thread;
+    }) : null;
+    //Сколько полос считать одновременно
+    private static volatile int threads = CORES;
+    //----------------------------------------------------------------------------------------------
+    //Ограничить количество потоков (1 - только вызывающий поток, 0 - все ядра)
+    public static void setThreads(int count)
+    {
+        threads = count <= 0 ? CORES : Math.min(count, CORES);
+    }
+    //----------------------------------------------------------------------------------------------
+    //Растянуть src размером srcWidth x srcHeight в прямоугольник (dstLeft, dstTop, dstRight, dstBottom)
+    //и наложить поверх dst размером dstWidth x dstHeight.
+    //out - изменённая область dst: left, top, right, bottom. Возвращает false, если прямоугольник вне dst
+    public static boolean drawScaled(int[] src, int srcWidth, int srcHeight, int[] dst, int dstWidth, int dstHeight,
+                                     float dstLeft, float dstTop, float dstRight, float dstBottom, int filter, int[] out)
+    {
+        return drawScaled(src, srcWidth, srcHeight, dst, 0, 0, dstWidth, dstHeight,
+                dstLeft, dstTop, dstRight, dstBottom, filter, out);
+    }
+    //То же, но dst - только часть холста: область dstWidth x dstHeight с левым верхним углом (dstX, dstY).
+    //Координаты прямоугольника и out - в координатах холста, поэтому результат тот же, что и на всём холсте
+    public static boolean drawScaled(int[] src, int srcWidth, int srcHeight, int[] dst, int dstX, int dstY,
+                                     int dstWidth, int dstHeight, float dstLeft, float dstTop, float dstRight,
+                                     float dstBottom, int filter, int[] out)
+    {
+        if (dstRight <= dstLeft || dstBottom <= dstTop || srcWidth == 0 || srcHeight == 0) return false;
+        int left = Math.max(dstX, (int) Math.floor(dstLeft));
+        int top = Math.max(dstY, (int) Math.floor(dstTop));
+        int right = Math.min(dstX + dstWidth, (int) Math.ceil(dstRight));
+        int bottom = Math.min(dstY + dstHeight, (int) Math.ceil(dstBottom));
+        if (left >= right || top >= bottom) return false;
+        out[0] = left;
+        out[1] = top;
+        out[2] = right;
+        out[3] = bottom;
+
+        Band job = new Band(src, srcWidth, srcHeight, dst, dstX, dstY, dstWidth, left, right,
+                srcWidth / (dstRight - dstLeft), srcHeight / (dstBottom - dstTop), dstLeft, dstTop, filter);
+        int rows = bottom - top;
+        int bands = Math.max(1, Math.min(threads, rows / MIN_BAND_ROWS));
+        if (bands == 1 || executor == null)
+        {
+            job.run(top, bottom);
+            return true;
+        }
+        Future<?>[] futures = new Future<?>[bands - 1];
+        for (int i = 1; i < bands; i++)
+        {
+            int from = top + rows * i / bands;
+            int to = top + rows * (i + 1) / bands;
+            futures[i - 1] = executor.submit(() -> job.run(from, to));
+        }
+        job.run(top, top + rows / bands);
+        try
+        {
+            for (Future<?> future : futures) future.get();
+        } catch (InterruptedException | ExecutionException e)
+        {
+            throw new IllegalStateException(e);
+        }
+        return true;
+    }
+    //----------------------------------------------------------------------------------------------
+    //Растяжение одной полосы строк
+    private static class Band
+    {
+        private final int[] src;
+        private final int srcWidth;
+        private final int srcHeight;
+        private final int[] dst;
+        //Угол области dst на холсте и её ширина
+        private final int dstX;
+        private final int dstY;
+        private final int dstWidth;
+        private final int left;
+        private final int right;
+        //Пикселей src на пиксель dst
+        private final float scaleX;
+        private final float scaleY;
+        //Угол прямоугольника в dst
+        private final float originX;
+        private final float originY;
+        private final int filter;
+
+        Band(int[] src, int srcWidth, int srcHeight, int[] dst, int dstX, int dstY, int dstWidth, int left, int right,
+             float scaleX, float scaleY, float originX, float originY, int filter)
+        {
+            this.src = src;
+            this.srcWidth = srcWidth;
+            this.srcHeight = srcHeight;
+            this.dst = dst;
+            this.dstX = dstX;
+            this.dstY = dstY;
+            this.dstWidth = dstWidth;
+            this.left = left;
+            this.right = right;
+            this.scaleX = scaleX;
+            this.scaleY = scaleY;
+            this.originX = originX;
+            this.originY = originY;
+            this.filter = filter;
+        }
+        //Посчитать строки dst с from по to (не включая)
+        void run(int from, int to)
+        {
+            //Сколько пикселей src по каждой оси идёт в пиксель dst
+            int taps = filter == BICUBIC ? 4 : filter == BILINEAR ? 2 : 1;
+            //Для каждого столбца dst: первый столбец src (Integer.MIN_VALUE - столбец вне картинки) и веса столбцов.
+            //Они одинаковы для всех строк, поэтому считаются один раз на полосу
+            int columns = right - left;
+            int[] firstX = new int[columns];
+            float[] weightsX = new float[columns * taps];
+            for (int x = left; x < right; x++)
+            {
+                float u = (x + 0.5f - originX) * scaleX - 0.5f;
+                boolean isOutside = u < -0.5f || u > srcWidth - 0.5f;
+                firstX[x - left] = isOutside ? Integer.MIN_VALUE : weights(u, taps, weightsX, (x - left) * taps);
+            }
+            float[] weightsY = new float[taps];
+            //Цвет пикселя dst, домноженный на альфу: a, r, g, b
+            float[] color = new float[4];
+            for (int y = from; y < to; y++)
+            {
+                //Центр пикселя dst в координатах src
+                float v = (y + 0.5f - originY) * scaleY - 0.5f;
+                if (v < -0.5f || v > srcHeight - 0.5f) continue;
+                int firstY = weights(v, taps, weightsY, 0);
+                int row = (y - dstY) * dstWidth - dstX;
+                for (int x = left; x < right; x++)
+                {
+                    int column = x - left;
+                    if (firstX[column] == Integer.MIN_VALUE) continue;
+                    color[0] = color[1] = color[2] = color[3] = 0;
+                    for (int j = 0; j < taps; j++)
+                    {
+                        for (int i = 0; i < taps; i++)
+                        {
+                            samplePixel(firstX[column] + i, firstY + j, weightsX[column * taps + i] * weightsY[j], color);
+                        }
+                    }
+                    //Отрицательные веса бикубического фильтра дают выбросы за пределы цветов
+                    if (taps == 4) clampColor(color);
+                    if (color[0] > 0) dst[row + x] = blend(color, dst[row + x]);
+                }
+            }
+        }
+        //Веса taps пикселей src вокруг координаты t в out начиная с offset. Возвращает первый пиксель
+        private static int weights(float t, int taps, float[] out, int offset)
+        {
+            if (taps == 1)
+            {
+                out[offset] = 1;
+                return Math.round(t);
+            }
+            int first = (int) Math.floor(t);
+            float f = t - first;
+            if (taps == 2)
+            {
+                out[offset] = 1 - f;
+                out[offset + 1] = f;
+                return first;
+            }
+            for (int i = 0; i < 4; i++) out[offset + i] = cubic(i - 1 - f);
+            return first - 1;
+        }
+        //Прибавить к color пиксель (x, y) с весом weight. Снаружи src - прозрачно
+        private void samplePixel(int x, int y, float weight, float[] color)
+        {
+            if (x < 0 || y < 0 || x >= srcWidth || y >= srcHeight) return;
+            int pixel = src[y * srcWidth + x];
+            int alpha = pixel >>> 24;
+            if (alpha == 0) return;
+            float a = alpha * weight;
+            float channel = a * (1 / 255f);
+            color[0] += a;
+            color[1] += ((pixel >> 16) & 0xFF) * channel;
+            color[2] += ((pixel >> 8) & 0xFF) * channel;
+            color[3] += (pixel & 0xFF) * channel;
+        }
+
+        private static void clampColor(float[] color)
+        {
+            color[0] = Math.max(0, Math.min(255, color[0]));
+            for (int c = 1; c < 4; c++) color[c] = Math.max(0, Math.min(color[0], color[c]));
+        }
+        //Вес Катмулла-Рома для пикселя на расстоянии t
+        private static float cubic(float t)
+        {
+            t = Math.abs(t);
+            if (t < 1) return (1.5f * t - 2.5f) * t * t + 1;
+            if (t < 2) return ((-0.5f * t + 2.5f) * t - 4) * t + 2;
+            return 0;
+        }
+        //Наложить цвет, домноженный на альфу, поверх пикселя холста
+        private static int blend(float[] color, int under)
+        {
+            float a = color[0];
+            float inverse = 1 - a / 255;
+            float underAlpha = (under >>> 24) * inverse;
+            float outAlpha = a + underAlpha;
+            float r = color[1] + ((under >> 16) & 0xFF) * underAlpha / 255;
+            float g = color[2] + ((under >> 8) & 0xFF) * underAlpha / 255;
+            float b = color[3] + (under & 0xFF) * underAlpha / 255;
+            //Вернуться к цвету без домножения на альфу
+            float scale = 255 / outAlpha;
+            return (clamp(outAlpha) << 24) | (clamp(r * scale) << 16) | (clamp(g * scale) << 8) | clamp(b * scale);
+        }
+
+        private static int clamp(float value)
+        {
+            return Math.max(0, Math.min(255, Math.round(value)));
+        }
+    }
+    //----------------------------------------------------------------------------------------------
+}
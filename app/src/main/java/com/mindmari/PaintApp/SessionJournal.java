@@ -0,0 +1,519 @@
+package com.mindmari.PaintApp;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+//Журнал автосохранения DisplayList.
+//Каждая операция дописывается в конец файла журнала компактной двоичной записью,
+//запись на диск идёт в фоне через буфер FileChannel, fsync делается пачкой раз в секунду.
+//Когда журнал разрастается, все записи сохраняются в контрольную точку,
+//а журнал начинается заново. При запуске сеанс восстанавливается из контрольной точки и журнала.
+//У контрольной точки и журнала есть номер поколения: журнал, оставшийся от прежней контрольной точки
+//(процесс умер между её записью и очисткой журнала), при восстановлении пропускается
+public class SessionJournal implements DisplayList.Listener
+{
+    private static final String TAG = "SessionJournal";
+
+    //Заголовок файлов (с номером версии формата в младшем байте)
+    private static final int MAGIC = 0x44524a33;
+    //Прежняя версия без номера поколения - читается как поколение 0
+    private static final int MAGIC_V2 = 0x44524a32;
+    //Операции журнала
+    private static final byte OP_RECORD = 1;
+    private static final byte OP_UNDO = 2;
+    private static final byte OP_REDO = 3;
+    private static final byte OP_CLEAR = 4;
+    //Размер заголовка записи: операция, тип, слой, цвет, толщина, количество координат
+    private static final int RECORD_HEADER = 1 + 4 + 4 + 4 + 4 + 4;
+    //Размер буфера записи
+    private static final int BUFFER_SIZE = 64 * 1024;
+    //Как часто делать fsync
+    private static final long SYNC_INTERVAL_MS = 1000;
+    //После скольких байт журнала делать контрольную точку
+    private static final long CHECKPOINT_BYTES = 4L * 1024 * 1024;
+
+    //Один фоновый поток на все журналы процесса: пересозданная Activity
+    //читает файлы только после того, как прежняя дописала их
+    private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+    private final File dir;
+    private final File journalFile;
+    private final File checkpointFile;
+
+    //Поля ниже используются только в фоновом потоке
+    private FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private boolean unsynced = false;
+    private ScheduledFuture<?> syncTask;
+    //Поколение последней контрольной точки, им помечается журнал
+    private int generation = 0;
+
+    //Поля ниже используются только в потоке рисования (и при восстановлении, пока он ждёт)
+    //Номера сохранённых картинок
+    private final IdentityHashMap<Bitmap, Integer> imageIds = new IdentityHashMap<>();
+    private int nextImageId = 0;
+    //Сколько байт записано в журнал после контрольной точки
+    private long journalBytes = 0;
+
+    //Статистика записи (для оценки усиления записи)
+    private volatile long recordBytes = 0;
+    private volatile long writtenBytes = 0;
+    //----------------------------------------------------------------------------------------------
+    public SessionJournal(File dir)
+    {
+        this.dir = dir;
+        this.journalFile = new File(dir, "journal.bin");
+        this.checkpointFile = new File(dir, "checkpoint.bin");
+    }
+    //----------------------------------------------------------------------------------------------
+    //Восстановить сохранённый сеанс в пустой DisplayList и открыть журнал для записи.
+    //Ждёт, пока будут дописаны файлы прошлого сеанса
+    public void restore(DisplayList target)
+    {
+        try
+        {
+            executor.submit(() -> {
+                restoreInBackground(target);
+                return null;
+            }).get();
+        } catch (InterruptedException | ExecutionException e)
+        {
+            Log.w(TAG, "Cannot restore session: " + e.getLocalizedMessage());
+        }
+        syncTask = executor.scheduleWithFixedDelay(this::sync,
+                SYNC_INTERVAL_MS, SYNC_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+    //Записать на диск всё, что накоплено (например, в onPause)
+    public void flush()
+    {
+        executor.execute(this::sync);
+    }
+    //Дописать журнал и закрыть файл
+    public void close()
+    {
+        if (syncTask != null) syncTask.cancel(false);
+        executor.execute(() -> {
+            sync();
+            closeChannel();
+        });
+    }
+    //Сколько байт занимают сами операции
+    public long getRecordBytes()
+    {
+        return recordBytes;
+    }
+    //Сколько байт записано на диск (журнал, контрольные точки и картинки)
+    public long getWrittenBytes()
+    {
+        return writtenBytes;
+    }
+    //----------------------------------------------------------------------------------------------
+    @Override
+    public void onRecordAdded(DisplayList list, int index)
+    {
+        Bitmap image = null;
+        if (list.getType(index) == DisplayList.IMAGE)
+        {
+            image = list.getImage(index);
+            if (!imageIds.containsKey(image)) imageIds.put(image, nextImageId++);
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + list.getCoordCount(index) * 4);
+        encodeRecord(list, index, record);
+        append(record.array(), image, image != null ? imageIds.get(image) : -1);
+
+        if (journalBytes > CHECKPOINT_BYTES) checkpoint(list);
+    }
+
+    @Override
+    public void onUndo(DisplayList list)
+    {
+        append(new byte[]{OP_UNDO}, null, -1);
+    }
+
+    @Override
+    public void onRedo(DisplayList list)
+    {
+        append(new byte[]{OP_REDO}, null, -1);
+    }
+
+    @Override
+    public void onCleared(DisplayList list)
+    {
+        append(new byte[]{OP_CLEAR}, null, -1);
+    }
+
+    @Override
+    public void onCompacted(DisplayList list, ArrayList<Bitmap> removedImages)
+    {
+        //Номера записей в журнале больше не совпадают со списком - сохранить его заново
+        for (Bitmap image : removedImages) imageIds.remove(image);
+        checkpoint(list);
+        //Картинки отдаются после записей, которые ещё могут их сохранять
+        executor.execute(() -> {
+            for (Bitmap image : removedImages) BitmapPool.getShared().release(image);
+        });
+    }
+    //----------------------------------------------------------------------------------------------
+    //Записать все записи (вместе с отменёнными) в контрольную точку и начать журнал заново.
+    //Отменённые и повторённые операции из журнала в контрольную точку не попадают
+    private void checkpoint(DisplayList list)
+    {
+        int total = list.getTotal();
+        int length = 4 + 4 + 4 + 4;
+        for (int i = 0; i < total; i++) length += RECORD_HEADER + list.getCoordCount(i) * 4;
+
+        ByteBuffer data = ByteBuffer.allocate(length);
+        data.putInt(MAGIC);
+        //Поколение ставится в фоновом потоке
+        data.putInt(0);
+        data.putInt(total);
+        data.putInt(total - list.size());
+        HashSet<Integer> keepImages = new HashSet<>();
+        for (int i = 0; i < total; i++)
+        {
+            encodeRecord(list, i, data);
+            if (list.getType(i) == DisplayList.IMAGE) keepImages.add(imageIds.get(list.getImage(i)));
+        }
+        journalBytes = 0;
+
+        executor.execute(() -> {
+            try
+            {
+                sync();
+                int next = generation + 1;
+                data.putInt(4, next);
+                File temp = new File(dir, "checkpoint.tmp");
+                try (FileOutputStream out = new FileOutputStream(temp))
+                {
+                    out.write(data.array());
+                    out.getChannel().force(false);
+                }
+                if (!temp.renameTo(checkpointFile)) throw new IOException("Cannot rename " + temp);
+                writtenBytes += data.capacity();
+                //Всё из журнала теперь есть в контрольной точке. Если процесс умрёт до очистки журнала,
+                //старое поколение журнала не совпадёт с контрольной точкой и будет пропущено
+                generation = next;
+                openChannel().truncate(0);
+                writeHeader();
+                channel.force(false);
+                deleteUnusedImages(keepImages);
+            } catch (IOException e)
+            {
+                Log.w(TAG, "Cannot write checkpoint: " + e.getLocalizedMessage());
+            }
+        });
+    }
+    //----------------------------------------------------------------------------------------------
+    //Записать запись DisplayList в буфер. У IMAGE вместо индекса картинки пишется её номер
+    private void encodeRecord(DisplayList list, int index, ByteBuffer out)
+    {
+        int type = list.getType(index);
+        int count = list.getCoordCount(index);
+        out.put(OP_RECORD);
+        out.putInt(type);
+        out.putInt(list.getLayer(index));
+        out.putInt(list.getColor(index));
+        out.putFloat(list.getStrokeWidth(index));
+        out.putInt(count);
+        if (type == DisplayList.IMAGE)
+        {
+            out.putFloat(imageIds.get(list.getImage(index)));
+            return;
+        }
+        float[] coords = list.getCoords();
+        int start = list.getCoordStart(index);
+        for (int i = 0; i < count; i++) out.putFloat(coords[start + i]);
+    }
+    //Отправить операцию на запись. Картинка сохраняется в свой файл до самой операции
+    private void append(byte[] data, Bitmap image, int imageId)
+    {
+        journalBytes += data.length;
+        recordBytes += data.length;
+        executor.execute(() -> {
+            try
+            {
+                if (image != null) writeImage(image, imageId);
+                openChannel();
+                int offset = 0;
+                while (offset < data.length)
+                {
+                    if (!buffer.hasRemaining()) writeBuffer();
+                    int chunk = Math.min(data.length - offset, buffer.remaining());
+                    buffer.put(data, offset, chunk);
+                    offset += chunk;
+                }
+                unsynced = true;
+            } catch (IOException e)
+            {
+                Log.w(TAG, "Cannot append to journal: " + e.getLocalizedMessage());
+            }
+        });
+    }
+    //----------------------------------------------------------------------------------------------
+    //Фоновый поток: прочитать контрольную точку и журнал
+    private void restoreInBackground(DisplayList target) throws IOException
+    {
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+
+        generation = 0;
+        ByteBuffer checkpoint = map(checkpointFile);
+        if (checkpoint != null && checkpoint.remaining() >= 12)
+        {
+            int checkpointGeneration = readGeneration(checkpoint);
+            if (checkpointGeneration >= 0 && checkpoint.remaining() >= 8)
+            {
+                generation = checkpointGeneration;
+                int count = checkpoint.getInt();
+                int undone = checkpoint.getInt();
+                replay(checkpoint, target, count);
+                for (int i = 0; i < undone; i++) target.undo();
+            }
+        }
+
+        long valid = 0;
+        ByteBuffer journal = map(journalFile);
+        if (journal != null && journal.remaining() >= 4 && readGeneration(journal) == generation)
+        {
+            valid = replay(journal, target, Integer.MAX_VALUE);
+        }
+        //Отрезать недописанную запись в конце, новые записи пойдут сразу за последней целой
+        FileChannel out = openChannel();
+        if (valid == 0)
+        {
+            out.truncate(0);
+            writeHeader();
+            out.force(false);
+        } else
+        {
+            out.truncate(valid);
+            out.position(valid);
+        }
+    }
+    //Прочитать заголовок файла. Возвращает поколение или -1, если файл не наш
+    private static int readGeneration(ByteBuffer data)
+    {
+        int magic = data.getInt();
+        if (magic == MAGIC) return data.remaining() >= 4 ? data.getInt() : -1;
+        return magic == MAGIC_V2 ? 0 : -1;
+    }
+    //Применить записи из буфера. Возвращает позицию после последней целой записи
+    private long replay(ByteBuffer data, DisplayList target, int maxRecords)
+    {
+        float[] coords = new float[256];
+        int valid = data.position();
+        try
+        {
+            for (int n = 0; n < maxRecords && data.hasRemaining(); n++)
+            {
+                byte op = data.get();
+                if (op == OP_UNDO)
+                {
+                    target.undo();
+                } else if (op == OP_REDO)
+                {
+                    target.redo();
+                } else if (op == OP_CLEAR)
+                {
+                    target.clear();
+                } else if (op == OP_RECORD)
+                {
+                    int type = data.getInt();
+                    int layer = data.getInt();
+                    int color = data.getInt();
+                    float width = data.getFloat();
+                    int count = data.getInt();
+                    if (count < 0 || count * 4L > data.remaining()) break;
+                    if (count > coords.length) coords = new float[count];
+                    for (int i = 0; i < count; i++) coords[i] = data.getFloat();
+                    target.setCurrentLayer(layer);
+                    addRecord(target, type, color, width, coords, count);
+                } else
+                {
+                    break;
+                }
+                valid = data.position();
+            }
+        } catch (BufferUnderflowException e)
+        {
+            //Запись в конце журнала не дописана
+        }
+        return valid;
+    }
+
+    private void addRecord(DisplayList target, int type, int color, float width, float[] c, int count)
+    {
+        switch (type)
+        {
+            case DrawingView.BRUSH:
+                target.addStroke(color, width, c, count / 2);
+                break;
+            case DisplayList.STAMP_STROKE:
+                float[] points = new float[count / 3 * 2];
+                float[] pressures = new float[count / 3];
+                for (int i = 0; i < count / 3; i++)
+                {
+                    points[i * 2] = c[i * 3];
+                    points[i * 2 + 1] = c[i * 3 + 1];
+                    pressures[i] = c[i * 3 + 2];
+                }
+                target.addStampStroke(color, width, points, pressures, count / 3);
+                break;
+            case DrawingView.FILL:
+                target.addFill(color, c[0], c[1], (int) c[2]);
+                break;
+            case DisplayList.CLEAR:
+                target.addClear(color);
+                break;
+            case DisplayList.ERASE:
+                int[] erased = new int[count];
+                for (int i = 0; i < count; i++) erased[i] = (int) c[i];
+                target.addErase(erased, count);
+                break;
+            case DisplayList.TRANSFORM:
+                if (count < DisplayList.TRANSFORM_HEADER) break;
+                target.addTransform(color, (int) c[0], (int) c[1], (int) c[2], (int) c[3], (int) c[4],
+                        c[5], c[6], c[7], c[8], Arrays.copyOfRange(c, DisplayList.TRANSFORM_HEADER, count),
+                        (count - DisplayList.TRANSFORM_HEADER) / 2);
+                break;
+            case DisplayList.FILTER:
+                FilterPipeline pipeline = new FilterPipeline();
+                pipeline.setParams(c, 0, count);
+                if (!pipeline.isEmpty()) target.addFilter(pipeline);
+                break;
+            case DisplayList.IMAGE:
+                int id = (int) c[0];
+                Bitmap image = BitmapFactory.decodeFile(imageFile(id).getPath());
+                if (image == null)
+                {
+                    Log.w(TAG, "Missing image " + id);
+                    break;
+                }
+                target.addImage(image);
+                imageIds.put(image, id);
+                nextImageId = Math.max(nextImageId, id + 1);
+                break;
+            default:
+                if (ShapeRenderer.isShape(type)) target.addShape(type, color, width, c, count);
+                break;
+        }
+    }
+    //----------------------------------------------------------------------------------------------
+    private ByteBuffer map(File file) throws IOException
+    {
+        if (!file.isFile() || file.length() == 0) return null;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"))
+        {
+            MappedByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            mapped.load();
+            return mapped;
+        }
+    }
+
+    private FileChannel openChannel() throws IOException
+    {
+        if (channel == null)
+        {
+            //noinspection resource
+            channel = new RandomAccessFile(journalFile, "rw").getChannel();
+            channel.position(channel.size());
+        }
+        return channel;
+    }
+
+    private void writeHeader() throws IOException
+    {
+        buffer.clear();
+        buffer.putInt(MAGIC);
+        buffer.putInt(generation);
+        writeBuffer();
+    }
+
+    private void writeBuffer() throws IOException
+    {
+        buffer.flip();
+        while (buffer.hasRemaining()) writtenBytes += channel.write(buffer);
+        buffer.clear();
+    }
+    //Записать буфер и сделать fsync
+    private void sync()
+    {
+        if (channel == null || (!unsynced && buffer.position() == 0)) return;
+        try
+        {
+            writeBuffer();
+            channel.force(false);
+            unsynced = false;
+        } catch (IOException e)
+        {
+            Log.w(TAG, "Cannot sync journal: " + e.getLocalizedMessage());
+        }
+    }
+
+    private void closeChannel()
+    {
+        if (channel == null) return;
+        try
+        {
+            channel.close();
+        } catch (IOException e)
+        {
+            Log.w(TAG, "Cannot close journal: " + e.getLocalizedMessage());
+        }
+        channel = null;
+    }
+    //----------------------------------------------------------------------------------------------
+    private File imageFile(int id)
+    {
+        return new File(dir, "image_" + id + ".png");
+    }
+
+    private void writeImage(Bitmap image, int id) throws IOException
+    {
+        try (FileOutputStream out = new FileOutputStream(imageFile(id)))
+        {
+            image.compress(Bitmap.CompressFormat.PNG, 100, out);
+            out.getChannel().force(false);
+            writtenBytes += out.getChannel().size();
+        }
+    }
+
+    private void deleteUnusedImages(HashSet<Integer> keep)
+    {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        for (File file : files)
+        {
+            String name = file.getName();
+            if (!name.startsWith("image_") || !name.endsWith(".png")) continue;
+            try
+            {
+                int id = Integer.parseInt(name.substring(6, name.length() - 4));
+                //noinspection ResultOfMethodCallIgnored
+                if (!keep.contains(id)) file.delete();
+            } catch (NumberFormatException e)
+            {
+                //Чужой файл - не трогать
+            }
+        }
+    }
+    //----------------------------------------------------------------------------------------------
+}
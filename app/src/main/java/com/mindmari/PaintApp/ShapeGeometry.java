@@ -0,0 +1,96 @@
+package com.mindmari.PaintApp;
+
+//Геометрия фигур без зависимостей от Android.
+//Используется DrawingView и модулем benchmark, который запускается на обычной JVM
+public class ShapeGeometry
+{
+    //----------------------------------------------------------------------------------------------
+    //Расстояние между точками (радиус круга от центра до края)
+    public static float distance(float x1, float y1, float x2, float y2)
+    {
+        float dx = x1 - x2;
+        float dy = y1 - y2;
+        return (float) Math.sqrt(dx * dx + dy * dy);
+    }
+    //Угол квадрата с вершиной (startX, startY) в сторону точки (x, y): out[0], out[1]
+    public static void squareCorner(float startX, float startY, float x, float y, float[] out)
+    {
+        float max = Math.max(Math.abs(startX - x), Math.abs(startY - y));
+        out[0] = startX - x < 0 ? startX + max : startX - max;
+        out[1] = startY - y < 0 ? startY + max : startY - max;
+    }
+    //Прямоугольник по двум противоположным углам: out - left, top, right, bottom
+    public static void normalizeRect(float x1, float y1, float x2, float y2, float[] out)
+    {
+        out[0] = Math.min(x1, x2);
+        out[1] = Math.min(y1, y2);
+        out[2] = Math.max(x1, x2);
+        out[3] = Math.max(y1, y2);
+    }
+    //Целые границы точек points (x, y парами) с from по to (не включая) с запасом inset:
+    //out - left, top, right, bottom
+    public static void bounds(float[] points, int from, int to, int inset, int[] out)
+    {
+        float left = points[from * 2];
+        float top = points[from * 2 + 1];
+        float right = left;
+        float bottom = top;
+        for (int i = from + 1; i < to; i++)
+        {
+            float x = points[i * 2];
+            float y = points[i * 2 + 1];
+            if (x < left) left = x;
+            if (x > right) right = x;
+            if (y < top) top = y;
+            if (y > bottom) bottom = y;
+        }
+        out[0] = (int) Math.floor(left) - inset;
+        out[1] = (int) Math.floor(top) - inset;
+        out[2] = (int) Math.ceil(right) + inset;
+        out[3] = (int) Math.ceil(bottom) + inset;
+    }
+    //----------------------------------------------------------------------------------------------
+    //Расстояние от точки (x, y) до отрезка
+    public static float segmentDistance(float x, float y, float x1, float y1, float x2, float y2)
+    {
+        float dx = x2 - x1;
+        float dy = y2 - y1;
+        float lengthSquared = dx * dx + dy * dy;
+        float t = lengthSquared > 0 ? ((x - x1) * dx + (y - y1) * dy) / lengthSquared : 0;
+        t = Math.max(0, Math.min(1, t));
+        return distance(x, y, x1 + dx * t, y1 + dy * t);
+    }
+    //Расстояние от точки (x, y) до ломаной из count точек в c начиная со start.
+    //stride - сколько чисел занимает точка (x, y идут первыми), closed - замкнуть последнюю точку с первой
+    public static float polylineDistance(float[] c, int start, int count, int stride, boolean closed, float x, float y)
+    {
+        if (count == 0) return Float.MAX_VALUE;
+        float min = distance(x, y, c[start], c[start + 1]);
+        for (int i = 1; i < count; i++)
+        {
+            int p = start + i * stride;
+            min = Math.min(min, segmentDistance(x, y, c[p - stride], c[p - stride + 1], c[p], c[p + 1]));
+        }
+        if (closed && count > 2)
+        {
+            int last = start + (count - 1) * stride;
+            min = Math.min(min, segmentDistance(x, y, c[last], c[last + 1], c[start], c[start + 1]));
+        }
+        return min;
+    }
+    //Лежит ли точка (x, y) внутри многоугольника из count вершин (x, y парами с начала polygon)
+    public static boolean containsPoint(float[] polygon, int count, float x, float y)
+    {
+        boolean inside = false;
+        for (int i = 0, j = count - 1; i < count; j = i++)
+        {
+            float xi = polygon[i * 2];
+            float yi = polygon[i * 2 + 1];
+            float xj = polygon[j * 2];
+            float yj = polygon[j * 2 + 1];
+            if ((yi > y) != (yj > y) && x < (xj - xi) * (y - yi) / (yj - yi) + xi) inside = !inside;
+        }
+        return inside;
+    }
+    //----------------------------------------------------------------------------------------------
+}
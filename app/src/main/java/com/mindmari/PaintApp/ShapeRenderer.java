@@ -0,0 +1,133 @@
+package com.mindmari.PaintApp;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.RectF;
+
+//Рисование фигур по координатам записи DisplayList.
+//Одни и те же функции рисуют предпросмотр, фигуру при фиксации на холсте и запись при перерисовке,
+//поэтому новая фигура - это только раскладка координат и одна ветка здесь.
+//Раскладка координат по типам:
+//LINE, RECTANGLE, SQUARE, ELLIPSE, ARROW - x1, y1, x2, y2;
+//CIRCLE - cx, cy, радиус; TRIANGLE - вершина и две точки основания; POLYGON - вершины парами
+public class ShapeRenderer
+{
+    //Угол между древком стрелки и каждой из двух линий наконечника
+    private static final double ARROW_ANGLE = Math.PI / 6;
+
+    private final Path path = new Path();
+    private final RectF oval = new RectF();
+    //----------------------------------------------------------------------------------------------
+    //Рисуется ли тип записи этим классом
+    public static boolean isShape(int type)
+    {
+        switch (type)
+        {
+            case DrawingView.LINE:
+            case DrawingView.RECTANGLE:
+            case DrawingView.SQUARE:
+            case DrawingView.CIRCLE:
+            case DrawingView.TRIANGLE:
+            case DrawingView.ELLIPSE:
+            case DrawingView.POLYGON:
+            case DrawingView.ARROW:
+                return true;
+            default:
+                return false;
+        }
+    }
+    //Нарисовать фигуру типа type по count координатам из c начиная со start
+    public void draw(int type, Canvas canvas, Paint paint, float[] c, int start, int count)
+    {
+        switch (type)
+        {
+            case DrawingView.LINE:
+                canvas.drawLine(c[start], c[start + 1], c[start + 2], c[start + 3], paint);
+                break;
+            case DrawingView.RECTANGLE:
+            case DrawingView.SQUARE:
+                canvas.drawRect(Math.min(c[start], c[start + 2]), Math.min(c[start + 1], c[start + 3]),
+                        Math.max(c[start], c[start + 2]), Math.max(c[start + 1], c[start + 3]), paint);
+                break;
+            case DrawingView.CIRCLE:
+                canvas.drawCircle(c[start], c[start + 1], c[start + 2], paint);
+                break;
+            case DrawingView.TRIANGLE:
+                canvas.drawLine(c[start], c[start + 1], c[start + 2], c[start + 3], paint);
+                canvas.drawLine(c[start], c[start + 1], c[start + 4], c[start + 5], paint);
+                break;
+            case DrawingView.ELLIPSE:
+                oval.set(Math.min(c[start], c[start + 2]), Math.min(c[start + 1], c[start + 3]),
+                        Math.max(c[start], c[start + 2]), Math.max(c[start + 1], c[start + 3]));
+                canvas.drawOval(oval, paint);
+                break;
+            case DrawingView.POLYGON:
+                drawPolyline(canvas, paint, c, start, count, true);
+                break;
+            case DrawingView.ARROW:
+                drawArrow(canvas, paint, c[start], c[start + 1], c[start + 2], c[start + 3]);
+                break;
+        }
+    }
+    //Ломаная по вершинам (closed - замкнуть последнюю вершину с первой)
+    public void drawPolyline(Canvas canvas, Paint paint, float[] c, int start, int count, boolean closed)
+    {
+        if (count < 2) return;
+        path.rewind();
+        path.moveTo(c[start], c[start + 1]);
+        for (int i = start + 2; i < start + count; i += 2) path.lineTo(c[i], c[i + 1]);
+        if (closed) path.close();
+        canvas.drawPath(path, paint);
+    }
+    //----------------------------------------------------------------------------------------------
+    //Границы фигуры без учёта толщины линии width: out - left, top, right, bottom
+    public static void getBounds(int type, float[] c, int start, int count, float width, float[] out)
+    {
+        if (type == DrawingView.CIRCLE)
+        {
+            float r = c[start + 2];
+            out[0] = c[start] - r;
+            out[1] = c[start + 1] - r;
+            out[2] = c[start] + r;
+            out[3] = c[start + 1] + r;
+        } else
+        {
+            out[0] = out[2] = c[start];
+            out[1] = out[3] = c[start + 1];
+            for (int i = start + 2; i < start + count; i += 2)
+            {
+                out[0] = Math.min(out[0], c[i]);
+                out[1] = Math.min(out[1], c[i + 1]);
+                out[2] = Math.max(out[2], c[i]);
+                out[3] = Math.max(out[3], c[i + 1]);
+            }
+        }
+        //Наконечник стрелки может выйти за прямоугольник по концам древка
+        float inset = type == DrawingView.ARROW ? arrowHeadLength(width) : 0;
+        out[0] -= inset;
+        out[1] -= inset;
+        out[2] += inset;
+        out[3] += inset;
+    }
+    //----------------------------------------------------------------------------------------------
+    private void drawArrow(Canvas canvas, Paint paint, float x1, float y1, float x2, float y2)
+    {
+        canvas.drawLine(x1, y1, x2, y2, paint);
+        double length = Math.hypot(x2 - x1, y2 - y1);
+        if (length == 0) return;
+        float head = (float) Math.min(arrowHeadLength(paint.getStrokeWidth()), length / 2);
+        double angle = Math.atan2(y1 - y2, x1 - x2);
+        path.rewind();
+        path.moveTo(x2 + head * (float) Math.cos(angle + ARROW_ANGLE), y2 + head * (float) Math.sin(angle + ARROW_ANGLE));
+        path.lineTo(x2, y2);
+        path.lineTo(x2 + head * (float) Math.cos(angle - ARROW_ANGLE), y2 + head * (float) Math.sin(angle - ARROW_ANGLE));
+        canvas.drawPath(path, paint);
+    }
+
+    private static float arrowHeadLength(float width)
+    {
+        return Math.max(16, width * 3);
+    }
+    //----------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,390 @@
+package com.mindmari.PaintApp;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+//Инструмент фигуры: превращает касания в координаты записи DisplayList.
+//Сам инструмент ничего не рисует - предпросмотр и фиксацию рисует ShapeRenderer по getCoords(),
+//поэтому все фигуры обрабатываются в DrawingView одинаково
+public abstract class ShapeTool
+{
+    //Наибольшее количество координат одной фигуры
+    protected static final int MAX_COORDS = 128;
+
+    //Координаты фигуры в раскладке записи getRecordType()
+    protected final float[] coords = new float[MAX_COORDS];
+    protected int coordCount = 0;
+    //Виден ли предпросмотр
+    protected boolean isPreviewing = false;
+    //----------------------------------------------------------------------------------------------
+    //Инструмент для формы DrawingView (null, если форма не фигура)
+    public static ShapeTool create(int shape)
+    {
+        switch (shape)
+        {
+            case DrawingView.LINE:
+            case DrawingView.RECTANGLE:
+            case DrawingView.ELLIPSE:
+            case DrawingView.ARROW:
+                return new TwoPoint(shape);
+            case DrawingView.SQUARE:
+                return new Square();
+            case DrawingView.CIRCLE:
+                return new Circle();
+            case DrawingView.TRIANGLE:
+                return new Triangle();
+            case DrawingView.POLYGON:
+                return new Polygon();
+            default:
+                return null;
+        }
+    }
+    //----------------------------------------------------------------------------------------------
+    //Палец опущен
+    public abstract void down(float x, float y);
+    //Палец сдвинут
+    public abstract void move(float x, float y);
+    //Палец поднят. Возвращает true, если фигуру из getCoords() нужно зафиксировать на холсте
+    public abstract boolean up(float x, float y);
+    //Фигура зафиксирована: перейти к следующему шагу или начать новую фигуру
+    public void onCommitted()
+    {
+        coordCount = 0;
+    }
+    //Прервать текущее касание (начало масштабирования). Законченные шаги фигуры остаются
+    public void cancelGesture()
+    {
+        isPreviewing = false;
+    }
+    //Закончить фигуру перед сменой инструмента или отменой.
+    //Возвращает true, если незаконченную фигуру из getCoords() нужно зафиксировать
+    public boolean finish()
+    {
+        isPreviewing = false;
+        coordCount = 0;
+        return false;
+    }
+    //----------------------------------------------------------------------------------------------
+    //Тип записи DisplayList, которую описывают getCoords()
+    public abstract int getRecordType();
+
+    public float[] getCoords()
+    {
+        return coords;
+    }
+
+    public int getCoordCount()
+    {
+        return coordCount;
+    }
+
+    public boolean isPreviewing()
+    {
+        return isPreviewing && coordCount > 0;
+    }
+    //Нарисовать предпросмотр
+    public void drawPreview(Canvas canvas, Paint paint, ShapeRenderer renderer)
+    {
+        renderer.draw(getRecordType(), canvas, paint, coords, 0, coordCount);
+    }
+    //----------------------------------------------------------------------------------------------
+    //Фигура по двум точкам: линия, прямоугольник, эллипс, стрелка
+    private static class TwoPoint extends ShapeTool
+    {
+        private final int type;
+
+        TwoPoint(int type)
+        {
+            this.type = type;
+        }
+
+        @Override
+        public void down(float x, float y)
+        {
+            coords[0] = coords[2] = x;
+            coords[1] = coords[3] = y;
+            coordCount = 4;
+            isPreviewing = true;
+        }
+
+        @Override
+        public void move(float x, float y)
+        {
+            setEnd(x, y);
+        }
+
+        @Override
+        public boolean up(float x, float y)
+        {
+            setEnd(x, y);
+            isPreviewing = false;
+            return true;
+        }
+
+        @Override
+        public int getRecordType()
+        {
+            return type;
+        }
+
+        @Override
+        public boolean isPreviewing()
+        {
+            //Линия не показывается, пока палец почти не сдвинулся
+            return super.isPreviewing() && (type == DrawingView.RECTANGLE || type == DrawingView.SQUARE
+                    || type == DrawingView.ELLIPSE
+                    || Math.abs(coords[2] - coords[0]) >= DrawingView.TOUCH_TOLERANCE
+                    || Math.abs(coords[3] - coords[1]) >= DrawingView.TOUCH_TOLERANCE);
+        }
+
+        protected void setEnd(float x, float y)
+        {
+            coords[2] = x;
+            coords[3] = y;
+        }
+    }
+    //Квадрат: второй угол выравнивается по большей стороне
+    private static class Square extends TwoPoint
+    {
+        private final float[] corner = new float[2];
+
+        Square()
+        {
+            super(DrawingView.SQUARE);
+        }
+
+        @Override
+        protected void setEnd(float x, float y)
+        {
+            ShapeGeometry.squareCorner(coords[0], coords[1], x, y, corner);
+            super.setEnd(corner[0], corner[1]);
+        }
+    }
+    //Круг с центром в точке касания
+    private static class Circle extends ShapeTool
+    {
+        @Override
+        public void down(float x, float y)
+        {
+            coords[0] = x;
+            coords[1] = y;
+            coords[2] = 0;
+            coordCount = 3;
+            isPreviewing = true;
+        }
+
+        @Override
+        public void move(float x, float y)
+        {
+            coords[2] = ShapeGeometry.distance(coords[0], coords[1], x, y);
+        }
+
+        @Override
+        public boolean up(float x, float y)
+        {
+            move(x, y);
+            isPreviewing = false;
+            return true;
+        }
+
+        @Override
+        public int getRecordType()
+        {
+            return DrawingView.CIRCLE;
+        }
+    }
+    //Треугольник в два касания: сначала основание (фиксируется линией), затем вершина
+    private static class Triangle extends ShapeTool
+    {
+        //Основание уже нарисовано
+        private boolean hasBase = false;
+        private float baseX1, baseY1, baseX2, baseY2;
+
+        @Override
+        public void down(float x, float y)
+        {
+            if (hasBase)
+            {
+                setApex(x, y);
+            } else
+            {
+                coords[0] = coords[2] = x;
+                coords[1] = coords[3] = y;
+                coordCount = 4;
+            }
+            isPreviewing = true;
+        }
+
+        @Override
+        public void move(float x, float y)
+        {
+            if (hasBase)
+            {
+                setApex(x, y);
+            } else
+            {
+                coords[2] = x;
+                coords[3] = y;
+            }
+        }
+
+        @Override
+        public boolean up(float x, float y)
+        {
+            move(x, y);
+            isPreviewing = false;
+            return true;
+        }
+
+        @Override
+        public void onCommitted()
+        {
+            if (hasBase)
+            {
+                hasBase = false;
+            } else
+            {
+                hasBase = true;
+                baseX1 = coords[0];
+                baseY1 = coords[1];
+                baseX2 = coords[2];
+                baseY2 = coords[3];
+            }
+            coordCount = 0;
+        }
+
+        @Override
+        public void cancelGesture()
+        {
+            super.cancelGesture();
+            coordCount = 0;
+        }
+
+        @Override
+        public boolean finish()
+        {
+            hasBase = false;
+            return super.finish();
+        }
+
+        @Override
+        public int getRecordType()
+        {
+            return hasBase ? DrawingView.TRIANGLE : DrawingView.LINE;
+        }
+
+        private void setApex(float x, float y)
+        {
+            coords[0] = x;
+            coords[1] = y;
+            coords[2] = baseX1;
+            coords[3] = baseY1;
+            coords[4] = baseX2;
+            coords[5] = baseY2;
+            coordCount = 6;
+        }
+    }
+    //Многоугольник: каждое касание добавляет вершину, касание рядом с первой вершиной замыкает его
+    private static class Polygon extends ShapeTool
+    {
+        //Расстояние до первой вершины, на котором многоугольник замыкается
+        private static final float CLOSE_DISTANCE = 32;
+
+        //Количество координат законченных вершин (без вершины под пальцем)
+        private int fixedCount = 0;
+        private final float[] vertices = new float[MAX_COORDS];
+
+        @Override
+        public void down(float x, float y)
+        {
+            if (fixedCount == 0)
+            {
+                vertices[0] = x;
+                vertices[1] = y;
+                fixedCount = 2;
+            }
+            setLast(x, y);
+            isPreviewing = true;
+        }
+
+        @Override
+        public void move(float x, float y)
+        {
+            setLast(x, y);
+        }
+
+        @Override
+        public boolean up(float x, float y)
+        {
+            boolean closes = fixedCount >= 6 && ShapeGeometry.distance(vertices[0], vertices[1], x, y) < CLOSE_DISTANCE;
+            if (closes || fixedCount + 2 >= MAX_COORDS)
+            {
+                //Последняя вершина совпадает с первой - она не нужна
+                if (!closes) setLast(x, y);
+                else coordCount = fixedCount;
+                isPreviewing = false;
+                return true;
+            }
+            if (ShapeGeometry.distance(vertices[fixedCount - 2], vertices[fixedCount - 1], x, y) >= DrawingView.TOUCH_TOLERANCE)
+            {
+                vertices[fixedCount] = x;
+                vertices[fixedCount + 1] = y;
+                fixedCount += 2;
+            }
+            copyVertices(fixedCount);
+            return false;
+        }
+
+        @Override
+        public void onCommitted()
+        {
+            fixedCount = 0;
+            coordCount = 0;
+        }
+
+        @Override
+        public void cancelGesture()
+        {
+            copyVertices(fixedCount);
+        }
+
+        @Override
+        public boolean finish()
+        {
+            isPreviewing = false;
+            copyVertices(fixedCount);
+            if (fixedCount >= 6) return true;
+            fixedCount = 0;
+            coordCount = 0;
+            return false;
+        }
+
+        @Override
+        public int getRecordType()
+        {
+            return DrawingView.POLYGON;
+        }
+
+        @Override
+        public void drawPreview(Canvas canvas, Paint paint, ShapeRenderer renderer)
+        {
+            //Пока многоугольник не замкнут, он рисуется ломаной
+            renderer.drawPolyline(canvas, paint, coords, 0, coordCount, false);
+        }
+
+        private void setLast(float x, float y)
+        {
+            copyVertices(fixedCount);
+            coords[fixedCount] = x;
+            coords[fixedCount + 1] = y;
+            coordCount = fixedCount + 2;
+        }
+
+        private void copyVertices(int count)
+        {
+            System.arraycopy(vertices, 0, coords, 0, count);
+            coordCount = count;
+        }
+    }
+    //----------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,264 @@
+package com.mindmari.PaintApp;
+
+import java.util.Arrays;
+
+//Пространственный индекс границ записей на равномерной сетке, без зависимостей от Android.
+//Каждая запись попадает в ячейки, которые задевают её границы, поэтому поиск по области
+//просматривает только записи поблизости, а не весь рисунок. Записи добавляются по возрастанию номера
+//и отбрасываются с конца (truncate), поэтому списки в ячейках всегда упорядочены.
+//Ячейки хранятся в хэш-таблице с открытой адресацией: пустые области холста память не занимают.
+//Используется DisplayList и модулем benchmark
+public class SpatialIndex
+{
+    //Размер ячейки по умолчанию
+    public static final int DEFAULT_CELL_SIZE = 128;
+    //Записи, которые задевают больше ячеек, хранятся отдельным списком и проверяются при каждом поиске
+    private static final int MAX_CELLS_PER_RECORD = 64;
+    //Пустой ключ хэш-таблицы
+    private static final long NO_CELL = Long.MIN_VALUE;
+
+    private final int cellSize;
+    //Границы записей по номеру: left, top, right, bottom. У записей вне индекса left = NaN
+    private float[] bounds = new float[64 * 4];
+    //Количество номеров, для которых хранятся границы
+    private int capacity = 0;
+
+    //Ячейки: ключ (x, y) и номера записей в ячейке по возрастанию
+    private long[] keys = new long[256];
+    private int[][] cells = new int[256][];
+    private int[] cellSizes = new int[256];
+    private int cellCount = 0;
+    //Большие записи
+    private int[] large = new int[16];
+    private int largeCount = 0;
+
+    //Результат последнего поиска по возрастанию номера
+    private int[] results = new int[64];
+    //Номер поиска, в котором запись уже попала в результат (чтобы не повторять её из соседних ячеек)
+    private int[] marks = new int[64];
+    private int query = 0;
+    //----------------------------------------------------------------------------------------------
+    public SpatialIndex()
+    {
+        this(DEFAULT_CELL_SIZE);
+    }
+
+    public SpatialIndex(int cellSize)
+    {
+        this.cellSize = cellSize;
+        Arrays.fill(keys, NO_CELL);
+    }
+    //----------------------------------------------------------------------------------------------
+    //Добавить запись index с границами. Номер должен быть больше номеров всех записей в индексе
+    public void add(int index, float left, float top, float right, float bottom)
+    {
+        ensureCapacity(index + 1);
+        bounds[index * 4] = left;
+        bounds[index * 4 + 1] = top;
+        bounds[index * 4 + 2] = right;
+        bounds[index * 4 + 3] = bottom;
+
+        int x1 = cell(left);
+        int y1 = cell(top);
+        int x2 = cell(right);
+        int y2 = cell(bottom);
+        if (((long) x2 - x1 + 1) * ((long) y2 - y1 + 1) > MAX_CELLS_PER_RECORD)
+        {
+            if (largeCount == large.length) large = Arrays.copyOf(large, largeCount * 2);
+            large[largeCount++] = index;
+            return;
+        }
+        for (int y = y1; y <= y2; y++)
+        {
+            for (int x = x1; x <= x2; x++) addToCell(findCell(x, y, true), index);
+        }
+    }
+    //Отбросить записи с номерами от count и дальше
+    public void truncate(int count)
+    {
+        if (count >= capacity) return;
+        for (int i = 0; i < keys.length; i++)
+        {
+            if (keys[i] == NO_CELL) continue;
+            int[] cell = cells[i];
+            int size = cellSizes[i];
+            while (size > 0 && cell[size - 1] >= count) size--;
+            cellSizes[i] = size;
+        }
+        while (largeCount > 0 && large[largeCount - 1] >= count) largeCount--;
+        capacity = count;
+    }
+    //Удалить все записи. Ячейки остаются, чтобы не выделять их заново
+    public void clear()
+    {
+        Arrays.fill(cellSizes, 0);
+        largeCount = 0;
+        capacity = 0;
+    }
+    //----------------------------------------------------------------------------------------------
+    //Есть ли запись в индексе
+    public boolean contains(int index)
+    {
+        return index < capacity && !Float.isNaN(bounds[index * 4]);
+    }
+    //Границы записи: out - left, top, right, bottom
+    public void getBounds(int index, float[] out)
+    {
+        System.arraycopy(bounds, index * 4, out, 0, 4);
+    }
+    //Найти записи, границы которых пересекают прямоугольник. Возвращает их количество,
+    //номера - getResult() по возрастанию
+    public int query(float left, float top, float right, float bottom)
+    {
+        int count = 0;
+        if (++query == 0)
+        {
+            //Счётчик поисков переполнился - старые отметки могут совпасть с новыми
+            Arrays.fill(marks, 0);
+            query = 1;
+        }
+        int x1 = cell(left);
+        int y1 = cell(top);
+        int x2 = cell(right);
+        int y2 = cell(bottom);
+        if (((long) x2 - x1 + 1) * ((long) y2 - y1 + 1) > keys.length)
+        {
+            //Область больше всех занятых ячеек - быстрее просмотреть их все
+            for (int slot = 0; slot < keys.length; slot++)
+            {
+                if (keys[slot] != NO_CELL) count = collectCell(slot, left, top, right, bottom, count);
+            }
+        } else
+        {
+            for (int y = y1; y <= y2; y++)
+            {
+                for (int x = x1; x <= x2; x++)
+                {
+                    int slot = findCell(x, y, false);
+                    if (slot >= 0) count = collectCell(slot, left, top, right, bottom, count);
+                }
+            }
+        }
+        for (int i = 0; i < largeCount; i++) count = collect(large[i], left, top, right, bottom, count);
+        //Из нескольких ячеек записи приходят не по порядку
+        if (x1 != x2 || y1 != y2 || largeCount > 0) Arrays.sort(results, 0, count);
+        return count;
+    }
+    //Номер записи i из последнего поиска
+    public int getResult(int i)
+    {
+        return results[i];
+    }
+    //Примерный объём памяти индекса
+    public long getMemoryBytes()
+    {
+        long bytes = (long) bounds.length * 4 + (long) keys.length * (8 + 4 + 4) + (long) marks.length * 4;
+        for (int[] cell : cells)
+        {
+            if (cell != null) bytes += (long) cell.length * 4;
+        }
+        return bytes;
+    }
+    //----------------------------------------------------------------------------------------------
+    private int cell(float coord)
+    {
+        return (int) Math.floor(coord / cellSize);
+    }
+    //Добавить в результат записи ячейки slot
+    private int collectCell(int slot, float left, float top, float right, float bottom, int count)
+    {
+        int[] cell = cells[slot];
+        for (int i = 0; i < cellSizes[slot]; i++) count = collect(cell[i], left, top, right, bottom, count);
+        return count;
+    }
+    //Добавить запись в результат, если её границы пересекают прямоугольник и её там ещё нет
+    private int collect(int index, float left, float top, float right, float bottom, int count)
+    {
+        if (marks[index] == query) return count;
+        marks[index] = query;
+        int b = index * 4;
+        if (bounds[b] > right || bounds[b + 2] < left || bounds[b + 1] > bottom || bounds[b + 3] < top) return count;
+        if (count == results.length) results = Arrays.copyOf(results, count * 2);
+        results[count] = index;
+        return count + 1;
+    }
+
+    private void addToCell(int slot, int index)
+    {
+        int[] cell = cells[slot];
+        int size = cellSizes[slot];
+        if (cell == null)
+        {
+            cell = new int[4];
+            cells[slot] = cell;
+        } else if (size == cell.length)
+        {
+            cell = Arrays.copyOf(cell, size * 2);
+            cells[slot] = cell;
+        }
+        cell[size] = index;
+        cellSizes[slot] = size + 1;
+    }
+    //Место ячейки (x, y) в хэш-таблице. Если её нет: create - добавить, иначе вернуть -1
+    private int findCell(int x, int y, boolean create)
+    {
+        long key = ((long) x << 32) | (y & 0xFFFFFFFFL);
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != NO_CELL)
+        {
+            if (keys[slot] == key) return slot;
+            slot = (slot + 1) & mask;
+        }
+        if (!create) return -1;
+        if ((cellCount + 1) * 2 > keys.length)
+        {
+            grow();
+            return findCell(x, y, true);
+        }
+        keys[slot] = key;
+        cellCount++;
+        return slot;
+    }
+
+    private static int hash(long key)
+    {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+    //Увеличить хэш-таблицу вдвое
+    private void grow()
+    {
+        long[] oldKeys = keys;
+        int[][] oldCells = cells;
+        int[] oldSizes = cellSizes;
+        keys = new long[oldKeys.length * 2];
+        cells = new int[keys.length][];
+        cellSizes = new int[keys.length];
+        Arrays.fill(keys, NO_CELL);
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++)
+        {
+            if (oldKeys[i] == NO_CELL) continue;
+            int slot = hash(oldKeys[i]) & mask;
+            while (keys[slot] != NO_CELL) slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            cells[slot] = oldCells[i];
+            cellSizes[slot] = oldSizes[i];
+        }
+    }
+    //Места под границы и отметки записей с номерами до count
+    private void ensureCapacity(int count)
+    {
+        if (count * 4 > bounds.length)
+        {
+            int length = Math.max(bounds.length * 2, count * 4);
+            bounds = Arrays.copyOf(bounds, length);
+            marks = Arrays.copyOf(marks, length / 4);
+        }
+        //Пропущенные номера (записи вне индекса) помечаются NaN
+        for (int i = capacity; i < count; i++) bounds[i * 4] = Float.NaN;
+        capacity = count;
+    }
+    //----------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,238 @@
+package com.mindmari.PaintApp;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RadialGradient;
+import android.graphics.RectF;
+import android.graphics.Shader;
+
+//Кисть из отпечатков (dab): по линии штриха через равные промежутки ставится готовый круглый отпечаток.
+//Размер и прозрачность отпечатка зависят от нажима и скорости в каждой точке.
+//Отпечатки заранее нарисованы для набора радиусов, поэтому во время рисования память не выделяется.
+//Заготовки отпечатков общие для всех кистей (несколько пальцев рисуют разными кистями),
+//поэтому кисти используются только из потока рисования
+public class StampBrush
+{
+    //Расстояние между отпечатками в долях радиуса
+    private static final float SPACING = 0.15f;
+    //Сколько радиусов отпечатков приходится на удвоение размера
+    private static final int BUCKETS_PER_OCTAVE = 4;
+    //Наименьший и наибольший радиус отпечатка
+    private static final float MIN_RADIUS = 0.5f;
+    private static final float MAX_RADIUS = 512;
+    //Доля радиуса, внутри которой отпечаток непрозрачный
+    private static final float HARDNESS = 0.75f;
+    //Размер и прозрачность при нулевом нажиме (в долях от полных)
+    private static final float MIN_SIZE = 0.25f;
+    private static final float MIN_ALPHA = 0.35f;
+    //Скорость (пикселей холста в миллисекунду), при которой штрих становится тоньше всего
+    private static final float MAX_SPEED = 4f;
+    //Насколько быстрое движение утончает штрих (0 - скорость не влияет)
+    private static final float SPEED_THINNING = 0.4f;
+    //Сглаживание нажима между точками касания (1 - без сглаживания)
+    private static final float DYNAMICS_SMOOTHING = 0.35f;
+    //Начальная ёмкость буфера отпечатков
+    private static final int INITIAL_DABS = 256;
+
+    //Отпечатки по номеру радиуса: ALPHA_8, цвет берётся из Paint
+    private static final Bitmap[] dabs = new Bitmap[bucketOf(MAX_RADIUS) + 1];
+    //Во сколько раз половина Bitmap отпечатка больше радиуса его круга
+    private static final float[] dabScales = new float[dabs.length];
+    //Отпечатки текущей порции: x, y, радиус, прозрачность
+    private float[] pending = new float[INITIAL_DABS * 4];
+    private int pendingCount = 0;
+    //Сколько пути осталось пройти до следующего отпечатка
+    private float distanceToNext = 0;
+    //Всего поставлено отпечатков (для замеров скорости)
+    private long stampCount = 0;
+
+    //Прошлая точка касания для расчёта скорости
+    private float lastX;
+    private float lastY;
+    private long lastTime;
+    private float lastDynamics;
+
+    private final RectF dst = new RectF();
+    //----------------------------------------------------------------------------------------------
+    //Нажим со скоростью в значение 0..1 для точки касания.
+    //pressure - нажим 0..1 (у пальца обычно 1), time - время события в миллисекундах
+    public float startInput(float x, float y, long time, float pressure)
+    {
+        lastX = x;
+        lastY = y;
+        lastTime = time;
+        lastDynamics = clamp(pressure);
+        return lastDynamics;
+    }
+
+    public float input(float x, float y, long time, float pressure)
+    {
+        long dt = time - lastTime;
+        float speed = dt > 0 ? (float) Math.hypot(x - lastX, y - lastY) / dt : 0;
+        float target = clamp(pressure) * (1 - SPEED_THINNING * Math.min(1f, speed / MAX_SPEED));
+        //Без сглаживания быстрые штрихи дрожат по толщине
+        lastDynamics += (target - lastDynamics) * DYNAMICS_SMOOTHING;
+        lastX = x;
+        lastY = y;
+        lastTime = time;
+        return lastDynamics;
+    }
+    //----------------------------------------------------------------------------------------------
+    //Подготовить отпечатки для штриха толщиной до width. Вызывается до начала штриха, а не на каждом кадре
+    public void prepare(float width)
+    {
+        int last = bucketOf(Math.max(MIN_RADIUS, width / 2));
+        for (int i = 0; i <= last; i++)
+        {
+            if (dabs[i] != null) continue;
+            float radius = radiusOf(i);
+            dabs[i] = createDab(radius);
+            dabScales[i] = dabs[i].getWidth() / 2f / radius;
+        }
+    }
+    //Начать новый штрих: первый отпечаток ставится в начальной точке
+    public void reset()
+    {
+        distanceToNext = 0;
+        pendingCount = 0;
+    }
+    //Толщина штриха толщиной до width в точке с нажимом dynamics
+    public static float getWidth(float dynamics, float width)
+    {
+        return radius(dynamics, width) * 2;
+    }
+    //Всего поставлено отпечатков
+    public long getStampCount()
+    {
+        return stampCount;
+    }
+    //Сколько отпечатков в текущей порции
+    public int getPendingCount()
+    {
+        return pendingCount;
+    }
+    //----------------------------------------------------------------------------------------------
+    //Начать новую порцию отпечатков (предыдущая уже нарисована)
+    public void clearPending()
+    {
+        pendingCount = 0;
+    }
+    //Одиночное касание - один отпечаток
+    public void stampPoint(float x, float y, float dynamics, float width)
+    {
+        addDab(x, y, radius(dynamics, width), alpha(dynamics));
+        distanceToNext = spacing(radius(dynamics, width));
+    }
+    //Поставить отпечатки вдоль отрезка. Нажим меняется по отрезку линейно
+    public void stampSegment(float x0, float y0, float d0, float x1, float y1, float d1, float width)
+    {
+        float length = (float) Math.hypot(x1 - x0, y1 - y0);
+        if (length == 0) return;
+        float traveled = distanceToNext;
+        while (traveled <= length)
+        {
+            float t = traveled / length;
+            float dynamics = d0 + (d1 - d0) * t;
+            float r = radius(dynamics, width);
+            addDab(x0 + (x1 - x0) * t, y0 + (y1 - y0) * t, r, alpha(dynamics));
+            traveled += spacing(r);
+        }
+        distanceToNext = traveled - length;
+    }
+    //Нарисовать отпечатки текущей порции. Может вызываться несколько раз - по разу на каждую плитку.
+    //Цвет и прозрачность берутся из paint, прозрачность paint восстанавливается
+    public void drawPending(Canvas canvas, Paint paint)
+    {
+        int alpha = paint.getAlpha();
+        for (int i = 0; i < pendingCount * 4; i += 4)
+        {
+            float x = pending[i];
+            float y = pending[i + 1];
+            int bucket = bucketOf(pending[i + 2]);
+            float half = pending[i + 2] * dabScales[bucket];
+            dst.set(x - half, y - half, x + half, y + half);
+            if (canvas.quickReject(dst, Canvas.EdgeType.AA)) continue;
+            paint.setAlpha(Math.round(alpha * pending[i + 3]));
+            canvas.drawBitmap(dabs[bucket], null, dst, paint);
+        }
+        paint.setAlpha(alpha);
+    }
+    //Нарисовать весь штрих: точки тройками x, y, нажим
+    public void drawStroke(Canvas canvas, Paint paint, float width, float[] coords, int start, int count)
+    {
+        prepare(width);
+        reset();
+        stampPoint(coords[start], coords[start + 1], coords[start + 2], width);
+        for (int i = start + 3; i < start + count; i += 3)
+        {
+            stampSegment(coords[i - 3], coords[i - 2], coords[i - 1], coords[i], coords[i + 1], coords[i + 2], width);
+        }
+        drawPending(canvas, paint);
+        pendingCount = 0;
+    }
+    //----------------------------------------------------------------------------------------------
+    private void addDab(float x, float y, float radius, float alpha)
+    {
+        if ((pendingCount + 1) * 4 > pending.length)
+        {
+            float[] grown = new float[pending.length * 2];
+            System.arraycopy(pending, 0, grown, 0, pendingCount * 4);
+            pending = grown;
+        }
+        int i = pendingCount * 4;
+        pending[i] = x;
+        pending[i + 1] = y;
+        pending[i + 2] = radius;
+        pending[i + 3] = alpha;
+        pendingCount++;
+        stampCount++;
+    }
+
+    private static float radius(float dynamics, float width)
+    {
+        float r = width / 2 * (MIN_SIZE + (1 - MIN_SIZE) * dynamics);
+        return Math.max(MIN_RADIUS, Math.min(MAX_RADIUS, r));
+    }
+
+    private static float alpha(float dynamics)
+    {
+        return MIN_ALPHA + (1 - MIN_ALPHA) * dynamics;
+    }
+
+    private static float spacing(float radius)
+    {
+        return Math.max(0.5f, radius * SPACING);
+    }
+
+    private static float clamp(float value)
+    {
+        return Math.max(0f, Math.min(1f, value));
+    }
+    //Номер радиуса, отпечаток которого не меньше radius
+    private static int bucketOf(float radius)
+    {
+        double octaves = Math.log(radius / MIN_RADIUS) / Math.log(2);
+        return Math.max(0, (int) Math.ceil(octaves * BUCKETS_PER_OCTAVE - 1e-4));
+    }
+
+    private static float radiusOf(int bucket)
+    {
+        return MIN_RADIUS * (float) Math.pow(2, (double) bucket / BUCKETS_PER_OCTAVE);
+    }
+    //Круглый отпечаток с мягким краем
+    private static Bitmap createDab(float radius)
+    {
+        int size = (int) Math.ceil(radius * 2) + 2;
+        Bitmap dab = Bitmap.createBitmap(size, size, Bitmap.Config.ALPHA_8);
+        Metrics.onBitmapAllocated(dab);
+        Paint dabPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        float center = size / 2f;
+        dabPaint.setShader(new RadialGradient(center, center, radius,
+                new int[]{0xFFFFFFFF, 0xFFFFFFFF, 0x00FFFFFF}, new float[]{0, HARDNESS, 1},
+                Shader.TileMode.CLAMP));
+        new Canvas(dab).drawCircle(center, center, radius, dabPaint);
+        return dab;
+    }
+    //----------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,180 @@
+package com.mindmari.PaintApp;
+
+//Сглаживание точек кисти перед тем, как они попадут в штрих.
+//Нажим интерполируется вдоль кривой вместе с координатами.
+//Кривые разбиваются на короткие отрезки прямо в IncrementalStroke, без выделения памяти
+public class StrokeSmoother
+{
+    //Куда попадают сглаженные точки (IncrementalStroke)
+    public interface Target
+    {
+        //Начать штрих с точки
+        void start(float x, float y, float pressure);
+        //Добавить точку
+        void add(float x, float y, float pressure);
+    }
+
+    //Без сглаживания - ломаная по точкам касания
+    public static final int NONE = 0;
+    //Квадратичные кривые через середины соседних точек
+    public static final int QUADRATIC = 1;
+    //Сплайн Катмулла-Рома через сами точки касания
+    public static final int CATMULL_ROM = 2;
+
+    //Примерная длина одного отрезка кривой в пикселях
+    private static final float SEGMENT_LENGTH = 4;
+    //Максимальное количество отрезков на одну кривую
+    private static final int MAX_SUBDIVISIONS = 16;
+
+    //Текущий режим сглаживания
+    private int mode = NONE;
+    //Штрих, в который попадают сглаженные точки
+    private Target target;
+    //Количество точек касания в текущем штрихе
+    private int rawCount = 0;
+
+    //Три последние точки касания (c - самая новая) и нажим в них
+    private float ax, ay, ap;
+    private float bx, by, bp;
+    private float cx, cy, cp;
+    //Последняя точка, отданная в штрих
+    private float ex, ey, ep;
+    //----------------------------------------------------------------------------------------------
+    //Установить режим сглаживания
+    public void setMode(int mode)
+    {
+        this.mode = mode;
+    }
+    //Получить режим сглаживания
+    public int getMode()
+    {
+        return mode;
+    }
+    //----------------------------------------------------------------------------------------------
+    //Начать новый штрих
+    public void start(Target stroke, float x, float y)
+    {
+        start(stroke, x, y, 1);
+    }
+
+    public void start(Target stroke, float x, float y, float pressure)
+    {
+        target = stroke;
+        rawCount = 1;
+        ax = bx = cx = ex = x;
+        ay = by = cy = ey = y;
+        ap = bp = cp = ep = pressure;
+        target.start(x, y, pressure);
+    }
+    //Добавить точку касания
+    public void add(float x, float y)
+    {
+        add(x, y, 1);
+    }
+
+    public void add(float x, float y, float pressure)
+    {
+        if (target == null) return;
+        switch (mode)
+        {
+            case QUADRATIC:
+                addQuadratic(x, y, pressure);
+                break;
+            case CATMULL_ROM:
+                addCatmullRom(x, y, pressure);
+                break;
+            default:
+                target.add(x, y, pressure);
+                break;
+        }
+        ax = bx;
+        ay = by;
+        ap = bp;
+        bx = cx;
+        by = cy;
+        bp = cp;
+        cx = x;
+        cy = y;
+        cp = pressure;
+        rawCount++;
+    }
+    //Закончить штрих: довести кривую до последней точки касания
+    public void finish()
+    {
+        if (target == null) return;
+        if (rawCount > 1)
+        {
+            switch (mode)
+            {
+                case QUADRATIC:
+                    target.add(cx, cy, cp);
+                    break;
+                case CATMULL_ROM:
+                    emitCatmullRom(ax, ay, bx, by, bp, cx, cy, cp, cx, cy);
+                    break;
+            }
+        }
+        target = null;
+        rawCount = 0;
+    }
+    //----------------------------------------------------------------------------------------------
+    //Кривая от прошлой середины до новой середины с контрольной точкой в прошлом касании
+    private void addQuadratic(float x, float y, float pressure)
+    {
+        float midX = (cx + x) / 2;
+        float midY = (cy + y) / 2;
+        float midP = (cp + pressure) / 2;
+        if (rawCount == 1)
+        {
+            target.add(midX, midY, midP);
+        } else
+        {
+            int steps = subdivisions(ex, ey, cx, cy, midX, midY);
+            for (int i = 1; i <= steps; i++)
+            {
+                float t = (float) i / steps;
+                float u = 1 - t;
+                target.add(u * u * ex + 2 * u * t * cx + t * t * midX,
+                        u * u * ey + 2 * u * t * cy + t * t * midY,
+                        ep + (midP - ep) * t);
+            }
+        }
+        ex = midX;
+        ey = midY;
+        ep = midP;
+    }
+    //Сегмент сплайна между двумя прошлыми касаниями; новое касание задаёт касательную
+    private void addCatmullRom(float x, float y, float pressure)
+    {
+        if (rawCount > 1) emitCatmullRom(ax, ay, bx, by, bp, cx, cy, cp, x, y);
+    }
+    //Сегмент от (x1, y1) до (x2, y2); нажим меняется от p1 до p2 линейно
+    private void emitCatmullRom(float x0, float y0, float x1, float y1, float p1,
+                                float x2, float y2, float p2, float x3, float y3)
+    {
+        int steps = subdivisions(x1, y1, x2, y2, x2, y2);
+        for (int i = 1; i <= steps; i++)
+        {
+            float t = (float) i / steps;
+            float t2 = t * t;
+            float t3 = t2 * t;
+            target.add(0.5f * (2 * x1 + (x2 - x0) * t + (2 * x0 - 5 * x1 + 4 * x2 - x3) * t2
+                            + (3 * x1 - x0 - 3 * x2 + x3) * t3),
+                    0.5f * (2 * y1 + (y2 - y0) * t + (2 * y0 - 5 * y1 + 4 * y2 - y3) * t2
+                            + (3 * y1 - y0 - 3 * y2 + y3) * t3),
+                    p1 + (p2 - p1) * t);
+        }
+        ex = x2;
+        ey = y2;
+        ep = p2;
+    }
+    //Сколько отрезков нужно для кривой с такой длиной ломаной
+    private int subdivisions(float x0, float y0, float x1, float y1, float x2, float y2)
+    {
+        float length = Math.abs(x1 - x0) + Math.abs(y1 - y0) + Math.abs(x2 - x1) + Math.abs(y2 - y1);
+        int steps = (int) (length / SEGMENT_LENGTH);
+        if (steps < 1) return 1;
+        return Math.min(steps, MAX_SUBDIVISIONS);
+    }
+    //----------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,220 @@
+package com.mindmari.PaintApp;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+//Квадратные миниатюры сохранённых картинок с кэшем в два уровня.
+//Память: LruCache по имени файла, размер которого считается в байтах Bitmap, а не в штуках.
+//Диск: уменьшенные копии в JPEG, имя которых включает время изменения картинки и размер миниатюры,
+//так что изменённая картинка получает новую миниатюру. Старые копии удаляются, когда папка превышает бюджет.
+//Промах по обоим уровням декодирует картинку с прореживанием (inSampleSize) и обрезает её по центру.
+//Декодирование идёт на нескольких фоновых потоках с низким приоритетом, последний запрос берётся первым:
+//при прокрутке сначала грузится то, что сейчас на экране. Запрос можно отменить, пока он не начат
+public class ThumbnailLoader
+{
+    //Слушатель загрузки, вызывается на главном потоке
+    public interface Listener
+    {
+        void onLoaded(File file, Bitmap thumbnail);
+    }
+
+    //Бюджет папки миниатюр на диске
+    private static final long DISK_BYTES = 64L * 1024 * 1024;
+    //Качество JPEG миниатюр на диске
+    private static final int DISK_QUALITY = 85;
+    //Потоков декодирования: больше не ускоряет чтение с флеш-памяти, но отнимает ядра у прокрутки
+    private static final int THREADS = Math.max(1, Math.min(3, Runtime.getRuntime().availableProcessors() - 1));
+
+    //Сторона миниатюры в пикселях
+    private final int size;
+    private final File diskDir;
+    private final LruCache<String, Bitmap> memory;
+    private final ThreadPoolExecutor executor;
+    //Handler главного потока для вызова слушателя
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    //Сколько байт занимает папка миниатюр (-1 - ещё не посчитано)
+    private long diskBytes = -1;
+    //----------------------------------------------------------------------------------------------
+    //size - сторона миниатюры, diskDir - папка дискового кэша, memoryBytes - бюджет кэша в памяти
+    public ThumbnailLoader(int size, File diskDir, int memoryBytes)
+    {
+        this.size = size;
+        this.diskDir = diskDir;
+        memory = new LruCache<String, Bitmap>(memoryBytes)
+        {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap)
+            {
+                return bitmap.getByteCount();
+            }
+        };
+        //Очередь как стек: новый запрос встаёт в начало
+        LinkedBlockingDeque<Runnable> queue = new LinkedBlockingDeque<Runnable>()
+        {
+            @Override
+            public boolean offer(Runnable runnable)
+            {
+                return offerFirst(runnable);
+            }
+        };
+        executor = new ThreadPoolExecutor(THREADS, THREADS, 0, TimeUnit.MILLISECONDS, queue, r -> new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            r.run();
+        }, "ThumbnailLoader"));
+    }
+    //----------------------------------------------------------------------------------------------
+    //Миниатюра из памяти или null. Вызывается при привязке элемента списка, поэтому не трогает диск
+    public Bitmap getCached(File file)
+    {
+        return memory.get(file.getName());
+    }
+    //Загрузить миниатюру в фоне. Возвращает запрос, который отменяется, когда элемент уходит с экрана
+    public Future<?> load(File file, Listener listener)
+    {
+        return executor.submit(() -> {
+            long decodeStart = Metrics.start();
+            String key = diskKey(file);
+            Bitmap thumbnail = memory.get(file.getName());
+            if (thumbnail == null) thumbnail = readDisk(key);
+            if (thumbnail == null)
+            {
+                thumbnail = decode(file);
+                if (thumbnail == null) return;
+                writeDisk(key, thumbnail);
+            }
+            memory.put(file.getName(), thumbnail);
+            Metrics.stop(Metrics.THUMBNAIL_LOAD, decodeStart);
+            Bitmap loaded = thumbnail;
+            mainHandler.post(() -> listener.onLoaded(file, loaded));
+        });
+    }
+    //Отдать память кэша (миниатюры на экране остаются у своих ImageView)
+    public void trimMemory()
+    {
+        memory.evictAll();
+    }
+    //Остановить фоновые потоки, не начатые запросы отменяются
+    public void shutdown()
+    {
+        executor.shutdownNow();
+    }
+    //----------------------------------------------------------------------------------------------
+    //Имя миниатюры на диске: имя картинки, время изменения и размер, чтобы изменённая картинка не бралась из кэша
+    private String diskKey(File file)
+    {
+        return file.getName() + "." + file.lastModified() + "." + size;
+    }
+    //Декодировать картинку с прореживанием и обрезать по центру в квадрат size x size
+    private Bitmap decode(File file)
+    {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+        int srcW = options.outWidth;
+        int srcH = options.outHeight;
+        if (srcW <= 0 || srcH <= 0) return null;
+
+        //Прореживать, пока короткая сторона не меньше миниатюры
+        int[] cover = new int[2];
+        ImageSizing.coverSize(srcW, srcH, size, size, cover);
+        options = new BitmapFactory.Options();
+        options.inSampleSize = ImageSizing.calculateSampleSize(srcW, srcH, cover[0], cover[1]);
+        //Сохранённые картинки непрозрачные: 2 байта на пиксель вместо 4
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        Bitmap sampled = BitmapFactory.decodeFile(file.getPath(), options);
+        if (sampled == null) return null;
+
+        int side = Math.min(sampled.getWidth(), sampled.getHeight());
+        int left = (sampled.getWidth() - side) / 2;
+        int top = (sampled.getHeight() - side) / 2;
+        Bitmap thumbnail = Bitmap.createBitmap(size, size, Bitmap.Config.RGB_565);
+        new Canvas(thumbnail).drawBitmap(sampled, new Rect(left, top, left + side, top + side),
+                new Rect(0, 0, size, size), new Paint(Paint.FILTER_BITMAP_FLAG));
+        sampled.recycle();
+        return thumbnail;
+    }
+
+    private Bitmap readDisk(String key)
+    {
+        File file = new File(diskDir, key + ".jpg");
+        if (!file.exists()) return null;
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        Bitmap thumbnail = BitmapFactory.decodeFile(file.getPath(), options);
+        if (thumbnail == null) return null;
+        //Недавно использованные копии удаляются последними
+        file.setLastModified(System.currentTimeMillis());
+        return thumbnail;
+    }
+    //Записать миниатюру на диск. Ошибка записи не мешает показать её: в следующий раз она декодируется заново
+    private void writeDisk(String key, Bitmap thumbnail)
+    {
+        if (!diskDir.exists() && !diskDir.mkdirs()) return;
+        File file = new File(diskDir, key + ".jpg");
+        File temp = new File(diskDir, key + ".tmp");
+        try (OutputStream out = new FileOutputStream(temp))
+        {
+            thumbnail.compress(Bitmap.CompressFormat.JPEG, DISK_QUALITY, out);
+        } catch (IOException e)
+        {
+            temp.delete();
+            return;
+        }
+        //Другой поток не увидит недописанный файл
+        if (!temp.renameTo(file))
+        {
+            temp.delete();
+            return;
+        }
+        trimDisk(file.length());
+    }
+    //Учесть новый файл и, если папка больше бюджета, удалить самые давно использованные до 3/4 бюджета
+    private synchronized void trimDisk(long added)
+    {
+        File[] files = null;
+        if (diskBytes < 0)
+        {
+            files = diskDir.listFiles();
+            diskBytes = 0;
+            if (files != null) for (File file : files) diskBytes += file.length();
+        } else
+        {
+            diskBytes += added;
+        }
+        if (diskBytes <= DISK_BYTES) return;
+        if (files == null) files = diskDir.listFiles();
+        if (files == null) return;
+        long[] modified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++)
+        {
+            modified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(modified[a], modified[b]));
+        for (int i = 0; i < order.length && diskBytes > DISK_BYTES * 3 / 4; i++)
+        {
+            File file = files[order[i]];
+            long length = file.length();
+            if (file.delete()) diskBytes -= length;
+        }
+    }
+    //----------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,155 @@
+package com.mindmari.PaintApp;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+//Уменьшенные копии плиток TiledCanvas (mipmap) для отдалённого просмотра.
+//Плитка уровня L покрывает 2^L x 2^L плиток холста и собирается из четырёх плиток уровня L-1.
+//Плитки строятся при первом показе и сбрасываются в BitmapPool, когда меняется хотя бы одна плитка под ними
+public class TileMipmaps
+{
+    //Бюджет памяти по умолчанию
+    public static final long DEFAULT_BUDGET_BYTES = 48L * 1024 * 1024;
+
+    private static final int HALF = TiledCanvas.TILE_SIZE / 2;
+
+    //Холст, из которого строятся уровни
+    private final TiledCanvas source;
+    //Самый грубый уровень - на нём весь холст помещается в одну плитку
+    private final int maxLevel;
+    //Построенные плитки в порядке использования (первая - самая старая)
+    private final LinkedHashMap<Long, Bitmap> cache = new LinkedHashMap<>(64, 0.75f, true);
+    private long budgetBytes = DEFAULT_BUDGET_BYTES;
+    private final BitmapPool pool = BitmapPool.getShared();
+
+    //Переиспользуемые объекты
+    private final Canvas buildCanvas = new Canvas();
+    private final Paint filterPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect dst = new Rect();
+    //----------------------------------------------------------------------------------------------
+    public TileMipmaps(TiledCanvas source)
+    {
+        this.source = source;
+        int level = 0;
+        while (((source.getColumns() - 1) >> level) > 0 || ((source.getRows() - 1) >> level) > 0)
+        {
+            level++;
+        }
+        this.maxLevel = level;
+    }
+    //----------------------------------------------------------------------------------------------
+    public int getMaxLevel()
+    {
+        return maxLevel;
+    }
+    //Количество плиток по горизонтали на уровне level
+    public int getColumns(int level)
+    {
+        return (source.getColumns() + (1 << level) - 1) >> level;
+    }
+    //Количество плиток по вертикали на уровне level
+    public int getRows(int level)
+    {
+        return (source.getRows() + (1 << level) - 1) >> level;
+    }
+    //Установить бюджет памяти
+    public void setBudget(long bytes)
+    {
+        budgetBytes = bytes;
+        trimToBudget();
+    }
+    //----------------------------------------------------------------------------------------------
+    //Плитка (tx, ty) уровня level (level >= 1), при необходимости построенная заново
+    public Bitmap getTile(int level, int tx, int ty)
+    {
+        Bitmap tile = buildTile(level, tx, ty);
+        //Вытеснять только после построения: вытесненная плитка уходит в запас
+        //и не должна достаться родителю, пока он рисуется из неё
+        trimToBudget();
+        return tile;
+    }
+    //Плитка уровня из кэша или построенная заново, без вытеснения
+    private Bitmap buildTile(int level, int tx, int ty)
+    {
+        long key = key(level, tx, ty);
+        Bitmap tile = cache.get(key);
+        if (tile != null) return tile;
+
+        //Сначала получить дочерние плитки - их построение использует тот же Canvas
+        Bitmap[] children = null;
+        if (level > 1)
+        {
+            children = new Bitmap[4];
+            for (int i = 0; i < 4; i++)
+            {
+                int cx = tx * 2 + (i & 1);
+                int cy = ty * 2 + (i >> 1);
+                if (cx < getColumns(level - 1) && cy < getRows(level - 1))
+                {
+                    children[i] = buildTile(level - 1, cx, cy);
+                }
+            }
+        }
+
+        //У крайних плиток части детей нет - там должно остаться прозрачно
+        tile = pool.obtain(TiledCanvas.TILE_SIZE, TiledCanvas.TILE_SIZE, Bitmap.Config.ARGB_8888, 0);
+        buildCanvas.setBitmap(tile);
+        for (int i = 0; i < 4; i++)
+        {
+            int cx = tx * 2 + (i & 1);
+            int cy = ty * 2 + (i >> 1);
+            dst.set((i & 1) * HALF, (i >> 1) * HALF, (i & 1) * HALF + HALF, (i >> 1) * HALF + HALF);
+            if (level == 1)
+            {
+                if (cx < source.getColumns() && cy < source.getRows())
+                {
+                    source.drawTile(buildCanvas, cy * source.getColumns() + cx, dst, filterPaint);
+                }
+            } else if (children[i] != null)
+            {
+                buildCanvas.drawBitmap(children[i], null, dst, filterPaint);
+            }
+        }
+        buildCanvas.setBitmap(null);
+
+        cache.put(key, tile);
+        return tile;
+    }
+    //Плитка холста (tx, ty) изменилась: сбросить все плитки уровней над ней
+    public void invalidate(int tx, int ty)
+    {
+        for (int level = 1; level <= maxLevel; level++)
+        {
+            pool.release(cache.remove(key(level, tx >> level, ty >> level)));
+        }
+    }
+    //Сбросить все уровни
+    public void clear()
+    {
+        for (Bitmap tile : cache.values()) pool.release(tile);
+        cache.clear();
+    }
+    //----------------------------------------------------------------------------------------------
+    private static long key(int level, int tx, int ty)
+    {
+        return ((long) level << 48) | ((long) ty << 24) | tx;
+    }
+    //Удалять давно не показанные плитки, пока уровни не уложатся в бюджет
+    private void trimToBudget()
+    {
+        Iterator<Map.Entry<Long, Bitmap>> oldest = cache.entrySet().iterator();
+        while ((long) cache.size() * TiledCanvas.TILE_BYTES > budgetBytes && oldest.hasNext())
+        {
+            //Вытеснение бывает во время вывода кадра, где плитка уже нарисована
+            pool.releaseLater(oldest.next().getValue());
+            oldest.remove();
+        }
+    }
+    //----------------------------------------------------------------------------------------------
+}
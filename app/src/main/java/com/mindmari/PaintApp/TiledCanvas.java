@@ -0,0 +1,993 @@
+package com.mindmari.PaintApp;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//Холст, разбитый на плитки фиксированного размера.
+//Плитки создаются только при первом рисовании на них, однотонная плитка хранится одним цветом.
+//Давно не использованные плитки сжимаются в PNG, а при нехватке памяти выгружаются на диск,
+//поэтому размер холста может быть намного больше экрана.
+//Освободившиеся плитки возвращаются в BitmapPool и переиспользуются следующими плитками.
+//По умолчанию плитки хранятся в ARGB_8888 без потерь. Экономные форматы включаются через setPixelFormat:
+//непрозрачный холст хранится в RGB_565, а вытесненные плитки из двух цветов (штрихи одним цветом на фоне) - по байту на пиксель
+public class TiledCanvas
+{
+    //Размер плитки в пикселях
+    public static final int TILE_SIZE = 256;
+    //Сколько байт занимает одна плитка ARGB_8888 в памяти
+    public static final int TILE_BYTES = TILE_SIZE * TILE_SIZE * 4;
+    //Бюджет несжатых плиток по умолчанию
+    public static final long DEFAULT_RESIDENT_BYTES = 96L * 1024 * 1024;
+    //Бюджет сжатых плиток в памяти по умолчанию
+    public static final long DEFAULT_COMPRESSED_BYTES = 32L * 1024 * 1024;
+
+    //Форматы хранения плиток
+    //Все плитки ARGB_8888
+    public static final int FORMAT_ARGB_8888 = 0;
+    //RGB_565, если холст непрозрачный, иначе ARGB_8888. Цвета огрубляются до 5-6-5 бит, градиенты получают ступеньки
+    public static final int FORMAT_RGB_565 = 1;
+    //По содержимому: плитки ARGB_8888, а вытесненные двухцветные плитки хранятся покрытием ALPHA_8
+    //с цветом чернил поверх цвета фона (с точностью PACK_TOLERANCE). Остальные плитки не теряют точности
+    public static final int FORMAT_AUTO = 2;
+
+    //Наибольшее расхождение канала цвета, при котором плитка ещё считается двухцветной
+    private static final int PACK_TOLERANCE = 2;
+
+    private static final String TAG = "TiledCanvas";
+    //Каждый холст выгружает плитки в свою папку canvas_<процесс>_<номер>, чтобы файлы холстов не пересекались
+    private static final String SPILL_PREFIX = "canvas_";
+    private static final AtomicInteger spillDirCount = new AtomicInteger();
+    //Папки, в которых остатки прошлых запусков уже удалены
+    private static final HashSet<File> cleanedSpillParents = new HashSet<>();
+
+    //Операция рисования, которая выполняется на каждой задетой плитке
+    public interface DrawOp
+    {
+        void draw(Canvas canvas);
+    }
+
+    //Снимок состояния плитки: цвет, Bitmap или сжатые данные
+    public static final class TileState
+    {
+        final int color;
+        final Bitmap bitmap;
+        final byte[] compressed;
+
+        TileState(int color, Bitmap bitmap, byte[] compressed)
+        {
+            this.color = color;
+            this.bitmap = bitmap;
+            this.compressed = compressed;
+        }
+        //Сколько байт занимает снимок
+        public long sizeBytes()
+        {
+            if (bitmap != null) return bitmap.getAllocationByteCount();
+            if (compressed != null) return compressed.length;
+            return 4;
+        }
+    }
+
+    //Размер холста
+    private final int width;
+    private final int height;
+    //Количество плиток по горизонтали и вертикали
+    private final int columns;
+    private final int rows;
+    //Несжатые плитки (null - плитка однотонная, сжата или выгружена)
+    private final Bitmap[] tiles;
+    //Сжатые плитки в памяти
+    private final byte[][] compressed;
+    //Плитки, выгруженные на диск
+    private final boolean[] spilled;
+    //Цвет однотонной плитки
+    private final int[] solidColors;
+    //Несжатые плитки в порядке использования (первая - самая старая)
+    private final LinkedHashMap<Integer, Bitmap> residentLru = new LinkedHashMap<>(64, 0.75f, true);
+    //Сжатые плитки в памяти в порядке сжатия
+    private final LinkedHashMap<Integer, byte[]> compressedLru = new LinkedHashMap<>(64, 0.75f, true);
+    //Своя папка для выгрузки плиток (null - не выгружать)
+    private final File spillDir;
+    //Двухцветные плитки: покрытие цветом inkColors поверх цвета solidColors
+    private final Bitmap[] packed;
+    private final int[] inkColors;
+    //Двухцветные плитки в порядке использования
+    private final LinkedHashMap<Integer, Bitmap> packedLru = new LinkedHashMap<>(64, 0.75f, true);
+    //Уменьшенные копии плиток для отдалённого просмотра
+    private final TileMipmaps mipmaps;
+    //Запас Bitmap для плиток
+    private final BitmapPool pool = BitmapPool.getShared();
+
+    private long residentBudget = DEFAULT_RESIDENT_BYTES;
+    private long compressedBudget = DEFAULT_COMPRESSED_BYTES;
+    private long compressedBytes = 0;
+    private long residentBytes = 0;
+    private long packedBytes = 0;
+
+    //Непрозрачный ли холст (фон без прозрачности)
+    private final boolean isOpaque;
+    private int pixelFormat = FORMAT_ARGB_8888;
+    //Формат несжатых плиток
+    private Bitmap.Config tileConfig = Bitmap.Config.ARGB_8888;
+    //На холст попали прозрачные пиксели: RGB_565 больше не подходит
+    private boolean isPromoted = false;
+
+    //Переиспользуемые объекты
+    private final Canvas tileCanvas = new Canvas();
+    private final Paint solidPaint = new Paint();
+    private final Paint bitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Paint inkPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final byte[] packBuffer = new byte[TILE_SIZE * TILE_SIZE];
+    private final Rect drawRect = new Rect();
+    private final int[] pixelBuffer = new int[TILE_SIZE * TILE_SIZE];
+    private final ByteArrayOutputStream compressStream = new ByteArrayOutputStream(64 * 1024);
+    //----------------------------------------------------------------------------------------------
+    //Плитки выгружаются в подпапку spillDir (null - не выгружать)
+    public TiledCanvas(int width, int height, int backgroundColor, File spillDir)
+    {
+        this.width = width;
+        this.height = height;
+        this.columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+        this.rows = (height + TILE_SIZE - 1) / TILE_SIZE;
+        int count = columns * rows;
+        this.tiles = new Bitmap[count];
+        this.compressed = new byte[count][];
+        this.spilled = new boolean[count];
+        this.solidColors = new int[count];
+        this.packed = new Bitmap[count];
+        this.inkColors = new int[count];
+        this.isOpaque = backgroundColor >>> 24 == 0xFF;
+        if (spillDir != null)
+        {
+            deleteStaleSpillDirs(spillDir);
+            spillDir = new File(spillDir, SPILL_PREFIX + Process.myPid() + "_" + spillDirCount.incrementAndGet());
+        }
+        this.spillDir = spillDir;
+        this.mipmaps = new TileMipmaps(this);
+        fill(backgroundColor);
+    }
+    //----------------------------------------------------------------------------------------------
+    public int getWidth()
+    {
+        return width;
+    }
+    public int getHeight()
+    {
+        return height;
+    }
+    public int getColumns()
+    {
+        return columns;
+    }
+    public int getRows()
+    {
+        return rows;
+    }
+    //Сколько плиток сейчас не сжато
+    public int getResidentTileCount()
+    {
+        return residentLru.size();
+    }
+    //Сколько байт занимают несжатые плитки
+    public long getResidentBytes()
+    {
+        return residentBytes;
+    }
+    //Сколько байт занимают двухцветные плитки
+    public long getPackedBytes()
+    {
+        return packedBytes;
+    }
+    //Сколько байт занимают сжатые плитки в памяти
+    public long getCompressedBytes()
+    {
+        return compressedBytes;
+    }
+    //Сколько байт занимают все плитки в памяти
+    public long getMemoryBytes()
+    {
+        return residentBytes + packedBytes + compressedBytes;
+    }
+    //Установить формат хранения плиток (FORMAT_ARGB_8888, FORMAT_RGB_565, FORMAT_AUTO).
+    //Несжатые плитки переводятся в новый формат при следующем обращении к ним
+    public void setPixelFormat(int format)
+    {
+        pixelFormat = format;
+        updateTileConfig();
+    }
+    public int getPixelFormat()
+    {
+        return pixelFormat;
+    }
+    //Формат, в котором сейчас создаются несжатые плитки
+    public Bitmap.Config getTileConfig()
+    {
+        return tileConfig;
+    }
+    //Установить бюджеты памяти для несжатых и сжатых плиток
+    public void setMemoryBudget(long residentBytes, long compressedBytes)
+    {
+        this.residentBudget = residentBytes;
+        this.compressedBudget = compressedBytes;
+        trimToBudget(-1);
+    }
+    //Уменьшенные копии плиток
+    public TileMipmaps getMipmaps()
+    {
+        return mipmaps;
+    }
+    //Индекс плитки, в которую попадает точка
+    public int tileIndex(int x, int y)
+    {
+        return (y / TILE_SIZE) * columns + x / TILE_SIZE;
+    }
+    //----------------------------------------------------------------------------------------------
+    //Залить весь холст одним цветом: все плитки становятся однотонными
+    public void fill(int color)
+    {
+        promoteFor(color);
+        color = storedColor(color);
+        for (int i = 0; i < tiles.length; i++)
+        {
+            dropTile(i);
+            solidColors[i] = color;
+        }
+        mipmaps.clear();
+    }
+    //Залить одну плитку цветом
+    public void fillTile(int index, int color)
+    {
+        promoteFor(color);
+        dropTile(index);
+        solidColors[index] = storedColor(color);
+        invalidateMipmaps(index);
+    }
+    //Выполнить операцию рисования на одной плитке
+    public void draw(int index, DrawOp op)
+    {
+        int tx = index % columns;
+        int ty = index / columns;
+        Bitmap tile = obtainTile(index);
+        tileCanvas.setBitmap(tile);
+        tileCanvas.translate(-tx * TILE_SIZE, -ty * TILE_SIZE);
+        op.draw(tileCanvas);
+        tileCanvas.setBitmap(null);
+        mipmaps.invalidate(tx, ty);
+        trimToBudget(index);
+    }
+    //Выполнить операцию рисования на всех плитках, которые задевает область bounds
+    public void draw(Rect bounds, DrawOp op)
+    {
+        int left = Math.max(bounds.left, 0) / TILE_SIZE;
+        int top = Math.max(bounds.top, 0) / TILE_SIZE;
+        int right = Math.min(bounds.right, width - 1) / TILE_SIZE;
+        int bottom = Math.min(bounds.bottom, height - 1) / TILE_SIZE;
+        if (bounds.right < 0 || bounds.bottom < 0) return;
+
+        for (int ty = top; ty <= bottom; ty++)
+        {
+            for (int tx = left; tx <= right; tx++)
+            {
+                draw(ty * columns + tx, op);
+            }
+        }
+    }
+    //Вывести плитки, которые попадают в область visible (в координатах холста)
+    public void drawVisible(Canvas canvas, Rect visible)
+    {
+        drawVisible(canvas, visible, 0);
+    }
+    //Вывести область visible с уровня mipmap level, наложив весь холст через layerPaint
+    //(прозрачность и режим наложения слоя; null - обычное наложение)
+    public void drawVisible(Canvas canvas, Rect visible, int level, Paint layerPaint)
+    {
+        if (layerPaint == null)
+        {
+            drawVisible(canvas, visible, level);
+            return;
+        }
+        canvas.saveLayer(Math.max(visible.left, 0), Math.max(visible.top, 0),
+                Math.min(visible.right, width), Math.min(visible.bottom, height), layerPaint);
+        drawVisible(canvas, visible, level);
+        canvas.restore();
+    }
+    //Вывести область visible (в координатах холста) с уровня mipmap level.
+    //На уровне L одна плитка покрывает 2^L x 2^L плиток холста
+    public void drawVisible(Canvas canvas, Rect visible, int level)
+    {
+        if (visible.right < 0 || visible.bottom < 0) return;
+        level = Math.max(0, Math.min(level, mipmaps.getMaxLevel()));
+        int size = TILE_SIZE << level;
+        int left = Math.max(visible.left, 0) / size;
+        int top = Math.max(visible.top, 0) / size;
+        int right = Math.min(visible.right, width - 1) / size;
+        int bottom = Math.min(visible.bottom, height - 1) / size;
+
+        canvas.save();
+        canvas.clipRect(0, 0, width, height);
+        for (int ty = top; ty <= bottom; ty++)
+        {
+            for (int tx = left; tx <= right; tx++)
+            {
+                int x = tx * size;
+                int y = ty * size;
+                if (level > 0)
+                {
+                    drawRect.set(x, y, x + size, y + size);
+                    canvas.drawBitmap(mipmaps.getTile(level, tx, ty), null, drawRect, bitmapPaint);
+                    continue;
+                }
+                int index = ty * columns + tx;
+                if (isSolid(index))
+                {
+                    solidPaint.setColor(solidColors[index]);
+                    canvas.drawRect(x, y, x + TILE_SIZE, y + TILE_SIZE, solidPaint);
+                } else if (packed[index] != null)
+                {
+                    drawRect.set(x, y, x + TILE_SIZE, y + TILE_SIZE);
+                    drawPacked(canvas, index, drawRect);
+                } else
+                {
+                    canvas.drawBitmap(obtainTile(index), x, y, bitmapPaint);
+                    trimToBudget(index);
+                }
+            }
+        }
+        canvas.restore();
+    }
+    //Нарисовать плитку index в прямоугольник dst (для построения mipmap)
+    void drawTile(Canvas canvas, int index, Rect dst, Paint paint)
+    {
+        if (isSolid(index))
+        {
+            solidPaint.setColor(solidColors[index]);
+            canvas.drawRect(dst, solidPaint);
+        } else if (packed[index] != null)
+        {
+            drawPacked(canvas, index, dst);
+        } else
+        {
+            canvas.drawBitmap(obtainTile(index), null, dst, paint);
+            trimToBudget(index);
+        }
+    }
+    //Собрать весь холст в один Bitmap (взятый из BitmapPool, его можно туда вернуть)
+    public Bitmap toBitmap()
+    {
+        Bitmap bitmap = pool.obtain(width, height, Bitmap.Config.ARGB_8888, 0);
+        Canvas canvas = new Canvas(bitmap);
+        Rect all = new Rect(0, 0, width, height);
+        drawVisible(canvas, all);
+        return bitmap;
+    }
+    //Прочитать пиксели всего холста в массив размером width * height
+    public void readPixels(int[] out)
+    {
+        for (int ty = 0; ty < rows; ty++)
+        {
+            for (int tx = 0; tx < columns; tx++)
+            {
+                int index = ty * columns + tx;
+                int x = tx * TILE_SIZE;
+                int y = ty * TILE_SIZE;
+                int w = Math.min(TILE_SIZE, width - x);
+                int h = Math.min(TILE_SIZE, height - y);
+                if (isSolid(index))
+                {
+                    for (int row = 0; row < h; row++)
+                    {
+                        int offset = (y + row) * width + x;
+                        Arrays.fill(out, offset, offset + w, solidColors[index]);
+                    }
+                } else
+                {
+                    obtainTile(index).getPixels(out, y * width + x, width, 0, 0, w, h);
+                    trimToBudget(index);
+                }
+            }
+        }
+    }
+    //Записать в плитки, которые задевает область bounds, пиксели из массива всего холста.
+    //Каждая плитка записывается одним вызовом setPixels
+    public void writePixels(int[] pixels, Rect bounds)
+    {
+        if (bounds.right <= 0 || bounds.bottom <= 0) return;
+        if (tileConfig == Bitmap.Config.RGB_565) promoteFor(pixels, bounds);
+        int left = Math.max(bounds.left, 0) / TILE_SIZE;
+        int top = Math.max(bounds.top, 0) / TILE_SIZE;
+        int right = (Math.min(bounds.right, width) - 1) / TILE_SIZE;
+        int bottom = (Math.min(bounds.bottom, height) - 1) / TILE_SIZE;
+        for (int ty = top; ty <= bottom; ty++)
+        {
+            for (int tx = left; tx <= right; tx++)
+            {
+                int index = ty * columns + tx;
+                int x = tx * TILE_SIZE;
+                int y = ty * TILE_SIZE;
+                obtainTile(index).setPixels(pixels, y * width + x, width, 0, 0,
+                        Math.min(TILE_SIZE, width - x), Math.min(TILE_SIZE, height - y));
+                mipmaps.invalidate(tx, ty);
+                trimToBudget(index);
+            }
+        }
+    }
+    //Прочитать пиксели области bounds (внутри холста) в массив: строки шириной bounds.width() подряд
+    public void readRegion(int[] out, Rect bounds)
+    {
+        int stride = bounds.width();
+        for (int ty = bounds.top / TILE_SIZE; ty <= (bounds.bottom - 1) / TILE_SIZE; ty++)
+        {
+            for (int tx = bounds.left / TILE_SIZE; tx <= (bounds.right - 1) / TILE_SIZE; tx++)
+            {
+                int index = ty * columns + tx;
+                int x = Math.max(bounds.left, tx * TILE_SIZE);
+                int y = Math.max(bounds.top, ty * TILE_SIZE);
+                int w = Math.min(bounds.right, (tx + 1) * TILE_SIZE) - x;
+                int h = Math.min(bounds.bottom, (ty + 1) * TILE_SIZE) - y;
+                int offset = (y - bounds.top) * stride + x - bounds.left;
+                if (isSolid(index))
+                {
+                    for (int row = 0; row < h; row++)
+                    {
+                        Arrays.fill(out, offset + row * stride, offset + row * stride + w, solidColors[index]);
+                    }
+                } else
+                {
+                    obtainTile(index).getPixels(out, offset, stride, x - tx * TILE_SIZE, y - ty * TILE_SIZE, w, h);
+                    trimToBudget(index);
+                }
+            }
+        }
+    }
+    //Записать пиксели области bounds (внутри холста) из массива строк шириной bounds.width().
+    //Плитки, которые область задевает частично, меняются только внутри неё
+    public void writeRegion(int[] pixels, Rect bounds)
+    {
+        int stride = bounds.width();
+        if (tileConfig == Bitmap.Config.RGB_565) promoteFor(pixels, stride * bounds.height());
+        for (int ty = bounds.top / TILE_SIZE; ty <= (bounds.bottom - 1) / TILE_SIZE; ty++)
+        {
+            for (int tx = bounds.left / TILE_SIZE; tx <= (bounds.right - 1) / TILE_SIZE; tx++)
+            {
+                int index = ty * columns + tx;
+                int x = Math.max(bounds.left, tx * TILE_SIZE);
+                int y = Math.max(bounds.top, ty * TILE_SIZE);
+                int w = Math.min(bounds.right, (tx + 1) * TILE_SIZE) - x;
+                int h = Math.min(bounds.bottom, (ty + 1) * TILE_SIZE) - y;
+                obtainTile(index).setPixels(pixels, (y - bounds.top) * stride + x - bounds.left, stride,
+                        x - tx * TILE_SIZE, y - ty * TILE_SIZE, w, h);
+                mipmaps.invalidate(tx, ty);
+                trimToBudget(index);
+            }
+        }
+    }
+    //Однотонная ли плитка
+    public boolean isSolid(int index)
+    {
+        return tiles[index] == null && packed[index] == null && compressed[index] == null && !spilled[index];
+    }
+    //Цвет однотонной плитки
+    public int getSolidColor(int index)
+    {
+        return solidColors[index];
+    }
+    //----------------------------------------------------------------------------------------------
+    //Снимок плитки для истории. Несжатая плитка копируется в Bitmap из запаса,
+    //сжатые данные не меняются и не копируются
+    public TileState snapshot(int index)
+    {
+        if (packed[index] != null) obtainTile(index);
+        if (tiles[index] != null)
+        {
+            Bitmap copy = pool.obtain(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+            tiles[index].getPixels(pixelBuffer, 0, TILE_SIZE, 0, 0, TILE_SIZE, TILE_SIZE);
+            copy.setPixels(pixelBuffer, 0, TILE_SIZE, 0, 0, TILE_SIZE, TILE_SIZE);
+            return new TileState(0, copy, null);
+        }
+        if (compressed[index] != null) return new TileState(0, null, compressed[index]);
+        if (spilled[index]) return new TileState(0, null, readSpilled(index));
+        return new TileState(solidColors[index], null, null);
+    }
+    //Снимок всех плиток, который можно собрать в другом потоке (drawSnapshot), пока на холсте рисуют дальше
+    public TileState[] snapshotAll()
+    {
+        TileState[] states = new TileState[tiles.length];
+        for (int index = 0; index < states.length; index++) states[index] = snapshot(index);
+        return states;
+    }
+    //Нарисовать снимок плиток холста шириной width. Сам холст не нужен, поэтому рисовать можно в любом потоке
+    public static void drawSnapshot(Canvas canvas, TileState[] states, int width)
+    {
+        int columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+        Paint paint = new Paint();
+        for (int index = 0; index < states.length; index++)
+        {
+            TileState state = states[index];
+            int x = (index % columns) * TILE_SIZE;
+            int y = (index / columns) * TILE_SIZE;
+            if (state.bitmap != null)
+            {
+                canvas.drawBitmap(state.bitmap, x, y, null);
+            } else if (state.compressed != null)
+            {
+                Bitmap tile = BitmapFactory.decodeByteArray(state.compressed, 0, state.compressed.length);
+                if (tile == null) continue;
+                canvas.drawBitmap(tile, x, y, null);
+                tile.recycle();
+            } else
+            {
+                paint.setColor(state.color);
+                canvas.drawRect(x, y, x + TILE_SIZE, y + TILE_SIZE, paint);
+            }
+        }
+    }
+    //Вернуть несжатые плитки снимка в BitmapPool
+    public static void releaseSnapshot(TileState[] states)
+    {
+        for (TileState state : states)
+        {
+            if (state.bitmap != null) BitmapPool.getShared().release(state.bitmap);
+        }
+    }
+    //Забрать плитку без копирования. Плитка остаётся однотонной с прежним цветом
+    public TileState take(int index)
+    {
+        TileState state;
+        if (packed[index] != null) obtainTile(index);
+        if (tiles[index] != null)
+        {
+            state = new TileState(0, tiles[index], null);
+            removeResident(index);
+        } else
+        {
+            state = snapshot(index);
+            dropTile(index);
+        }
+        invalidateMipmaps(index);
+        return state;
+    }
+    //Вернуть плитке состояние из снимка. Снимок переходит во владение холста
+    public void restore(int index, TileState state)
+    {
+        dropTile(index);
+        invalidateMipmaps(index);
+        if (state.bitmap != null)
+        {
+            putResident(index, state.bitmap);
+            trimToBudget(index);
+        } else if (state.compressed != null)
+        {
+            compressed[index] = state.compressed;
+            compressedLru.put(index, state.compressed);
+            compressedBytes += state.compressed.length;
+            trimToBudget(-1);
+        } else
+        {
+            solidColors[index] = state.color;
+        }
+    }
+    //Освободить все плитки и файлы выгрузки
+    public void release()
+    {
+        for (int i = 0; i < tiles.length; i++) dropTile(i);
+        mipmaps.clear();
+        //noinspection ResultOfMethodCallIgnored
+        if (spillDir != null) spillDir.delete();
+    }
+    //----------------------------------------------------------------------------------------------
+    //Получить несжатую плитку, при необходимости создав, распаковав или загрузив её с диска
+    private Bitmap obtainTile(int index)
+    {
+        Bitmap tile = tiles[index];
+        if (tile != null)
+        {
+            //Плитка из истории или из прошлого формата
+            if (tile.getConfig() != tileConfig) return convertTile(index, tile);
+            residentLru.get(index);
+            return tile;
+        }
+
+        byte[] data = compressed[index];
+        if (data == null && spilled[index]) data = readSpilled(index);
+        if (packed[index] != null)
+        {
+            tile = unpackTile(index);
+        } else if (data != null)
+        {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inMutable = true;
+            options.inPreferredConfig = tileConfig;
+            //Распаковать прямо в свободную плитку из запаса
+            options.inBitmap = pool.obtain(TILE_SIZE, TILE_SIZE, tileConfig);
+            try
+            {
+                tile = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+            } catch (IllegalArgumentException e)
+            {
+                Log.w(TAG, "Cannot decode tile " + index + " into pooled bitmap: " + e.getLocalizedMessage());
+            }
+            if (tile == null) pool.release(options.inBitmap);
+        }
+        if (tile == null) tile = pool.obtain(TILE_SIZE, TILE_SIZE, tileConfig, solidColors[index]);
+        dropTile(index);
+        putResident(index, tile);
+        return tile;
+    }
+    //Перевести несжатую плитку в текущий формат
+    private Bitmap convertTile(int index, Bitmap tile)
+    {
+        Bitmap converted = pool.obtain(TILE_SIZE, TILE_SIZE, tileConfig, 0);
+        tileCanvas.setBitmap(converted);
+        tileCanvas.drawBitmap(tile, 0, 0, null);
+        tileCanvas.setBitmap(null);
+        removeResident(index);
+        pool.releaseLater(tile);
+        putResident(index, converted);
+        return converted;
+    }
+    //Нарисовать двухцветную плитку в прямоугольник dst
+    private void drawPacked(Canvas canvas, int index, Rect dst)
+    {
+        solidPaint.setColor(solidColors[index]);
+        canvas.drawRect(dst, solidPaint);
+        inkPaint.setColor(inkColors[index]);
+        canvas.drawBitmap(packed[index], null, dst, inkPaint);
+        packedLru.get(index);
+    }
+    //Несжатая плитка из двухцветной (сама двухцветная плитка остаётся)
+    private Bitmap unpackTile(int index)
+    {
+        Bitmap tile = pool.obtain(TILE_SIZE, TILE_SIZE, tileConfig, solidColors[index]);
+        inkPaint.setColor(inkColors[index]);
+        tileCanvas.setBitmap(tile);
+        tileCanvas.drawBitmap(packed[index], 0, 0, inkPaint);
+        tileCanvas.setBitmap(null);
+        return tile;
+    }
+    //Попробовать упаковать пиксели плитки из pixelBuffer в двухцветную плитку.
+    //Подходит непрозрачная плитка, каждый пиксель которой - смесь двух цветов
+    private boolean packTile(int index)
+    {
+        //Два самых далёких друг от друга цвета плитки
+        int background = farthest(pixelBuffer[0]);
+        int ink = farthest(background);
+        if (background >>> 24 != 0xFF || ink >>> 24 != 0xFF) return false;
+
+        //Покрытие считается по каналу с наибольшей разницей цветов
+        int shift = channelShift(background, ink);
+        int from = (background >> shift) & 0xFF;
+        int range = ((ink >> shift) & 0xFF) - from;
+        for (int i = 0; i < pixelBuffer.length; i++)
+        {
+            int pixel = pixelBuffer[i];
+            if (pixel >>> 24 != 0xFF) return false;
+            int coverage = Math.round((((pixel >> shift) & 0xFF) - from) * 255f / range);
+            if (coverage < 0 || coverage > 255) return false;
+            if (!isMix(background, ink, coverage, pixel)) return false;
+            packBuffer[i] = (byte) coverage;
+        }
+
+        Bitmap bitmap = pool.obtain(TILE_SIZE, TILE_SIZE, Bitmap.Config.ALPHA_8);
+        bitmap.copyPixelsFromBuffer(ByteBuffer.wrap(packBuffer));
+        solidColors[index] = background;
+        inkColors[index] = ink;
+        packed[index] = bitmap;
+        packedLru.put(index, bitmap);
+        packedBytes += bitmap.getAllocationByteCount();
+        return true;
+    }
+    //Цвет плитки из pixelBuffer, самый далёкий от color
+    private int farthest(int color)
+    {
+        int result = color;
+        int best = -1;
+        for (int pixel : pixelBuffer)
+        {
+            int distance = Math.abs(((pixel >> 16) & 0xFF) - ((color >> 16) & 0xFF))
+                    + Math.abs(((pixel >> 8) & 0xFF) - ((color >> 8) & 0xFF))
+                    + Math.abs((pixel & 0xFF) - (color & 0xFF));
+            if (distance > best)
+            {
+                best = distance;
+                result = pixel;
+            }
+        }
+        return result;
+    }
+    //Сдвиг канала (16, 8 или 0), в котором цвета различаются сильнее всего
+    private static int channelShift(int a, int b)
+    {
+        int shift = 16;
+        int best = -1;
+        for (int s = 16; s >= 0; s -= 8)
+        {
+            int delta = Math.abs(((a >> s) & 0xFF) - ((b >> s) & 0xFF));
+            if (delta > best)
+            {
+                best = delta;
+                shift = s;
+            }
+        }
+        return shift;
+    }
+    //Получается ли pixel наложением ink с покрытием coverage на background
+    private static boolean isMix(int background, int ink, int coverage, int pixel)
+    {
+        for (int s = 16; s >= 0; s -= 8)
+        {
+            int from = (background >> s) & 0xFF;
+            int mixed = from + ((((ink >> s) & 0xFF) - from) * coverage + 127) / 255;
+            if (Math.abs(mixed - ((pixel >> s) & 0xFF)) > PACK_TOLERANCE) return false;
+        }
+        return true;
+    }
+    //Переключить формат несжатых плиток по pixelFormat и содержимому холста
+    private void updateTileConfig()
+    {
+        boolean use565 = pixelFormat == FORMAT_RGB_565 && isOpaque && !isPromoted;
+        tileConfig = use565 ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+        if (!use565) return;
+        //Однотонные плитки хранят тот же цвет, что получится в RGB_565
+        for (int i = 0; i < solidColors.length; i++) solidColors[i] = storedColor(solidColors[i]);
+        mipmaps.clear();
+    }
+    //Цвет в том виде, в каком он хранится в плитках текущего формата
+    private int storedColor(int color)
+    {
+        if (tileConfig != Bitmap.Config.RGB_565) return color;
+        int r = (color >> 19) & 0x1F;
+        int g = (color >> 10) & 0x3F;
+        int b = (color >> 3) & 0x1F;
+        return 0xFF000000 | ((r << 3 | r >> 2) << 16) | ((g << 2 | g >> 4) << 8) | (b << 3 | b >> 2);
+    }
+    //На холст попадает цвет color: прозрачный цвет переводит холст в ARGB_8888
+    private void promoteFor(int color)
+    {
+        if (tileConfig == Bitmap.Config.RGB_565 && color >>> 24 != 0xFF) promote();
+    }
+    //На холст попадают пиксели из области bounds массива всего холста
+    private void promoteFor(int[] pixels, Rect bounds)
+    {
+        int right = Math.min(bounds.right, width);
+        int bottom = Math.min(bounds.bottom, height);
+        for (int y = Math.max(bounds.top, 0); y < bottom; y++)
+        {
+            for (int x = Math.max(bounds.left, 0); x < right; x++)
+            {
+                if (pixels[y * width + x] >>> 24 != 0xFF)
+                {
+                    promote();
+                    return;
+                }
+            }
+        }
+    }
+    //На холст попадают первые length пикселей массива
+    private void promoteFor(int[] pixels, int length)
+    {
+        for (int i = 0; i < length; i++)
+        {
+            if (pixels[i] >>> 24 != 0xFF)
+            {
+                promote();
+                return;
+            }
+        }
+    }
+    //Перейти на ARGB_8888 навсегда. Плитки переводятся при следующем обращении к ним
+    private void promote()
+    {
+        Log.i(TAG, "Canvas promoted to ARGB_8888");
+        isPromoted = true;
+        updateTileConfig();
+    }
+    private void putResident(int index, Bitmap tile)
+    {
+        tiles[index] = tile;
+        residentLru.put(index, tile);
+        residentBytes += tile.getAllocationByteCount();
+    }
+    private void removeResident(int index)
+    {
+        residentBytes -= tiles[index].getAllocationByteCount();
+        tiles[index] = null;
+        residentLru.remove(index);
+    }
+    private void invalidateMipmaps(int index)
+    {
+        mipmaps.invalidate(index % columns, index / columns);
+    }
+    //Сделать плитку однотонной, забыв все её данные
+    private void dropTile(int index)
+    {
+        if (tiles[index] != null)
+        {
+            pool.release(tiles[index]);
+            removeResident(index);
+        }
+        if (packed[index] != null)
+        {
+            packedBytes -= packed[index].getAllocationByteCount();
+            pool.release(packed[index]);
+            packed[index] = null;
+            packedLru.remove(index);
+        }
+        if (compressed[index] != null)
+        {
+            compressedBytes -= compressed[index].length;
+            compressed[index] = null;
+            compressedLru.remove(index);
+        }
+        if (spilled[index])
+        {
+            spilled[index] = false;
+            //noinspection ResultOfMethodCallIgnored
+            spillFile(index).delete();
+        }
+    }
+    //Сжать или выгрузить самые старые плитки, пока холст не уложится в бюджет.
+    //Плитку keep не трогать - она сейчас используется
+    private void trimToBudget(int keep)
+    {
+        Iterator<Map.Entry<Integer, Bitmap>> resident = residentLru.entrySet().iterator();
+        while (residentBytes > residentBudget && resident.hasNext())
+        {
+            Map.Entry<Integer, Bitmap> entry = resident.next();
+            int index = entry.getKey();
+            if (index == keep) continue;
+            Bitmap tile = entry.getValue();
+            resident.remove();
+            residentBytes -= tile.getAllocationByteCount();
+            tiles[index] = null;
+            compressTile(index, tile, pixelFormat == FORMAT_AUTO);
+            //Вытеснение бывает во время вывода кадра, где плитка уже нарисована
+            pool.releaseLater(tile);
+        }
+
+        //Двухцветные плитки занимают не больше четверти бюджета несжатых
+        Iterator<Map.Entry<Integer, Bitmap>> twoColor = packedLru.entrySet().iterator();
+        while (packedBytes > residentBudget / 4 && twoColor.hasNext())
+        {
+            Map.Entry<Integer, Bitmap> entry = twoColor.next();
+            int index = entry.getKey();
+            Bitmap bitmap = entry.getValue();
+            Bitmap tile = unpackTile(index);
+            twoColor.remove();
+            packedBytes -= bitmap.getAllocationByteCount();
+            packed[index] = null;
+            pool.releaseLater(bitmap);
+            compressTile(index, tile, false);
+            pool.release(tile);
+        }
+
+        Iterator<Map.Entry<Integer, byte[]>> cold = compressedLru.entrySet().iterator();
+        while (compressedBytes > compressedBudget && spillDir != null && cold.hasNext())
+        {
+            Map.Entry<Integer, byte[]> entry = cold.next();
+            int index = entry.getKey();
+            if (!writeSpilled(index, entry.getValue())) break;
+            cold.remove();
+            compressedBytes -= entry.getValue().length;
+            compressed[index] = null;
+            spilled[index] = true;
+        }
+    }
+    //Превратить вытесненную плитку в один цвет, двухцветную плитку (если allowPack) или PNG
+    private void compressTile(int index, Bitmap tile, boolean allowPack)
+    {
+        tile.getPixels(pixelBuffer, 0, TILE_SIZE, 0, 0, TILE_SIZE, TILE_SIZE);
+        int first = pixelBuffer[0];
+        boolean uniform = true;
+        for (int i = 1; i < pixelBuffer.length; i++)
+        {
+            if (pixelBuffer[i] != first)
+            {
+                uniform = false;
+                break;
+            }
+        }
+        if (uniform)
+        {
+            solidColors[index] = first;
+            return;
+        }
+        if (allowPack && packTile(index)) return;
+
+        compressStream.reset();
+        tile.compress(Bitmap.CompressFormat.PNG, 100, compressStream);
+        byte[] data = compressStream.toByteArray();
+        compressed[index] = data;
+        compressedLru.put(index, data);
+        compressedBytes += data.length;
+    }
+    //----------------------------------------------------------------------------------------------
+    //Удалить папки выгрузки, оставшиеся от прошлых запусков процесса (после падения или убийства процесса
+    //release не вызывается), и файлы прежнего вида tile_*.png прямо в parent
+    private static synchronized void deleteStaleSpillDirs(File parent)
+    {
+        if (!cleanedSpillParents.add(parent)) return;
+        File[] files = parent.listFiles();
+        if (files == null) return;
+        String current = SPILL_PREFIX + Process.myPid() + "_";
+        for (File file : files)
+        {
+            String name = file.getName();
+            if (file.isDirectory() && name.startsWith(SPILL_PREFIX) && !name.startsWith(current))
+            {
+                File[] spilledFiles = file.listFiles();
+                //noinspection ResultOfMethodCallIgnored
+                if (spilledFiles != null) for (File spilledFile : spilledFiles) spilledFile.delete();
+                if (!file.delete()) Log.w(TAG, "Cannot delete " + file);
+            } else if (file.isFile() && name.startsWith("tile_"))
+            {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+    }
+
+    private File spillFile(int index)
+    {
+        return new File(spillDir, "tile_" + index + ".png");
+    }
+
+    private boolean writeSpilled(int index, byte[] data)
+    {
+        if (!spillDir.isDirectory() && !spillDir.mkdirs())
+        {
+            Log.w(TAG, "Cannot create " + spillDir);
+            return false;
+        }
+        try (FileOutputStream out = new FileOutputStream(spillFile(index)))
+        {
+            out.write(data);
+            return true;
+        } catch (IOException e)
+        {
+            Log.w(TAG, "Cannot spill tile " + index + ": " + e.getLocalizedMessage());
+            return false;
+        }
+    }
+
+    //Прочитать выгруженную плитку. Без неё содержимое плитки потеряно, поэтому ошибка не скрывается
+    //прозрачной плиткой, а выбрасывается; плитка остаётся выгруженной
+    private byte[] readSpilled(int index)
+    {
+        File file = spillFile(index);
+        byte[] data = new byte[(int) file.length()];
+        try (FileInputStream in = new FileInputStream(file))
+        {
+            int offset = 0;
+            while (offset < data.length)
+            {
+                int read = in.read(data, offset, data.length - offset);
+                if (read < 0) throw new EOFException(file + " is truncated at " + offset + " of " + data.length + " bytes");
+                offset += read;
+            }
+            return data;
+        } catch (IOException e)
+        {
+            throw new IllegalStateException("Cannot read spilled tile " + index, e);
+        }
+    }
+    //----------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,273 @@
+package com.mindmari.PaintApp;
+
+import android.graphics.Rect;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+
+//История отмены и повтора для холста.
+//Каждая операция хранит только те плитки TiledCanvas, которые она изменила.
+//Плитка копируется перед первым изменением (copy-on-write); при отмене и повторе
+//снимки плиток просто меняются местами с плитками холста, без копирования.
+//Старые операции удаляются, когда история превышает заданный бюджет памяти,
+//а их плитки возвращаются в BitmapPool
+public class UndoHistory
+{
+    //Бюджет памяти по умолчанию в мегабайтах
+    public static final int DEFAULT_BUDGET_MB = 32;
+
+    //Плитка холста до и после операции
+    private static class Tile
+    {
+        final int index;
+        //Состояние до операции, пока операция в стеке отмены
+        TiledCanvas.TileState before;
+        //Состояние после операции, пока операция в стеке повтора
+        TiledCanvas.TileState after;
+
+        Tile(int index, TiledCanvas.TileState before)
+        {
+            this.index = index;
+            this.before = before;
+        }
+    }
+
+    //Одна операция рисования
+    private static class Entry
+    {
+        //Холст (слой), на котором выполнена операция
+        final TiledCanvas target;
+        //Изменённые плитки
+        final ArrayList<Tile> tiles = new ArrayList<>();
+        //Номера изменённых плиток, чтобы не искать их перебором
+        final BitSet indexes = new BitSet();
+        //Сколько байт занимают снимки
+        long sizeBytes = 0;
+        //Сколько записей DisplayList добавила операция
+        int records = 1;
+
+        Entry(TiledCanvas target)
+        {
+            this.target = target;
+        }
+    }
+
+    //Операции, которые можно отменить (последняя - в начале)
+    private final ArrayDeque<Entry> undoStack = new ArrayDeque<>();
+    //Операции, которые можно повторить (последняя отменённая - в начале)
+    private final ArrayDeque<Entry> redoStack = new ArrayDeque<>();
+    //Операция, которая записывается сейчас
+    private Entry current;
+    //Сколько записей DisplayList у последней отменённой или повторённой операции
+    private int lastRecords = 0;
+    //Бюджет памяти в байтах
+    private long budgetBytes = DEFAULT_BUDGET_MB * 1024L * 1024L;
+    //Сколько байт сейчас занимает история
+    private long usedBytes = 0;
+    //----------------------------------------------------------------------------------------------
+    //Установить бюджет памяти в мегабайтах
+    public void setBudgetMb(int megabytes)
+    {
+        budgetBytes = megabytes * 1024L * 1024L;
+        trimToBudget();
+    }
+    //Сколько байт занимает история
+    public long getUsedBytes()
+    {
+        return usedBytes;
+    }
+    public boolean canUndo()
+    {
+        return !undoStack.isEmpty();
+    }
+    public boolean canRedo()
+    {
+        return !redoStack.isEmpty();
+    }
+    //----------------------------------------------------------------------------------------------
+    //Начать запись операции над холстом
+    public void begin(TiledCanvas target)
+    {
+        if (current != null) commit();
+        current = new Entry(target);
+    }
+    //Область будет изменена: сохранить её плитки, если они ещё не сохранены
+    public void touch(Rect region)
+    {
+        if (current == null) return;
+        TiledCanvas target = current.target;
+        //Область целиком за краем холста
+        if (region.right < 0 || region.bottom < 0) return;
+        if (region.left >= target.getWidth() || region.top >= target.getHeight()) return;
+
+        int left = Math.max(region.left, 0) / TiledCanvas.TILE_SIZE;
+        int top = Math.max(region.top, 0) / TiledCanvas.TILE_SIZE;
+        int right = Math.min(region.right, target.getWidth() - 1) / TiledCanvas.TILE_SIZE;
+        int bottom = Math.min(region.bottom, target.getHeight() - 1) / TiledCanvas.TILE_SIZE;
+        for (int ty = top; ty <= bottom; ty++)
+        {
+            for (int tx = left; tx <= right; tx++)
+            {
+                int index = ty * target.getColumns() + tx;
+                if (hasTile(current, index)) continue;
+                addTile(new Tile(index, target.snapshot(index)));
+            }
+        }
+    }
+    //Операция перезапишет весь холст: забрать все плитки без копирования
+    public void touchAll()
+    {
+        if (current == null) return;
+        TiledCanvas target = current.target;
+        int count = target.getColumns() * target.getRows();
+        for (int index = 0; index < count; index++)
+        {
+            if (hasTile(current, index)) continue;
+            addTile(new Tile(index, target.take(index)));
+        }
+    }
+    //Текущая операция добавила count записей DisplayList (по умолчанию одну)
+    public void setRecordCount(int count)
+    {
+        if (current != null) current.records = count;
+    }
+    //Сколько записей DisplayList отменить или повторить вместе с последней операцией undo() или redo()
+    public int getLastRecordCount()
+    {
+        return lastRecords;
+    }
+    //Сколько последних записей DisplayList ещё можно отменить. Записи до них из истории уже удалены
+    public int getUndoableRecordCount()
+    {
+        int count = 0;
+        for (Entry entry : undoStack) count += entry.records;
+        return count;
+    }
+    //Закончить запись операции. Операция попадает в историю, если изменила плитки или добавила записи
+    //DisplayList: штрих за краем холста не меняет пикселей, но отменяться должен вместе со своей записью
+    public void commit()
+    {
+        if (current == null) return;
+        if (!current.tiles.isEmpty() || current.records > 0)
+        {
+            undoStack.push(current);
+            usedBytes += current.sizeBytes;
+            clearRedo();
+            trimToBudget();
+        }
+        current = null;
+    }
+    //----------------------------------------------------------------------------------------------
+    //Отменить последнюю операцию. Возвращает холст, на котором она была, или null
+    public TiledCanvas undo()
+    {
+        commit();
+        Entry entry = undoStack.poll();
+        if (entry == null) return null;
+
+        TiledCanvas target = entry.target;
+        for (Tile tile : entry.tiles)
+        {
+            tile.after = target.take(tile.index);
+            target.restore(tile.index, tile.before);
+            tile.before = null;
+        }
+        lastRecords = entry.records;
+        updateSize(entry);
+        redoStack.push(entry);
+        trimToBudget();
+        return target;
+    }
+    //Повторить последнюю отменённую операцию. Возвращает холст, на котором она была, или null
+    public TiledCanvas redo()
+    {
+        commit();
+        Entry entry = redoStack.poll();
+        if (entry == null) return null;
+
+        TiledCanvas target = entry.target;
+        for (Tile tile : entry.tiles)
+        {
+            tile.before = target.take(tile.index);
+            target.restore(tile.index, tile.after);
+            tile.after = null;
+        }
+        lastRecords = entry.records;
+        updateSize(entry);
+        undoStack.push(entry);
+        trimToBudget();
+        return target;
+    }
+    //Очистить историю
+    public void clear()
+    {
+        current = null;
+        for (Entry entry : undoStack) release(entry);
+        for (Entry entry : redoStack) release(entry);
+        undoStack.clear();
+        redoStack.clear();
+        usedBytes = 0;
+    }
+    //----------------------------------------------------------------------------------------------
+    private boolean hasTile(Entry entry, int index)
+    {
+        return entry.indexes.get(index);
+    }
+
+    private void addTile(Tile tile)
+    {
+        current.tiles.add(tile);
+        current.indexes.set(tile.index);
+        current.sizeBytes += tile.before.sizeBytes();
+    }
+    //Пересчитать размер операции после обмена снимками
+    private void updateSize(Entry entry)
+    {
+        usedBytes -= entry.sizeBytes;
+        entry.sizeBytes = 0;
+        for (Tile tile : entry.tiles)
+        {
+            if (tile.before != null) entry.sizeBytes += tile.before.sizeBytes();
+            if (tile.after != null) entry.sizeBytes += tile.after.sizeBytes();
+        }
+        usedBytes += entry.sizeBytes;
+    }
+
+    private void clearRedo()
+    {
+        for (Entry entry : redoStack)
+        {
+            usedBytes -= entry.sizeBytes;
+            release(entry);
+        }
+        redoStack.clear();
+    }
+    //Удалять самые старые операции, пока история не уложится в бюджет
+    private void trimToBudget()
+    {
+        while (usedBytes > budgetBytes && !undoStack.isEmpty())
+        {
+            Entry entry = undoStack.pollLast();
+            usedBytes -= entry.sizeBytes;
+            release(entry);
+        }
+        while (usedBytes > budgetBytes && !redoStack.isEmpty())
+        {
+            Entry entry = redoStack.pollLast();
+            usedBytes -= entry.sizeBytes;
+            release(entry);
+        }
+    }
+    //Вернуть плитки удалённой операции в запас
+    private void release(Entry entry)
+    {
+        BitmapPool pool = BitmapPool.getShared();
+        for (Tile tile : entry.tiles)
+        {
+            if (tile.before != null) pool.release(tile.before.bitmap);
+            if (tile.after != null) pool.release(tile.after.bitmap);
+        }
+    }
+    //----------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,134 @@
+package com.mindmari.PaintApp;
+
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+//Окно просмотра холста: масштаб и сдвиг.
+//Переводит координаты касаний в координаты холста и обратно
+public class Viewport
+{
+    //Максимальное увеличение
+    public static final float MAX_SCALE = 8f;
+
+    //Масштаб (1 - пиксель холста равен пикселю экрана)
+    private float scale = 1f;
+    //Минимальный масштаб - весь холст помещается в View с запасом
+    private float minScale = 0.5f;
+    //Сдвиг холста на экране
+    private float translateX = 0;
+    private float translateY = 0;
+    //Размер View и холста
+    private int viewWidth;
+    private int viewHeight;
+    private int canvasWidth;
+    private int canvasHeight;
+
+    //Матрица холст -> экран
+    private final Matrix matrix = new Matrix();
+    //Переиспользуемый прямоугольник для пересчёта
+    private final RectF mapRect = new RectF();
+    //----------------------------------------------------------------------------------------------
+    //Задать размеры View и холста
+    public void setSizes(int viewWidth, int viewHeight, int canvasWidth, int canvasHeight)
+    {
+        this.viewWidth = viewWidth;
+        this.viewHeight = viewHeight;
+        this.canvasWidth = canvasWidth;
+        this.canvasHeight = canvasHeight;
+        float fit = Math.min((float) viewWidth / canvasWidth, (float) viewHeight / canvasHeight);
+        minScale = Math.min(1f, fit) / 2;
+        clamp();
+    }
+    //Вернуться к масштабу 1 без сдвига
+    public void reset()
+    {
+        scale = 1f;
+        translateX = 0;
+        translateY = 0;
+        clamp();
+    }
+    //Изменить масштаб в factor раз относительно точки экрана (focusX, focusY)
+    public void zoomBy(float factor, float focusX, float focusY)
+    {
+        float newScale = Math.max(minScale, Math.min(MAX_SCALE, scale * factor));
+        factor = newScale / scale;
+        translateX = focusX - (focusX - translateX) * factor;
+        translateY = focusY - (focusY - translateY) * factor;
+        scale = newScale;
+        clamp();
+    }
+    //Сдвинуть холст на экране
+    public void panBy(float dx, float dy)
+    {
+        translateX += dx;
+        translateY += dy;
+        clamp();
+    }
+    //----------------------------------------------------------------------------------------------
+    public float getScale()
+    {
+        return scale;
+    }
+    //Не сдвинут и не масштабирован ли холст
+    public boolean isIdentity()
+    {
+        return scale == 1f && translateX == 0 && translateY == 0;
+    }
+    //Матрица холст -> экран
+    public Matrix getMatrix()
+    {
+        return matrix;
+    }
+    //Уровень mipmap для текущего масштаба: на уровне L плитка уменьшена в 2^L раз
+    public int getMipmapLevel()
+    {
+        int level = 0;
+        float s = scale;
+        while (s <= 0.5f)
+        {
+            s *= 2;
+            level++;
+        }
+        return level;
+    }
+    //Координата X экрана в координатах холста
+    public float toCanvasX(float x)
+    {
+        return (x - translateX) / scale;
+    }
+    //Координата Y экрана в координатах холста
+    public float toCanvasY(float y)
+    {
+        return (y - translateY) / scale;
+    }
+    //Прямоугольник холста в координатах экрана (с округлением наружу)
+    public void toView(Rect canvasRect, Rect outViewRect)
+    {
+        mapRect.set(canvasRect.left * scale + translateX, canvasRect.top * scale + translateY,
+                canvasRect.right * scale + translateX, canvasRect.bottom * scale + translateY);
+        mapRect.roundOut(outViewRect);
+    }
+    //----------------------------------------------------------------------------------------------
+    //Не давать холсту уйти за край экрана больше чем наполовину
+    private void clamp()
+    {
+        if (viewWidth > 0 && canvasWidth > 0)
+        {
+            float contentW = canvasWidth * scale;
+            float contentH = canvasHeight * scale;
+            translateX = clampAxis(translateX, contentW, viewWidth);
+            translateY = clampAxis(translateY, contentH, viewHeight);
+        }
+        matrix.setScale(scale, scale);
+        matrix.postTranslate(translateX, translateY);
+    }
+
+    private float clampAxis(float translate, float content, int view)
+    {
+        float min = Math.min(0, view - content) - view / 2f;
+        float max = Math.max(0, view - content) + view / 2f;
+        return Math.max(min, Math.min(max, translate));
+    }
+    //----------------------------------------------------------------------------------------------
+}
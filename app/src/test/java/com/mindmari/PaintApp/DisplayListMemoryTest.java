@@ -0,0 +1,61 @@
+package com.mindmari.PaintApp;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+//Память DisplayList на 10 000 штрихов рядом с памятью одного Bitmap холста ARGB_8888 (W x H x 4),
+//который раньше был единственной копией рисунка
+public class DisplayListMemoryTest
+{
+    private static final int STROKES = 10_000;
+    //Экран телефона и холст 4K
+    private static final int PHONE_WIDTH = 1080;
+    private static final int PHONE_HEIGHT = 2340;
+    private static final int UHD_WIDTH = 3840;
+    private static final int UHD_HEIGHT = 2160;
+    //Запас массивов, которые растут вдвое, плюс пространственный индекс
+    private static final double MAX_OVERHEAD = 2.0;
+    //----------------------------------------------------------------------------------------------
+    @Test
+    public void tenThousandStrokesAgainstBitmap()
+    {
+        DisplayList list = new DisplayList();
+        Random random = new Random(7);
+        float[] points = new float[2 * 200];
+        long payload = 0;
+        for (int i = 0; i < STROKES; i++)
+        {
+            //Рукописные штрихи: 20-120 точек через 3 пикселя (точки после сглаживания при 60 Гц)
+            int count = 20 + random.nextInt(101);
+            float x = random.nextFloat() * PHONE_WIDTH;
+            float y = random.nextFloat() * PHONE_HEIGHT;
+            double angle = random.nextDouble() * Math.PI * 2;
+            for (int p = 0; p < count; p++)
+            {
+                angle += (random.nextDouble() - 0.5) * 0.6;
+                x += (float) Math.cos(angle) * 3;
+                y += (float) Math.sin(angle) * 3;
+                points[p * 2] = x;
+                points[p * 2 + 1] = y;
+            }
+            list.addStroke(0xFF000000 | random.nextInt(), 2 + random.nextInt(30), points, count);
+            //Тип, цвет, толщина, начало и число координат, слой, флаг стирания и сами точки
+            payload += 4 + 4 + 4 + 4 + 4 + 4 + 1 + count * 8L;
+        }
+
+        long bytes = list.getMemoryBytes();
+        long phoneBitmap = (long) PHONE_WIDTH * PHONE_HEIGHT * 4;
+        long uhdBitmap = (long) UHD_WIDTH * UHD_HEIGHT * 4;
+        System.out.println(STROKES + " strokes: display list " + bytes / 1024 + " KB ("
+                + bytes / STROKES + " B/stroke), bitmap " + PHONE_WIDTH + "x" + PHONE_HEIGHT + " "
+                + phoneBitmap / 1024 + " KB, " + UHD_WIDTH + "x" + UHD_HEIGHT + " " + uhdBitmap / 1024 + " KB");
+
+        assertTrue("display list " + bytes + " B for " + payload + " B of records", bytes <= payload * MAX_OVERHEAD);
+        //10 000 штрихов занимают примерно столько же, сколько Bitmap экрана телефона, и меньше трети 4K холста
+        assertTrue("display list " + bytes + " B vs bitmap " + uhdBitmap + " B", bytes * 3 < uhdBitmap);
+    }
+    //----------------------------------------------------------------------------------------------
+}
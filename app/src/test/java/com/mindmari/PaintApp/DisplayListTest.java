@@ -0,0 +1,150 @@
+package com.mindmari.PaintApp;
+
+import android.graphics.Bitmap;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+//Удаление записей, закрытых очисткой или картинкой, которую уже нельзя отменить
+public class DisplayListTest
+{
+    private static final int RED = 0xFFFF0000;
+    private static final int WHITE = 0xFFFFFFFF;
+    //----------------------------------------------------------------------------------------------
+    @Test
+    public void compactRemovesRecordsHiddenBeyondUndoReach()
+    {
+        DisplayList list = new DisplayList();
+        addLine(list, 0, 0, 100, 100);
+        addLine(list, 0, 100, 100, 0);
+        list.addClear(WHITE);
+        addLine(list, 10, 20, 30, 40);
+
+        assertTrue(list.compact(list.size()));
+        assertEquals(2, list.size());
+        assertEquals(2, list.getTotal());
+        assertEquals(DisplayList.CLEAR, list.getType(0));
+        assertEquals(DrawingView.BRUSH, list.getType(1));
+        int start = list.getCoordStart(1);
+        assertEquals(0, start);
+        assertEquals(10, list.getCoords()[start], 0);
+        assertEquals(40, list.getCoords()[start + 3], 0);
+        //Пространственный индекс знает новые номера
+        assertEquals(1, list.hitTest(20, 30, 2, 0));
+        assertEquals(-1, list.hitTest(0, 0, 2, 0));
+    }
+
+    @Test
+    public void clearWithinUndoReachKeepsRecords()
+    {
+        DisplayList list = new DisplayList();
+        addLine(list, 0, 0, 100, 100);
+        list.addClear(WHITE);
+        addLine(list, 10, 20, 30, 40);
+
+        //Очистку ещё можно отменить: под ней снова появится первая линия
+        assertFalse(list.compact(1));
+        assertEquals(3, list.size());
+        assertTrue(list.undo());
+        assertTrue(list.undo());
+        assertEquals(0, list.hitTest(50, 50, 2, 0));
+    }
+
+    @Test
+    public void compactKeepsOtherLayersRedoAndErase()
+    {
+        DisplayList list = new DisplayList();
+        addLine(list, 0, 0, 100, 100);
+        list.setCurrentLayer(1);
+        addLine(list, 200, 200, 300, 300);
+        list.setCurrentLayer(0);
+        list.addClear(WHITE);
+        addLine(list, 10, 20, 30, 40);
+        list.addErase(new int[]{3}, 1);
+        addLine(list, 50, 50, 60, 60);
+        //Последняя линия отменена, но её можно повторить
+        list.undo();
+
+        assertTrue(list.compact(list.size()));
+        //Удалена только первая линия слоя 0
+        assertEquals(4, list.size());
+        assertEquals(5, list.getTotal());
+        assertEquals(1, list.getLayer(0));
+        assertEquals(DisplayList.CLEAR, list.getType(1));
+        //Стёртая линия и запись стирания перенумерованы вместе
+        assertTrue(list.isErased(2));
+        assertEquals(DisplayList.ERASE, list.getType(3));
+        assertEquals(2, list.getCoords()[list.getCoordStart(3)], 0);
+        assertEquals(-1, list.hitTest(20, 30, 2, 0));
+        //Отмена стирания возвращает линию под её новым номером
+        list.undo();
+        assertEquals(2, list.hitTest(20, 30, 2, 0));
+        list.redo();
+        assertTrue(list.redo());
+        assertEquals(4, list.hitTest(55, 55, 2, 0));
+        assertEquals(1, list.getVisibleStart(0));
+    }
+
+    @Test
+    public void hiddenImageIsHandedToListener()
+    {
+        DisplayList list = new DisplayList();
+        RecordingListener listener = new RecordingListener();
+        list.addImage(null);
+        addLine(list, 0, 0, 100, 100);
+        list.addClear(RED);
+        list.setListener(listener);
+
+        assertTrue(list.compact(list.size()));
+        assertEquals(1, listener.compactions);
+        assertEquals(1, listener.removedImages);
+        assertEquals(1, list.size());
+        //Проверенные записи второй раз не просматриваются
+        assertFalse(list.compact(list.size()));
+        assertEquals(1, listener.compactions);
+    }
+    //----------------------------------------------------------------------------------------------
+    private static void addLine(DisplayList list, float x1, float y1, float x2, float y2)
+    {
+        list.addStroke(RED, 4, new float[]{x1, y1, x2, y2}, 2);
+    }
+
+    private static class RecordingListener implements DisplayList.Listener
+    {
+        int compactions;
+        int removedImages;
+
+        @Override
+        public void onRecordAdded(DisplayList list, int index)
+        {
+        }
+
+        @Override
+        public void onUndo(DisplayList list)
+        {
+        }
+
+        @Override
+        public void onRedo(DisplayList list)
+        {
+        }
+
+        @Override
+        public void onCleared(DisplayList list)
+        {
+        }
+
+        @Override
+        public void onCompacted(DisplayList list, ArrayList<Bitmap> removed)
+        {
+            compactions++;
+            removedImages += removed.size();
+        }
+    }
+    //----------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,211 @@
+package com.mindmari.PaintApp;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+//Точные значения каждой стадии и смена количества потоков, пока другая цепочка работает в общем пуле.
+//Ожидаемые значения посчитаны вручную по весам в фиксированной точке (16 бит) с округлением после каждого прохода
+public class FilterPipelineTest
+{
+    private static final int WIDTH = 1024;
+    private static final int HEIGHT = 768;
+    //Сколько раз применяется цепочка, пока меняются потоки
+    private static final int RUNS = 40;
+    private static final int BLACK = 0xFF000000;
+    private static final int RED = 0xFFFF0000;
+    //----------------------------------------------------------------------------------------------
+    @After
+    public void tearDown()
+    {
+        FilterPipeline.setThreads(0);
+    }
+    //----------------------------------------------------------------------------------------------
+    @Test
+    public void setThreadsDoesNotBreakRunningPipeline() throws Exception
+    {
+        int[] image = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < image.length; i++) image[i] = 0xFF000000 | i * 40503;
+        int[] expected = image.clone();
+        blur(expected);
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicReference<int[]> mismatch = new AtomicReference<>();
+        Thread worker = new Thread(() -> {
+            try
+            {
+                int[] pixels = new int[image.length];
+                for (int run = 0; run < RUNS && mismatch.get() == null; run++)
+                {
+                    System.arraycopy(image, 0, pixels, 0, image.length);
+                    blur(pixels);
+                    if (!Arrays.equals(expected, pixels)) mismatch.set(pixels.clone());
+                }
+            } catch (Throwable e)
+            {
+                failure.set(e);
+            }
+        });
+        worker.start();
+        //Пул заменяется, пока в старом идут проходы
+        for (int i = 0; worker.isAlive(); i++)
+        {
+            FilterPipeline.setThreads(i % 2 == 0 ? 2 : 0);
+            Thread.yield();
+        }
+        worker.join();
+
+        assertNull(failure.get());
+        if (mismatch.get() != null) assertArrayEquals(expected, mismatch.get());
+    }
+
+    @Test
+    public void gaussianBlurSpreadsPixelByKernel()
+    {
+        //Радиус 1, сигма 0.5: веса 6980, 51576, 6980
+        int[] pixels = image(9, 9, BLACK);
+        pixels[4 * 9 + 4] = RED;
+        FilterPipeline pipeline = new FilterPipeline();
+        pipeline.addBlur(1);
+        pipeline.apply(pixels, 9, 9, 1);
+
+        assertEquals(0xFF9E0000, pixels[4 * 9 + 4]);
+        assertEquals(0xFF150000, pixels[4 * 9 + 3]);
+        assertEquals(0xFF150000, pixels[3 * 9 + 4]);
+        assertEquals(0xFF030000, pixels[3 * 9 + 3]);
+        assertEquals(BLACK, pixels[4 * 9 + 2]);
+    }
+
+    @Test
+    public void boxBlurSpreadsLineByThreePasses()
+    {
+        //Радиус 12 (сигма 4) - три прямоугольных прохода шириной 7, 7 и 9.
+        //Вертикальная линия остаётся линией, по горизонтали профиль 9, 12, 16, 19, 22, 24, 25
+        int width = 41;
+        int height = 8;
+        int[] pixels = image(width, height, BLACK);
+        for (int y = 0; y < height; y++) pixels[y * width + 20] = RED;
+        FilterPipeline pipeline = new FilterPipeline();
+        pipeline.addBlur(12);
+        pipeline.apply(pixels, width, height, 1);
+
+        int[] profile = {9, 12, 16, 19, 22, 24, 25};
+        for (int y = 0; y < height; y++)
+        {
+            for (int d = 0; d < profile.length; d++)
+            {
+                int expected = 0xFF000000 | profile[profile.length - 1 - d] << 16;
+                assertEquals(expected, pixels[y * width + 20 - d]);
+                assertEquals(expected, pixels[y * width + 20 + d]);
+            }
+            assertEquals(BLACK, pixels[y * width + 9]);
+        }
+    }
+
+    @Test
+    public void blurKeepsLinearRamp()
+    {
+        //Симметричное ядро не меняет линейный градиент вдали от краёв, и у Гаусса, и у прямоугольного
+        for (float radius : new float[]{3, 15})
+        {
+            int[] pixels = new int[256 * 4];
+            for (int i = 0; i < pixels.length; i++) pixels[i] = 0xFF000000 | (i % 256) * 0x010101;
+            FilterPipeline pipeline = new FilterPipeline();
+            pipeline.addBlur(radius);
+            pipeline.apply(pixels, 256, 4, 1);
+            for (int x = 32; x < 224; x++) assertEquals("radius " + radius, 0xFF000000 | x * 0x010101, pixels[x]);
+        }
+    }
+
+    @Test
+    public void sharpenAddsDifferenceFromBlur()
+    {
+        //Ступенька 100 | 150: размытые края 105 и 145, с силой 1 они расходятся до 95 и 155
+        int[] pixels = step();
+        FilterPipeline pipeline = new FilterPipeline();
+        pipeline.addSharpen(1, 1, 0);
+        pipeline.apply(pixels, 8, 4, 1);
+        for (int y = 0; y < 4; y++)
+        {
+            assertEquals(gray(100), pixels[y * 8]);
+            assertEquals(gray(95), pixels[y * 8 + 3]);
+            assertEquals(gray(155), pixels[y * 8 + 4]);
+            assertEquals(gray(150), pixels[y * 8 + 7]);
+        }
+        //Разница 5 меньше порога - ступенька не меняется
+        pixels = step();
+        pipeline.clear();
+        pipeline.addSharpen(1, 1, 10);
+        pipeline.apply(pixels, 8, 4, 1);
+        assertArrayEquals(step(), pixels);
+    }
+
+    @Test
+    public void levelsStretchRangeAndKeepAlpha()
+    {
+        int[] pixels = {0xFF1E7DDC, 0x801E7DDC};
+        FilterPipeline pipeline = new FilterPipeline();
+        pipeline.addLevels(50, 200, 1);
+        pipeline.apply(pixels, 2, 1, 1);
+        //30 ниже чёрного, 125 посередине (127.5 округляется вверх), 220 выше белого
+        assertEquals(0xFF0080FF, pixels[0]);
+        assertEquals(0x800080FF, pixels[1]);
+
+        pixels = new int[]{0xFF1E7DDC};
+        pipeline.clear();
+        pipeline.addLevels(50, 200, 2);
+        pipeline.apply(pixels, 1, 1, 1);
+        //Середина с гаммой 2: 255 * sqrt(0.5) = 180.3
+        assertEquals(0xFF00B4FF, pixels[0]);
+    }
+
+    @Test
+    public void curvePassesThroughPointsAndIsFlatOutside()
+    {
+        int[] pixels = {0xFF0080FF};
+        FilterPipeline pipeline = new FilterPipeline();
+        pipeline.addCurve(new float[]{0, 0, 128, 64, 255, 255}, 3);
+        pipeline.apply(pixels, 1, 1, 1);
+        assertEquals(0xFF0040FF, pixels[0]);
+
+        pixels = new int[]{0xFF0A40FA};
+        pipeline.clear();
+        pipeline.addCurve(new float[]{64, 32, 192, 224}, 2);
+        pipeline.apply(pixels, 1, 1, 1);
+        //До первой точки и после последней кривая горизонтальна
+        assertEquals(0xFF2020E0, pixels[0]);
+    }
+    //----------------------------------------------------------------------------------------------
+    private static int[] image(int width, int height, int color)
+    {
+        int[] pixels = new int[width * height];
+        Arrays.fill(pixels, color);
+        return pixels;
+    }
+    //Картинка 8 x 4: слева серый 100, справа серый 150
+    private static int[] step()
+    {
+        int[] pixels = new int[8 * 4];
+        for (int i = 0; i < pixels.length; i++) pixels[i] = gray(i % 8 < 4 ? 100 : 150);
+        return pixels;
+    }
+
+    private static int gray(int value)
+    {
+        return 0xFF000000 | value * 0x010101;
+    }
+
+    private static void blur(int[] pixels)
+    {
+        FilterPipeline pipeline = new FilterPipeline();
+        pipeline.addBlur(4);
+        pipeline.apply(pixels, WIDTH, HEIGHT, 1);
+    }
+    //----------------------------------------------------------------------------------------------
+}
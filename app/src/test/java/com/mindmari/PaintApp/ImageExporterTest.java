@@ -0,0 +1,173 @@
+package com.mindmari.PaintApp;
+
+import android.graphics.Bitmap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+//Сохранение через фоновый поток и FileChannel.
+//Источник нарочно медленный (как сведение и сжатие холста 4K), а вызов export не должен ждать его дольше кадра.
+//Формат не передаётся: источник пишет свои байты сам, а перечисления android.jar в JVM-тестах не работают
+public class ImageExporterTest
+{
+    //Длительность кадра при 60 Гц
+    private static final long FRAME_MS = 16;
+    //Сколько «сжимается» картинка
+    private static final long COMPRESS_MS = 300;
+    //Размер «сжатой» картинки
+    private static final int IMAGE_BYTES = 3 * 1024 * 1024 + 123;
+
+    private ExecutorService executor;
+    private File dir;
+    //----------------------------------------------------------------------------------------------
+    @Before
+    public void setUp() throws IOException
+    {
+        executor = Executors.newSingleThreadExecutor();
+        dir = Files.createTempDirectory("export").toFile();
+    }
+
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
+        File[] files = dir.listFiles();
+        if (files != null) for (File file : files) file.delete();
+        dir.delete();
+    }
+    //----------------------------------------------------------------------------------------------
+    @Test
+    public void exportDoesNotBlockCallerAndWritesWholeImage() throws Exception
+    {
+        byte[] image = new byte[IMAGE_BYTES];
+        for (int i = 0; i < image.length; i++) image[i] = (byte) (i * 31 + i / 7);
+        FakeSource source = new FakeSource(image, null);
+        RecordingListener listener = new RecordingListener();
+        File file = new File(dir, "picture.png");
+
+        ImageExporter exporter = new ImageExporter(executor, Runnable::run);
+        long start = System.nanoTime();
+        exporter.export(source, file, null, 100, listener);
+        long blockedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("export blocked the caller for " + blockedMs + " ms", blockedMs < FRAME_MS);
+
+        assertTrue(listener.done.await(10, TimeUnit.SECONDS));
+        assertNull(listener.error);
+        assertEquals(file, listener.completed);
+        assertArrayEquals(image, Files.readAllBytes(file.toPath()));
+        assertFalse(new File(dir, "picture.png.tmp").exists());
+        //Ход записи сообщается по мере записи, а не один раз в конце
+        assertTrue(listener.progressCalls.get() >= 2);
+        assertTrue(listener.lastProgress.get() <= IMAGE_BYTES);
+        assertTrue(source.released);
+        assertFalse(source.compressedOnCaller);
+    }
+
+    @Test
+    public void failedCompressReportsErrorAndLeavesNoFile() throws Exception
+    {
+        FakeSource source = new FakeSource(new byte[1024], new IOException("disk full"));
+        RecordingListener listener = new RecordingListener();
+        File file = new File(dir, "broken.png");
+
+        new ImageExporter(executor, Runnable::run).export(source, file, null, 100, listener);
+
+        assertTrue(listener.done.await(10, TimeUnit.SECONDS));
+        assertNotNull(listener.error);
+        assertNull(listener.completed);
+        assertFalse(file.exists());
+        assertFalse(new File(dir, "broken.png.tmp").exists());
+        assertTrue(source.released);
+    }
+    //----------------------------------------------------------------------------------------------
+    //Источник, который долго «сжимает» картинку и пишет её кусками, как Bitmap.compress
+    private static class FakeSource implements ImageExporter.Source
+    {
+        private final byte[] image;
+        private final IOException failure;
+        private final Thread caller = Thread.currentThread();
+        volatile boolean released;
+        volatile boolean compressedOnCaller;
+
+        FakeSource(byte[] image, IOException failure)
+        {
+            this.image = image;
+            this.failure = failure;
+        }
+
+        @Override
+        public boolean compress(Bitmap.CompressFormat format, int quality, OutputStream out) throws IOException
+        {
+            compressedOnCaller = Thread.currentThread() == caller;
+            try
+            {
+                Thread.sleep(COMPRESS_MS);
+            } catch (InterruptedException e)
+            {
+                throw new IOException(e);
+            }
+            if (failure != null) throw failure;
+            for (int offset = 0; offset < image.length; offset += 4096)
+            {
+                out.write(image, offset, Math.min(4096, image.length - offset));
+            }
+            return true;
+        }
+
+        @Override
+        public void release()
+        {
+            released = true;
+        }
+    }
+
+    private static class RecordingListener implements ImageExporter.Listener
+    {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicLong progressCalls = new AtomicLong();
+        final AtomicLong lastProgress = new AtomicLong();
+        volatile File completed;
+        volatile Exception error;
+
+        @Override
+        public void onProgress(long bytesWritten)
+        {
+            assertTrue(bytesWritten >= lastProgress.get());
+            lastProgress.set(bytesWritten);
+            progressCalls.incrementAndGet();
+        }
+
+        @Override
+        public void onComplete(File file)
+        {
+            completed = file;
+            done.countDown();
+        }
+
+        @Override
+        public void onError(Exception e)
+        {
+            error = e;
+            done.countDown();
+        }
+    }
+    //----------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,81 @@
+package com.mindmari.PaintApp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+//Размеры при загрузке картинки и расчёт памяти, которую они дают при декодировании.
+//Настоящую память при загрузке фото замеряет ImageImportMemoryTest на устройстве
+public class ImageSizingTest
+{
+    //Холст телефона 1080x2340
+    private static final int CANVAS_W = 1080;
+    private static final int CANVAS_H = 2340;
+    //----------------------------------------------------------------------------------------------
+    @Test
+    public void coverSizeCoversTargetAndKeepsAspect()
+    {
+        int[] size = new int[2];
+        ImageSizing.coverSize(4000, 3000, CANVAS_W, CANVAS_H, size);
+        assertEquals(3120, size[0]);
+        assertEquals(CANVAS_H, size[1]);
+
+        ImageSizing.coverSize(500, 500, CANVAS_W, CANVAS_H, size);
+        assertEquals(CANVAS_H, size[0]);
+        assertEquals(CANVAS_H, size[1]);
+    }
+
+    @Test
+    public void sampleSizeIsLargestPowerOfTwoAboveTarget()
+    {
+        assertEquals(1, ImageSizing.calculateSampleSize(1000, 1000, 1000, 1000));
+        assertEquals(1, ImageSizing.calculateSampleSize(500, 500, 1080, 2340));
+        assertEquals(2, ImageSizing.calculateSampleSize(8000, 6000, 3120, 2340));
+        assertEquals(4, ImageSizing.calculateSampleSize(8000, 6000, 2000, 1500));
+        //Короткая сторона не даёт прореживать дальше, хотя длинной хватило бы
+        assertEquals(2, ImageSizing.calculateSampleSize(8000, 6000, 1000, 2000));
+    }
+    //Для разных камер и ориентаций прореженная картинка не меньше нужной, но и не больше чем вдвое по стороне
+    @Test
+    public void sampledImageStaysWithinTwiceTargetSide()
+    {
+        int[] size = new int[2];
+        for (int srcW = 300; srcW <= 12000; srcW += 173)
+        {
+            for (int srcH = 300; srcH <= 12000; srcH += 211)
+            {
+                ImageSizing.coverSize(srcW, srcH, CANVAS_W, CANVAS_H, size);
+                int sample = ImageSizing.calculateSampleSize(srcW, srcH, size[0], size[1]);
+                int sampledW = srcW / sample;
+                int sampledH = srcH / sample;
+                String name = srcW + "x" + srcH;
+                assertTrue(name, sampledW >= size[0] || sample == 1);
+                assertTrue(name, sampledH >= size[1] || sample == 1);
+                assertTrue(name, sampledW / 2 < size[0] || sampledH / 2 < size[1]);
+            }
+        }
+    }
+    //Фото 48 Мп: по выбранным размерам прореженная картинка и картинка размером с холст
+    //вместе меньше половины полноразмерной копии. Здесь только арифметика размеров
+    @Test
+    public void sizingOf48MpPhotoBoundsDecodedBytes()
+    {
+        int srcW = 8000;
+        int srcH = 6000;
+        int[] size = new int[2];
+        ImageSizing.coverSize(srcW, srcH, CANVAS_W, CANVAS_H, size);
+        int sample = ImageSizing.calculateSampleSize(srcW, srcH, size[0], size[1]);
+
+        long fullBytes = (long) srcW * srcH * 4;
+        long targetBytes = (long) size[0] * size[1] * 4;
+        long sampledBytes = (long) (srcW / sample) * (srcH / sample) * 4;
+        long decodedBytes = sampledBytes + targetBytes;
+
+        //Прореженная картинка меньше 4 картинок размером с холст
+        assertTrue(sampledBytes < targetBytes * 4);
+        //Обе картинки вместе - меньше половины одной полноразмерной копии (192 МБ)
+        assertTrue("decoded " + decodedBytes / (1024 * 1024) + " MB", decodedBytes < fullBytes / 2);
+    }
+    //----------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,92 @@
+package com.mindmari.PaintApp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+//Работа кадра при рисовании кистью: сколько сегментов растеризуется и какая область перерисовывается.
+//Она должна зависеть только от точек, пришедших за кадр, а не от длины штриха
+public class IncrementalStrokeTest
+{
+    private static final float STROKE_WIDTH = 12;
+    //Точек за кадр (как у пальца на 240 Гц при 60 кадрах)
+    private static final int POINTS_PER_FRAME = 4;
+    //Шаг между точками в пикселях
+    private static final float STEP = 3;
+    //----------------------------------------------------------------------------------------------
+    @Test
+    public void frameWorkDoesNotGrowWithStrokeLength()
+    {
+        IncrementalStroke stroke = new IncrementalStroke();
+        int[] bounds = new int[4];
+        stroke.start(0, 100);
+
+        int frames = 10000;
+        int firstWidth = -1;
+        int firstHeight = -1;
+        float x = 0;
+        for (int frame = 0; frame < frames; frame++)
+        {
+            for (int i = 0; i < POINTS_PER_FRAME; i++)
+            {
+                x += STEP;
+                //Пила, чтобы штрих не был прямой линией
+                stroke.add(x, 100 + (i % 2) * STEP);
+            }
+            assertTrue(stroke.computePendingBounds(STROKE_WIDTH, bounds));
+            assertTrue(stroke.preparePending());
+            stroke.markRasterized();
+
+            assertEquals("segments in frame " + frame, POINTS_PER_FRAME, stroke.getLastRasterizedSegments());
+            int width = bounds[2] - bounds[0];
+            int height = bounds[3] - bounds[1];
+            if (frame == 0)
+            {
+                firstWidth = width;
+                firstHeight = height;
+            }
+            assertEquals("dirty width in frame " + frame, firstWidth, width);
+            assertEquals("dirty height in frame " + frame, firstHeight, height);
+            //Область кадра начинается у последней уже нарисованной точки, а не у начала штриха
+            assertTrue(bounds[0] >= x - POINTS_PER_FRAME * STEP - STROKE_WIDTH);
+        }
+        assertEquals(frames * POINTS_PER_FRAME + 1, stroke.getPointCount());
+    }
+
+    @Test
+    public void dirtyRectCoversNewSegmentsPlusStrokeWidth()
+    {
+        IncrementalStroke stroke = new IncrementalStroke();
+        int[] bounds = new int[4];
+        stroke.start(10, 20);
+        stroke.add(30, 25);
+        stroke.add(50, 40);
+
+        assertTrue(stroke.computePendingBounds(STROKE_WIDTH, bounds));
+        //Половина толщины и пиксель на сглаживание
+        int inset = (int) Math.ceil(STROKE_WIDTH / 2) + 1;
+        assertEquals(10 - inset, bounds[0]);
+        assertEquals(20 - inset, bounds[1]);
+        assertEquals(50 + inset, bounds[2]);
+        assertEquals(40 + inset, bounds[3]);
+    }
+
+    @Test
+    public void nothingPendingAfterFrameIsRasterized()
+    {
+        IncrementalStroke stroke = new IncrementalStroke();
+        int[] bounds = new int[4];
+        stroke.start(0, 0);
+        stroke.add(5, 5);
+        stroke.preparePending();
+        stroke.markRasterized();
+
+        assertFalse(stroke.hasPending());
+        assertFalse(stroke.computePendingBounds(STROKE_WIDTH, bounds));
+        assertFalse(stroke.preparePending());
+        assertEquals(0, stroke.getLastRasterizedSegments());
+    }
+    //----------------------------------------------------------------------------------------------
+}
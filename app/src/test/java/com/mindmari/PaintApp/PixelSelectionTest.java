@@ -0,0 +1,80 @@
+package com.mindmari.PaintApp;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+//Подъём и опускание выделения на части холста: DrawingView читает только прямоугольник выделения
+//или место, куда его опускают, а запись TRANSFORM при повторе выполняется на всём холсте.
+//Пиксели должны получаться одинаковыми до последнего бита
+public class PixelSelectionTest
+{
+    private static final int WIDTH = 300;
+    private static final int HEIGHT = 200;
+    private static final int HOLE = 0xFFFFFFFF;
+    private static final float[] LASSO = {52.3f, 40.7f, 131.9f, 35.2f, 150.4f, 110.6f, 90.1f, 140.8f, 47.5f, 96.3f};
+    //----------------------------------------------------------------------------------------------
+    @Test
+    public void liftOnRegionMatchesWholeCanvas()
+    {
+        int[] canvas = randomCanvas();
+        PixelSelection whole = new PixelSelection();
+        assertTrue(whole.lift(canvas, WIDTH, HEIGHT, 47, 35, 151, 141, LASSO, 5, HOLE));
+
+        int[] expected = randomCanvas();
+        PixelSelection part = new PixelSelection();
+        int[] region = crop(expected, 47, 35, 151, 141);
+        assertTrue(part.lift(region, 47, 35, 104, 106, 47, 35, 151, 141, LASSO, 5, HOLE));
+
+        assertEquals(whole.getWidth(), part.getWidth());
+        assertEquals(whole.getHeight(), part.getHeight());
+        int size = whole.getWidth() * whole.getHeight();
+        for (int i = 0; i < size; i++) assertEquals("pixel " + i, whole.getPixels()[i], part.getPixels()[i]);
+        assertArrayEquals(crop(canvas, 47, 35, 151, 141), region);
+    }
+
+    @Test
+    public void dropOnRegionMatchesWholeCanvas()
+    {
+        for (int filter : new int[]{Resampler.NEAREST, Resampler.BILINEAR, Resampler.BICUBIC})
+        {
+            PixelSelection selection = new PixelSelection();
+            selection.lift(randomCanvas(), WIDTH, HEIGHT, 47, 35, 151, 141, LASSO, 5, HOLE);
+
+            //Перенос со сдвигом на дробные пиксели и растяжением, частично за краем холста
+            float left = 180.4f, top = -12.6f, right = 317.2f, bottom = 120.3f;
+            int[] canvas = randomCanvas();
+            int[] bounds = new int[4];
+            assertTrue(selection.drop(canvas, WIDTH, HEIGHT, left, top, right, bottom, filter, bounds));
+
+            int[] region = crop(randomCanvas(), 180, 0, WIDTH, 121);
+            int[] regionBounds = new int[4];
+            assertTrue(selection.drop(region, 180, 0, WIDTH - 180, 121, left, top, right, bottom, filter, regionBounds));
+
+            assertArrayEquals(bounds, regionBounds);
+            assertArrayEquals("filter " + filter, crop(canvas, 180, 0, WIDTH, 121), region);
+        }
+    }
+    //----------------------------------------------------------------------------------------------
+    //Один и тот же полупрозрачный шум при каждом вызове
+    private static int[] randomCanvas()
+    {
+        Random random = new Random(5);
+        int[] pixels = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < pixels.length; i++) pixels[i] = random.nextInt() | 0x40000000;
+        return pixels;
+    }
+
+    private static int[] crop(int[] canvas, int left, int top, int right, int bottom)
+    {
+        int width = right - left;
+        int[] out = new int[width * (bottom - top)];
+        for (int y = top; y < bottom; y++) System.arraycopy(canvas, y * WIDTH + left, out, (y - top) * width, width);
+        return out;
+    }
+    //----------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,228 @@
+package com.mindmari.PaintApp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+//Журнал автосохранения на 10 000 операций: сколько байт уходит на диск на байт операций
+//(журнал и контрольные точки) и за сколько сеанс восстанавливается при запуске.
+//Восстановление после сбоя: недописанная запись в конце журнала и журнал, не очищенный после контрольной точки
+public class SessionJournalTest
+{
+    private static final int OPERATIONS = 10_000;
+    //Восстановление должно быть намного быстрее секунды
+    private static final long MAX_RESTORE_MS = 1000;
+    //Контрольная точка переписывает журнал целиком, поэтому на диск уходит больше, чем весят операции
+    private static final double MAX_WRITE_AMPLIFICATION = 2.0;
+    private static final int RED = 0xFFFF0000;
+
+    private File dir;
+    //----------------------------------------------------------------------------------------------
+    @Before
+    public void setUp() throws IOException
+    {
+        dir = Files.createTempDirectory("journal").toFile();
+    }
+
+    @After
+    public void tearDown()
+    {
+        deleteTree(dir);
+    }
+    //----------------------------------------------------------------------------------------------
+    @Test
+    public void tenThousandOperationsRestoreQuicklyWithBoundedWrites()
+    {
+        DisplayList list = new DisplayList();
+        SessionJournal journal = new SessionJournal(dir);
+        journal.restore(list);
+        list.setListener(journal);
+        addOperations(list, new Random(11));
+        list.setListener(null);
+        journal.close();
+        waitForWrites();
+
+        double amplification = (double) journal.getWrittenBytes() / journal.getRecordBytes();
+        assertTrue("write amplification " + amplification, amplification < MAX_WRITE_AMPLIFICATION);
+        //Всё, что записано, действительно дошло до диска
+        assertTrue(journal.getWrittenBytes() >= journal.getRecordBytes());
+
+        DisplayList restored = new DisplayList();
+        SessionJournal reopened = new SessionJournal(dir);
+        long start = System.nanoTime();
+        reopened.restore(restored);
+        long restoreMs = (System.nanoTime() - start) / 1_000_000;
+        reopened.close();
+        waitForWrites();
+
+        assertTrue("restore took " + restoreMs + " ms", restoreMs < MAX_RESTORE_MS);
+        assertSameRecords(list, restored);
+    }
+
+    @Test
+    public void tornTailIsCutAndJournalContinues() throws IOException
+    {
+        DisplayList list = new DisplayList();
+        SessionJournal journal = new SessionJournal(dir);
+        journal.restore(list);
+        list.setListener(journal);
+        addStrokes(list, 0, 20);
+        list.setListener(null);
+        journal.close();
+        waitForWrites();
+
+        //Процесс умер посреди последней записи
+        File journalFile = new File(dir, "journal.bin");
+        try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw"))
+        {
+            file.setLength(file.length() - 5);
+        }
+        DisplayList restored = new DisplayList();
+        SessionJournal reopened = new SessionJournal(dir);
+        reopened.restore(restored);
+        DisplayList expected = new DisplayList();
+        addStrokes(expected, 0, 19);
+        assertSameRecords(expected, restored);
+
+        //Новые записи идут сразу за последней целой
+        restored.setListener(reopened);
+        addStrokes(restored, 19, 20);
+        restored.setListener(null);
+        reopened.close();
+        waitForWrites();
+        addStrokes(expected, 19, 20);
+        assertSameRecords(expected, restoreSession());
+    }
+
+    @Test
+    public void journalLeftBeforeCheckpointIsNotReplayed() throws IOException
+    {
+        DisplayList list = new DisplayList();
+        SessionJournal journal = new SessionJournal(dir);
+        journal.restore(list);
+        list.setListener(journal);
+        addStrokes(list, 0, 10);
+        list.addClear(RED);
+        addStrokes(list, 10, 15);
+        journal.flush();
+        waitForWrites();
+        //Журнал со всеми операциями до контрольной точки
+        File journalFile = new File(dir, "journal.bin");
+        File stale = new File(dir, "stale.bin");
+        Files.copy(journalFile.toPath(), stale.toPath());
+
+        //Сжатие удаляет штрихи под очисткой и пишет контрольную точку
+        assertTrue(list.compact(list.size()));
+        list.setListener(null);
+        journal.close();
+        waitForWrites();
+
+        //Процесс умер после записи контрольной точки, но до очистки журнала
+        Files.move(stale.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        assertSameRecords(list, restoreSession());
+    }
+    //----------------------------------------------------------------------------------------------
+    //Восстановить сеанс из папки в новый DisplayList
+    private DisplayList restoreSession()
+    {
+        DisplayList restored = new DisplayList();
+        SessionJournal journal = new SessionJournal(dir);
+        journal.restore(restored);
+        journal.close();
+        waitForWrites();
+        return restored;
+    }
+    //Штрихи с номерами с from по to (не включая)
+    private static void addStrokes(DisplayList list, int from, int to)
+    {
+        for (int i = from; i < to; i++)
+        {
+            list.addStroke(RED, 4 + i, new float[]{i, 0, i + 10, 20, i + 30, 5}, 3);
+        }
+    }
+    //Штрихи, фигуры и заливки, время от времени отмена и повтор.
+    //Операции весят около 8 МБ, так что журнал хотя бы раз переписывается в контрольную точку
+    private static void addOperations(DisplayList list, Random random)
+    {
+        float[] points = new float[2 * 192];
+        for (int i = 0; i < OPERATIONS; i++)
+        {
+            if (i % 50 == 49)
+            {
+                list.undo();
+                continue;
+            }
+            if (i % 50 == 0 && i > 0)
+            {
+                list.redo();
+                continue;
+            }
+            int kind = random.nextInt(10);
+            if (kind < 8)
+            {
+                int count = 64 + random.nextInt(128);
+                float x = random.nextFloat() * 1000;
+                float y = random.nextFloat() * 2000;
+                for (int p = 0; p < count; p++)
+                {
+                    points[p * 2] = x + p * 3;
+                    points[p * 2 + 1] = y + (float) Math.sin(p * 0.2) * 20;
+                }
+                list.addStroke(RED, 4 + random.nextInt(20), points, count);
+            } else if (kind == 8)
+            {
+                float x = random.nextFloat() * 1000;
+                float y = random.nextFloat() * 2000;
+                list.addShape(DrawingView.RECTANGLE, RED, 6, new float[]{x, y, x + 80, y + 50}, 4);
+            } else
+            {
+                list.addFill(RED, random.nextFloat() * 1000, random.nextFloat() * 2000, 10);
+            }
+        }
+    }
+    //Журналы пишутся одним фоновым потоком: восстановление другой папки дожидается всех прежних записей
+    private void waitForWrites()
+    {
+        SessionJournal barrier = new SessionJournal(new File(dir, "barrier"));
+        barrier.restore(new DisplayList());
+        barrier.close();
+    }
+
+    private static void deleteTree(File file)
+    {
+        File[] children = file.listFiles();
+        if (children != null) for (File child : children) deleteTree(child);
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    private static void assertSameRecords(DisplayList expected, DisplayList actual)
+    {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.getTotal(), actual.getTotal());
+        for (int i = 0; i < expected.getTotal(); i++)
+        {
+            assertEquals(expected.getType(i), actual.getType(i));
+            assertEquals(expected.getColor(i), actual.getColor(i));
+            int count = expected.getCoordCount(i);
+            assertEquals(count, actual.getCoordCount(i));
+            int from = expected.getCoordStart(i);
+            int to = actual.getCoordStart(i);
+            for (int c = 0; c < count; c++)
+            {
+                assertEquals(expected.getCoords()[from + c], actual.getCoords()[to + c], 0);
+            }
+        }
+    }
+    //----------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,104 @@
+package com.mindmari.PaintApp;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+//Расстановка отпечатков кисти при долгом вводе: минута штрихов стилуса 240 Гц по кадрам 60 Гц
+//не должна выделять память после первых штрихов, а отпечатков должно быть столько, сколько
+//задаёт шаг. Рисование отпечатков требует настоящих Bitmap и замеряется на устройстве (StampRateTest)
+public class StampBrushTest
+{
+    private static final float WIDTH = 40;
+    private static final int SAMPLE_HZ = 240;
+    private static final int FRAME_HZ = 60;
+    private static final int POINTS_PER_FRAME = SAMPLE_HZ / FRAME_HZ;
+    //Штрих длится две секунды, затем стилус поднимается и касается снова
+    private static final int STROKE_FRAMES = FRAME_HZ * 2;
+    private static final int STROKES = 30;
+    //----------------------------------------------------------------------------------------------
+    @Test
+    public void sustainedInputDoesNotAllocate()
+    {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        assumeTrue(allocations.isThreadAllocatedMemorySupported());
+        allocations.setThreadAllocatedMemoryEnabled(true);
+
+        StampBrush brush = new StampBrush();
+        //Разогрев тем же вводом: буфер отпечатков дорастает до размера кадра, классы загружаются
+        for (int i = 0; i < STROKES; i++) stroke(brush, i);
+
+        long thread = Thread.currentThread().getId();
+        long stampsBefore = brush.getStampCount();
+        long before = allocations.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < STROKES; i++) stroke(brush, i);
+        long allocated = allocations.getThreadAllocatedBytes(thread) - before;
+
+        assertEquals("bytes allocated during " + STROKES + " strokes", 0, allocated);
+        assertTrue(brush.getStampCount() > stampsBefore);
+    }
+
+    @Test
+    public void stampsFollowSpacing()
+    {
+        StampBrush brush = new StampBrush();
+        brush.stampPoint(0, 0, 1, WIDTH);
+        brush.stampSegment(0, 0, 1, 1000, 0, 1, WIDTH);
+        //Шаг 15% радиуса: на 1000 пикселей при радиусе 20 - 333 отпечатка и первый в точке касания
+        float spacing = 0.15f * WIDTH / 2;
+        assertEquals(1 + (int) (1000 / spacing), brush.getPendingCount());
+        assertEquals(brush.getPendingCount(), brush.getStampCount());
+    }
+    //----------------------------------------------------------------------------------------------
+    //Один штрих: касание, кадры с несколькими точками и расстановкой отпечатков, как в IncrementalStroke
+    private static void stroke(StampBrush brush, int index)
+    {
+        long time = 0;
+        float x = touchX(index, 0);
+        float y = touchY(index, 0);
+        brush.reset();
+        brush.clearPending();
+        float d = brush.startInput(x, y, time, pressure(0));
+        brush.stampPoint(x, y, d, WIDTH);
+        int step = 0;
+        for (int frame = 0; frame < STROKE_FRAMES; frame++)
+        {
+            brush.clearPending();
+            for (int i = 0; i < POINTS_PER_FRAME; i++)
+            {
+                step++;
+                time += 1000 / SAMPLE_HZ;
+                float nx = touchX(index, step);
+                float ny = touchY(index, step);
+                float nd = brush.input(nx, ny, time, pressure(step));
+                brush.stampSegment(x, y, d, nx, ny, nd, WIDTH);
+                x = nx;
+                y = ny;
+                d = nd;
+            }
+        }
+    }
+    //Петли по холсту, скорость и нажим меняются по ходу штриха
+    private static float touchX(int stroke, int step)
+    {
+        return 100 + (stroke % 6) * 150 + step * 1.5f + 40 * (float) Math.cos(step * 0.05);
+    }
+
+    private static float touchY(int stroke, int step)
+    {
+        return 200 + (stroke / 6) * 300 + 60 * (float) Math.sin(step * 0.07);
+    }
+
+    private static float pressure(int step)
+    {
+        return 0.6f + 0.4f * (float) Math.sin(step * 0.02);
+    }
+    //----------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,120 @@
+package com.mindmari.PaintApp;
+
+import android.graphics.Rect;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+//Операции истории и их записи DisplayList. Плитки холста здесь однотонные, поэтому Bitmap не нужны.
+//Конструктор Rect в тестах на JVM ничего не делает, поэтому прямоугольники задаются через поля
+public class UndoHistoryTest
+{
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 2340;
+    //Снимок однотонной плитки занимает 4 байта
+    private static final int SOLID_TILE_BYTES = 4;
+    //----------------------------------------------------------------------------------------------
+    @Test
+    public void operationWithoutTilesIsStillUndoable()
+    {
+        TiledCanvas canvas = new TiledCanvas(WIDTH, HEIGHT, 0xFFFFFFFF, null);
+        UndoHistory history = new UndoHistory();
+
+        //Штрих целиком за краем холста: плиток нет, но запись DisplayList есть
+        history.begin(canvas);
+        history.touch(rect(-500, -500, -100, -100));
+        history.touch(rect(WIDTH + 100, 200, WIDTH + 500, 600));
+        history.commit();
+
+        assertEquals(0, history.getUsedBytes());
+        assertTrue(history.canUndo());
+        assertEquals(1, history.getUndoableRecordCount());
+        assertSame(canvas, history.undo());
+        assertEquals(1, history.getLastRecordCount());
+        assertTrue(history.canRedo());
+    }
+
+    @Test
+    public void operationWithoutTilesOrRecordsIsDropped()
+    {
+        TiledCanvas canvas = new TiledCanvas(WIDTH, HEIGHT, 0xFFFFFFFF, null);
+        UndoHistory history = new UndoHistory();
+
+        //Ластик, который ничего не задел
+        history.begin(canvas);
+        history.setRecordCount(0);
+        history.commit();
+
+        assertFalse(history.canUndo());
+        assertEquals(0, history.getUndoableRecordCount());
+    }
+
+    @Test
+    public void overlappingTouchesTakeEachTileOnce()
+    {
+        TiledCanvas canvas = new TiledCanvas(WIDTH, HEIGHT, 0xFFFFFFFF, null);
+        UndoHistory history = new UndoHistory();
+
+        //Плитки 0-2 и 1-3 по обеим осям: 9 + 9 - 4 общих
+        history.begin(canvas);
+        history.touch(rect(0, 0, 600, 600));
+        history.touch(rect(300, 300, 900, 900));
+        history.commit();
+
+        assertEquals(14L * SOLID_TILE_BYTES, history.getUsedBytes());
+    }
+
+    @Test
+    public void touchAllTakesEachTileOnce()
+    {
+        TiledCanvas canvas = new TiledCanvas(WIDTH, HEIGHT, 0xFFFFFFFF, null);
+        UndoHistory history = new UndoHistory();
+        int tiles = canvas.getColumns() * canvas.getRows();
+
+        history.begin(canvas);
+        history.touch(rect(0, 0, 600, 600));
+        history.touch(rect(300, 300, 900, 900));
+        history.touchAll();
+        history.commit();
+
+        assertEquals((long) tiles * SOLID_TILE_BYTES, history.getUsedBytes());
+    }
+
+    @Test
+    public void undoableRecordsFollowStack()
+    {
+        TiledCanvas canvas = new TiledCanvas(WIDTH, HEIGHT, 0xFFFFFFFF, null);
+        UndoHistory history = new UndoHistory();
+        Rect tile = rect(0, 0, 10, 10);
+
+        history.begin(canvas);
+        history.touch(tile);
+        history.commit();
+        history.begin(canvas);
+        history.touch(tile);
+        history.setRecordCount(3);
+        history.commit();
+        assertEquals(4, history.getUndoableRecordCount());
+
+        history.undo();
+        assertEquals(3, history.getLastRecordCount());
+        assertEquals(1, history.getUndoableRecordCount());
+        history.clear();
+        assertEquals(0, history.getUndoableRecordCount());
+    }
+    //----------------------------------------------------------------------------------------------
+    private static Rect rect(int left, int top, int right, int bottom)
+    {
+        Rect r = new Rect();
+        r.left = left;
+        r.top = top;
+        r.right = right;
+        r.bottom = bottom;
+        return r;
+    }
+    //----------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,83 @@
+package com.mindmari.PaintApp.benchmark;
+
+import com.mindmari.PaintApp.FilterPipeline;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+//Фильтр над слоем 1080x2340, как в DrawingView.applyFilter: полный размер и уменьшенный предпросмотр
+//(длинная сторона 512). blur - небольшое размытие ядром Гаусса, wideBlur - большое тремя прямоугольными,
+//chain - резкость, уровни и кривая подряд. threads = 1 - только вызывающий поток, 0 - все ядра
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FilterBenchmark
+{
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 2340;
+    private static final int PREVIEW_HEIGHT = 512;
+    private static final int PREVIEW_WIDTH = WIDTH * PREVIEW_HEIGHT / HEIGHT;
+
+    @Param({"blur", "wideBlur", "chain"})
+    public String filter;
+
+    @Param({"1", "0"})
+    public int threads;
+
+    private final FilterPipeline pipeline = new FilterPipeline();
+    private int[] layer;
+    private int[] pixels;
+    private int[] preview;
+    //----------------------------------------------------------------------------------------------
+    @Setup
+    public void setUp()
+    {
+        Random random = new Random(1);
+        layer = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < layer.length; i++) layer[i] = 0xFF000000 | random.nextInt(0x1000000);
+        pixels = new int[layer.length];
+        preview = new int[PREVIEW_WIDTH * PREVIEW_HEIGHT];
+        switch (filter)
+        {
+            case "blur":
+                pipeline.addBlur(6);
+                break;
+            case "wideBlur":
+                pipeline.addBlur(40);
+                break;
+            default:
+                pipeline.addSharpen(3, 0.8f, 4);
+                pipeline.addLevels(16, 240, 1.2f);
+                pipeline.addCurve(new float[]{0, 0, 64, 48, 192, 208, 255, 255}, 4);
+                break;
+        }
+        FilterPipeline.setThreads(threads);
+    }
+    //----------------------------------------------------------------------------------------------
+    //Полный размер (в приложении - в фоне)
+    @Benchmark
+    public int[] full()
+    {
+        System.arraycopy(layer, 0, pixels, 0, layer.length);
+        pipeline.apply(pixels, WIDTH, HEIGHT, 1);
+        return pixels;
+    }
+    //Предпросмотр, который показывается сразу
+    @Benchmark
+    public int[] preview()
+    {
+        System.arraycopy(layer, 0, preview, 0, preview.length);
+        pipeline.apply(preview, PREVIEW_WIDTH, PREVIEW_HEIGHT, (float) PREVIEW_HEIGHT / HEIGHT);
+        return preview;
+    }
+    //----------------------------------------------------------------------------------------------
+}
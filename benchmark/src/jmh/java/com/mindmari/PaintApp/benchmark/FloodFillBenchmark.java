@@ -0,0 +1,68 @@
+package com.mindmari.PaintApp.benchmark;
+
+import com.mindmari.PaintApp.FloodFill;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+//Заливка в зависимости от размера холста: пустой холст и холст с сеткой линий.
+//Заливка всего холста 3840 x 2160 должна укладываться в 50 мс, 4096 x 4096 - вдвое больше пикселей
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FloodFillBenchmark
+{
+    @Param({"512x512", "1080x1080", "2048x2048", "3840x2160", "4096x4096"})
+    public String canvas;
+
+    @Param({"false", "true"})
+    public boolean grid;
+
+    private int width;
+    private int height;
+    private int[] source;
+    private int[] pixels;
+    private final FloodFill floodFill = new FloodFill();
+    private final int[] bounds = new int[4];
+    //----------------------------------------------------------------------------------------------
+    @Setup
+    public void setUp()
+    {
+        int split = canvas.indexOf('x');
+        width = Integer.parseInt(canvas.substring(0, split));
+        height = Integer.parseInt(canvas.substring(split + 1));
+        source = new int[width * height];
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                boolean line = grid && (x % 64 == 0 || y % 48 == 0) && (x + y) % 7 != 0;
+                source[y * width + x] = line ? 0xFF000000 : 0xFFFFFFFF;
+            }
+        }
+        pixels = new int[width * height];
+    }
+    //Каждая заливка начинается с исходного холста
+    @Setup(Level.Invocation)
+    public void reset()
+    {
+        System.arraycopy(source, 0, pixels, 0, pixels.length);
+    }
+    //----------------------------------------------------------------------------------------------
+    @Benchmark
+    public int[] fill()
+    {
+        floodFill.fill(pixels, width, height, width / 2 + 1, height / 2 + 1, 0xFFFF0000, 16, bounds);
+        return bounds;
+    }
+    //----------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,90 @@
+package com.mindmari.PaintApp.benchmark;
+
+import com.mindmari.PaintApp.ImageSizing;
+import com.mindmari.PaintApp.ShapeGeometry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+//Расчёты фигур и размеров картинки: радиус круга, угол квадрата, прямоугольник, прореживание
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GeometryBenchmark
+{
+    private static final int POINTS = 1024;
+
+    private final float[] xs = new float[POINTS];
+    private final float[] ys = new float[POINTS];
+    private final float[] out = new float[4];
+    private final int[] size = new int[2];
+    private int next = 0;
+    //----------------------------------------------------------------------------------------------
+    @Setup
+    public void setUp()
+    {
+        Random random = new Random(1);
+        for (int i = 0; i < POINTS; i++)
+        {
+            xs[i] = random.nextFloat() * 2000;
+            ys[i] = random.nextFloat() * 2000;
+        }
+    }
+    //----------------------------------------------------------------------------------------------
+    @Benchmark
+    public float distance()
+    {
+        int i = nextIndex();
+        return ShapeGeometry.distance(xs[i], ys[i], xs[(i + 1) & (POINTS - 1)], ys[(i + 1) & (POINTS - 1)]);
+    }
+    //Прежний расчёт радиуса через Math.pow - для сравнения
+    @Benchmark
+    public float distancePow()
+    {
+        int i = nextIndex();
+        float x2 = xs[(i + 1) & (POINTS - 1)];
+        float y2 = ys[(i + 1) & (POINTS - 1)];
+        return (float) Math.sqrt(Math.pow(xs[i] - x2, 2) + Math.pow(ys[i] - y2, 2));
+    }
+
+    @Benchmark
+    public float[] squareCorner()
+    {
+        int i = nextIndex();
+        ShapeGeometry.squareCorner(xs[i], ys[i], xs[(i + 1) & (POINTS - 1)], ys[(i + 1) & (POINTS - 1)], out);
+        return out;
+    }
+
+    @Benchmark
+    public float[] normalizeRect()
+    {
+        int i = nextIndex();
+        ShapeGeometry.normalizeRect(xs[i], ys[i], xs[(i + 1) & (POINTS - 1)], ys[(i + 1) & (POINTS - 1)], out);
+        return out;
+    }
+
+    @Benchmark
+    public int resize()
+    {
+        int i = nextIndex();
+        int srcW = 1000 + (int) xs[i] * 4;
+        int srcH = 1000 + (int) ys[i] * 4;
+        ImageSizing.coverSize(srcW, srcH, 1080, 1920, size);
+        return ImageSizing.calculateSampleSize(srcW, srcH, size[0], size[1]);
+    }
+    //----------------------------------------------------------------------------------------------
+    private int nextIndex()
+    {
+        next = (next + 1) & (POINTS - 1);
+        return next;
+    }
+    //----------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,121 @@
+package com.mindmari.PaintApp.benchmark;
+
+import com.mindmari.PaintApp.ShapeGeometry;
+import com.mindmari.PaintApp.SpatialIndex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+//Поиск штриха под ластиком, как в DisplayList.hitTest: пространственный индекс отбирает штрихи
+//поблизости, затем проверяется расстояние до их линий. Для сравнения - перебор всех штрихов без индекса.
+//Штрихи - случайные блуждания по холсту 2048x2048, так что их много друг над другом
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HitTestBenchmark
+{
+    private static final int CANVAS_SIZE = 2048;
+    //Радиус ластика
+    private static final float RADIUS = 12;
+    //Количество заранее выбранных точек касания
+    private static final int TOUCHES = 1024;
+
+    @Param({"1000", "10000", "50000"})
+    public int strokes;
+
+    //Точки всех штрихов подряд, начало и количество точек каждого штриха, толщина
+    private float[] points;
+    private int[] starts;
+    private int[] counts;
+    private float[] widths;
+    private SpatialIndex index;
+    private final float[] touches = new float[TOUCHES * 2];
+    private int touch = 0;
+    //----------------------------------------------------------------------------------------------
+    @Setup
+    public void setUp()
+    {
+        Random random = new Random(1);
+        starts = new int[strokes];
+        counts = new int[strokes];
+        widths = new float[strokes];
+        points = new float[strokes * 64 * 2];
+        int used = 0;
+        for (int s = 0; s < strokes; s++)
+        {
+            int count = 16 + random.nextInt(48);
+            float x = random.nextFloat() * CANVAS_SIZE;
+            float y = random.nextFloat() * CANVAS_SIZE;
+            starts[s] = used;
+            counts[s] = count;
+            widths[s] = 4 + random.nextFloat() * 36;
+            for (int i = 0; i < count; i++)
+            {
+                points[used++] = x;
+                points[used++] = y;
+                x += random.nextFloat() * 16 - 8;
+                y += random.nextFloat() * 16 - 8;
+            }
+        }
+        index = buildIndex();
+        for (int i = 0; i < touches.length; i++) touches[i] = random.nextFloat() * CANVAS_SIZE;
+    }
+    //----------------------------------------------------------------------------------------------
+    //Верхний штрих под касанием через индекс
+    @Benchmark
+    public int hitTest()
+    {
+        float x = touches[touch * 2];
+        float y = touches[touch * 2 + 1];
+        touch = (touch + 1) % TOUCHES;
+        int found = index.query(x - RADIUS, y - RADIUS, x + RADIUS, y + RADIUS);
+        for (int i = found - 1; i >= 0; i--)
+        {
+            int s = index.getResult(i);
+            if (isHit(s, x, y)) return s;
+        }
+        return -1;
+    }
+    //Верхний штрих под касанием перебором всех штрихов
+    @Benchmark
+    public int hitTestLinear()
+    {
+        float x = touches[touch * 2];
+        float y = touches[touch * 2 + 1];
+        touch = (touch + 1) % TOUCHES;
+        for (int s = strokes - 1; s >= 0; s--)
+        {
+            if (isHit(s, x, y)) return s;
+        }
+        return -1;
+    }
+    //Индекс всех штрихов заново (как при восстановлении сеанса)
+    @Benchmark
+    public SpatialIndex buildIndex()
+    {
+        SpatialIndex built = new SpatialIndex();
+        int[] bounds = new int[4];
+        for (int s = 0; s < strokes; s++)
+        {
+            int first = starts[s] / 2;
+            ShapeGeometry.bounds(points, first, first + counts[s], (int) Math.ceil(widths[s] / 2), bounds);
+            built.add(s, bounds[0], bounds[1], bounds[2], bounds[3]);
+        }
+        return built;
+    }
+    //----------------------------------------------------------------------------------------------
+    private boolean isHit(int s, float x, float y)
+    {
+        return ShapeGeometry.polylineDistance(points, starts[s], counts[s], 2, false, x, y) <= RADIUS + widths[s] / 2;
+    }
+    //----------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,137 @@
+package com.mindmari.PaintApp.benchmark;
+
+import com.mindmari.PaintApp.InputPipeline;
+import com.mindmari.PaintApp.ShapeGeometry;
+import com.mindmari.PaintApp.StrokeSmoother;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+//Работа с касаниями за один кадр при рисовании несколькими пальцами:
+//у каждого пальца свои стабилизатор и сглаживание, за кадр приходит несколько точек на палец,
+//затем считаются границы новых сегментов. Рисование на плитках требует Android и здесь не замеряется:
+//кадр целиком против одного пальца замеряет MultiPointerFrameTest на устройстве
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MultiPointerBenchmark
+{
+    //Сколько точек касания приходит на палец за кадр 60 Гц
+    private static final int POINTS_PER_FRAME = 4;
+    //Сколько кадров длится жест
+    private static final int FRAMES = 120;
+
+    @Param({"1", "10"})
+    public int pointers;
+
+    @Param({"0", "2"})
+    public int stabilizer;
+
+    private InputPipeline[] pipelines;
+    private StrokeSmoother[] smoothers;
+    private PointBuffer[] strokes;
+    private int[] rasterized;
+    private final int[] bounds = new int[4];
+    private int frame;
+    //----------------------------------------------------------------------------------------------
+    @Setup
+    public void setUp()
+    {
+        pipelines = new InputPipeline[pointers];
+        smoothers = new StrokeSmoother[pointers];
+        strokes = new PointBuffer[pointers];
+        rasterized = new int[pointers];
+        for (int p = 0; p < pointers; p++)
+        {
+            pipelines[p] = new InputPipeline();
+            pipelines[p].setStabilizer(stabilizer);
+            smoothers[p] = new StrokeSmoother();
+            smoothers[p].setMode(StrokeSmoother.CATMULL_ROM);
+            strokes[p] = new PointBuffer();
+        }
+        frame = FRAMES;
+    }
+    //----------------------------------------------------------------------------------------------
+    //Один кадр жеста всех пальцев. Каждые FRAMES кадров жест начинается заново
+    @Benchmark
+    public int frame()
+    {
+        if (frame == FRAMES)
+        {
+            for (int p = 0; p < pointers; p++)
+            {
+                float x = touchX(0);
+                float y = touchY(p, 0);
+                pipelines[p].start(x, y, 0);
+                smoothers[p].start(strokes[p], x, y);
+                rasterized[p] = 0;
+            }
+            frame = 0;
+        }
+        int area = 0;
+        for (int p = 0; p < pointers; p++)
+        {
+            for (int i = 1; i <= POINTS_PER_FRAME; i++)
+            {
+                int step = frame * POINTS_PER_FRAME + i;
+                pipelines[p].beginBatch();
+                pipelines[p].add(touchX(step), touchY(p, step), step * 4L);
+                smoothers[p].add(pipelines[p].getBatchX(0), pipelines[p].getBatchY(0));
+            }
+            PointBuffer stroke = strokes[p];
+            ShapeGeometry.bounds(stroke.points, rasterized[p], stroke.count, 13, bounds);
+            rasterized[p] = stroke.count - 1;
+            area += (bounds[2] - bounds[0]) * (bounds[3] - bounds[1]);
+        }
+        frame++;
+        return area;
+    }
+    //----------------------------------------------------------------------------------------------
+    //Пальцы рисуют волны в своих полосах доски
+    private static float touchX(int step)
+    {
+        return 100 + step * 3f;
+    }
+
+    private static float touchY(int pointer, int step)
+    {
+        return 150 + pointer * 200 + 40 * (float) Math.sin(step * 0.1);
+    }
+    //----------------------------------------------------------------------------------------------
+    //Точки штриха без рисования
+    private static class PointBuffer implements StrokeSmoother.Target
+    {
+        float[] points = new float[4096];
+        int count = 0;
+
+        @Override
+        public void start(float x, float y, float pressure)
+        {
+            count = 0;
+            add(x, y, pressure);
+        }
+
+        @Override
+        public void add(float x, float y, float pressure)
+        {
+            if (count * 2 + 2 > points.length)
+            {
+                float[] grown = new float[points.length * 2];
+                System.arraycopy(points, 0, grown, 0, count * 2);
+                points = grown;
+            }
+            points[count * 2] = x;
+            points[count * 2 + 1] = y;
+            count++;
+        }
+    }
+    //----------------------------------------------------------------------------------------------
+}
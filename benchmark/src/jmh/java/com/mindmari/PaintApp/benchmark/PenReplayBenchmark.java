@@ -0,0 +1,122 @@
+package com.mindmari.PaintApp.benchmark;
+
+import com.mindmari.PaintApp.InputPipeline;
+import com.mindmari.PaintApp.ShapeGeometry;
+import com.mindmari.PaintApp.StrokeSmoother;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+//Повтор потока касаний стилуса 240 Гц, как его разбирает DrawingView.onTouchEventPen:
+//в каждом ACTION_MOVE несколько промежуточных точек, все они проходят стабилизатор одной пачкой,
+//затем сглаживание и границы новых сегментов. Результат - точек в миллисекунду
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PenReplayBenchmark
+{
+    //Частота дигитайзера и кадров
+    private static final int SAMPLE_HZ = 240;
+    private static final int FRAME_HZ = 60;
+    //Точек в одном ACTION_MOVE: промежуточные, собранные за кадр, и текущая
+    private static final int SAMPLES_PER_EVENT = SAMPLE_HZ / FRAME_HZ;
+    //Запись: 20 штрихов по полсекунды (касание и 30 кадров движения)
+    private static final int STROKES = 20;
+    private static final int STROKE_SAMPLES = 1 + SAMPLES_PER_EVENT * FRAME_HZ / 2;
+    private static final int SAMPLES = STROKES * STROKE_SAMPLES;
+
+    @Param({"0", "1", "2"})
+    public int smoothing;
+
+    @Param({"0", "2"})
+    public int stabilizer;
+
+    private final float[] xs = new float[SAMPLES];
+    private final float[] ys = new float[SAMPLES];
+    private final long[] times = new long[SAMPLES];
+    private final InputPipeline pipeline = new InputPipeline();
+    private final StrokeSmoother smoother = new StrokeSmoother();
+    private final PointBuffer stroke = new PointBuffer();
+    private final int[] bounds = new int[4];
+    //----------------------------------------------------------------------------------------------
+    @Setup
+    public void setUp()
+    {
+        //Рукописные петли с дрожанием руки, отсчёты через 1/240 секунды
+        for (int i = 0; i < SAMPLES; i++)
+        {
+            int inStroke = i % STROKE_SAMPLES;
+            int line = i / STROKE_SAMPLES;
+            double angle = inStroke * 0.18;
+            xs[i] = (float) (100 + (line % 8) * 120 + inStroke * 0.8 + 25 * Math.cos(angle) + (i % 3) * 0.3);
+            ys[i] = (float) (200 + (line / 8) * 150 + 35 * Math.sin(angle * 1.3) + (i % 5) * 0.2);
+            times[i] = i * 1000L / SAMPLE_HZ;
+        }
+        smoother.setMode(smoothing);
+        pipeline.setStabilizer(stabilizer);
+    }
+    //----------------------------------------------------------------------------------------------
+    //Вся запись, одна операция - одна точка касания
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public int replay()
+    {
+        int area = 0;
+        for (int start = 0; start < SAMPLES; start += STROKE_SAMPLES)
+        {
+            pipeline.start(xs[start], ys[start], times[start]);
+            smoother.start(stroke, xs[start], ys[start]);
+            int rasterized = 0;
+            for (int last = start + SAMPLES_PER_EVENT; last < start + STROKE_SAMPLES; last += SAMPLES_PER_EVENT)
+            {
+                //ACTION_MOVE: промежуточные точки и текущая
+                pipeline.beginBatch();
+                for (int i = last - SAMPLES_PER_EVENT + 1; i <= last; i++) pipeline.add(xs[i], ys[i], times[i]);
+                for (int i = 0; i < pipeline.getBatchSize(); i++) smoother.add(pipeline.getBatchX(i), pipeline.getBatchY(i));
+                ShapeGeometry.bounds(stroke.points, rasterized, stroke.count, 13, bounds);
+                rasterized = stroke.count - 1;
+                area += (bounds[2] - bounds[0]) * (bounds[3] - bounds[1]);
+            }
+            smoother.finish();
+        }
+        return area;
+    }
+    //----------------------------------------------------------------------------------------------
+    //Точки штриха без рисования
+    private static class PointBuffer implements StrokeSmoother.Target
+    {
+        float[] points = new float[4096];
+        int count = 0;
+
+        @Override
+        public void start(float x, float y, float pressure)
+        {
+            count = 0;
+            add(x, y, pressure);
+        }
+
+        @Override
+        public void add(float x, float y, float pressure)
+        {
+            if (count * 2 + 2 > points.length)
+            {
+                float[] grown = new float[points.length * 2];
+                System.arraycopy(points, 0, grown, 0, count * 2);
+                points = grown;
+            }
+            points[count * 2] = x;
+            points[count * 2 + 1] = y;
+            count++;
+        }
+    }
+    //----------------------------------------------------------------------------------------------
+}
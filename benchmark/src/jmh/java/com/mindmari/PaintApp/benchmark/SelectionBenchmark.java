@@ -0,0 +1,77 @@
+package com.mindmari.PaintApp.benchmark;
+
+import com.mindmari.PaintApp.PixelSelection;
+import com.mindmari.PaintApp.Resampler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+//Фиксация выделения во весь экран 1080x2340, как в DrawingView.commitSelection: поднятые пиксели
+//растягиваются на 10% и накладываются на холст. Фильтр - ближайший пиксель (предпросмотр), билинейный
+//и бикубический; threads = 1 - только вызывающий поток, 0 - все ядра.
+//Отдельно - подъём выделения лассо (DrawingView.liftSelection)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SelectionBenchmark
+{
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 2340;
+    //Точек лассо
+    private static final int LASSO_POINTS = 256;
+
+    @Param({"0", "1", "2"})
+    public int filter;
+
+    @Param({"1", "0"})
+    public int threads;
+
+    private int[] canvas;
+    private final PixelSelection selection = new PixelSelection();
+    private final float[] lasso = new float[LASSO_POINTS * 2];
+    private final int[] bounds = new int[4];
+    //----------------------------------------------------------------------------------------------
+    @Setup
+    public void setUp()
+    {
+        Random random = new Random(1);
+        canvas = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < canvas.length; i++) canvas[i] = 0xFF000000 | random.nextInt(0x1000000);
+        //Неровное кольцо вокруг центра экрана
+        for (int i = 0; i < LASSO_POINTS; i++)
+        {
+            double angle = Math.PI * 2 * i / LASSO_POINTS;
+            float radius = WIDTH * (0.3f + random.nextFloat() * 0.15f);
+            lasso[i * 2] = WIDTH / 2f + (float) Math.cos(angle) * radius;
+            lasso[i * 2 + 1] = HEIGHT / 2f + (float) Math.sin(angle) * radius;
+        }
+        selection.lift(canvas, WIDTH, HEIGHT, 0, 0, WIDTH, HEIGHT, null, 0, 0xFFFFFFFF);
+        Resampler.setThreads(threads);
+    }
+    //----------------------------------------------------------------------------------------------
+    //Растянуть выделение во весь экран и наложить на холст
+    @Benchmark
+    public int[] commit()
+    {
+        selection.drop(canvas, WIDTH, HEIGHT, -WIDTH * 0.05f, -HEIGHT * 0.05f, WIDTH * 1.05f, HEIGHT * 1.05f,
+                filter, bounds);
+        return canvas;
+    }
+    //Поднять пиксели внутри лассо (от фильтра и потоков не зависит)
+    @Benchmark
+    public PixelSelection liftLasso()
+    {
+        selection.lift(canvas, WIDTH, HEIGHT, 0, 0, WIDTH, HEIGHT, lasso, LASSO_POINTS, 0xFFFFFFFF);
+        return selection;
+    }
+    //----------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,100 @@
+package com.mindmari.PaintApp.benchmark;
+
+import com.mindmari.PaintApp.InputPipeline;
+import com.mindmari.PaintApp.ShapeGeometry;
+import com.mindmari.PaintApp.StrokeSmoother;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+//Путь штриха: стабилизатор касаний, сглаживание кривыми и границы новых сегментов
+//в зависимости от длины штриха (количества точек касания)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StrokeBenchmark
+{
+    @Param({"64", "512", "4096"})
+    public int length;
+
+    @Param({"0", "1", "2"})
+    public int smoothing;
+
+    @Param({"0", "2"})
+    public int stabilizer;
+
+    private float[] touches;
+    private final InputPipeline pipeline = new InputPipeline();
+    private final StrokeSmoother smoother = new StrokeSmoother();
+    private final PointBuffer stroke = new PointBuffer();
+    private final int[] bounds = new int[4];
+    //----------------------------------------------------------------------------------------------
+    @Setup
+    public void setUp()
+    {
+        //Спираль с небольшим дрожанием, как у дешёвого экрана
+        touches = new float[length * 2];
+        for (int i = 0; i < length; i++)
+        {
+            double angle = i * 0.05;
+            double radius = 50 + i * 0.2;
+            touches[i * 2] = (float) (1000 + radius * Math.cos(angle) + (i % 3) - 1);
+            touches[i * 2 + 1] = (float) (1000 + radius * Math.sin(angle) + (i % 5) * 0.5 - 1);
+        }
+        smoother.setMode(smoothing);
+        pipeline.setStabilizer(stabilizer);
+    }
+    //----------------------------------------------------------------------------------------------
+    @Benchmark
+    public int[] stroke()
+    {
+        pipeline.start(touches[0], touches[1], 0);
+        smoother.start(stroke, touches[0], touches[1]);
+        for (int i = 1; i < length; i++)
+        {
+            pipeline.beginBatch();
+            pipeline.add(touches[i * 2], touches[i * 2 + 1], i * 8L);
+            smoother.add(pipeline.getBatchX(0), pipeline.getBatchY(0));
+        }
+        smoother.finish();
+        ShapeGeometry.bounds(stroke.points, 0, stroke.count, 13, bounds);
+        return bounds;
+    }
+    //----------------------------------------------------------------------------------------------
+    //Точки штриха без рисования
+    private static class PointBuffer implements StrokeSmoother.Target
+    {
+        float[] points = new float[1024];
+        int count = 0;
+
+        @Override
+        public void start(float x, float y, float pressure)
+        {
+            count = 0;
+            add(x, y, pressure);
+        }
+
+        @Override
+        public void add(float x, float y, float pressure)
+        {
+            if (count * 2 + 2 > points.length)
+            {
+                float[] grown = new float[points.length * 2];
+                System.arraycopy(points, 0, grown, 0, count * 2);
+                points = grown;
+            }
+            points[count * 2] = x;
+            points[count * 2 + 1] = y;
+            count++;
+        }
+    }
+    //----------------------------------------------------------------------------------------------
+}